@@ -0,0 +1,66 @@
+<#import "../layout.ftl" as macro>
+<@macro.layout>
+<div class="page-header">
+        <h1>Queries</h1>
+</div>
+<div class="navigation">
+        <ol class="nav nav-pills nav-stacked">
+                <li><form action="/admin/queries/reset" method="post"><button class="btn btn-link" type="submit">Reset Statistics</button></form></li>
+                <li><form action="/admin/templates/reload" method="post"><button class="btn btn-link" type="submit">Reload Templates</button></form></li>
+        </ol>
+</div>
+<div class="content">
+        <p>Templates run in <strong><#if productionMode>production<#else>development</#if> mode</strong>.</p>
+        <p>Queries taking longer than <strong>${statistics.slowMillis} ms</strong> are counted as slow.</p>
+        <table class="table">
+                <thead>
+                        <tr>
+                                <th>Query Shape</th>
+                                <th>Count</th>
+                                <th>Slow</th>
+                                <th>Average (ms)</th>
+                                <th>Max (ms)</th>
+                                <th>Total (ms)</th>
+                                <th>Documents</th>
+                                <th>Plan</th>
+                        </tr>
+                </thead>
+                <tbody>
+                        <#list statistics.shapes as shape>
+                        <tr>
+                                <td><code>${shape.name}</code></td>
+                                <td>${shape.count}</td>
+                                <td>${shape.slowCount}</td>
+                                <td>${shape.averageMillis?string("0.00")}</td>
+                                <td>${shape.maxMillis?string("0.00")}</td>
+                                <td>${shape.totalMillis?string("0.00")}</td>
+                                <td>${shape.averageDocuments?string("0.0")}</td>
+                                <td>
+                                        <#if shape.collectionScan>
+                                                <#if shape.suggestedIndex??>
+                                                <span class="label label-important">Collection scan</span>
+                                                Suggested index: <code>${shape.suggestedIndex}</code>
+                                                <#else>
+                                                <span class="label label-warning">Full read</span>
+                                                </#if>
+                                        <#else>
+                                                <span class="label label-success">Index</span>
+                                        </#if>
+                                </td>
+                        </tr>
+                        </#list>
+                </tbody>
+        </table>
+        <#if cache??>
+        <h3>Entity Cache</h3>
+        <table class="table">
+                <tbody>
+                        <tr><td>Entries</td><td>${cache.size} / ${cache.capacity}</td></tr>
+                        <tr><td>Hits</td><td>${cache.hits}</td></tr>
+                        <tr><td>Misses</td><td>${cache.misses}</td></tr>
+                        <tr><td>Evictions</td><td>${cache.evictions}</td></tr>
+                </tbody>
+        </table>
+        </#if>
+</div>
+</@macro.layout>
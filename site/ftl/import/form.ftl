@@ -0,0 +1,35 @@
+<#import "../layout.ftl" as macro>
+<@macro.layout>
+<div class="page-header">
+        <h1>Import</h1>
+</div>
+<div class="content">
+        <p>Files are read as CSV with a header row, or as JSON if their name ends with <code>.json</code>. Invalid rows are skipped and reported.</p>
+        <#assign kinds = { "modules" : "Course Modules", "rooms" : "Rooms", "users" : "Users" }>
+        <#assign columns = { "modules" : "name, credits, assessment, description, type, duration, count, equipment", "rooms" : "number, name, equipment", "users" : "login, password or passwordHash, name, email, student, lecturer" }>
+        <#list ["modules", "rooms", "users"] as kind>
+        <form class="well form-horizontal import" action="/import/${kind}" method="post">
+                <fieldset>
+                        <h3>${kinds[kind]}</h3>
+                        <p>Columns: <code>${columns[kind]}</code></p>
+                        <div class="control-group">
+                                <label class="control-label" for="file-${kind}">File:</label>
+                                <div class="controls">
+                                        <input type="file" name="file" id="file-${kind}" accept=".csv,.json"/>
+                                </div>
+                        </div>
+                        <div class="control-group">
+                                <label class="control-label" for="batch-${kind}">Batch Size:</label>
+                                <div class="controls">
+                                        <input class="input-mini" type="text" name="batchSize" id="batch-${kind}" value="${batchSize?c}"/>
+                                </div>
+                        </div>
+                        <div class="controls import-result"></div>
+                </fieldset>
+                <div class="form-actions">
+                        <input class="btn btn-primary" type="submit" value="Import">
+                </div>
+        </form>
+        </#list>
+</div>
+</@macro.layout>
@@ -2,19 +2,19 @@
 <!DOCTYPE html>
 <html lang="en">
         <head profile="http://www.w3.org/2005/10/profile">
-                <link rel="icon" type="image/ico" href="/resources/img/favicon.ico">
+                <link rel="icon" type="image/ico" href="${assets["img/favicon.ico"]}">
                 <meta http-equiv="Content-Type" content="text/html;charset=utf-8">
                 <title>${title}</title>
 
                 <!-- Stylesheets -->
                 <link rel="stylesheet" type="text/css" href="${bootstrap}">
-                <link rel="stylesheet" type="text/css" href="/resources/css/bootstrap-extension.css">
+                <link rel="stylesheet" type="text/css" href="${assets["css/bootstrap-extension.css"]}">
 
                 <!-- Scripts -->  
                 <script type="text/javascript" src="${jquery}"></script>
-                <script type="text/javascript" src="/resources/js/vendor/bootstrap.js"></script>
-                <script type="text/javascript" src="/resources/js/forms.js"></script>
-                <script type="text/javascript" src="/resources/js/scheduler.js"></script>
+                <script type="text/javascript" src="${assets["js/vendor/bootstrap.js"]}"></script>
+                <script type="text/javascript" src="${assets["js/forms.js"]}"></script>
+                <script type="text/javascript" src="${assets["js/scheduler.js"]}"></script>
 
         </head>
         <body>
@@ -30,6 +30,8 @@
                                                         <li><a href="/users">Users</a></li>
                                                         <li><a href="/timeframe">Timeframe</a></li>
                                                         <li><a href="/scheduler">Scheduler</a></li>
+                                                        <li><a href="/import">Import</a></li>
+                                                        <li><a href="/admin">Admin</a></li>
                                                 </ul>
                                                 <div class="pull-right">
                                                         <ul class="nav">
@@ -46,3 +48,11 @@
         </body>
 </html>
 </#macro>
+<#macro pager page>
+<ul class="pager">
+        <li><a href="?limit=${page.limit}">First</a></li>
+        <#if page.next??>
+        <li><a href="?after=${page.next}&amp;limit=${page.limit}">Next</a></li>
+        </#if>
+</ul>
+</#macro>
@@ -41,6 +41,7 @@
                         <div class="course">
                                 <hr>
                                 <h3>Course</h3>
+                                <input class="course-id" type="hidden" name="course-id" value="<#if module.credits != -1>${course.id}</#if>">
                                 <div class="control-group">
                                         <label class="control-label" for="type">Type:</label>
                                         <div class="controls">
@@ -32,5 +32,6 @@
                         </#list>
                 </tbody>
         </table>
+        <@macro.pager page/>
 </div>
 </@macro.layout>
@@ -20,7 +20,8 @@
                 <input class="btn" type="submit" value="Change User"/>
         </form>
         <#if user??>
-                <form action="" method="post"> 
+                <form class="responsibilities" action="" method="post"> 
+                        <input type="hidden" name="changes" value="false"/>
                         <table class="table">
                                 <thead>
                                         <tr>
@@ -28,6 +29,7 @@
                                                 <th>Name</th>
                                                 <th>Credits</th>
                                                 <th>Assessment</th>
+                                                <th>Lecturers</th>
                                         </tr>
                                 </thead>
                                 <tbody>
@@ -37,6 +39,7 @@
                                                 <td><strong>${module.name}</strong></td>
                                                 <td>${module.credits}</td>
                                                 <td>${module.assessment}</td>
+                                                <td></td>
                                         </tr>
                                         <#list module.courses as course>
                                         <tr>
@@ -45,10 +48,11 @@
                                                 <#else>
                                                         <#assign isResponsible = "">
                                                 </#if>
-                                                <td><input name="responsibility" value="${course.id}" type="checkbox" ${isResponsible}/></td>
+                                                <td><input name="responsibility" value="${course.id}" type="checkbox" data-initial="${isResponsible}" ${isResponsible}/></td>
                                                 <td>${course.type}</td>
                                                 <td></td>
                                                 <td></td>
+                                                <td><#if responsibilities[course.id?string]??><#list responsibilities[course.id?string] as login>${login}<#if login_has_next>, </#if></#list></#if></td>
                                         </tr>
                                         </#list>
                                         </#list>
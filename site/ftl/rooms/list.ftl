@@ -30,5 +30,6 @@
                 </#list>
         </tbody>
 </table>
+<@macro.pager page/>
         </div>
         </@macro.layout>
@@ -7,6 +7,9 @@
         <ol class="nav nav-pills nav-stacked">
                 <li><a href="/scheduler/start">Schedule Courses</a></li>
                 <li><a href="/scheduler/delete">Delete Course Schedule</a></li>
+                <li><a href="/scheduler/export.ics">Export as iCalendar</a></li>
+                <li><a href="/scheduler/export.csv">Export as CSV</a></li>
+                <li><a href="/scheduler/export.json">Export as JSON</a></li>
         </ol>
 </div>
 <div class="content">
@@ -41,40 +44,19 @@
                         </div>
                 </#if>
         </#if>
+        <div id="schedule-grid" data-version="${scheduleVersion?c}">
         <#if schedules??>
-        <#list schedules as schedule>
-        <table class="schedule table table-striped table-bordered">
-                <caption>Room: ${schedule.room}</caption>
-                <thead>
-                        <tr>
-                                <th></th>
-                                <#list timeframe.weekdays as weekday>
-                                <th>${weekday}</th>
-                                </#list>
-                        </tr>
-                        <#assign hour="${timeframe.startHour}"?number/>
-                        <#assign i = 0>
-                        <#list schedule.timeRows as row>
-                        <tr>
-                                <td>${hour?string("00")}:00</td>
-                                <#assign hour=hour+1/>
-                                <#list row as cell>
-                                <#if cell??>
-                                        <#if i == 0>
-                                        <#assign i = cell.course.duration - 1>
-                                        <td class="course" rowspan="${cell.course.duration}"><a rel="tooltip" data-content="Type: ${cell.course.type}<br>Lecturer: ${cell.lecturer.name}" title="${cell.course.module.name}">${cell.course.module.name}</a></td>
-                                        <#else>
-                                        <#assign i = i - 1>
-                                        </#if>
-                                <#else>
-                                        <td></td>
-                                </#if>
-                                </#list>
-                        </tr>
+                <ul class="nav nav-pills room-index">
+                        <#list schedules as schedule>
+                        <li><a href="#room-${schedule.roomId}" data-room="${schedule.roomId}">${schedule.room}</a></li>
                         </#list>
-                </thead>
-        </table>
-        </#list>
+                </ul>
+                <#list schedules as schedule>
+                <div class="room-grid" id="room-${schedule.roomId}" data-room="${schedule.roomId}" style="min-height: ${((timeframe.timeSlots + 2) * 37)?c}px">
+                        <a href="/scheduler/rooms/${schedule.roomId}">Room: ${schedule.room}</a>
+                </div>
+                </#list>
         </#if>
+        </div>
 </div>
 </@macro.layout>
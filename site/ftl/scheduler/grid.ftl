@@ -0,0 +1,31 @@
+<table class="schedule table table-striped table-bordered" data-room="${schedule.roomId}" data-version="${version?c}">
+        <caption>Room: ${schedule.room}</caption>
+        <thead>
+                <tr>
+                        <th></th>
+                        <#list timeframe.weekdays as weekday>
+                        <th>${weekday}</th>
+                        </#list>
+                </tr>
+                <#assign hour="${timeframe.startHour}"?number/>
+                <#assign i = 0>
+                <#list schedule.timeRows as row>
+                <tr data-slot="${row_index?c}">
+                        <td>${hour?string("00")}:00</td>
+                        <#assign hour=hour+1/>
+                        <#list row as cell>
+                        <#if cell??>
+                                <#if i == 0>
+                                <#assign i = cell.course.duration - 1>
+                                <td class="course" data-day="${cell_index?c}" rowspan="${cell.course.duration}"><a rel="tooltip" data-content="Type: ${cell.course.type}<br>Lecturer: ${cell.lecturer.name}" title="${cell.course.module.name}">${cell.course.module.name}</a></td>
+                                <#else>
+                                <#assign i = i - 1>
+                                </#if>
+                        <#else>
+                                <td data-day="${cell_index?c}"></td>
+                        </#if>
+                        </#list>
+                </tr>
+                </#list>
+        </thead>
+</table>
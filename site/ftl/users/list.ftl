@@ -34,5 +34,6 @@
                 </#list>
         </tbody>
 </table>
+<@macro.pager page/>
         </div>
         </@macro.layout>
@@ -35,9 +35,56 @@ $(document).ready(function() {
     var $last = $(".course").eq(-1);
     var $newCourse = $course.clone(true);
     resetInputFields($newCourse);
+    $newCourse.find(".course-id").val("");
     $last.after($newCourse);
   });
 
+  // Submit only the changed course responsibilities instead of all checked
+  // courses
+  $("form.responsibilities").submit(function() {
+    var $form = $(this);
+    $form.find("input[name=responsibility]").each(function() {
+      var wasChecked = $(this).data("initial") === "checked";
+      if (this.checked !== wasChecked) {
+        var name = this.checked ? "added" : "removed";
+        $form.append($("<input type='hidden'/>").attr("name", name).val(this.value));
+      }
+      this.disabled = true;
+    });
+    $form.find("input[name=changes]").val("true");
+  });
+
+  // Send the selected file as request body of a bulk import
+  $("form.import").submit(function(event) {
+    event.preventDefault();
+    var $form = $(this);
+    var file = $form.find("input[type=file]")[0].files[0];
+    var $result = $form.find(".import-result");
+    if (!file) {
+      return;
+    }
+    var isJson = /\.json$/i.test(file.name);
+    $result.text("Importing " + file.name + " ...");
+    $.ajax({
+      url: $form.attr("action") + "?format=" + (isJson ? "json" : "csv")
+        + "&batchSize=" + $form.find("input[name=batchSize]").val(),
+      type: "POST",
+      data: file,
+      processData: false,
+      contentType: isJson ? "application/json" : "text/csv",
+      dataType: "json"
+    }).done(function(summary) {
+      var text = summary.imported + " imported, " + summary.rejected + " rejected.";
+      $result.text(text);
+      $.each(summary.errors, function(i, error) {
+        $result.append($("<div/>").text(error));
+      });
+    }).fail(function(xhr) {
+      var summary = $.parseJSON(xhr.responseText || "{}") || {};
+      $result.text(summary.error || "The import failed.");
+    });
+  });
+
   // Make copies of the initialized forms
   $equipment = $(".equipment").eq(0).clone();
   $course = $(".course").eq(0).clone(true);
@@ -2,5 +2,199 @@ $(document).ready(function() {
 
   $("a[rel=tooltip]").popover( { html : true } );
 
+  var grid = $("#schedule-grid");
+  if (!grid.length) {
+    return;
+  }
+
+  // the grids of the rooms are loaded when they are scrolled into view
+  var pending = null;
+  $(window).on("scroll resize", function() {
+    if (!pending) {
+      pending = setTimeout(function() {
+        pending = null;
+        loadVisibleRooms(grid);
+      }, 100);
+    }
+  });
+  grid.find(".room-index a").click(function() {
+    loadRoom(grid, $("#room-" + $(this).attr("data-room")));
+  });
+  loadVisibleRooms(grid);
+
+  if (window.WebSocket) {
+    listen(grid);
+  }
+
 });
 
+function loadVisibleRooms(grid) {
+
+  var top = $(window).scrollTop() - 200;
+  var bottom = $(window).scrollTop() + $(window).height() + 200;
+  grid.find(".room-grid").each(function() {
+    var room = $(this);
+    var offset = room.offset().top;
+    if (offset < bottom && offset + room.outerHeight() > top) {
+      loadRoom(grid, room);
+    }
+  });
+}
+
+/*
+ * Replaces the placeholder of a room by its grid. A grid older than the page,
+ * because it was requested before a pushed version, is requested again.
+ */
+function loadRoom(grid, room) {
+
+  if (room.data("loading")) {
+    return;
+  }
+  room.data("loading", true);
+  $.get("/scheduler/rooms/" + room.attr("data-room"), function(html) {
+    room.html(html).css("min-height", "");
+    room.find("a[rel=tooltip]").popover( { html : true } );
+    var version = parseInt(room.find("table").attr("data-version"), 10);
+    if (version < grid.data("version")) {
+      room.data("loading", false);
+      loadRoom(grid, room);
+    }
+    // the grid may be smaller than the placeholder
+    loadVisibleRooms(grid);
+  }).error(function() {
+    room.data("loading", false);
+  });
+}
+
+/*
+ * Receives the new versions of the course schedule and patches the grid. If a
+ * version was missed or the grid cannot be patched the page is loaded again.
+ */
+function listen(grid) {
+
+  var protocol = (location.protocol == "https:") ? "wss://" : "ws://";
+  var socket = new WebSocket(protocol + location.host + "/scheduler/updates");
+
+  socket.onmessage = function(event) {
+    var update = JSON.parse(event.data);
+    var version = grid.data("version");
+    if (update.version <= version) {
+      return;
+    }
+    if (update.previous != version || !patch(grid, update)) {
+      location.reload();
+      return;
+    }
+    grid.data("version", update.version);
+  };
+
+  socket.onclose = function() {
+    setTimeout(function() { listen(grid); }, 5000);
+  };
+}
+
+/*
+ * Applies a version to the loaded grids, the rooms which are not loaded yet
+ * are requested in the new version anyway.
+ */
+function patch(grid, update) {
+
+  var tables = grid.find("table").filter(function() {
+    return parseInt($(this).attr("data-version"), 10) < update.version;
+  });
+  var i, table;
+  for (i = 0; i < update.removed.length; i++) {
+    table = findTable(grid, tables, update.removed[i].room);
+    if (table === null || table && !removeEntry(table, update.removed[i])) {
+      return false;
+    }
+  }
+  for (i = 0; i < update.added.length; i++) {
+    table = findTable(grid, tables, update.added[i].room);
+    if (table === null || table && !addEntry(table, update.added[i])) {
+      return false;
+    }
+  }
+  tables.attr("data-version", update.version);
+  return true;
+}
+
+/*
+ * Returns the table of a room to patch, false if the room is not loaded or
+ * newer and null if the room is not on the page at all.
+ */
+function findTable(grid, tables, room) {
+
+  if (!grid.find(".room-grid[data-room='" + room + "']").length) {
+    return null;
+  }
+  var table = tables.filter("[data-room='" + room + "']");
+  return table.length ? table : false;
+}
+
+function removeEntry(table, entry) {
+
+  var cell = table.find("tr[data-slot='" + entry.timeSlot + "'] td[data-day='"
+      + entry.day + "']");
+  if (!cell.hasClass("course")) {
+    return false;
+  }
+
+  var duration = parseInt(cell.attr("rowspan"), 10) || 1;
+  cell.find("a[rel=tooltip]").popover("hide");
+  cell.removeClass("course").removeAttr("rowspan").empty();
+
+  // the rows below get back the cells covered by the course
+  var row = cell.parent();
+  for (var i = 1; i < duration; i++) {
+    row = row.next("tr");
+    if (!row.length) {
+      return false;
+    }
+    var empty = $("<td></td>").attr("data-day", entry.day);
+    var next = row.children("td").filter(function() {
+      return parseInt($(this).attr("data-day"), 10) > entry.day;
+    }).first();
+    if (next.length) {
+      next.before(empty);
+    } else {
+      row.append(empty);
+    }
+  }
+  return true;
+}
+
+function addEntry(table, entry) {
+
+  var cell = table.find("tr[data-slot='" + entry.timeSlot + "'] td[data-day='"
+      + entry.day + "']");
+  if (!cell.length || cell.hasClass("course")) {
+    return false;
+  }
+
+  // the course covers the cells of the rows below
+  var row = cell.parent();
+  var covered = [];
+  for (var i = 1; i < entry.duration; i++) {
+    row = row.next("tr");
+    var below = row.children("td[data-day='" + entry.day + "']");
+    if (!below.length || below.hasClass("course")) {
+      return false;
+    }
+    covered.push(below);
+  }
+  $.each(covered, function(index, below) { below.remove(); });
+
+  var content = "Type: " + escapeHtml(entry.type) + "<br>Lecturer: "
+      + escapeHtml(entry.lecturerName || "");
+  var link = $("<a rel=\"tooltip\"></a>").attr("title", entry.moduleName)
+      .attr("data-content", content).text(entry.moduleName);
+  cell.addClass("course").attr("rowspan", entry.duration).empty()
+      .append(link);
+  link.popover( { html : true } );
+  return true;
+}
+
+function escapeHtml(text) {
+  return $("<div></div>").text(text).html();
+}
@@ -0,0 +1,93 @@
+package berlin.reiche.virginia.scheduler;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import berlin.reiche.virginia.InMemoryRepository;
+import berlin.reiche.virginia.MongoDB;
+import berlin.reiche.virginia.model.Course;
+import berlin.reiche.virginia.model.Room;
+import berlin.reiche.virginia.model.ScheduleEntry;
+import berlin.reiche.virginia.model.User;
+
+/**
+ * Measures the changes of a course schedule made while scheduling and the
+ * initialization of a loaded schedule.
+ *
+ * @author Konrad Reiche
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class CourseScheduleBenchmark {
+
+    /**
+     * The number of course modules.
+     */
+    @Param({ "10", "100", "1000" })
+    int size;
+
+    CourseSchedule schedule;
+
+    Course course;
+
+    User lecturer;
+
+    Room room;
+
+    int day;
+
+    int timeSlot;
+
+    @Setup
+    public void setUp() {
+        MongoDB.setRepository(new InMemoryRepository());
+        ScheduleFixture fixture = new ScheduleFixture(size);
+        schedule = fixture.schedule();
+
+        // the last course is held once, it is taken out and put back
+        ScheduleEntry entry = schedule.getEntries().get(
+                schedule.getEntries().size() - 1);
+        course = entry.getCourse();
+        lecturer = entry.getLecturer();
+        room = entry.getRoom();
+        day = entry.getDay();
+        timeSlot = entry.getTimeSlot();
+    }
+
+    /**
+     * Removes a course and schedules it again, the schedule keeps its size.
+     */
+    @Benchmark
+    public CourseSchedule unsetAndSetCourse() {
+        schedule.unsetCourse(course);
+        schedule.setCourse(course, lecturer, room, day, timeSlot);
+        return schedule;
+    }
+
+    /**
+     * Reflects the entries to the room schedules as after loading.
+     */
+    @Benchmark
+    public CourseSchedule initialize() {
+        schedule.isInitialized = false;
+        schedule.initialize();
+        return schedule;
+    }
+
+}
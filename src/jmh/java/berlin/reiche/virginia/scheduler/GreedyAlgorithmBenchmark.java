@@ -0,0 +1,56 @@
+package berlin.reiche.virginia.scheduler;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import berlin.reiche.virginia.InMemoryRepository;
+import berlin.reiche.virginia.MongoDB;
+
+/**
+ * Measures the computation of a course schedule by the greedy algorithm.
+ *
+ * @author Konrad Reiche
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class GreedyAlgorithmBenchmark {
+
+    /**
+     * The number of course modules.
+     */
+    @Param({ "10", "100", "1000" })
+    int size;
+
+    InputData data;
+
+    GreedyAlgorithm algorithm;
+
+    @Setup
+    public void setUp() {
+        MongoDB.setRepository(new InMemoryRepository());
+        data = new ScheduleFixture(size).data;
+        algorithm = new GreedyAlgorithm(data);
+    }
+
+    @Benchmark
+    public CourseSchedule schedule() {
+        return algorithm.schedule(data);
+    }
+
+}
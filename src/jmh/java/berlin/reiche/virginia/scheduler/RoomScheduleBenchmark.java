@@ -0,0 +1,85 @@
+package berlin.reiche.virginia.scheduler;
+
+import java.util.SortedSet;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import berlin.reiche.virginia.InMemoryRepository;
+import berlin.reiche.virginia.MongoDB;
+import berlin.reiche.virginia.model.Room;
+import berlin.reiche.virginia.model.Timeframe;
+
+/**
+ * Measures the lookups in the room schedules of a course schedule.
+ *
+ * @author Konrad Reiche
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class RoomScheduleBenchmark {
+
+    /**
+     * The number of course modules.
+     */
+    @Param({ "10", "100", "1000" })
+    int size;
+
+    CourseSchedule schedule;
+
+    @Setup
+    public void setUp() {
+        MongoDB.setRepository(new InMemoryRepository());
+        schedule = new ScheduleFixture(size).schedule();
+    }
+
+    /**
+     * Looks up every cell of the grid like the schedule view does.
+     */
+    @Benchmark
+    public int getScheduleInformation() {
+
+        Timeframe timeframe = schedule.getTimeframe();
+        int occupied = 0;
+        for (Room room : schedule.getRooms()) {
+            for (int i = 0; i < timeframe.getTimeSlots(); i++) {
+                for (int j = 0; j < timeframe.getDays(); j++) {
+                    if (schedule.getScheduleInformation(room, j, i) != null) {
+                        occupied++;
+                    }
+                }
+            }
+        }
+        return occupied;
+    }
+
+    @Benchmark
+    public int getCourses() {
+        int courses = 0;
+        for (RoomSchedule roomSchedule : schedule.getSchedules().values()) {
+            courses += roomSchedule.getCourses().size();
+        }
+        return courses;
+    }
+
+    @Benchmark
+    public SortedSet<Room> getRooms() {
+        return schedule.getRooms();
+    }
+
+}
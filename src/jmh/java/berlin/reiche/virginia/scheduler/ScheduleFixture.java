@@ -0,0 +1,102 @@
+package berlin.reiche.virginia.scheduler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+
+import org.bson.types.ObjectId;
+
+import berlin.reiche.virginia.MongoDB;
+import berlin.reiche.virginia.model.Course;
+import berlin.reiche.virginia.model.CourseModule;
+import berlin.reiche.virginia.model.Room;
+import berlin.reiche.virginia.model.Timeframe;
+import berlin.reiche.virginia.model.User;
+
+/**
+ * Generates the input data of the benchmarks. Each course module consists of
+ * a lecture held twice a week and a tutorial, ten modules fill a room and four
+ * modules share a lecturer. The rooms and courses are stored in the current
+ * repository of {@link MongoDB} in order to get their identifiers, thus the
+ * benchmarks use an {@link berlin.reiche.virginia.InMemoryRepository}.
+ *
+ * @author Konrad Reiche
+ *
+ */
+public class ScheduleFixture {
+
+    private static final int MODULES_PER_ROOM = 10;
+
+    private static final int MODULES_PER_LECTURER = 4;
+
+    final InputData data;
+
+    final List<Course> courses;
+
+    /**
+     * @param size
+     *            the number of course modules.
+     */
+    public ScheduleFixture(int size) {
+
+        data = new InputData();
+        data.timeframe = new Timeframe(5, 12, 8, Arrays.asList("Monday",
+                "Tuesday", "Wednesday", "Thursday", "Friday"));
+        data.modules = new ArrayList<>();
+        data.rooms = new ArrayList<>();
+        data.lecturers = new ArrayList<>();
+        data.responsibilities = new HashMap<>();
+        courses = new ArrayList<>();
+
+        for (int i = 0; i <= size / MODULES_PER_ROOM; i++) {
+            data.rooms.add(new Room("R" + i, "Seminar Room"));
+        }
+
+        User lecturer = null;
+        for (int i = 0; i < size; i++) {
+            if (i % MODULES_PER_LECTURER == 0) {
+                lecturer = User.withPasswordHash("lecturer" + i, "", "Lecturer "
+                        + i, "lecturer" + i + "@example.org", false, true);
+                data.lecturers.add(lecturer);
+            }
+
+            CourseModule module = new CourseModule("Module " + i, 8, "Exam",
+                    null);
+            module.setId(new ObjectId());
+            for (Course course : Arrays.asList(new Course("Lecture", 2, 2),
+                    new Course("Tutorial", 2, 1))) {
+                course.setModule(module);
+                module.getCourses().add(course);
+                courses.add(course);
+            }
+            data.modules.add(module);
+        }
+
+        // the identifiers are assigned on storing
+        MongoDB.storeAll(data.rooms);
+        MongoDB.storeAll(courses);
+        MongoDB.storeAll(data.modules);
+
+        for (int i = 0; i < size; i++) {
+            User responsible = data.lecturers.get(i / MODULES_PER_LECTURER);
+            for (Course course : data.modules.get(i).getCourses()) {
+                responsible.addCourse(course);
+                Set<String> logins = Collections.singleton(responsible
+                        .getLogin());
+                data.responsibilities.put(course.getId(), logins);
+            }
+        }
+        MongoDB.storeAll(data.lecturers);
+    }
+
+    /**
+     * @return the course schedule computed by the greedy algorithm.
+     */
+    public CourseSchedule schedule() {
+        return new GreedyAlgorithm(data).schedule(data);
+    }
+
+}
@@ -0,0 +1,74 @@
+package berlin.reiche.virginia.scheduler;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import berlin.reiche.virginia.InMemoryRepository;
+import berlin.reiche.virginia.MongoDB;
+
+/**
+ * Measures the check whether the input data can be scheduled at all.
+ *
+ * @author Konrad Reiche
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class SchedulerBenchmark {
+
+    /**
+     * The number of course modules.
+     */
+    @Param({ "10", "100", "1000" })
+    int size;
+
+    /**
+     * Whether the responsible lecturers are read from the responsibility
+     * index or from the responsible courses of the lecturers.
+     */
+    @Param({ "true", "false" })
+    boolean index;
+
+    InputData data;
+
+    Scheduler scheduler;
+
+    @Setup
+    public void setUp() {
+        MongoDB.setRepository(new InMemoryRepository());
+        data = new ScheduleFixture(size).data;
+        if (!index) {
+            data.responsibilities = null;
+        }
+        scheduler = new Scheduler();
+    }
+
+    @TearDown
+    public void tearDown() {
+        scheduler.exec.shutdown();
+    }
+
+    @Benchmark
+    public Feedback isSchedulable() {
+        Feedback feedback = new Feedback();
+        scheduler.isSchedulable(data, feedback);
+        return feedback;
+    }
+
+}
@@ -0,0 +1,66 @@
+package berlin.reiche.virginia.servlets;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import berlin.reiche.virginia.InMemoryRepository;
+import berlin.reiche.virginia.MongoDB;
+import berlin.reiche.virginia.scheduler.CourseSchedule;
+import berlin.reiche.virginia.scheduler.ScheduleFixture;
+
+/**
+ * Measures the building of the schedule view from a loaded course schedule.
+ * The schedule is loaded once, so that loading it from the repository is
+ * not measured.
+ *
+ * @author Konrad Reiche
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ScheduleViewBenchmark {
+
+    /**
+     * The number of course modules.
+     */
+    @Param({ "10", "100", "1000" })
+    int size;
+
+    CourseSchedule schedule;
+
+    /**
+     * Stores the schedule and loads it like the view does.
+     */
+    @Setup
+    public void setUp() {
+        MongoDB.setRepository(new InMemoryRepository());
+        MongoDB.store(new ScheduleFixture(size).schedule());
+        schedule = MongoDB.get(CourseSchedule.class);
+    }
+
+    /**
+     * Builds the view model of the scheduler page as after a new schedule
+     * version. The view is returned as object, since the generated benchmark
+     * code cannot access the view class.
+     */
+    @Benchmark
+    public Object build() {
+        return ScheduleView.build(0, 0, schedule);
+    }
+
+}
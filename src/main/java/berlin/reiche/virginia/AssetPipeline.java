@@ -0,0 +1,573 @@
+package berlin.reiche.virginia;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Prepares the static assets (stylesheets, scripts and images) once at
+ * startup. Stylesheets and scripts are minified, every asset is fingerprinted
+ * with a hash of its content and compressible assets are gzipped up front.
+ * Since the URL of an asset changes with its content, the assets can be
+ * cached by clients for good.
+ *
+ * An asset is addressed by its path relative to the resource directory, e.g.
+ * <code>css/bootstrap.css</code>, and served under its fingerprinted URL, e.g.
+ * <code>/assets/css/bootstrap.0123456789.css</code>. If a minified sibling like
+ * <code>bootstrap.min.css</code> exists, its content is used instead of
+ * minifying the asset.
+ *
+ * @author Konrad Reiche
+ *
+ */
+public class AssetPipeline {
+
+    /**
+     * The URL path under which the assets are served.
+     */
+    public static final String ASSET_PATH = "/assets";
+
+    /**
+     * The URL path of the plain resource directory. Only its asset
+     * directories are served there, for files which are not assets.
+     */
+    public static final String RESOURCE_PATH = "/resources";
+
+    /**
+     * The directories of the resource directory which contain assets, other
+     * files like the property files are never served, neither as asset nor
+     * under the plain resource path.
+     */
+    static final String[] ASSET_DIRECTORIES = { "img", "css", "js" };
+
+    /**
+     * The number of hexadecimal digits of the content hash in the URL.
+     */
+    private static final int HASH_LENGTH = 10;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final Pattern CSS_URL = Pattern
+            .compile("url\\(\\s*['\"]?([^'\")]+?)['\"]?\\s*\\)");
+
+    /**
+     * Keywords after which a slash starts a regular expression.
+     */
+    private static final Pattern JS_KEYWORD_END = Pattern
+            .compile("(^|[^\\w$.])(return|typeof|case|do|else|in|void|throw)\\s*$");
+
+    private static final Map<String, String> CONTENT_TYPES = new HashMap<>();
+
+    static {
+        CONTENT_TYPES.put("css", "text/css");
+        CONTENT_TYPES.put("js", "application/javascript");
+        CONTENT_TYPES.put("png", "image/png");
+        CONTENT_TYPES.put("gif", "image/gif");
+        CONTENT_TYPES.put("jpg", "image/jpeg");
+        CONTENT_TYPES.put("ico", "image/x-icon");
+        CONTENT_TYPES.put("svg", "image/svg+xml");
+    }
+
+    private static AssetPipeline instance;
+
+    /**
+     * The assets by path relative to the resource directory.
+     */
+    private final Map<String, Asset> assets = new TreeMap<>();
+
+    /**
+     * The assets by fingerprinted URL.
+     */
+    private final Map<String, Asset> assetsByUrl = new HashMap<>();
+
+    /**
+     * Processes all assets in the given resource directory.
+     *
+     * @param directory
+     *            the resource directory.
+     * @throws IOException
+     *             if an asset could not be read.
+     */
+    public AssetPipeline(File directory) throws IOException {
+
+        // images first, so that stylesheets can refer to their fingerprints
+        for (String name : ASSET_DIRECTORIES) {
+            List<String> paths = new ArrayList<>();
+            collect(new File(directory, name), name, paths);
+            Collections.sort(paths);
+            for (String path : paths) {
+                add(directory, path);
+            }
+        }
+    }
+
+    /**
+     * @return the asset pipeline of the resource directory of the web site,
+     *         it is set up on the first call.
+     */
+    public static synchronized AssetPipeline getInstance() {
+        if (instance == null) {
+            try {
+                instance = new AssetPipeline(new File("site/resources"));
+            } catch (IOException e) {
+                throw new IllegalStateException("The assets could not be"
+                        + " processed.", e);
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * @param path
+     *            the path of an asset relative to the resource directory.
+     * @return the fingerprinted URL of the asset or, if there is no such
+     *         asset, the URL in the plain resource directory.
+     */
+    public String getUrl(String path) {
+        Asset asset = assets.get(path);
+        return (asset == null) ? RESOURCE_PATH + "/" + path : asset.getUrl();
+    }
+
+    /**
+     * Replaces a URL of the plain resource directory with the fingerprinted
+     * URL. Other URLs are returned as they are.
+     *
+     * @param url
+     *            the URL, e.g. <code>/resources/css/bootstrap.css</code>.
+     * @return the fingerprinted URL if the URL refers to an asset.
+     */
+    public String rewrite(String url) {
+        if (url.startsWith(RESOURCE_PATH + "/")) {
+            Asset asset = assets.get(url.substring(RESOURCE_PATH.length() + 1));
+            if (asset != null) {
+                return asset.getUrl();
+            }
+        }
+        return url;
+    }
+
+    /**
+     * @param url
+     *            the fingerprinted URL.
+     * @return the asset or <code>null</code> if there is none with this URL.
+     */
+    public Asset getByUrl(String url) {
+        return assetsByUrl.get(url);
+    }
+
+    /**
+     * @return the fingerprinted URLs by asset path.
+     */
+    public Map<String, String> getUrls() {
+        Map<String, String> urls = new TreeMap<>();
+        for (Map.Entry<String, Asset> entry : assets.entrySet()) {
+            urls.put(entry.getKey(), entry.getValue().getUrl());
+        }
+        return urls;
+    }
+
+    private void add(File directory, String path) throws IOException {
+
+        String extension = getExtension(path);
+        String contentType = CONTENT_TYPES.get(extension);
+        if (contentType == null) {
+            return;
+        }
+
+        File file = new File(directory, path);
+        byte[] content = Files.readAllBytes(file.toPath());
+        boolean isText = extension.equals("css") || extension.equals("js");
+        if (isText) {
+            File minified = new File(directory, path.substring(0,
+                    path.length() - extension.length())
+                    + "min." + extension);
+            String text;
+            if (path.endsWith(".min." + extension)) {
+                text = new String(content, UTF8);
+            } else if (minified.isFile()) {
+                text = new String(Files.readAllBytes(minified.toPath()), UTF8);
+            } else {
+                text = new String(content, UTF8);
+                text = extension.equals("css") ? minifyCss(text)
+                        : minifyJs(text);
+            }
+            if (extension.equals("css")) {
+                text = rewriteCss(text, path);
+            }
+            content = text.getBytes(UTF8);
+            contentType += "; charset=utf-8";
+        }
+
+        String hash = hash(content);
+        String base = path.substring(0, path.length() - extension.length() - 1);
+        String url = ASSET_PATH + "/" + base + "." + hash + "." + extension;
+        byte[] gzipped = isText || extension.equals("svg")
+                || extension.equals("ico") ? gzip(content) : null;
+        if (gzipped != null && gzipped.length >= content.length) {
+            gzipped = null;
+        }
+
+        // HTTP dates have a resolution of seconds
+        long lastModified = file.lastModified() / 1000 * 1000;
+        Asset asset = new Asset(url, contentType, hash, content, gzipped,
+                lastModified);
+        assets.put(path, asset);
+        assetsByUrl.put(url, asset);
+    }
+
+    /**
+     * Points the relative URLs of a stylesheet, e.g. to background images, to
+     * the fingerprinted assets.
+     */
+    private String rewriteCss(String css, String path) {
+
+        String directory = path.contains("/") ? path.substring(0,
+                path.lastIndexOf('/')) : "";
+        Matcher matcher = CSS_URL.matcher(css);
+        StringBuffer sb = new StringBuffer();
+        while (matcher.find()) {
+            String reference = matcher.group(1);
+            Asset asset = assets.get(resolve(directory, reference));
+            String replacement = (asset == null) ? matcher.group() : "url("
+                    + asset.getUrl() + ")";
+            matcher.appendReplacement(sb, Matcher.quoteReplacement(replacement));
+        }
+        matcher.appendTail(sb);
+        return sb.toString();
+    }
+
+    /**
+     * Resolves a relative reference against a directory path.
+     */
+    static String resolve(String directory, String reference) {
+
+        if (reference.contains(":") || reference.startsWith("/")) {
+            return reference;
+        }
+
+        List<String> parts = new ArrayList<>();
+        if (!directory.isEmpty()) {
+            Collections.addAll(parts, directory.split("/"));
+        }
+        for (String part : reference.split("/")) {
+            if (part.equals("..")) {
+                if (!parts.isEmpty()) {
+                    parts.remove(parts.size() - 1);
+                }
+            } else if (!part.equals(".") && !part.isEmpty()) {
+                parts.add(part);
+            }
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (String part : parts) {
+            if (sb.length() > 0) {
+                sb.append('/');
+            }
+            sb.append(part);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Removes comments and redundant whitespace from a stylesheet. Comments
+     * starting with <code>/*!</code> are kept, since they carry licenses.
+     *
+     * @param css
+     *            the stylesheet.
+     * @return the minified stylesheet.
+     */
+    static String minifyCss(String css) {
+
+        StringBuilder sb = new StringBuilder(css.length());
+        int i = 0;
+        boolean pendingSpace = false;
+        while (i < css.length()) {
+            char c = css.charAt(i);
+            if (c == '/' && i + 1 < css.length() && css.charAt(i + 1) == '*') {
+                int end = css.indexOf("*/", i + 2);
+                end = (end == -1) ? css.length() : end + 2;
+                if (i + 2 < css.length() && css.charAt(i + 2) == '!') {
+                    sb.append(css, i, end).append('\n');
+                }
+                i = end;
+            } else if (c == '"' || c == '\'') {
+                if (pendingSpace) {
+                    sb.append(' ');
+                    pendingSpace = false;
+                }
+                int end = skipString(css, i);
+                sb.append(css, i, end);
+                i = end;
+            } else if (Character.isWhitespace(c)) {
+                pendingSpace = sb.length() > 0;
+                i++;
+            } else {
+                if ("{};:,>".indexOf(c) != -1) {
+                    // drop the whitespace around a delimiter, but keep it
+                    // before a colon, which may start a pseudo-class
+                    if (c != ':') {
+                        pendingSpace = false;
+                    } else if (pendingSpace) {
+                        sb.append(' ');
+                        pendingSpace = false;
+                    }
+                    if (c == '}' && sb.length() > 0
+                            && sb.charAt(sb.length() - 1) == ';') {
+                        sb.setLength(sb.length() - 1);
+                    }
+                    sb.append(c);
+                    i++;
+                    while (i < css.length()
+                            && Character.isWhitespace(css.charAt(i))) {
+                        i++;
+                    }
+                    continue;
+                }
+                if (pendingSpace) {
+                    sb.append(' ');
+                    pendingSpace = false;
+                }
+                sb.append(c);
+                i++;
+            }
+        }
+        return sb.toString().trim();
+    }
+
+    /**
+     * Removes comments, indentation and blank lines from a script. Line breaks
+     * are kept, so that the automatic semicolon insertion is not affected.
+     * Comments starting with <code>/*!</code> are kept, since they carry
+     * licenses.
+     *
+     * @param js
+     *            the script.
+     * @return the minified script.
+     */
+    static String minifyJs(String js) {
+
+        StringBuilder sb = new StringBuilder(js.length());
+        StringBuilder line = new StringBuilder();
+        char previous = '\n';
+        int i = 0;
+        while (i < js.length()) {
+            char c = js.charAt(i);
+            char next = (i + 1 < js.length()) ? js.charAt(i + 1) : 0;
+            if (c == '/' && next == '/') {
+                while (i < js.length() && js.charAt(i) != '\n') {
+                    i++;
+                }
+            } else if (c == '/' && next == '*') {
+                int end = js.indexOf("*/", i + 2);
+                end = (end == -1) ? js.length() : end + 2;
+                if (i + 2 < js.length() && js.charAt(i + 2) == '!') {
+                    line.append(js, i, end);
+                } else if (js.substring(i, end).indexOf('\n') != -1) {
+                    appendLine(sb, line);
+                } else {
+                    line.append(' ');
+                }
+                i = end;
+            } else if (c == '"' || c == '\'') {
+                int end = skipString(js, i);
+                line.append(js, i, end);
+                previous = c;
+                i = end;
+            } else if (c == '/' && isRegexStart(previous, line)) {
+                int end = skipRegex(js, i);
+                line.append(js, i, end);
+                previous = c;
+                i = end;
+            } else if (c == '\n' || c == '\r') {
+                appendLine(sb, line);
+                i++;
+            } else {
+                line.append(c);
+                if (!Character.isWhitespace(c)) {
+                    previous = c;
+                }
+                i++;
+            }
+        }
+        appendLine(sb, line);
+        return sb.toString();
+    }
+
+    private static void appendLine(StringBuilder sb, StringBuilder line) {
+        String trimmed = line.toString().trim();
+        if (!trimmed.isEmpty()) {
+            sb.append(trimmed).append('\n');
+        }
+        line.setLength(0);
+    }
+
+    /**
+     * Whether a slash after the given character, or after a keyword at the end
+     * of the current line, starts a regular expression literal rather than a
+     * division.
+     */
+    private static boolean isRegexStart(char previous, StringBuilder line) {
+
+        if ("(,=:[!&|?{};+-*%<>~^\n".indexOf(previous) != -1) {
+            return true;
+        }
+        Matcher matcher = JS_KEYWORD_END.matcher(line);
+        return matcher.find();
+    }
+
+    /**
+     * @return the index after the string literal starting at the given index.
+     */
+    private static int skipString(String text, int start) {
+        char quote = text.charAt(start);
+        int i = start + 1;
+        while (i < text.length()) {
+            char c = text.charAt(i);
+            if (c == '\\') {
+                i += 2;
+            } else if (c == quote || c == '\n') {
+                return i + 1;
+            } else {
+                i++;
+            }
+        }
+        return text.length();
+    }
+
+    /**
+     * @return the index after the regular expression literal starting at the
+     *         given index.
+     */
+    private static int skipRegex(String text, int start) {
+        boolean isClass = false;
+        int i = start + 1;
+        while (i < text.length()) {
+            char c = text.charAt(i);
+            if (c == '\\') {
+                i += 2;
+                continue;
+            } else if (c == '[') {
+                isClass = true;
+            } else if (c == ']') {
+                isClass = false;
+            } else if ((c == '/' && !isClass) || c == '\n') {
+                return i + 1;
+            }
+            i++;
+        }
+        return text.length();
+    }
+
+    private static void collect(File directory, String path, List<String> paths) {
+
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = path + "/" + file.getName();
+            if (file.isDirectory()) {
+                collect(file, name, paths);
+            } else {
+                paths.add(name);
+            }
+        }
+    }
+
+    private static String getExtension(String path) {
+        int dot = path.lastIndexOf('.');
+        return (dot == -1) ? "" : path.substring(dot + 1).toLowerCase();
+    }
+
+    private static String hash(byte[] content) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest.digest(content)) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.substring(0, HASH_LENGTH);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported.", e);
+        }
+    }
+
+    private static byte[] gzip(byte[] content) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(content);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * A processed asset.
+     */
+    public static class Asset {
+
+        private final String url;
+        private final String contentType;
+        private final String hash;
+        private final byte[] content;
+        private final byte[] gzipped;
+        private final long lastModified;
+
+        Asset(String url, String contentType, String hash, byte[] content,
+                byte[] gzipped, long lastModified) {
+
+            this.url = url;
+            this.contentType = contentType;
+            this.hash = hash;
+            this.content = content;
+            this.gzipped = gzipped;
+            this.lastModified = lastModified;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public String getHash() {
+            return hash;
+        }
+
+        public byte[] getContent() {
+            return content;
+        }
+
+        /**
+         * @return the gzipped content or <code>null</code> if the asset is not
+         *         worth compressing.
+         */
+        public byte[] getGzipped() {
+            return gzipped;
+        }
+
+        /**
+         * @return the modification time of the source file in milliseconds,
+         *         truncated to seconds.
+         */
+        public long getLastModified() {
+            return lastModified;
+        }
+    }
+
+}
@@ -5,7 +5,8 @@ import org.mindrot.jbcrypt.BCrypt;
 
 /**
  * Represents a password encoded with the {@link BCrypt} hashing in order to be
- * used with JAAS.
+ * used with JAAS. The verification is delegated to the
+ * {@link CredentialVerifier}.
  * 
  * @author Konrad Reiche
  * 
@@ -13,15 +14,32 @@ import org.mindrot.jbcrypt.BCrypt;
 @SuppressWarnings("serial")
 public class BCryptPassword extends Credential {
 
-    private final String password;
+    private final String login;
+
+    /**
+     * The hashed password, it changes if the password is hashed again with
+     * another cost.
+     */
+    private volatile String password;
 
     /**
      * Default constructor.
      * 
+     * @param login
+     *            the login name the password belongs to.
      * @param password
      *            the hashed password string.
      */
-    public BCryptPassword(String password) {
+    public BCryptPassword(String login, String password) {
+        this.login = login;
+        this.password = password;
+    }
+
+    String getHash() {
+        return password;
+    }
+
+    void setHash(String password) {
         this.password = password;
     }
 
@@ -32,7 +50,8 @@ public class BCryptPassword extends Credential {
     public boolean check(Object credentials) {
 
         if (credentials instanceof String) {
-            return BCrypt.checkpw((String) credentials, password);
+            return CredentialVerifier.getInstance().verify(login,
+                    (String) credentials, this);
         }
         return false;
     }
@@ -0,0 +1,284 @@
+package berlin.reiche.virginia;
+
+import java.nio.charset.Charset;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.mindrot.jbcrypt.BCrypt;
+
+import berlin.reiche.virginia.model.User;
+
+/**
+ * Verifies login credentials against their bcrypt hashes. Since a bcrypt
+ * verification costs a lot of CPU on purpose, successful verifications are
+ * remembered for a short time and the verifications run on a bounded pool of
+ * threads, so that a wave of logins cannot occupy all request threads.
+ *
+ * The remembered verifications are keyed by an HMAC of the login, the password
+ * and the stored hash under a random key, which is never persisted. The
+ * passwords themselves are not kept. A changed password hash never matches a
+ * remembered verification.
+ *
+ * If a hash was computed with another cost than {@link User#getLogRounds()},
+ * the password is hashed again after a successful login and stored.
+ *
+ * @author Konrad Reiche
+ *
+ */
+public class CredentialVerifier {
+
+    /**
+     * Default settings, used unless configured otherwise.
+     */
+    public static final int DEFAULT_CACHE_SIZE = 10000;
+    public static final int DEFAULT_TTL_SECONDS = 300;
+    public static final int DEFAULT_QUEUE_SIZE = 64;
+
+    /**
+     * The time a login waits for its verification at most.
+     */
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static CredentialVerifier instance = new CredentialVerifier(
+            DEFAULT_CACHE_SIZE, DEFAULT_TTL_SECONDS, getDefaultThreads(),
+            DEFAULT_QUEUE_SIZE);
+
+    private final int cacheSize;
+
+    private final long ttlMillis;
+
+    private final ThreadPoolExecutor pool;
+
+    private final SecretKeySpec key;
+
+    /**
+     * The expiry time of each remembered verification, in access order.
+     */
+    private final LinkedHashMap<String, Long> verified;
+
+    /**
+     * @param cacheSize
+     *            the maximum number of remembered verifications.
+     * @param ttlSeconds
+     *            the time a verification is remembered.
+     * @param threads
+     *            the number of threads verifying passwords.
+     * @param queueSize
+     *            the number of verifications which may wait for a thread,
+     *            further logins are rejected.
+     */
+    public CredentialVerifier(int cacheSize, int ttlSeconds, int threads,
+            int queueSize) {
+
+        this.cacheSize = cacheSize;
+        this.ttlMillis = TimeUnit.SECONDS.toMillis(ttlSeconds);
+        this.verified = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > CredentialVerifier.this.cacheSize;
+            }
+        };
+
+        byte[] secret = new byte[32];
+        new SecureRandom().nextBytes(secret);
+        this.key = new SecretKeySpec(secret, "HmacSHA256");
+
+        this.pool = new ThreadPoolExecutor(threads, threads, 0L,
+                TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(
+                        Math.max(1, queueSize)), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "login-verifier");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
+    /**
+     * @return the verifier used by the login service.
+     */
+    public static CredentialVerifier getInstance() {
+        return instance;
+    }
+
+    /**
+     * Replaces the verifier used by the login service.
+     *
+     * @param verifier
+     *            the new verifier.
+     */
+    public static void setInstance(CredentialVerifier verifier) {
+        CredentialVerifier previous = instance;
+        instance = verifier;
+        previous.pool.shutdown();
+    }
+
+    /**
+     * Half of the available processors verify passwords by default, the other
+     * half is left for serving requests.
+     *
+     * @return the default number of verifying threads.
+     */
+    public static int getDefaultThreads() {
+        return Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    }
+
+    /**
+     * Verifies a password of a login against the stored credential.
+     *
+     * @param login
+     *            the login name.
+     * @param password
+     *            the given password.
+     * @param credential
+     *            the stored credential of the login.
+     * @return whether the password is correct. If the verification could not
+     *         be scheduled in time, the login is rejected.
+     */
+    boolean verify(final String login, final String password,
+            final BCryptPassword credential) {
+
+        final String hash = credential.getHash();
+        String cacheKey = getCacheKey(login, password, hash);
+        long now = System.currentTimeMillis();
+        synchronized (verified) {
+            Long expiry = verified.get(cacheKey);
+            if (expiry != null && expiry > now) {
+                return true;
+            } else if (expiry != null) {
+                verified.remove(cacheKey);
+            }
+        }
+
+        boolean isValid;
+        try {
+            Future<Boolean> result = pool.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    boolean isValid = BCrypt.checkpw(password, hash);
+                    if (isValid && getLogRounds(hash) != User.getLogRounds()) {
+                        rehash(login, password, credential);
+                    }
+                    return isValid;
+                }
+            });
+            isValid = result.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (RejectedExecutionException | TimeoutException e) {
+            System.err.println("The login of " + login
+                    + " was rejected, too many logins are verified.");
+            return false;
+        } catch (ExecutionException e) {
+            // e.g. a malformed hash
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+
+        if (isValid) {
+            // the hash may have changed by rehashing
+            String key = getCacheKey(login, password, credential.getHash());
+            synchronized (verified) {
+                verified.put(key, now + ttlMillis);
+            }
+        }
+        return isValid;
+    }
+
+    /**
+     * Hashes the password with the configured cost and stores it.
+     */
+    private static void rehash(String login, String password,
+            BCryptPassword credential) {
+
+        if (login == null) {
+            return;
+        }
+        User user = MongoDB.get(User.class, login);
+        if (user == null) {
+            return;
+        }
+        String hash = User.hashPassword(password);
+        user.setPasswordHash(hash);
+        MongoDB.store(user);
+        credential.setHash(hash);
+    }
+
+    /**
+     * Forgets all remembered verifications.
+     */
+    public void clear() {
+        synchronized (verified) {
+            verified.clear();
+        }
+    }
+
+    /**
+     * @return the number of remembered verifications.
+     */
+    public int size() {
+        synchronized (verified) {
+            return verified.size();
+        }
+    }
+
+    private String getCacheKey(String login, String password, String hash) {
+
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(key);
+            for (String part : Arrays.asList(login, password, hash)) {
+                byte[] bytes = String.valueOf(part).getBytes(UTF8);
+                // length prefixed, so that the parts cannot be shifted
+                mac.update((byte) (bytes.length >>> 24));
+                mac.update((byte) (bytes.length >>> 16));
+                mac.update((byte) (bytes.length >>> 8));
+                mac.update((byte) bytes.length);
+                mac.update(bytes);
+            }
+
+            StringBuilder sb = new StringBuilder();
+            for (byte b : mac.doFinal()) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+            throw new IllegalStateException("HmacSHA256 is not supported.", e);
+        }
+    }
+
+    /**
+     * @return the cost of a bcrypt hash like <code>$2a$12$...</code>, or
+     *         <code>-1</code> if the hash is malformed.
+     */
+    static int getLogRounds(String hash) {
+        try {
+            return Integer.parseInt(hash.substring(4, 6));
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            return -1;
+        }
+    }
+
+}
@@ -0,0 +1,546 @@
+package berlin.reiche.virginia;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.bson.BSONObject;
+import org.bson.BasicBSONDecoder;
+import org.bson.BasicBSONEncoder;
+import org.bson.BasicBSONObject;
+import org.bson.types.BasicBSONList;
+
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+/**
+ * An embedded single-node repository for installations which do not want to
+ * operate a MongoDB server. All entities are held in memory like in the
+ * {@link InMemoryRepository}, so reads never touch the disk. Every write is
+ * appended to a log file before it is applied.
+ *
+ * Next to the log a memory-mapped index file lists the positions of all live
+ * records at the time of the last checkpoint. On startup only these records
+ * and the log written after the checkpoint are read, a torn record at the end
+ * of the log, left by a crash, is truncated. Once more than half of the log
+ * consists of overwritten or deleted records, the log is compacted.
+ *
+ * @author Konrad Reiche
+ *
+ */
+public class EmbeddedRepository extends InMemoryRepository {
+
+    private static final String LOG_FILE = "data.log";
+    private static final String INDEX_FILE = "data.idx";
+    private static final String COMPACT_SUFFIX = ".compact";
+
+    private static final int LOG_MAGIC = 0x56524c47;
+    private static final int INDEX_MAGIC = 0x56524958;
+    private static final int VERSION = 1;
+
+    /**
+     * Log header: magic, version, generation.
+     */
+    private static final int LOG_HEADER_SIZE = 16;
+
+    /**
+     * Index header: magic, version, generation, checkpoint, count.
+     */
+    private static final int INDEX_HEADER_SIZE = 28;
+
+    /**
+     * Record header: payload length, payload checksum.
+     */
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    /**
+     * A checkpoint is written after this number of appended records.
+     */
+    private static final int CHECKPOINT_INTERVAL = 1000;
+
+    /**
+     * The log is not compacted below this size in bytes.
+     */
+    private static final long COMPACTION_MIN_SIZE = 1 << 20;
+
+    private static final String PUT = "put";
+    private static final String DELETE = "delete";
+    private static final String CLEAR = "clear";
+
+    private final Path logPath;
+    private final Path indexPath;
+
+    private FileChannel log;
+
+    /**
+     * Identifies a log file, the index is only valid for the log of the same
+     * generation.
+     */
+    private long generation;
+
+    /**
+     * The position of the live record of each entity in the log, per class
+     * name.
+     */
+    private Map<String, Map<Object, Location>> locations = new HashMap<>();
+
+    /**
+     * The number of bytes in the log which belong to live records.
+     */
+    private long liveBytes;
+
+    /**
+     * The number of records appended since the last checkpoint.
+     */
+    private int uncheckpointed;
+
+    /**
+     * Opens the repository in the given directory. The log is replayed and a
+     * torn record at its end is truncated.
+     *
+     * @param directory
+     *            the directory containing the data files.
+     * @throws IOException
+     *             if the data files could not be read or written.
+     */
+    public EmbeddedRepository(File directory) throws IOException {
+
+        long start = System.nanoTime();
+        Files.createDirectories(directory.toPath());
+        logPath = directory.toPath().resolve(LOG_FILE);
+        indexPath = directory.toPath().resolve(INDEX_FILE);
+        Files.deleteIfExists(directory.toPath().resolve(
+                LOG_FILE + COMPACT_SUFFIX));
+
+        log = FileChannel.open(logPath, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (log.size() < LOG_HEADER_SIZE) {
+            generation = new SecureRandom().nextLong();
+            log.truncate(0);
+            writeLogHeader(log, generation);
+            log.force(true);
+        }
+        recover();
+
+        long millis = (System.nanoTime() - start) / 1000000;
+        System.out.println("Opened embedded repository " + directory + " in "
+                + millis + " ms.");
+    }
+
+    /**
+     * @see berlin.reiche.virginia.InMemoryRepository#put(java.lang.Class,
+     *      java.lang.Object, com.mongodb.DBObject)
+     */
+    @Override
+    protected synchronized void put(Class<?> cls, Object id,
+            DBObject document) {
+
+        BasicBSONObject record = new BasicBSONObject("op", PUT);
+        record.append("c", cls.getName()).append("i", id)
+                .append("d", document);
+        Location location = append(record);
+        setLocation(cls.getName(), id, location);
+        super.put(cls, id, document);
+        afterWrite();
+    }
+
+    /**
+     * @see berlin.reiche.virginia.InMemoryRepository#remove(java.lang.Class,
+     *      java.lang.Object)
+     */
+    @Override
+    protected synchronized void remove(Class<?> cls, Object id) {
+
+        BasicBSONObject record = new BasicBSONObject("op", DELETE);
+        record.append("c", cls.getName()).append("i", id);
+        append(record);
+        setLocation(cls.getName(), id, null);
+        super.remove(cls, id);
+        afterWrite();
+    }
+
+    /**
+     * @see berlin.reiche.virginia.InMemoryRepository#clear(java.lang.Class)
+     */
+    @Override
+    protected synchronized void clear(Class<?> cls) {
+
+        BasicBSONObject record = new BasicBSONObject("op", CLEAR);
+        record.append("c", cls.getName());
+        append(record);
+        clearLocations(cls.getName());
+        super.clear(cls);
+        afterWrite();
+    }
+
+    /**
+     * Writes a checkpoint and closes the log.
+     *
+     * @throws IOException
+     *             if the index could not be written.
+     */
+    public synchronized void close() throws IOException {
+        if (log.isOpen()) {
+            checkpoint();
+            log.close();
+        }
+    }
+
+    /**
+     * Rewrites the log with only the live records and writes a new index.
+     * The new log replaces the old one atomically, a crash during compaction
+     * leaves the old log intact.
+     *
+     * @throws IOException
+     *             if the log could not be rewritten.
+     */
+    public synchronized void compact() throws IOException {
+
+        Path compactPath = logPath.resolveSibling(LOG_FILE + COMPACT_SUFFIX);
+        long newGeneration = new SecureRandom().nextLong();
+        Map<String, Map<Object, Location>> newLocations = new HashMap<>();
+
+        try (FileChannel out = FileChannel.open(compactPath,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+
+            writeLogHeader(out, newGeneration);
+            long position = LOG_HEADER_SIZE;
+            for (Map.Entry<String, Map<Object, Location>> entry : locations
+                    .entrySet()) {
+                Map<Object, Location> classLocations = new HashMap<>();
+                for (Map.Entry<Object, Location> live : entry.getValue()
+                        .entrySet()) {
+                    Location location = live.getValue();
+                    ByteBuffer buffer = ByteBuffer.allocate(location.size);
+                    log.read(buffer, location.offset);
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        out.write(buffer);
+                    }
+                    classLocations.put(live.getKey(), new Location(position,
+                            location.size));
+                    position += location.size;
+                }
+                newLocations.put(entry.getKey(), classLocations);
+            }
+            out.force(true);
+        }
+
+        log.close();
+        Files.move(compactPath, logPath, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        log = FileChannel.open(logPath, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        generation = newGeneration;
+        locations = newLocations;
+        checkpoint();
+    }
+
+    /**
+     * Writes the positions of all live records to a new index file, which
+     * replaces the old one atomically.
+     *
+     * @throws IOException
+     *             if the index could not be written.
+     */
+    public synchronized void checkpoint() throws IOException {
+
+        log.force(true);
+        int count = 0;
+        for (Map<Object, Location> classLocations : locations.values()) {
+            count += classLocations.size();
+        }
+
+        Path temporary = indexPath.resolveSibling(INDEX_FILE + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+
+            MappedByteBuffer index = channel.map(MapMode.READ_WRITE, 0,
+                    INDEX_HEADER_SIZE + 8L * count);
+            index.putInt(INDEX_MAGIC).putInt(VERSION).putLong(generation)
+                    .putLong(log.size()).putInt(count);
+            for (Map<Object, Location> classLocations : locations.values()) {
+                for (Location location : classLocations.values()) {
+                    index.putLong(location.offset);
+                }
+            }
+            index.force();
+        }
+
+        Files.move(temporary, indexPath, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        uncheckpointed = 0;
+    }
+
+    /**
+     * Restores the state from the index and the log. The records listed in
+     * the index are loaded first, afterwards the log written after the
+     * checkpoint is replayed. If the index does not belong to the log, the
+     * whole log is replayed.
+     */
+    private void recover() throws IOException {
+
+        long size = log.size();
+        MappedByteBuffer buffer = log.map(MapMode.READ_ONLY, 0, size);
+        if (buffer.getInt(0) != LOG_MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException(logPath + " is not a log file.");
+        }
+        generation = buffer.getLong(8);
+
+        long position = LOG_HEADER_SIZE;
+        if (Files.exists(indexPath)) {
+            try (FileChannel channel = FileChannel.open(indexPath,
+                    StandardOpenOption.READ)) {
+                MappedByteBuffer index = channel.map(MapMode.READ_ONLY, 0,
+                        channel.size());
+                if (isValidIndex(index, size)) {
+                    int count = index.getInt(24);
+                    for (int i = 0; i < count; i++) {
+                        long offset = index.getLong(INDEX_HEADER_SIZE + 8 * i);
+                        if (readRecord(buffer, offset, size) < 0) {
+                            throw new IOException("The index refers to a"
+                                    + " damaged record at " + offset + ".");
+                        }
+                    }
+                    position = index.getLong(16);
+                }
+            }
+        }
+
+        while (position < size) {
+            long next = readRecord(buffer, position, size);
+            if (next < 0) {
+                System.err.println("Truncated a damaged record at "
+                        + position + " of " + logPath + ".");
+                log.truncate(position);
+                log.force(true);
+                break;
+            }
+            position = next;
+        }
+    }
+
+    private boolean isValidIndex(MappedByteBuffer index, long logSize) {
+        return index.capacity() >= INDEX_HEADER_SIZE
+                && index.getInt(0) == INDEX_MAGIC
+                && index.getInt(4) == VERSION
+                && index.getLong(8) == generation
+                && index.getLong(16) <= logSize
+                && index.capacity() >= INDEX_HEADER_SIZE + 8L
+                        * index.getInt(24);
+    }
+
+    /**
+     * Reads a record from the log and applies it.
+     *
+     * @return the position of the next record or <code>-1</code> if the
+     *         record is incomplete or damaged.
+     */
+    private long readRecord(MappedByteBuffer buffer, long position, long size) {
+
+        if (position + RECORD_HEADER_SIZE > size) {
+            return -1;
+        }
+
+        int length = buffer.getInt((int) position);
+        int checksum = buffer.getInt((int) position + 4);
+        if (length < 0 || position + RECORD_HEADER_SIZE + length > size) {
+            return -1;
+        }
+
+        byte[] payload = new byte[length];
+        ByteBuffer slice = buffer.duplicate();
+        slice.position((int) position + RECORD_HEADER_SIZE);
+        slice.get(payload);
+
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        if ((int) crc.getValue() != checksum) {
+            return -1;
+        }
+
+        int recordSize = RECORD_HEADER_SIZE + length;
+        apply(new BasicBSONDecoder().readObject(payload), new Location(
+                position, recordSize));
+        return position + recordSize;
+    }
+
+    /**
+     * Applies a record read from the log to the in-memory state.
+     */
+    private void apply(BSONObject record, Location location) {
+
+        String op = (String) record.get("op");
+        String className = (String) record.get("c");
+        Class<?> cls;
+        try {
+            cls = Class.forName(className);
+        } catch (ClassNotFoundException e) {
+            System.err.println("Skipped a record of the unknown class "
+                    + className + ".");
+            return;
+        }
+
+        Object id = record.get("i");
+        switch (op) {
+        case PUT:
+            setLocation(className, id, location);
+            super.put(cls, id, (DBObject) toDocument(record.get("d")));
+            break;
+        case DELETE:
+            setLocation(className, id, null);
+            super.remove(cls, id);
+            break;
+        case CLEAR:
+            clearLocations(className);
+            super.clear(cls);
+            break;
+        default:
+            System.err.println("Skipped a record with the unknown operation "
+                    + op + ".");
+        }
+    }
+
+    /**
+     * Appends a record to the log and forces it to the disk.
+     *
+     * @return the location of the appended record.
+     */
+    private Location append(BSONObject record) {
+
+        byte[] payload = new BasicBSONEncoder().encode(record);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER_SIZE
+                + payload.length);
+        buffer.putInt(payload.length).putInt((int) crc.getValue())
+                .put(payload);
+        buffer.flip();
+
+        try {
+            long offset = log.size();
+            long position = offset;
+            while (buffer.hasRemaining()) {
+                position += log.write(buffer, position);
+            }
+            log.force(false);
+            uncheckpointed++;
+            return new Location(offset, buffer.capacity());
+        } catch (IOException e) {
+            throw new IllegalStateException("The write could not be appended"
+                    + " to " + logPath + ".", e);
+        }
+    }
+
+    /**
+     * Writes a checkpoint or compacts the log if it is due.
+     */
+    private void afterWrite() {
+
+        try {
+            long size = log.size();
+            if (size > COMPACTION_MIN_SIZE && size - liveBytes > liveBytes) {
+                compact();
+            } else if (uncheckpointed >= CHECKPOINT_INTERVAL) {
+                checkpoint();
+            }
+        } catch (IOException e) {
+            System.err.println("The log " + logPath
+                    + " could not be checkpointed.");
+            e.printStackTrace();
+        }
+    }
+
+    private void setLocation(String className, Object id, Location location) {
+
+        Map<Object, Location> classLocations = locations.get(className);
+        if (classLocations == null) {
+            classLocations = new HashMap<>();
+            locations.put(className, classLocations);
+        }
+
+        Location old = (location == null) ? classLocations.remove(id)
+                : classLocations.put(id, location);
+        if (old != null) {
+            liveBytes -= old.size;
+        }
+        if (location != null) {
+            liveBytes += location.size;
+        }
+    }
+
+    private void clearLocations(String className) {
+
+        Map<Object, Location> classLocations = locations.remove(className);
+        if (classLocations != null) {
+            for (Location location : classLocations.values()) {
+                liveBytes -= location.size;
+            }
+        }
+    }
+
+    private static void writeLogHeader(FileChannel channel, long generation)
+            throws IOException {
+
+        ByteBuffer header = ByteBuffer.allocate(LOG_HEADER_SIZE);
+        header.putInt(LOG_MAGIC).putInt(VERSION).putLong(generation);
+        header.flip();
+        while (header.hasRemaining()) {
+            channel.write(header, LOG_HEADER_SIZE - header.remaining());
+        }
+    }
+
+    /**
+     * Converts a decoded BSON object into the document types used by the
+     * {@link EntityCodec}.
+     */
+    private static Object toDocument(Object value) {
+
+        if (value instanceof BasicBSONList) {
+            BasicDBList list = new BasicDBList();
+            for (Object element : (BasicBSONList) value) {
+                list.add(toDocument(element));
+            }
+            return list;
+        } else if (value instanceof BSONObject) {
+            BSONObject object = (BSONObject) value;
+            BasicDBObject document = new BasicDBObject();
+            for (String key : object.keySet()) {
+                document.put(key, toDocument(object.get(key)));
+            }
+            return document;
+        }
+        return value;
+    }
+
+    /**
+     * The position and the size of a record in the log.
+     */
+    private static class Location {
+
+        final long offset;
+        final int size;
+
+        Location(long offset, int size) {
+            this.offset = offset;
+            this.size = size;
+        }
+    }
+
+}
@@ -0,0 +1,313 @@
+package berlin.reiche.virginia;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A size-bounded read-through cache for entities which are read on almost
+ * every request but change only a few times a term, like the equipment or the
+ * timeframe.
+ *
+ * The least recently used entry is evicted once the capacity is exceeded. All
+ * entries of a class are invalidated as soon as an entity of this class is
+ * written, therefore the cache never serves data older than the last write
+ * made through the {@link MongoDB} facade.
+ *
+ * The cache holds private copies of the entities and hands out a new copy on
+ * every read, so callers may modify an entity without affecting other
+ * requests, for instance while a form is validated.
+ *
+ * @author Konrad Reiche
+ *
+ */
+public class EntityCache {
+
+    /**
+     * Marker used as identifier for the cached list of all entities of a
+     * class.
+     */
+    private static final Object ALL = new Object();
+
+    /**
+     * The maximum number of entries held by the cache.
+     */
+    private final int capacity;
+
+    /**
+     * The entity classes which are eligible for caching.
+     */
+    private final Set<Class<?>> cachedClasses;
+
+    /**
+     * The cached entries in access order, the eldest entry is the least
+     * recently used one.
+     */
+    private final LinkedHashMap<Key, Object> entries;
+
+    /**
+     * Each invalidation of a class increments its generation. A value loaded
+     * from the database is only cached if no invalidation happened while it
+     * was loaded.
+     */
+    private final Map<Class<?>, Long> generations;
+
+    /**
+     * Copies the entities on their way in and out of the cache.
+     */
+    private final EntityCodec codec = new EntityCodec();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Default constructor.
+     *
+     * @param capacity
+     *            the maximum number of cached entries.
+     * @param classes
+     *            the entity classes which should be cached.
+     */
+    @SuppressWarnings("serial")
+    public EntityCache(final int capacity, Class<?>... classes) {
+
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The cache capacity has to be"
+                    + " positive.");
+        }
+
+        this.capacity = capacity;
+        this.cachedClasses = new HashSet<>(Arrays.asList(classes));
+        this.generations = new HashMap<>();
+        this.entries = new LinkedHashMap<Key, Object>(16, 0.75f, true) {
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Object> eldest) {
+                if (size() > capacity) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @param cls
+     *            the entity class.
+     * @return whether entities of the given class are cached.
+     */
+    public boolean isCached(Class<?> cls) {
+        return cachedClasses.contains(cls);
+    }
+
+    /**
+     * Looks up a single entity.
+     *
+     * @param cls
+     *            the class type of the entity.
+     * @param id
+     *            the unique identifier of the entity.
+     * @return a copy of the cached entity or <code>null</code> if it is not
+     *         cached.
+     */
+    public <T> T get(Class<T> cls, Object id) {
+
+        T entity;
+        synchronized (this) {
+            entity = cls.cast(lookup(new Key(cls, id)));
+        }
+        return (entity == null) ? null : codec.copy(entity);
+    }
+
+    /**
+     * Looks up the list of all entities of a certain type. A copy of the
+     * cached list and its entities is returned, so callers are free to modify
+     * it.
+     *
+     * @param cls
+     *            the class type of the entities.
+     * @return the cached entities or <code>null</code> if they are not cached.
+     */
+    public <T> List<T> getAll(Class<T> cls) {
+
+        List<T> collection;
+        synchronized (this) {
+            @SuppressWarnings("unchecked")
+            List<T> cached = (List<T>) lookup(new Key(cls, ALL));
+            collection = cached;
+        }
+        return (collection == null) ? null : codec.copyAll(collection);
+    }
+
+    /**
+     * Caches a copy of a single entity which was loaded from the database.
+     *
+     * @param cls
+     *            the class type of the entity.
+     * @param id
+     *            the unique identifier of the entity.
+     * @param entity
+     *            the entity.
+     * @param generation
+     *            the generation of the class before the entity was loaded.
+     */
+    public <T> void put(Class<T> cls, Object id, T entity, long generation) {
+
+        if (entity == null) {
+            return;
+        }
+
+        T copy = codec.copy(entity);
+        synchronized (this) {
+            if (generation == getGeneration(cls)) {
+                entries.put(new Key(cls, id), copy);
+            }
+        }
+    }
+
+    /**
+     * Caches a copy of each of several entities which were loaded from the
+     * database, each under its own identifier.
+     *
+     * @param cls
+     *            the class type of the entities.
+     * @param entities
+     *            the entities.
+     * @param generation
+     *            the generation of the class before the entities were loaded.
+     */
+    public <T> void putEach(Class<T> cls, List<T> entities, long generation) {
+        for (T entity : entities) {
+            put(cls, codec.getId(entity, false), entity, generation);
+        }
+    }
+
+    /**
+     * Caches a copy of the list of all entities of a certain type which was
+     * loaded from the database.
+     *
+     * @param cls
+     *            the class type of the entities.
+     * @param collection
+     *            the entities.
+     * @param generation
+     *            the generation of the class before the entities were loaded.
+     */
+    public <T> void putAll(Class<T> cls, List<T> collection, long generation) {
+
+        List<T> copy = codec.copyAll(collection);
+        synchronized (this) {
+            if (generation == getGeneration(cls)) {
+                entries.put(new Key(cls, ALL), copy);
+            }
+        }
+    }
+
+    /**
+     * Removes all cached entries of a certain type.
+     *
+     * @param cls
+     *            the class type of the entities.
+     */
+    public synchronized void invalidate(Class<?> cls) {
+
+        generations.put(cls, getGeneration(cls) + 1);
+        Iterator<Key> iterator = entries.keySet().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().cls == cls) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Removes all cached entries.
+     */
+    public synchronized void clear() {
+
+        for (Class<?> cls : cachedClasses) {
+            generations.put(cls, getGeneration(cls) + 1);
+        }
+        entries.clear();
+    }
+
+    /**
+     * @param cls
+     *            the class type of the entities.
+     * @return the current generation of the given class, which has to be
+     *         passed when putting values loaded from the database.
+     */
+    public synchronized long getGeneration(Class<?> cls) {
+        Long generation = generations.get(cls);
+        return (generation == null) ? 0 : generation;
+    }
+
+    private Object lookup(Key key) {
+
+        Object value = entries.get(key);
+        if (value == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return value;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * Identifies a cache entry by the entity class and the entity identifier.
+     */
+    private static class Key {
+
+        final Class<?> cls;
+        final Object id;
+
+        Key(Class<?> cls, Object id) {
+            this.cls = cls;
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            } else {
+                Key other = (Key) o;
+                return cls == other.cls && id.equals(other.id);
+            }
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * cls.hashCode() + id.hashCode();
+        }
+    }
+
+}
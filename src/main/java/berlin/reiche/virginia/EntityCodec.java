@@ -0,0 +1,730 @@
+package berlin.reiche.virginia;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.bson.types.ObjectId;
+
+import com.google.code.morphia.annotations.Entity;
+import com.google.code.morphia.annotations.Id;
+import com.google.code.morphia.annotations.PostLoad;
+import com.google.code.morphia.annotations.Reference;
+import com.google.code.morphia.annotations.Transient;
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+/**
+ * Converts model objects to documents and back, following the same mapping
+ * rules as Morphia: the identifier is stored as <code>_id</code>, fields
+ * annotated with {@link Reference} are stored as a reference to the
+ * referenced entity and all other objects are embedded. Fields which are
+ * transient or annotated with {@link Transient} are not stored and methods
+ * annotated with {@link PostLoad} are invoked after decoding.
+ *
+ * The codec is used by the repositories which do not rely on Morphia. Since
+ * each decode creates new objects, it provides copy-on-read semantics.
+ *
+ * @author Konrad Reiche
+ *
+ */
+public class EntityCodec {
+
+    /**
+     * Field names of a stored reference.
+     */
+    static final String REF_KEY = "$ref";
+    static final String REF_ID_KEY = "$id";
+
+    /**
+     * Field name of the identifier.
+     */
+    static final String ID_KEY = "_id";
+
+    /**
+     * The mapping information per class, which is determined once.
+     */
+    private final ConcurrentMap<Class<?>, ClassInfo> classes =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Resolves references to other entities while decoding.
+     */
+    public interface Resolver {
+
+        /**
+         * @param cls
+         *            the class type of the referenced entity.
+         * @param id
+         *            the unique identifier of the referenced entity.
+         * @return the document of the referenced entity or <code>null</code>
+         *         if it does not exist.
+         */
+        DBObject resolve(Class<?> cls, Object id);
+    }
+
+    /**
+     * Encodes a model object as document.
+     *
+     * @param entity
+     *            the model object.
+     * @return the document representing the model object.
+     */
+    public DBObject encode(Object entity) {
+
+        ClassInfo info = getInfo(entity.getClass());
+        BasicDBObject document = new BasicDBObject();
+        for (FieldInfo field : info.fields) {
+            Object value = field.get(entity);
+            if (value != null) {
+                document.put(field.name, encodeValue(value, field.isReference));
+            }
+        }
+        return document;
+    }
+
+    /**
+     * Decodes a document including all referenced entities.
+     *
+     * @param cls
+     *            the class type of the model object.
+     * @param document
+     *            the document representing the model object.
+     * @param resolver
+     *            resolves the references to other entities.
+     * @param fields
+     *            the fields to decode or <code>null</code> to decode all
+     *            fields.
+     * @return the model object.
+     */
+    public <T> T decode(Class<T> cls, DBObject document, Resolver resolver,
+            Set<String> fields) {
+
+        Context context = new Context(resolver);
+        T entity = cls.cast(decodeEntity(cls, document, context, fields));
+        context.postLoad();
+        return entity;
+    }
+
+    /**
+     * Decodes a list of documents of the same type. Entities referenced from
+     * more than one document are decoded only once and shared.
+     *
+     * @param cls
+     *            the class type of the model objects.
+     * @param documents
+     *            the documents representing the model objects.
+     * @param resolver
+     *            resolves the references to other entities.
+     * @param fields
+     *            the fields to decode or <code>null</code> to decode all
+     *            fields.
+     * @return the model objects.
+     */
+    public <T> List<T> decodeAll(Class<T> cls,
+            Collection<DBObject> documents, Resolver resolver,
+            Set<String> fields) {
+
+        Context context = new Context(resolver);
+        List<T> entities = new ArrayList<>(documents.size());
+        for (DBObject document : documents) {
+            Object entity = decodeEntity(cls, document, context, fields);
+            entities.add(cls.cast(entity));
+        }
+        context.postLoad();
+        return entities;
+    }
+
+    /**
+     * Copies a model object with all embedded and referenced objects, the
+     * copy equals the result of encoding and decoding the object again.
+     *
+     * @param entity
+     *            the model object.
+     * @return the copy of the model object.
+     */
+    public <T> T copy(T entity) {
+
+        Copies copies = new Copies();
+        @SuppressWarnings("unchecked")
+        T copy = (T) copyValue(entity, copies);
+        copies.postLoad();
+        return copy;
+    }
+
+    /**
+     * Copies a list of model objects. Objects referenced from more than one
+     * model object are copied only once and shared, like when decoding.
+     *
+     * @param entities
+     *            the model objects.
+     * @return the copies of the model objects.
+     */
+    public <T> List<T> copyAll(List<T> entities) {
+
+        Copies copies = new Copies();
+        List<T> result = new ArrayList<>(entities.size());
+        for (T entity : entities) {
+            @SuppressWarnings("unchecked")
+            T copy = (T) copyValue(entity, copies);
+            result.add(copy);
+        }
+        copies.postLoad();
+        return result;
+    }
+
+    /**
+     * @param cls
+     *            the class type of an entity.
+     * @return the name of the collection in which the entities are stored or
+     *         <code>null</code> if the class is not an entity.
+     */
+    public String getCollection(Class<?> cls) {
+        return getInfo(cls).collection;
+    }
+
+    /**
+     * Gets the identifier of an entity. If the entity has none yet and the
+     * identifier is an {@link ObjectId}, a new identifier is assigned like it
+     * is done by Morphia when saving.
+     *
+     * @param entity
+     *            the entity.
+     * @param assign
+     *            whether a missing identifier should be assigned.
+     * @return the identifier of the entity.
+     */
+    public Object getId(Object entity, boolean assign) {
+
+        ClassInfo info = getInfo(entity.getClass());
+        if (info.id == null) {
+            throw new IllegalStateException(entity.getClass()
+                    + " has no identifier.");
+        }
+
+        Object id = info.id.get(entity);
+        if (id == null && assign && info.id.type == ObjectId.class) {
+            id = new ObjectId();
+            info.id.set(entity, id);
+        }
+        return id;
+    }
+
+    /**
+     * Converts a query value to the value which is stored in a document, that
+     * is the identifier for entities and the value itself otherwise.
+     *
+     * @param value
+     *            the query value.
+     * @return the value as it is compared to stored values.
+     */
+    public Object getKey(Object value) {
+
+        if (value == null || isSimple(value.getClass())) {
+            return value;
+        }
+
+        ClassInfo info = getInfo(value.getClass());
+        return (info.collection != null && info.id != null) ? info.id
+                .get(value) : value;
+    }
+
+    /**
+     * Converts a stored value to the value it is compared by, that is the
+     * identifier for references and the value itself otherwise.
+     *
+     * @param stored
+     *            the stored value.
+     * @return the value as it is compared to query values.
+     */
+    public static Object getStoredKey(Object stored) {
+
+        if (stored instanceof DBObject
+                && ((DBObject) stored).containsField(REF_KEY)) {
+            return ((DBObject) stored).get(REF_ID_KEY);
+        }
+        return stored;
+    }
+
+    private Object encodeValue(Object value, boolean isReference) {
+
+        Class<?> cls = value.getClass();
+        if (isSimple(cls)) {
+            return value;
+        } else if (cls.isEnum()) {
+            return ((Enum<?>) value).name();
+        } else if (cls.isArray()) {
+            BasicDBList list = new BasicDBList();
+            for (int i = 0; i < Array.getLength(value); i++) {
+                list.add(encodeNullable(Array.get(value, i), isReference));
+            }
+            return list;
+        } else if (value instanceof Collection) {
+            BasicDBList list = new BasicDBList();
+            for (Object element : (Collection<?>) value) {
+                list.add(encodeNullable(element, isReference));
+            }
+            return list;
+        } else if (value instanceof Map) {
+            BasicDBObject map = new BasicDBObject();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                map.put(entry.getKey().toString(),
+                        encodeNullable(entry.getValue(), isReference));
+            }
+            return map;
+        }
+
+        ClassInfo info = getInfo(cls);
+        if (isReference && info.collection != null) {
+            return new BasicDBObject(REF_KEY, info.collection).append(
+                    REF_ID_KEY, info.id.get(value));
+        }
+        return encode(value);
+    }
+
+    private Object encodeNullable(Object value, boolean isReference) {
+        return (value == null) ? null : encodeValue(value, isReference);
+    }
+
+    private Object decodeEntity(Class<?> cls, DBObject document,
+            Context context, Set<String> fields) {
+
+        ClassInfo info = getInfo(cls);
+        Object entity = info.newInstance();
+        if (info.id != null && document.containsField(ID_KEY)) {
+            context.entities.put(new Key(cls, document.get(ID_KEY)), entity);
+        }
+
+        for (FieldInfo field : info.fields) {
+            boolean isSelected = fields == null || field.isId
+                    || fields.contains(field.name);
+            if (isSelected && document.containsField(field.name)) {
+                Object value = decodeValue(field.genericType,
+                        document.get(field.name), field.isReference, context);
+                if (value != null || !field.type.isPrimitive()) {
+                    field.set(entity, value);
+                }
+            }
+        }
+
+        if (!info.postLoad.isEmpty()) {
+            context.loaded.add(entity);
+        }
+        return entity;
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private Object decodeValue(Type type, Object stored, boolean isReference,
+            Context context) {
+
+        if (stored == null) {
+            return null;
+        }
+
+        Class<?> cls = getRawClass(type);
+        if (isSimple(cls) || cls == Object.class) {
+            return convertSimple(cls, stored);
+        } else if (cls.isEnum()) {
+            return Enum.valueOf((Class<Enum>) cls, (String) stored);
+        } else if (cls.isArray()) {
+            List<?> list = (List<?>) stored;
+            Class<?> componentType = cls.getComponentType();
+            Object array = Array.newInstance(componentType, list.size());
+            for (int i = 0; i < list.size(); i++) {
+                Array.set(array, i, decodeValue(componentType, list.get(i),
+                        isReference, context));
+            }
+            return array;
+        } else if (Collection.class.isAssignableFrom(cls)) {
+            Collection collection = newCollection(cls);
+            Type elementType = getTypeArgument(type, 0);
+            for (Object element : (List<?>) stored) {
+                collection.add(decodeValue(elementType, element, isReference,
+                        context));
+            }
+            return collection;
+        } else if (Map.class.isAssignableFrom(cls)) {
+            Map map = SortedMap.class.isAssignableFrom(cls) ? new TreeMap()
+                    : new HashMap();
+            Type valueType = getTypeArgument(type, 1);
+            DBObject document = (DBObject) stored;
+            for (String key : document.keySet()) {
+                map.put(key, decodeValue(valueType, document.get(key),
+                        isReference, context));
+            }
+            return map;
+        }
+
+        DBObject document = (DBObject) stored;
+        if (isReference && document.containsField(REF_KEY)) {
+            return context.resolve(cls, document.get(REF_ID_KEY));
+        }
+        return decodeEntity(cls, document, context, null);
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private Object copyValue(Object value, Copies copies) {
+
+        if (value == null) {
+            return null;
+        }
+
+        Class<?> cls = value.getClass();
+        if (value instanceof Date) {
+            return new Date(((Date) value).getTime());
+        } else if (isSimple(cls) || cls.isEnum()) {
+            return value;
+        } else if (copies.objects.containsKey(value)) {
+            return copies.objects.get(value);
+        } else if (cls.isArray()) {
+            int length = Array.getLength(value);
+            Object array = Array.newInstance(cls.getComponentType(), length);
+            copies.objects.put(value, array);
+            for (int i = 0; i < length; i++) {
+                Array.set(array, i, copyValue(Array.get(value, i), copies));
+            }
+            return array;
+        } else if (value instanceof Collection) {
+            Collection collection = newCollection(cls);
+            copies.objects.put(value, collection);
+            for (Object element : (Collection<?>) value) {
+                collection.add(copyValue(element, copies));
+            }
+            return collection;
+        } else if (value instanceof Map) {
+            Map map = (value instanceof SortedMap) ? new TreeMap()
+                    : new HashMap();
+            copies.objects.put(value, map);
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                map.put(entry.getKey(), copyValue(entry.getValue(), copies));
+            }
+            return map;
+        }
+
+        ClassInfo info = getInfo(cls);
+        Object copy = info.newInstance();
+        copies.objects.put(value, copy);
+        for (FieldInfo field : info.fields) {
+            Object fieldValue = copyValue(field.get(value), copies);
+            if (fieldValue != null || !field.type.isPrimitive()) {
+                field.set(copy, fieldValue);
+            }
+        }
+
+        if (!info.postLoad.isEmpty()) {
+            copies.loaded.add(copy);
+        }
+        return copy;
+    }
+
+    private static boolean isSimple(Class<?> cls) {
+        return cls.isPrimitive() || cls == String.class
+                || cls == ObjectId.class || cls == Date.class
+                || cls == Boolean.class || cls == Character.class
+                || Number.class.isAssignableFrom(cls);
+    }
+
+    /**
+     * Numbers may be stored with a different width than the field has, for
+     * instance after being read back from a serialized document.
+     */
+    private static Object convertSimple(Class<?> cls, Object stored) {
+
+        if (!(stored instanceof Number)) {
+            return stored;
+        }
+
+        Number number = (Number) stored;
+        if (cls == int.class || cls == Integer.class) {
+            return number.intValue();
+        } else if (cls == long.class || cls == Long.class) {
+            return number.longValue();
+        } else if (cls == double.class || cls == Double.class) {
+            return number.doubleValue();
+        } else if (cls == float.class || cls == Float.class) {
+            return number.floatValue();
+        } else if (cls == short.class || cls == Short.class) {
+            return number.shortValue();
+        } else if (cls == byte.class || cls == Byte.class) {
+            return number.byteValue();
+        }
+        return stored;
+    }
+
+    @SuppressWarnings("rawtypes")
+    private static Collection newCollection(Class<?> cls) {
+
+        if (SortedSet.class.isAssignableFrom(cls)) {
+            return new TreeSet();
+        } else if (Set.class.isAssignableFrom(cls)) {
+            return new HashSet();
+        }
+        return new ArrayList();
+    }
+
+    private static Class<?> getRawClass(Type type) {
+
+        if (type instanceof Class) {
+            return (Class<?>) type;
+        } else if (type instanceof ParameterizedType) {
+            return (Class<?>) ((ParameterizedType) type).getRawType();
+        }
+        return Object.class;
+    }
+
+    private static Type getTypeArgument(Type type, int index) {
+
+        if (type instanceof ParameterizedType) {
+            Type[] arguments = ((ParameterizedType) type)
+                    .getActualTypeArguments();
+            if (index < arguments.length) {
+                return arguments[index];
+            }
+        }
+        return Object.class;
+    }
+
+    private ClassInfo getInfo(Class<?> cls) {
+
+        ClassInfo info = classes.get(cls);
+        if (info == null) {
+            info = new ClassInfo(cls);
+            classes.putIfAbsent(cls, info);
+        }
+        return info;
+    }
+
+    /**
+     * The mapping information of a class.
+     */
+    private static class ClassInfo {
+
+        final Class<?> cls;
+        final String collection;
+        final List<FieldInfo> fields = new ArrayList<>();
+        final List<Method> postLoad = new ArrayList<>();
+        FieldInfo id;
+        Constructor<?> constructor;
+
+        ClassInfo(Class<?> cls) {
+
+            this.cls = cls;
+            Entity entity = cls.getAnnotation(Entity.class);
+            if (entity == null) {
+                collection = null;
+            } else if (entity.value().equals(".")) {
+                collection = cls.getSimpleName();
+            } else {
+                collection = entity.value();
+            }
+
+            for (Class<?> c = cls; c != null && c != Object.class; c = c
+                    .getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    int modifiers = field.getModifiers();
+                    if (Modifier.isStatic(modifiers)
+                            || Modifier.isTransient(modifiers)
+                            || field.isAnnotationPresent(Transient.class)) {
+                        continue;
+                    }
+                    FieldInfo info = new FieldInfo(field);
+                    fields.add(info);
+                    if (info.isId) {
+                        id = info;
+                    }
+                }
+                for (Method method : c.getDeclaredMethods()) {
+                    if (method.isAnnotationPresent(PostLoad.class)) {
+                        method.setAccessible(true);
+                        postLoad.add(method);
+                    }
+                }
+            }
+
+            try {
+                constructor = cls.getDeclaredConstructor();
+                constructor.setAccessible(true);
+            } catch (NoSuchMethodException e) {
+                constructor = null;
+            }
+        }
+
+        Object newInstance() {
+
+            if (constructor == null) {
+                throw new IllegalStateException(cls
+                        + " has no default constructor.");
+            }
+
+            try {
+                return constructor.newInstance();
+            } catch (InstantiationException | IllegalAccessException
+                    | InvocationTargetException e) {
+                throw new IllegalStateException("Could not instantiate "
+                        + cls + ".", e);
+            }
+        }
+
+        void postLoad(Object entity) {
+
+            try {
+                for (Method method : postLoad) {
+                    method.invoke(entity);
+                }
+            } catch (IllegalAccessException | InvocationTargetException e) {
+                throw new IllegalStateException("Could not initialize "
+                        + cls + ".", e);
+            }
+        }
+    }
+
+    /**
+     * The mapping information of a field.
+     */
+    private static class FieldInfo {
+
+        final Field field;
+        final String name;
+        final Class<?> type;
+        final Type genericType;
+        final boolean isId;
+        final boolean isReference;
+
+        FieldInfo(Field field) {
+            field.setAccessible(true);
+            this.field = field;
+            this.isId = field.isAnnotationPresent(Id.class);
+            this.isReference = field.isAnnotationPresent(Reference.class);
+            this.name = isId ? ID_KEY : field.getName();
+            this.type = field.getType();
+            this.genericType = field.getGenericType();
+        }
+
+        Object get(Object entity) {
+            try {
+                return field.get(entity);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        void set(Object entity, Object value) {
+            try {
+                field.set(entity, value);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * The state of a single decode operation: the entities decoded so far,
+     * which makes cyclic references terminate, and the entities waiting for
+     * their post load methods.
+     */
+    private class Context {
+
+        final Resolver resolver;
+        final Map<Key, Object> entities = new HashMap<>();
+        final List<Object> loaded = new ArrayList<>();
+
+        Context(Resolver resolver) {
+            this.resolver = resolver;
+        }
+
+        Object resolve(Class<?> cls, Object id) {
+
+            Key key = new Key(cls, id);
+            if (entities.containsKey(key)) {
+                return entities.get(key);
+            }
+
+            DBObject document = (id == null) ? null : resolver.resolve(cls,
+                    id);
+            if (document == null) {
+                entities.put(key, null);
+                return null;
+            }
+            return decodeEntity(cls, document, this, null);
+        }
+
+        /**
+         * The post load methods are invoked after the whole object graph is
+         * decoded, so they may rely on referenced entities.
+         */
+        void postLoad() {
+            for (Object entity : loaded) {
+                getInfo(entity.getClass()).postLoad(entity);
+            }
+        }
+    }
+
+    /**
+     * The state of a single copy operation: the objects copied so far by
+     * their originals and the copies waiting for their post load methods.
+     */
+    private class Copies {
+
+        final Map<Object, Object> objects = new IdentityHashMap<>();
+        final List<Object> loaded = new ArrayList<>();
+
+        void postLoad() {
+            for (Object entity : loaded) {
+                getInfo(entity.getClass()).postLoad(entity);
+            }
+        }
+    }
+
+    /**
+     * Identifies an entity by its class and its identifier.
+     */
+    private static class Key {
+
+        final Class<?> cls;
+        final Object id;
+
+        Key(Class<?> cls, Object id) {
+            this.cls = cls;
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            } else {
+                Key other = (Key) o;
+                return cls == other.cls
+                        && (id == null ? other.id == null : id
+                                .equals(other.id));
+            }
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * cls.hashCode() + (id == null ? 0 : id.hashCode());
+        }
+    }
+
+}
@@ -0,0 +1,489 @@
+package berlin.reiche.virginia;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+/**
+ * A repository which keeps all entities in memory. It needs no database
+ * server and answers at memory speed, therefore it is suited for tests,
+ * benchmarks and load tests.
+ *
+ * Entities are stored as documents, so a stored entity is not affected by
+ * later modifications of the model object and every read returns new model
+ * objects (copy-on-read). Referenced entities are resolved when reading,
+ * like it is done by Morphia. Secondary indexes are built on the first query
+ * on a field and are maintained on every write afterwards.
+ *
+ * @author Konrad Reiche
+ *
+ */
+public class InMemoryRepository implements Repository {
+
+    /**
+     * Converts between model objects and documents.
+     */
+    protected final EntityCodec codec = new EntityCodec();
+
+    /**
+     * The stored documents per entity class.
+     */
+    private final ConcurrentMap<Class<?>, Table> tables =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Resolves references by looking up the stored documents.
+     */
+    private final EntityCodec.Resolver resolver = new EntityCodec.Resolver() {
+
+        @Override
+        public DBObject resolve(Class<?> cls, Object id) {
+            Table table = tables.get(cls);
+            return (table == null) ? null : table.documents.get(id);
+        }
+    };
+
+    /**
+     * The in-memory repository is always available.
+     *
+     * @see berlin.reiche.virginia.Repository#isConnected()
+     */
+    @Override
+    public boolean isConnected() {
+        return true;
+    }
+
+    /**
+     * @see berlin.reiche.virginia.Repository#get(java.lang.Class,
+     *      java.lang.Object)
+     */
+    @Override
+    public <T, V> T get(Class<T> cls, V id) {
+
+        Table table = tables.get(cls);
+        DBObject document = (table == null || id == null) ? null
+                : table.documents.get(id);
+        return (document == null) ? null : codec.decode(cls, document,
+                resolver, null);
+    }
+
+    /**
+     * @see berlin.reiche.virginia.Repository#getAll(java.lang.Class)
+     */
+    @Override
+    public <T> List<T> getAll(Class<T> cls) {
+
+        Table table = tables.get(cls);
+        if (table == null) {
+            return new ArrayList<>();
+        }
+        return codec.decodeAll(cls, table.documents.values(), resolver, null);
+    }
+
+    /**
+     * @see berlin.reiche.virginia.Repository#getAll(java.lang.Class,
+     *      java.util.Collection)
+     */
+    @Override
+    public <T, V> List<T> getAll(Class<T> cls, Collection<V> ids) {
+
+        Table table = tables.get(cls);
+        if (table == null) {
+            return new ArrayList<>();
+        }
+
+        List<DBObject> documents = new ArrayList<>();
+        for (V id : ids) {
+            DBObject document = (id == null) ? null : table.documents.get(id);
+            if (document != null) {
+                documents.add(document);
+            }
+        }
+        return codec.decodeAll(cls, documents, resolver, null);
+    }
+
+    /**
+     * Only equality is supported. The field is looked up in an index, which
+     * is built on the first query on this field.
+     *
+     * @see berlin.reiche.virginia.Repository#find(java.lang.Class,
+     *      java.lang.String, java.lang.Object)
+     */
+    @Override
+    public <T> List<T> find(Class<T> cls, String field, Object value) {
+
+        Table table = tables.get(cls);
+        if (table == null) {
+            return new ArrayList<>();
+        }
+        List<DBObject> documents = table.find(field, codec.getKey(value));
+        return codec.decodeAll(cls, documents, resolver, null);
+    }
+
+    /**
+     * @see berlin.reiche.virginia.Repository#getPage(java.lang.Class,
+     *      java.lang.Object, int, java.lang.String[])
+     */
+    @Override
+    public <T> Page<T> getPage(Class<T> cls, Object after, int limit,
+            String... fields) {
+
+        Table table = tables.get(cls);
+        if (table == null) {
+            return new Page<>(new ArrayList<T>(), null, limit);
+        }
+
+        NavigableMap<Object, DBObject> documents = table.documents;
+        if (after != null) {
+            documents = documents.tailMap(after, false);
+        }
+
+        List<DBObject> selected = new ArrayList<>();
+        Object last = null;
+        Object next = null;
+        for (Map.Entry<Object, DBObject> entry : documents.entrySet()) {
+            if (selected.size() == limit) {
+                next = last;
+                break;
+            }
+            selected.add(entry.getValue());
+            last = entry.getKey();
+        }
+
+        Set<String> projection = (fields.length == 0) ? null
+                : new HashSet<>(Arrays.asList(fields));
+        List<T> items = codec.decodeAll(cls, selected, resolver, projection);
+        return new Page<>(items, next, limit);
+    }
+
+    /**
+     * @see berlin.reiche.virginia.Repository#store(java.lang.Object)
+     */
+    @Override
+    public <T> Object store(T entity) {
+
+        Object id = codec.getId(entity, true);
+        if (id == null) {
+            throw new IllegalStateException("The entity " + entity
+                    + " has no identifier.");
+        }
+        put(entity.getClass(), id, codec.encode(entity));
+        return id.toString();
+    }
+
+    /**
+     * @see berlin.reiche.virginia.Repository#storeAll(java.util.Collection)
+     */
+    @Override
+    public <T> void storeAll(Collection<T> entities) {
+        for (T entity : entities) {
+            store(entity);
+        }
+    }
+
+    /**
+     * @see berlin.reiche.virginia.Repository#delete(java.lang.Class,
+     *      java.lang.Object)
+     */
+    @Override
+    public <T, V> void delete(Class<T> cls, V id) {
+        if (id != null) {
+            remove(cls, id);
+        }
+    }
+
+    /**
+     * @see berlin.reiche.virginia.Repository#delete(java.lang.Object)
+     */
+    @Override
+    public <T> void delete(T entity) {
+        delete(entity.getClass(), codec.getId(entity, false));
+    }
+
+    /**
+     * @see berlin.reiche.virginia.Repository#deleteAll(java.lang.Class)
+     */
+    @Override
+    public <T> void deleteAll(Class<T> cls) {
+        clear(cls);
+    }
+
+    /**
+     * @see berlin.reiche.virginia.Repository#deleteAll(java.lang.Class,
+     *      java.util.Collection)
+     */
+    @Override
+    public <T, V> void deleteAll(Class<T> cls, Collection<V> ids) {
+        for (V id : ids) {
+            delete(cls, id);
+        }
+    }
+
+    /**
+     * The updates are serialized by the repository, a concurrent store of the
+     * whole entity replaces the list like it does in MongoDB.
+     *
+     * @see berlin.reiche.virginia.Repository#addToSet(java.lang.Class,
+     *      java.lang.Object, java.lang.String, java.lang.Object)
+     */
+    @Override
+    public synchronized <T, V> void addToSet(Class<T> cls, V id,
+            String field, Object value) {
+
+        DBObject document = getTable(cls).documents.get(id);
+        BasicDBList list = getList(document, field);
+        if (document == null || !list.contains(value)) {
+            list.add(value);
+            put(cls, id, update(document, id, field, list));
+        }
+    }
+
+    /**
+     * @see berlin.reiche.virginia.Repository#pull(java.lang.Class,
+     *      java.util.Collection, java.lang.String, java.lang.Object)
+     */
+    @Override
+    public synchronized <T, V> void pull(Class<T> cls, Collection<V> ids,
+            String field, Object value) {
+
+        Table table = tables.get(cls);
+        if (table == null) {
+            return;
+        }
+        for (V id : ids) {
+            DBObject document = (id == null) ? null : table.documents.get(id);
+            BasicDBList list = getList(document, field);
+            if (list.removeAll(Collections.singleton(value))) {
+                put(cls, id, update(document, id, field, list));
+            }
+        }
+    }
+
+    /**
+     * @return a copy of a list field of a document, empty if there is none.
+     */
+    private static BasicDBList getList(DBObject document, String field) {
+
+        BasicDBList list = new BasicDBList();
+        Object value = (document == null) ? null : document.get(field);
+        if (value instanceof List) {
+            list.addAll((List<?>) value);
+        }
+        return list;
+    }
+
+    /**
+     * @return a copy of a document with a replaced field, since the stored
+     *         documents are shared by the readers.
+     */
+    private static DBObject update(DBObject document, Object id, String field,
+            Object value) {
+
+        BasicDBObject updated = new BasicDBObject(EntityCodec.ID_KEY, id);
+        if (document != null) {
+            updated.putAll(document);
+        }
+        updated.put(field, value);
+        return updated;
+    }
+
+    /**
+     * Puts a document into the repository, replacing the document with the
+     * same identifier. Subclasses may override this method in order to
+     * persist the write.
+     *
+     * @param cls
+     *            the class type of the entity.
+     * @param id
+     *            the unique identifier of the entity.
+     * @param document
+     *            the document representing the entity.
+     */
+    protected void put(Class<?> cls, Object id, DBObject document) {
+        getTable(cls).put(id, document);
+    }
+
+    /**
+     * Removes a document from the repository. Subclasses may override this
+     * method in order to persist the write.
+     *
+     * @param cls
+     *            the class type of the entity.
+     * @param id
+     *            the unique identifier of the entity.
+     */
+    protected void remove(Class<?> cls, Object id) {
+        Table table = tables.get(cls);
+        if (table != null) {
+            table.remove(id);
+        }
+    }
+
+    /**
+     * Removes all documents of a certain type. Subclasses may override this
+     * method in order to persist the write.
+     *
+     * @param cls
+     *            the class type of the entities.
+     */
+    protected void clear(Class<?> cls) {
+        Table table = tables.get(cls);
+        if (table != null) {
+            table.clear();
+        }
+    }
+
+    private Table getTable(Class<?> cls) {
+
+        Table table = tables.get(cls);
+        if (table == null) {
+            table = new Table();
+            Table present = tables.putIfAbsent(cls, table);
+            if (present != null) {
+                table = present;
+            }
+        }
+        return table;
+    }
+
+    /**
+     * The documents of one entity class together with the secondary indexes.
+     * Writes are serialized per table, reads do not lock.
+     */
+    private static class Table {
+
+        /**
+         * The documents ordered by their identifiers.
+         */
+        final ConcurrentSkipListMap<Object, DBObject> documents =
+                new ConcurrentSkipListMap<>();
+
+        /**
+         * Maps a field name to an index, which maps the values of the field to
+         * the identifiers of the documents with this value.
+         */
+        final ConcurrentMap<String, ConcurrentMap<Object, Set<Object>>>
+                indexes = new ConcurrentHashMap<>();
+
+        synchronized void put(Object id, DBObject document) {
+
+            DBObject old = documents.put(id, document);
+            for (String field : indexes.keySet()) {
+                if (old != null) {
+                    unindex(indexes.get(field), field, id, old);
+                }
+                index(indexes.get(field), field, id, document);
+            }
+        }
+
+        synchronized void remove(Object id) {
+
+            DBObject old = documents.remove(id);
+            if (old != null) {
+                for (String field : indexes.keySet()) {
+                    unindex(indexes.get(field), field, id, old);
+                }
+            }
+        }
+
+        synchronized void clear() {
+            documents.clear();
+            indexes.clear();
+        }
+
+        List<DBObject> find(String field, Object key) {
+
+            ConcurrentMap<Object, Set<Object>> index = indexes.get(field);
+            if (index == null) {
+                index = createIndex(field);
+            }
+
+            List<DBObject> result = new ArrayList<>();
+            Set<Object> ids = (key == null) ? null : index.get(key);
+            if (ids != null) {
+                for (Object id : ids) {
+                    DBObject document = documents.get(id);
+                    if (document != null) {
+                        result.add(document);
+                    }
+                }
+            }
+            return result;
+        }
+
+        private synchronized ConcurrentMap<Object, Set<Object>> createIndex(
+                String field) {
+
+            ConcurrentMap<Object, Set<Object>> index = indexes.get(field);
+            if (index == null) {
+                index = new ConcurrentHashMap<>();
+                for (Map.Entry<Object, DBObject> entry : documents.entrySet()) {
+                    index(index, field, entry.getKey(), entry.getValue());
+                }
+                indexes.put(field, index);
+            }
+            return index;
+        }
+
+        private static void index(ConcurrentMap<Object, Set<Object>> index,
+                String field, Object id, DBObject document) {
+
+            for (Object key : getKeys(document.get(field))) {
+                Set<Object> ids = index.get(key);
+                if (ids == null) {
+                    ids = Collections.newSetFromMap(
+                            new ConcurrentHashMap<Object, Boolean>());
+                    index.put(key, ids);
+                }
+                ids.add(id);
+            }
+        }
+
+        private static void unindex(ConcurrentMap<Object, Set<Object>> index,
+                String field, Object id, DBObject document) {
+
+            for (Object key : getKeys(document.get(field))) {
+                Set<Object> ids = index.get(key);
+                if (ids != null) {
+                    ids.remove(id);
+                    if (ids.isEmpty()) {
+                        index.remove(key);
+                    }
+                }
+            }
+        }
+
+        /**
+         * A list is indexed by each of its elements.
+         */
+        private static List<Object> getKeys(Object value) {
+
+            List<Object> keys = new ArrayList<>();
+            if (value instanceof List) {
+                for (Object element : (List<?>) value) {
+                    Object key = EntityCodec.getStoredKey(element);
+                    if (key != null) {
+                        keys.add(key);
+                    }
+                }
+            } else if (value != null) {
+                keys.add(EntityCodec.getStoredKey(value));
+            }
+            return keys;
+        }
+    }
+
+}
@@ -0,0 +1,188 @@
+package berlin.reiche.virginia;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Writes JSON directly to a {@link Writer} without building a document in
+ * memory first. Objects and arrays are opened and closed explicitly, commas
+ * are inserted automatically.
+ *
+ * @author Konrad Reiche
+ *
+ */
+public class JsonWriter {
+
+    private final Writer out;
+
+    /**
+     * For each open object or array whether it already has an element.
+     */
+    private final Deque<Boolean> hasElements = new ArrayDeque<>();
+
+    /**
+     * Whether a name was written and its value is expected next.
+     */
+    private boolean isNamed;
+
+    public JsonWriter(Writer out) {
+        this.out = out;
+    }
+
+    public JsonWriter beginObject() throws IOException {
+        return open('{');
+    }
+
+    public JsonWriter endObject() throws IOException {
+        return close('}');
+    }
+
+    public JsonWriter beginArray() throws IOException {
+        return open('[');
+    }
+
+    public JsonWriter endArray() throws IOException {
+        return close(']');
+    }
+
+    /**
+     * Writes the name of the next member of the current object.
+     *
+     * @param name
+     *            the name.
+     * @return this writer.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public JsonWriter name(String name) throws IOException {
+        separate();
+        writeString(name);
+        out.write(':');
+        isNamed = true;
+        return this;
+    }
+
+    public JsonWriter value(String value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        }
+        separate();
+        writeString(value);
+        return this;
+    }
+
+    public JsonWriter value(long value) throws IOException {
+        separate();
+        out.write(Long.toString(value));
+        return this;
+    }
+
+    public JsonWriter value(double value) throws IOException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return nullValue();
+        }
+        separate();
+        out.write(Double.toString(value));
+        return this;
+    }
+
+    public JsonWriter value(boolean value) throws IOException {
+        separate();
+        out.write(value ? "true" : "false");
+        return this;
+    }
+
+    public JsonWriter nullValue() throws IOException {
+        separate();
+        out.write("null");
+        return this;
+    }
+
+    /**
+     * Writes a name and a string value.
+     */
+    public JsonWriter member(String name, String value) throws IOException {
+        return name(name).value(value);
+    }
+
+    /**
+     * Writes a name and a number value.
+     */
+    public JsonWriter member(String name, long value) throws IOException {
+        return name(name).value(value);
+    }
+
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    private JsonWriter open(char bracket) throws IOException {
+        separate();
+        out.write(bracket);
+        hasElements.push(false);
+        return this;
+    }
+
+    private JsonWriter close(char bracket) throws IOException {
+        if (hasElements.isEmpty()) {
+            throw new IllegalStateException("There is nothing to close.");
+        }
+        hasElements.pop();
+        out.write(bracket);
+        return this;
+    }
+
+    /**
+     * Writes a comma if the current value is not the first element of the
+     * enclosing object or array.
+     */
+    private void separate() throws IOException {
+
+        if (isNamed) {
+            isNamed = false;
+            return;
+        }
+
+        if (!hasElements.isEmpty()) {
+            if (hasElements.pop()) {
+                out.write(',');
+            }
+            hasElements.push(true);
+        }
+    }
+
+    private void writeString(String value) throws IOException {
+
+        out.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+            case '"':
+                out.write("\\\"");
+                break;
+            case '\\':
+                out.write("\\\\");
+                break;
+            case '\n':
+                out.write("\\n");
+                break;
+            case '\r':
+                out.write("\\r");
+                break;
+            case '\t':
+                out.write("\\t");
+                break;
+            default:
+                if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                    out.write(String.format("\\u%04x", (int) c));
+                } else {
+                    out.write(c);
+                }
+            }
+        }
+        out.write('"');
+    }
+
+}
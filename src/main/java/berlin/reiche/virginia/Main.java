@@ -2,12 +2,29 @@ package berlin.reiche.virginia;
 
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import javax.servlet.DispatcherType;
 
 import org.eclipse.jetty.security.ConstraintMapping;
 import org.eclipse.jetty.security.ConstraintSecurityHandler;
-import org.eclipse.jetty.security.HashLoginService;
 import org.eclipse.jetty.security.SecurityHandler;
 import org.eclipse.jetty.security.authentication.FormAuthenticator;
 import org.eclipse.jetty.server.Handler;
@@ -15,6 +32,8 @@ import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.handler.ContextHandler;
 import org.eclipse.jetty.server.handler.ContextHandlerCollection;
 import org.eclipse.jetty.server.handler.ResourceHandler;
+import org.eclipse.jetty.server.nio.SelectChannelConnector;
+import org.eclipse.jetty.servlet.FilterHolder;
 import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
 import org.eclipse.jetty.util.security.Constraint;
@@ -22,10 +41,18 @@ import org.eclipse.jetty.util.security.Constraint;
 import berlin.reiche.virginia.model.Equipment;
 import berlin.reiche.virginia.model.Timeframe;
 import berlin.reiche.virginia.model.User;
+import berlin.reiche.virginia.servlets.AdminServlet;
+import berlin.reiche.virginia.servlets.AdmissionFilter;
 import berlin.reiche.virginia.servlets.AppServlet;
+import berlin.reiche.virginia.servlets.AssetServlet;
 import berlin.reiche.virginia.servlets.EquipmentServlet;
+import berlin.reiche.virginia.servlets.ImportServlet;
+import berlin.reiche.virginia.servlets.MetricsFilter;
+import berlin.reiche.virginia.servlets.MetricsServlet;
 import berlin.reiche.virginia.servlets.ModuleServlet;
 import berlin.reiche.virginia.servlets.RoomServlet;
+import berlin.reiche.virginia.servlets.ScheduleApiServlet;
+import berlin.reiche.virginia.servlets.ScheduleSocketServlet;
 import berlin.reiche.virginia.servlets.SchedulerServlet;
 import berlin.reiche.virginia.servlets.TimeframeServlet;
 import berlin.reiche.virginia.servlets.UserServlet;
@@ -52,9 +79,12 @@ public class Main {
     private static final String SCHEDULER_PROPERTIES_PATH = "site/resources/scheduler.properties";
 
     /**
-     * Real name of the login service.
+     * Path to the fingerprint of the admin credentials, which were verified
+     * last. It is kept outside of the served resources.
      */
-    private static final String REALM_NAME = "User Realm";
+    private static final String ADMIN_FINGERPRINT_PATH = "admin.fingerprint";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
 
     /**
      * The Jetty HTTP Servlet Server.
@@ -64,15 +94,23 @@ public class Main {
     /**
      * Launches the web server.
      * 
+     * The property files are read once. While the database is seeded with the
+     * default entities, the servlets are initialized. The server only accepts
+     * connections after both have finished.
+     * 
      * @throws IOException
      *             if there is a problem with the server properties file.
      */
     public static void main(String... args) throws IOException {
 
+        long start = System.currentTimeMillis();
+        Properties serverProperties = loadProperties(SERVER_PROPERTIES_PATH);
+        Properties schedulerProperties = loadProperties(SCHEDULER_PROPERTIES_PATH);
         checkDatabaseConnectivity();
-        checkServerProperties();
-        checkSchedulerProperties();
-        server = new Server(port);
+        checkServerProperties(serverProperties);
+        List<Future<Void>> seeding = startSeeding(serverProperties,
+                schedulerProperties);
+        server = new Server();
 
         try {
             ServletContextHandler context = new ServletContextHandler(
@@ -85,9 +123,6 @@ public class Main {
 
             context.setContextPath("/");
             context.setSecurityHandler(setUpSecurityHandler());
-            AppServlet.getInstance().setLoginService(
-                    (HashLoginService) context.getSecurityHandler()
-                            .getLoginService());
 
             context.addServlet(new ServletHolder(AppServlet.getInstance()),
                     "/*");
@@ -106,22 +141,75 @@ public class Main {
             context.addServlet(
                     new ServletHolder(SchedulerServlet.getInstance()),
                     "/scheduler/*");
-
-            ContextHandler fileHandler = new ContextHandler();
-            fileHandler.setContextPath("/resources");
-            ResourceHandler resourceHandler = new ResourceHandler();
-            resourceHandler.setResourceBase("site/resources");
-            fileHandler.setHandler(resourceHandler);
+            context.addServlet(new ServletHolder(AdminServlet.getInstance()),
+                    "/admin/*");
+            context.addServlet(new ServletHolder(ImportServlet.getInstance()),
+                    "/import/*");
+            context.addServlet(
+                    new ServletHolder(ScheduleApiServlet.getInstance()),
+                    "/api/schedule/*");
+            context.addServlet(
+                    new ServletHolder(ScheduleSocketServlet.getInstance()),
+                    ScheduleSocketServlet.root);
+
+            // records the latency of every page below the application context
+            context.addFilter(new FilterHolder(MetricsFilter.getInstance()),
+                    "/*", EnumSet.of(DispatcherType.REQUEST));
+            context.addFilter(
+                    new FilterHolder(AdmissionFilter.getInstance()), "/*",
+                    EnumSet.of(DispatcherType.REQUEST));
+
+            // the assets are needed by the login page, thus not protected
+            ServletContextHandler assetContext = new ServletContextHandler(
+                    ServletContextHandler.NO_SESSIONS);
+            assetContext.setContextPath(AssetServlet.root);
+            assetContext.addServlet(
+                    new ServletHolder(AssetServlet.getInstance()), "/*");
+
+            // a scraper cannot log in, the servlet checks the address instead
+            ServletContextHandler metricsContext = new ServletContextHandler(
+                    ServletContextHandler.NO_SESSIONS);
+            metricsContext.setContextPath(MetricsServlet.root);
+            metricsContext.addServlet(
+                    new ServletHolder(MetricsServlet.getInstance()), "/*");
+
+            List<Handler> handlers = new ArrayList<>(Arrays.<Handler> asList(
+                    context, assetContext, metricsContext));
+
+            // only the asset directories, the property files hold passwords
+            for (String directory : AssetPipeline.ASSET_DIRECTORIES) {
+                ContextHandler fileHandler = new ContextHandler();
+                fileHandler.setContextPath(AssetPipeline.RESOURCE_PATH + "/"
+                        + directory);
+                ResourceHandler resourceHandler = new ResourceHandler();
+                resourceHandler.setResourceBase("site/resources/" + directory);
+                fileHandler.setHandler(resourceHandler);
+                handlers.add(fileHandler);
+            }
 
             ContextHandlerCollection contexts = new ContextHandlerCollection();
-            contexts.setHandlers(new Handler[] { context, fileHandler });
+            contexts.setHandlers(handlers
+                    .toArray(new Handler[handlers.size()]));
             server.setHandler(contexts);
 
             server.start();
+            awaitSeeding(seeding);
+
+            SelectChannelConnector connector = new SelectChannelConnector();
+            connector.setPort(port);
+            server.addConnector(connector);
+            connector.start();
+            System.out.println("Server started on port " + port + " in "
+                    + (System.currentTimeMillis() - start) + " ms.");
 
         } catch (Exception e) {
             System.err.println("Server failed to start.");
             e.printStackTrace();
+            try {
+                server.stop();
+            } catch (Exception stopFailure) {
+                stopFailure.printStackTrace();
+            }
         }
     }
 
@@ -134,17 +222,13 @@ public class Main {
      * constraint is added to make the path to the sign up form available for
      * non-authenticated user.
      * 
+     * The credentials are not loaded up front, the login service looks them
+     * up in the database on demand.
+     * 
      * @return the configured security handler.
      */
     private static SecurityHandler setUpSecurityHandler() {
 
-        HashLoginService loginService = new HashLoginService();
-        loginService.setName(REALM_NAME);
-        for (User user : MongoDB.getAll(User.class)) {
-            BCryptPassword password = new BCryptPassword(user.getPassword());
-            loginService.putUser(user.getLogin(), password, User.ROLES);
-        }
-
         Constraint constraint = new Constraint();
         constraint.setName(Constraint.__FORM_AUTH);
         constraint.setRoles(User.ROLES);
@@ -166,57 +250,244 @@ public class Main {
         csh.setAuthenticator(new FormAuthenticator("/login", "/login/error",
                 false));
 
-        csh.setRealmName(REALM_NAME);
+        csh.setRealmName(MongoLoginService.getInstance().getName());
         csh.addConstraintMapping(cm);
         csh.addConstraintMapping(rm);
-        csh.setLoginService(loginService);
+        csh.setLoginService(MongoLoginService.getInstance());
 
         return csh;
     }
 
     /**
-     * Applies the server configuration as defined in a file.
+     * Applies the server configuration as defined in a file. The database is
+     * not accessed.
      * 
-     * @throws IOException
-     *             if an error occurred with the server property file.
+     * @param serverProperties
+     *            the server properties.
      */
-    private static void checkServerProperties() throws IOException {
+    private static void checkServerProperties(Properties serverProperties) {
 
-        Properties serverProperties = new Properties();
-        FileInputStream input = new FileInputStream(SERVER_PROPERTIES_PATH);
-        serverProperties.load(input);
         port = Integer.valueOf(serverProperties.getProperty("server.port"));
+        MongoDB.enableCache(Integer.valueOf(serverProperties.getProperty(
+                "cache.size", "0")));
+        MongoDB.getStatistics().setSlowMillis(Long.valueOf(serverProperties
+                .getProperty("query.slowMillis", String.valueOf(
+                        QueryStatistics.DEFAULT_SLOW_MILLIS))));
+        User.setLogRounds(Integer.valueOf(serverProperties.getProperty(
+                "password.logRounds", String.valueOf(User.DEFAULT_LOG_ROUNDS))));
+        CredentialVerifier.setInstance(new CredentialVerifier(
+                Integer.valueOf(serverProperties.getProperty("login.cacheSize",
+                        String.valueOf(CredentialVerifier.DEFAULT_CACHE_SIZE))),
+                Integer.valueOf(serverProperties.getProperty(
+                        "login.cacheSeconds", String
+                                .valueOf(CredentialVerifier.DEFAULT_TTL_SECONDS))),
+                Integer.valueOf(serverProperties.getProperty("login.threads",
+                        String.valueOf(CredentialVerifier.getDefaultThreads()))),
+                Integer.valueOf(serverProperties.getProperty("login.queueSize",
+                        String.valueOf(CredentialVerifier.DEFAULT_QUEUE_SIZE)))));
+        MongoLoginService.getInstance().setCacheSize(
+                Integer.valueOf(serverProperties.getProperty(
+                        "login.userCacheSize",
+                        String.valueOf(MongoLoginService.DEFAULT_CACHE_SIZE))));
+        AdmissionFilter.getInstance().configure(serverProperties);
+        MetricsServlet.getInstance().setAllowedAddresses(
+                serverProperties.getProperty("metrics.allowedAddresses",
+                        MetricsServlet.DEFAULT_ALLOWED_ADDRESSES));
+        ImportServlet.getInstance().configure(
+                Integer.valueOf(serverProperties.getProperty(
+                        "import.batchSize",
+                        String.valueOf(ImportServlet.DEFAULT_BATCH_SIZE))),
+                Integer.valueOf(serverProperties.getProperty(
+                        "import.hashThreads",
+                        String.valueOf(ImportServlet.getDefaultHashThreads()))));
+    }
+
+    /**
+     * Starts the checks which seed the database with default entities and
+     * prepare the caches. They run concurrently to each other and to the
+     * initialization of the servlets.
+     * 
+     * @return the running tasks.
+     */
+    private static List<Future<Void>> startSeeding(
+            final Properties serverProperties,
+            final Properties schedulerProperties) {
+
+        List<Callable<Void>> tasks = new ArrayList<>();
+        tasks.add(new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                checkAdmin(serverProperties);
+                return null;
+            }
+        });
+        tasks.add(new Callable<Void>() {
+            @Override
+            public Void call() {
+                checkTimeframe(schedulerProperties);
+                return null;
+            }
+        });
+        tasks.add(new Callable<Void>() {
+            @Override
+            public Void call() {
+                checkEquipment(schedulerProperties);
+                return null;
+            }
+        });
+        tasks.add(new Callable<Void>() {
+            @Override
+            public Void call() {
+                ResponsibilityIndex.rebuildIfEmpty();
+                return null;
+            }
+        });
+        tasks.add(new Callable<Void>() {
+            @Override
+            public Void call() {
+                AssetPipeline.getInstance();
+                return null;
+            }
+        });
+        if (serverProperties.getProperty("server.mode", "development")
+                .trim().equals("production")) {
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    long start = System.currentTimeMillis();
+                    int templates = AppServlet.setProductionMode(true);
+                    System.out.println("Parsed " + templates
+                            + " templates in "
+                            + (System.currentTimeMillis() - start) + " ms.");
+                    return null;
+                }
+            });
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(tasks.size(),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "startup");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        List<Future<Void>> futures = new ArrayList<>();
+        for (Callable<Void> task : tasks) {
+            futures.add(pool.submit(task));
+        }
+        pool.shutdown();
+        return futures;
+    }
+
+    /**
+     * Waits for the seeding tasks.
+     * 
+     * @throws Exception
+     *             the failure of the first failed task.
+     */
+    private static void awaitSeeding(List<Future<Void>> seeding)
+            throws Exception {
+
+        for (Future<Void> task : seeding) {
+            try {
+                task.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Exception) {
+                    throw (Exception) e.getCause();
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Makes sure that the admin user exists with the configured password.
+     * Verifying the password costs a bcrypt computation, thus a fingerprint of
+     * the last verified credentials is kept and the password is only verified
+     * again if the configuration or the stored hash changed.
+     * 
+     * @throws IOException
+     *             if the fingerprint could not be written.
+     */
+    private static void checkAdmin(Properties serverProperties)
+            throws IOException {
+
         String adminLogin = serverProperties.getProperty("admin.login");
         String adminPassword = serverProperties.getProperty("admin.password");
 
         User admin = MongoDB.get(User.class, adminLogin);
+        if (admin != null
+                && getFingerprint(adminLogin, adminPassword,
+                        admin.getPassword()).equals(readAdminFingerprint())) {
+            return;
+        }
+
         if (admin == null) {
             admin = new User(adminLogin, adminPassword, "Administrator",
                     "admin@admin.com", false, false);
             MongoDB.store(admin);
             System.out.println("Created default admin user.");
-        }
-
-        if (!admin.checkPassword(adminPassword)) {
+        } else if (!admin.checkPassword(adminPassword)) {
             MongoDB.delete(User.class, adminLogin);
             admin = new User(adminLogin, adminPassword, "Administrator",
                     "admin@admin.com", false, false);
             MongoDB.store(admin);
+            MongoLoginService.getInstance().invalidate(adminLogin);
             System.out.println("Assigned a new admin password.");
         }
+
+        Files.write(Paths.get(ADMIN_FINGERPRINT_PATH), getFingerprint(
+                adminLogin, adminPassword, admin.getPassword()).getBytes(UTF8));
     }
 
     /**
-     * Applies the scheduler configuration as defined in a file.
-     * 
-     * @throws IOException
-     *             if an error occurred with the scheduler property file.
+     * @return the fingerprint of the last verified admin credentials or
+     *         <code>null</code> if there is none.
      */
-    private static void checkSchedulerProperties() throws IOException {
+    private static String readAdminFingerprint() throws IOException {
+        try {
+            return new String(Files.readAllBytes(Paths
+                    .get(ADMIN_FINGERPRINT_PATH)), UTF8).trim();
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
 
-        Properties properties = new Properties();
-        FileInputStream input = new FileInputStream(SCHEDULER_PROPERTIES_PATH);
-        properties.load(input);
+    /**
+     * @return a SHA-256 digest of the login, the password and the password
+     *         hash as hexadecimal string.
+     */
+    static String getFingerprint(String login, String password, String hash) {
+
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String part : Arrays.asList(login, password, hash)) {
+                byte[] bytes = String.valueOf(part).getBytes(UTF8);
+                // length prefixed, so that the parts cannot be shifted
+                digest.update((byte) (bytes.length >>> 24));
+                digest.update((byte) (bytes.length >>> 16));
+                digest.update((byte) (bytes.length >>> 8));
+                digest.update((byte) bytes.length);
+                digest.update(bytes);
+            }
+
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest.digest()) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported.", e);
+        }
+    }
+
+    /**
+     * Creates the default timeframe as defined in the scheduler properties,
+     * unless there is one.
+     */
+    private static void checkTimeframe(Properties properties) {
 
         if (MongoDB.getAll(Timeframe.class).isEmpty()) {
 
@@ -234,6 +505,13 @@ public class Main {
             MongoDB.store(timeframe);
             System.out.println("Created default timeframe.");
         }
+    }
+
+    /**
+     * Creates the default equipment as defined in the scheduler properties,
+     * unless there is some.
+     */
+    private static void checkEquipment(Properties properties) {
 
         if (MongoDB.getAll(Equipment.class).isEmpty()) {
 
@@ -246,21 +524,28 @@ public class Main {
     }
 
     /**
-     * The web application requires a working database connection. Thus it is
-     * checked and if problem occurs the application has to be shut down.
+     * Reads a property file.
      * 
      * @throws IOException
-     *             if an error occurred with the scheduler property file.
+     *             if an error occurred with the property file.
      */
-    private static void checkDatabaseConnectivity() throws IOException {
+    private static Properties loadProperties(String path) throws IOException {
 
-        Properties serverProperties = new Properties();
-        FileInputStream input = new FileInputStream(SERVER_PROPERTIES_PATH);
-        serverProperties.load(input);
-        int port = Integer.valueOf(serverProperties.getProperty("server.port"));
+        Properties properties = new Properties();
+        try (InputStream input = new FileInputStream(path)) {
+            properties.load(input);
+        }
+        return properties;
+    }
+
+    /**
+     * The web application requires a working database connection. Thus it is
+     * checked and if problem occurs the application has to be shut down.
+     */
+    private static void checkDatabaseConnectivity() {
 
         if (!MongoDB.isConnected()) {
-            System.err.println("No MongoDB running on localhost:" + port);
+            System.err.println("No MongoDB running on localhost.");
             System.err.println("Application is shut down.");
             System.exit(-1);
         }
@@ -1,68 +1,181 @@
 package berlin.reiche.virginia;
 
-import java.net.UnknownHostException;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
-import com.google.code.morphia.Datastore;
-import com.google.code.morphia.Morphia;
-import com.google.code.morphia.query.Query;
-import com.mongodb.Mongo;
-import com.mongodb.MongoException;
+import berlin.reiche.virginia.model.Course;
+import berlin.reiche.virginia.model.CourseModule;
+import berlin.reiche.virginia.model.Equipment;
+import berlin.reiche.virginia.model.Room;
+import berlin.reiche.virginia.model.Timeframe;
 
 /**
- * A static provider of the data store interface to MongoDB.
+ * A static provider of the data store interface. The data access is delegated
+ * to a {@link Repository}, by default the MongoDB backend. The backend is
+ * chosen with the system property <code>virginia.repository</code>:
+ * <code>mongodb</code>, <code>memory</code> or <code>embedded</code>. The
+ * embedded backend stores its files in the directory given by the system
+ * property <code>virginia.data</code>.
  * 
  * @author Konrad Reiche
  * 
  */
 public class MongoDB {
 
-    private static final String DATABASE_NAME = "course-scheduler";
+    /**
+     * The system property selecting the repository backend.
+     */
+    public static final String REPOSITORY_PROPERTY = "virginia.repository";
+
+    /**
+     * The system property selecting the data directory of the embedded
+     * repository backend.
+     */
+    public static final String DATA_DIRECTORY_PROPERTY = "virginia.data";
+
+    /**
+     * The repository to which the data access is delegated.
+     */
+    private static volatile Repository repository;
 
-    private static Mongo mongo;
-    private static Morphia morphia;
-    private static Datastore datastore;
+    /**
+     * The optional read-through cache for reference data, <code>null</code>
+     * if caching is disabled.
+     */
+    private static volatile EntityCache cache;
 
     /**
-     * Creates a Mongo instance on localhost with port 27017 with a database.
+     * The execution statistics of all queries issued through this facade.
+     */
+    private static final QueryStatistics statistics = new QueryStatistics();
+
+    /**
+     * Creates the repository backend as defined by the system property.
      */
     static {
+        repository = createRepository(System.getProperty(REPOSITORY_PROPERTY,
+                "mongodb"));
+    }
+
+    /**
+     * Creates a repository backend.
+     * 
+     * @param backend
+     *            the name of the backend: <code>mongodb</code>,
+     *            <code>memory</code> or <code>embedded</code>.
+     * @return the repository.
+     */
+    public static Repository createRepository(String backend) {
+
+        switch (backend) {
+        case "mongodb":
+            return new MorphiaRepository(statistics);
+        case "memory":
+            return new InMemoryRepository();
+        case "embedded":
+            return createEmbeddedRepository(new File(System.getProperty(
+                    DATA_DIRECTORY_PROPERTY, "data")));
+        default:
+            throw new IllegalArgumentException("Unknown repository backend "
+                    + backend + ".");
+        }
+    }
+
+    /**
+     * Opens the embedded repository and closes it again when the virtual
+     * machine shuts down, which writes a final checkpoint.
+     * 
+     * @param directory
+     *            the data directory.
+     * @return the repository.
+     */
+    private static Repository createEmbeddedRepository(File directory) {
+
         try {
-            mongo = new Mongo();
-            morphia = new Morphia();
-            datastore = morphia.createDatastore(mongo, DATABASE_NAME);
-            datastore.ensureIndexes();
-            datastore.ensureCaps();
-        } catch (UnknownHostException e) {
-            System.err.println("The host could not be determined.");
-            e.printStackTrace();
-        } catch (MongoException e) {
-            System.err.println("Something went wrong in Mongo during"
-                    + " construction.");
-            e.printStackTrace();
+            final EmbeddedRepository embedded = new EmbeddedRepository(
+                    directory);
+            Runtime.getRuntime().addShutdownHook(new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        embedded.close();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            });
+            return embedded;
+        } catch (IOException e) {
+            throw new IllegalStateException("The embedded repository in "
+                    + directory + " could not be opened.", e);
         }
     }
 
-    public static Datastore getDatastore() {
-        return datastore;
+    public static Repository getRepository() {
+        return repository;
     }
 
     /**
-     * By performing a dummy request the current connection is checked. A raised
-     * exceptions means there is no connection, otherwise there is a connection.
+     * Replaces the repository backend, for instance by an in-memory
+     * repository for tests. The cache is cleared.
      * 
-     * @return whether there is a working connection to the MongoDB server and
-     *         the database as defined in the {@link Datastore}.
+     * @param repository
+     *            the new repository.
      */
-    public static boolean isConnected() {
+    public static void setRepository(Repository repository) {
 
-        try {
-            datastore.getDB().getCollectionNames();
-        } catch (MongoException e) {
-            return false;
+        MongoDB.repository = repository;
+        EntityCache cache = MongoDB.cache;
+        if (cache != null) {
+            cache.clear();
         }
+    }
+
+    /**
+     * Enables the read-through cache for the reference data: equipment,
+     * timeframes, rooms, course modules and courses.
+     * 
+     * @param capacity
+     *            the maximum number of cached entries, a non-positive value
+     *            disables the cache.
+     */
+    public static void enableCache(int capacity) {
+
+        if (capacity > 0) {
+            cache = new EntityCache(capacity, Equipment.class,
+                    Timeframe.class, Room.class, CourseModule.class,
+                    Course.class);
+        } else {
+            cache = null;
+        }
+    }
+
+    /**
+     * @return the read-through cache or <code>null</code> if caching is
+     *         disabled.
+     */
+    public static EntityCache getCache() {
+        return cache;
+    }
+
+    /**
+     * @return the execution statistics of all queries issued through this
+     *         facade.
+     */
+    public static QueryStatistics getStatistics() {
+        return statistics;
+    }
 
-        return true;
+    /**
+     * @return whether there is a working connection to the repository backend.
+     */
+    public static boolean isConnected() {
+        return repository.isConnected();
     }
 
     /**
@@ -75,7 +188,19 @@ public class MongoDB {
      * @return the model object representing the entity.
      */
     public static <T, V> T get(Class<T> cls, V id) {
-        return datastore.get(cls, id);
+
+        EntityCache cache = MongoDB.cache;
+        if (cache == null || !cache.isCached(cls)) {
+            return repository.get(cls, id);
+        }
+
+        T entity = cache.get(cls, id);
+        if (entity == null) {
+            long generation = cache.getGeneration(cls);
+            entity = repository.get(cls, id);
+            cache.put(cls, id, entity, generation);
+        }
+        return entity;
     }
 
     /**
@@ -106,7 +231,102 @@ public class MongoDB {
      * @return the list of model objects representing the entities.
      */
     public static <T, V> List<T> getAll(Class<T> cls) {
-        return datastore.find(cls).asList();
+
+        EntityCache cache = MongoDB.cache;
+        if (cache == null || !cache.isCached(cls)) {
+            return repository.getAll(cls);
+        }
+
+        List<T> collection = cache.getAll(cls);
+        if (collection == null) {
+            long generation = cache.getGeneration(cls);
+            collection = repository.getAll(cls);
+            cache.putAll(cls, collection, generation);
+        }
+        return collection;
+    }
+
+    /**
+     * Gets the entities of a certain type with the given identifiers. Instead
+     * of one request per identifier a single request is issued. If the type
+     * is cached, the cached entities come first and only the missing ones are
+     * requested.
+     * 
+     * @param cls
+     *            the class type of the entities to retrieve.
+     * @param ids
+     *            the unique identifiers of the entities.
+     * @return the list of model objects representing the entities,
+     *         identifiers without an entity are skipped.
+     */
+    public static <T, V> List<T> getAll(Class<T> cls, Collection<V> ids) {
+
+        EntityCache cache = MongoDB.cache;
+        if (cache == null || !cache.isCached(cls)) {
+            return repository.getAll(cls, ids);
+        }
+
+        List<T> entities = new ArrayList<>();
+        List<V> missing = new ArrayList<>();
+        for (V id : ids) {
+            T entity = cache.get(cls, id);
+            if (entity != null) {
+                entities.add(entity);
+            } else {
+                missing.add(id);
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            long generation = cache.getGeneration(cls);
+            List<T> loaded = repository.getAll(cls, missing);
+            cache.putEach(cls, loaded, generation);
+            entities.addAll(loaded);
+        }
+        return entities;
+    }
+
+    /**
+     * Gets a list of all entities of a certain type with a field having the
+     * given value. If the field holds a list, all entities are returned whose
+     * list contains the value.
+     * 
+     * @param cls
+     *            the class type of the entities to retrieve.
+     * @param field
+     *            the name of the field.
+     * @param value
+     *            the value of the field.
+     * @return the list of model objects representing the entities.
+     */
+    public static <T> List<T> find(Class<T> cls, String field, Object value) {
+        return repository.find(cls, field, value);
+    }
+
+    /**
+     * Gets one page of entities of a certain type ordered by their identifier.
+     * Instead of skipping over the preceding entities, the page starts right
+     * after the given cursor, which keeps the cost of a page independent of
+     * its position.
+     * 
+     * Optionally only a subset of the fields is retrieved. Entities retrieved
+     * with a projection are incomplete and must not be stored again.
+     * 
+     * @param cls
+     *            the class type of the entities to retrieve.
+     * @param after
+     *            the identifier of the last entity of the previous page or
+     *            <code>null</code> for the first page.
+     * @param limit
+     *            the maximum number of entities on the page.
+     * @param fields
+     *            the fields to retrieve, if none are given all fields are
+     *            retrieved.
+     * @return the page of entities.
+     */
+    public static <T> Page<T> getPage(Class<T> cls, Object after, int limit,
+            String... fields) {
+        return repository.getPage(cls, after, limit, fields);
     }
 
     /**
@@ -117,7 +337,27 @@ public class MongoDB {
      * @return the {@link String} representation of the entities key.
      */
     public static <T> Object store(T entity) {
-        return datastore.save(entity).toString();
+        Object key = repository.store(entity);
+        invalidate(entity.getClass());
+        return key;
+    }
+
+    /**
+     * Stores several model objects in one batch. Entities referenced by other
+     * entities of the batch have to precede them.
+     * 
+     * @param entities
+     *            the model objects representing the entities.
+     */
+    public static <T> void storeAll(Collection<T> entities) {
+
+        repository.storeAll(entities);
+        Set<Class<?>> classes = new HashSet<>();
+        for (T entity : entities) {
+            if (classes.add(entity.getClass())) {
+                invalidate(entity.getClass());
+            }
+        }
     }
 
     /**
@@ -129,7 +369,8 @@ public class MongoDB {
      *            the unique identifier of the entity
      */
     public static <T, V> void delete(Class<T> cls, V id) {
-        datastore.delete(cls, id);
+        repository.delete(cls, id);
+        invalidate(cls);
     }
 
     /**
@@ -154,35 +395,91 @@ public class MongoDB {
      * @param entity the entity to be deleted.
      */
     public static <T> void delete(T entity) {
-        datastore.delete(entity);
+        repository.delete(entity);
+        invalidate(entity.getClass());
     }
-    
+
     /**
-     * Deletes the entities based on the given query.
+     * Deletes a certain type of entities.
      * 
-     * @param query the query to get the entities.
+     * @param cls
+     *            the class type of the entities to delete.
      */
-    public static <T> void delete(Query<T> query) {
-        datastore.delete(query);
+    public static <T> void deleteAll(Class<T> cls) {
+        repository.deleteAll(cls);
+        invalidate(cls);
     }
 
     /**
-     * Deletes a certain type of entities.
+     * Deletes several entities of a certain type in one batch.
      * 
      * @param cls
      *            the class type of the entities to delete.
+     * @param ids
+     *            the unique identifiers of the entities.
      */
-    public static <T> void deleteAll(Class<T> cls) {
-        datastore.delete(datastore.createQuery(cls));
+    public static <T, V> void deleteAll(Class<T> cls, Collection<V> ids) {
+        repository.deleteAll(cls, ids);
+        invalidate(cls);
+    }
+
+    /**
+     * Adds a value to a list field of an entity unless it is contained
+     * already, in a single atomic write. A missing entity is created with only
+     * this field.
+     * 
+     * @param cls
+     *            the class type of the entity.
+     * @param id
+     *            the unique identifier of the entity.
+     * @param field
+     *            the name of the list field.
+     * @param value
+     *            the simple value to add.
+     */
+    public static <T, V> void addToSet(Class<T> cls, V id, String field,
+            Object value) {
+        repository.addToSet(cls, id, field, value);
+        invalidate(cls);
+    }
+
+    /**
+     * Removes a value from a list field of several entities, in a single
+     * atomic write per entity.
+     * 
+     * @param cls
+     *            the class type of the entities.
+     * @param ids
+     *            the unique identifiers of the entities.
+     * @param field
+     *            the name of the list field.
+     * @param value
+     *            the simple value to remove.
+     */
+    public static <T, V> void pull(Class<T> cls, Collection<V> ids,
+            String field, Object value) {
+        repository.pull(cls, ids, field, value);
+        invalidate(cls);
     }
 
     /**
+     * Removes all cached entries of a certain type after it was written. Since
+     * courses and course modules reference each other, a write to one of them
+     * invalidates both.
+     * 
      * @param cls
-     *            the class specifying the would-be queried entities.
-     * @return a new query bound to the given class.
+     *            the class type of the written entity.
      */
-    public static <T> Query<T> createQuery(Class<T> cls) {
-        return datastore.createQuery(cls);
+    private static void invalidate(Class<?> cls) {
+
+        EntityCache cache = MongoDB.cache;
+        if (cache != null) {
+            cache.invalidate(cls);
+            if (cls == Course.class || cls == CourseModule.class) {
+                cache.invalidate(Course.class);
+                cache.invalidate(CourseModule.class);
+            }
+        }
     }
 
 }
@@ -0,0 +1,254 @@
+package berlin.reiche.virginia;
+
+import java.io.Serializable;
+import java.security.Principal;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.security.auth.Subject;
+
+import org.eclipse.jetty.security.DefaultIdentityService;
+import org.eclipse.jetty.security.IdentityService;
+import org.eclipse.jetty.security.LoginService;
+import org.eclipse.jetty.server.UserIdentity;
+
+import berlin.reiche.virginia.model.User;
+
+/**
+ * A login service which loads the credentials of a user from the database
+ * when they are needed. The credentials of recently seen logins, including
+ * unknown ones, are kept in a cache of bounded size. Whenever a user is
+ * stored or deleted the cached credentials of the login have to be
+ * invalidated with {@link #invalidate(String)}.
+ *
+ * @author Konrad Reiche
+ *
+ */
+public class MongoLoginService implements LoginService {
+
+    /**
+     * The default number of cached logins.
+     */
+    public static final int DEFAULT_CACHE_SIZE = 1000;
+
+    /**
+     * Real name of the login service.
+     */
+    private static final String REALM_NAME = "User Realm";
+
+    /**
+     * Marks a login without user in the cache.
+     */
+    private static final BCryptPassword UNKNOWN = new BCryptPassword(null, "");
+
+    /**
+     * Singleton instance.
+     */
+    private static final MongoLoginService INSTANCE = new MongoLoginService();
+
+    private IdentityService identityService = new DefaultIdentityService();
+
+    private volatile int cacheSize = DEFAULT_CACHE_SIZE;
+
+    /**
+     * Counts the invalidations, so that credentials loaded while they were
+     * invalidated are not cached.
+     */
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * The cached credentials by login, in access order.
+     */
+    private final LinkedHashMap<String, BCryptPassword> credentials = new LinkedHashMap<String, BCryptPassword>(
+            16, 0.75f, true) {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(
+                Map.Entry<String, BCryptPassword> eldest) {
+            return size() > cacheSize;
+        }
+    };
+
+    /**
+     * The constructor is private in order to enforce the singleton pattern.
+     */
+    private MongoLoginService() {
+
+    }
+
+    /**
+     * @return a singleton instance of {@link MongoLoginService}.
+     */
+    public static MongoLoginService getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @see org.eclipse.jetty.security.LoginService#getName()
+     */
+    @Override
+    public String getName() {
+        return REALM_NAME;
+    }
+
+    /**
+     * @see org.eclipse.jetty.security.LoginService#login(java.lang.String,
+     *      java.lang.Object)
+     */
+    @Override
+    public UserIdentity login(String username, Object password) {
+
+        BCryptPassword credential = getCredential(username);
+        if (credential == UNKNOWN || !credential.check(password)) {
+            return null;
+        }
+
+        Principal principal = new UserPrincipal(username);
+        Subject subject = new Subject();
+        subject.getPrincipals().add(principal);
+        subject.getPrivateCredentials().add(credential);
+        subject.setReadOnly();
+        return identityService.newUserIdentity(subject, principal, User.ROLES);
+    }
+
+    /**
+     * Checks whether the user of an authenticated session still exists. This
+     * is called on every request, thus it is answered from the cache if
+     * possible.
+     *
+     * @see org.eclipse.jetty.security.LoginService#validate(org.eclipse.jetty.server.UserIdentity)
+     */
+    @Override
+    public boolean validate(UserIdentity user) {
+        String login = user.getUserPrincipal().getName();
+        return getCredential(login) != UNKNOWN;
+    }
+
+    /**
+     * @see org.eclipse.jetty.security.LoginService#getIdentityService()
+     */
+    @Override
+    public IdentityService getIdentityService() {
+        return identityService;
+    }
+
+    /**
+     * @see org.eclipse.jetty.security.LoginService#setIdentityService(org.eclipse.jetty.security.IdentityService)
+     */
+    @Override
+    public void setIdentityService(IdentityService service) {
+        this.identityService = service;
+    }
+
+    /**
+     * @see org.eclipse.jetty.security.LoginService#logout(org.eclipse.jetty.server.UserIdentity)
+     */
+    @Override
+    public void logout(UserIdentity user) {
+
+    }
+
+    /**
+     * Drops the cached credentials of a login, so that they are loaded again
+     * on the next request.
+     *
+     * @param login
+     *            the login name of a stored or deleted user.
+     */
+    public void invalidate(String login) {
+        invalidations.incrementAndGet();
+        synchronized (credentials) {
+            credentials.remove(login);
+        }
+    }
+
+    /**
+     * Drops all cached credentials.
+     */
+    public void clear() {
+        invalidations.incrementAndGet();
+        synchronized (credentials) {
+            credentials.clear();
+        }
+    }
+
+    /**
+     * @param cacheSize
+     *            the maximum number of cached logins.
+     */
+    public void setCacheSize(int cacheSize) {
+        this.cacheSize = Math.max(1, cacheSize);
+        synchronized (credentials) {
+            while (credentials.size() > this.cacheSize) {
+                String eldest = credentials.keySet().iterator().next();
+                credentials.remove(eldest);
+            }
+        }
+    }
+
+    /**
+     * @return the number of cached logins.
+     */
+    public int size() {
+        synchronized (credentials) {
+            return credentials.size();
+        }
+    }
+
+    /**
+     * @return the credential of the login or {@link #UNKNOWN} if there is no
+     *         such user.
+     */
+    private BCryptPassword getCredential(String login) {
+
+        if (login == null) {
+            return UNKNOWN;
+        }
+
+        synchronized (credentials) {
+            BCryptPassword credential = credentials.get(login);
+            if (credential != null) {
+                return credential;
+            }
+        }
+
+        long invalidation = invalidations.get();
+        User user = MongoDB.get(User.class, login);
+        BCryptPassword credential = (user == null) ? UNKNOWN
+                : new BCryptPassword(login, user.getPassword());
+        synchronized (credentials) {
+            if (invalidation == invalidations.get()) {
+                credentials.put(login, credential);
+            }
+        }
+        return credential;
+    }
+
+    /**
+     * The principal of an authenticated user.
+     */
+    private static class UserPrincipal implements Principal, Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String name;
+
+        UserPrincipal(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+}
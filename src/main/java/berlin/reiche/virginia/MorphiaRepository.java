@@ -0,0 +1,460 @@
+package berlin.reiche.virginia;
+
+import java.lang.reflect.Field;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.commons.lang.StringUtils;
+import org.bson.types.ObjectId;
+
+import com.google.code.morphia.Datastore;
+import com.google.code.morphia.Morphia;
+import com.google.code.morphia.mapping.MappedClass;
+import com.google.code.morphia.mapping.Mapper;
+import com.google.code.morphia.query.Query;
+import com.google.code.morphia.query.QueryImpl;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.mongodb.Mongo;
+import com.mongodb.MongoException;
+
+/**
+ * The repository backed by MongoDB through the Morphia object mapper. Every
+ * query is instrumented and its statistics are recorded.
+ *
+ * @author Konrad Reiche
+ *
+ */
+public class MorphiaRepository implements Repository {
+
+    private static final String DATABASE_NAME = "course-scheduler";
+
+    private Mongo mongo;
+    private Morphia morphia;
+    private Datastore datastore;
+
+    /**
+     * The execution statistics of all queries issued through this
+     * repository.
+     */
+    private final QueryStatistics statistics;
+
+    /**
+     * Examines the query plans, so that the requests do not wait for them.
+     */
+    private final ExecutorService explainer = Executors
+            .newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "query-explain");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    /**
+     * Creates a Mongo instance on localhost with port 27017 with a database.
+     *
+     * @param statistics
+     *            the statistics to which the query executions are recorded.
+     */
+    public MorphiaRepository(QueryStatistics statistics) {
+
+        this.statistics = statistics;
+        try {
+            mongo = new Mongo();
+            morphia = new Morphia();
+            datastore = morphia.createDatastore(mongo, DATABASE_NAME);
+            datastore.ensureIndexes();
+            datastore.ensureCaps();
+        } catch (UnknownHostException e) {
+            System.err.println("The host could not be determined.");
+            e.printStackTrace();
+        } catch (MongoException e) {
+            System.err.println("Something went wrong in Mongo during"
+                    + " construction.");
+            e.printStackTrace();
+        }
+    }
+
+    public Datastore getDatastore() {
+        return datastore;
+    }
+
+    /**
+     * By performing a dummy request the current connection is checked. A raised
+     * exceptions means there is no connection, otherwise there is a connection.
+     *
+     * @see berlin.reiche.virginia.Repository#isConnected()
+     */
+    @Override
+    public boolean isConnected() {
+
+        try {
+            datastore.getDB().getCollectionNames();
+        } catch (MongoException e) {
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * @see berlin.reiche.virginia.Repository#get(java.lang.Class,
+     *      java.lang.Object)
+     */
+    @Override
+    public <T, V> T get(Class<T> cls, V id) {
+
+        List<T> result = execute(datastore.createQuery(cls)
+                .filter(Mapper.ID_KEY, id).limit(1));
+        return result.isEmpty() ? null : result.get(0);
+    }
+
+    /**
+     * @see berlin.reiche.virginia.Repository#getAll(java.lang.Class)
+     */
+    @Override
+    public <T> List<T> getAll(Class<T> cls) {
+        return execute(datastore.createQuery(cls));
+    }
+
+    /**
+     * The entities are retrieved with a single <code>$in</code> query on the
+     * identifier.
+     *
+     * @see berlin.reiche.virginia.Repository#getAll(java.lang.Class,
+     *      java.util.Collection)
+     */
+    @Override
+    public <T, V> List<T> getAll(Class<T> cls, Collection<V> ids) {
+
+        if (ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return execute(datastore.createQuery(cls).field(Mapper.ID_KEY).in(ids));
+    }
+
+    /**
+     * @see berlin.reiche.virginia.Repository#find(java.lang.Class,
+     *      java.lang.String, java.lang.Object)
+     */
+    @Override
+    public <T> List<T> find(Class<T> cls, String field, Object value) {
+        return execute(datastore.createQuery(cls).filter(field, value));
+    }
+
+    /**
+     * Instead of skipping over the preceding entities, the page starts right
+     * after the given cursor, which keeps the cost of a page independent of
+     * its position.
+     *
+     * @see berlin.reiche.virginia.Repository#getPage(java.lang.Class,
+     *      java.lang.Object, int, java.lang.String[])
+     */
+    @Override
+    public <T> Page<T> getPage(Class<T> cls, Object after, int limit,
+            String... fields) {
+
+        Query<T> query = datastore.createQuery(cls).order(Mapper.ID_KEY)
+                .limit(limit + 1);
+        if (after != null) {
+            query.filter(Mapper.ID_KEY + " >", after);
+        }
+        if (fields.length > 0) {
+            query.retrievedFields(true, fields);
+        }
+
+        List<T> items = execute(query);
+        Object next = null;
+        if (items.size() > limit) {
+            items = new ArrayList<>(items.subList(0, limit));
+            next = datastore.getKey(items.get(limit - 1)).getId();
+        }
+        return new Page<>(items, next, limit);
+    }
+
+    /**
+     * @see berlin.reiche.virginia.Repository#store(java.lang.Object)
+     */
+    @Override
+    public <T> Object store(T entity) {
+        return datastore.save(entity).toString();
+    }
+
+    /**
+     * The identifiers of the entities are assigned before any of them is
+     * mapped, so that references among them can be resolved. Per collection
+     * the already stored identifiers are determined with a single
+     * <code>$in</code> query and the new entities are written with a single
+     * batch insert. The stored entities are saved one by one, since MongoDB
+     * offers no batch update for whole documents.
+     *
+     * @see berlin.reiche.virginia.Repository#storeAll(java.util.Collection)
+     */
+    @Override
+    public <T> void storeAll(Collection<T> entities) {
+
+        Mapper mapper = morphia.getMapper();
+        Map<Class<?>, Map<Object, T>> batches = new LinkedHashMap<>();
+        for (T entity : entities) {
+            Object id = assignId(mapper.getMappedClass(entity), entity);
+            Map<Object, T> batch = batches.get(entity.getClass());
+            if (batch == null) {
+                batch = new LinkedHashMap<>();
+                batches.put(entity.getClass(), batch);
+            }
+            batch.put(id, entity);
+        }
+
+        for (Map.Entry<Class<?>, Map<Object, T>> entry : batches.entrySet()) {
+
+            DBCollection collection = datastore.getCollection(entry.getKey());
+            Map<Object, T> batch = entry.getValue();
+            DBObject query = new BasicDBObject(Mapper.ID_KEY,
+                    new BasicDBObject("$in", batch.keySet()));
+            DBCursor stored = collection.find(query, new BasicDBObject(
+                    Mapper.ID_KEY, 1));
+            while (stored.hasNext()) {
+                datastore.save(batch.remove(stored.next().get(Mapper.ID_KEY)));
+            }
+
+            List<DBObject> documents = new ArrayList<>();
+            for (T entity : batch.values()) {
+                documents.add(mapper.toDBObject(entity));
+            }
+            if (!documents.isEmpty()) {
+                collection.insert(documents);
+            }
+        }
+    }
+
+    /**
+     * Assigns a new identifier to an entity without one.
+     *
+     * @return the identifier of the entity.
+     */
+    private static Object assignId(MappedClass mappedClass, Object entity) {
+
+        Field field = mappedClass.getIdField();
+        try {
+            Object id = field.get(entity);
+            if (id == null && field.getType() == ObjectId.class) {
+                id = new ObjectId();
+                field.set(entity, id);
+            } else if (id == null) {
+                throw new IllegalStateException("The entity of "
+                        + entity.getClass() + " has no identifier.");
+            }
+            return id;
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("The identifier of "
+                    + entity.getClass() + " is not accessible.", e);
+        }
+    }
+
+    /**
+     * @see berlin.reiche.virginia.Repository#delete(java.lang.Class,
+     *      java.lang.Object)
+     */
+    @Override
+    public <T, V> void delete(Class<T> cls, V id) {
+        datastore.delete(cls, id);
+    }
+
+    /**
+     * @see berlin.reiche.virginia.Repository#delete(java.lang.Object)
+     */
+    @Override
+    public <T> void delete(T entity) {
+        datastore.delete(entity);
+    }
+
+    /**
+     * @see berlin.reiche.virginia.Repository#deleteAll(java.lang.Class)
+     */
+    @Override
+    public <T> void deleteAll(Class<T> cls) {
+        datastore.delete(datastore.createQuery(cls));
+    }
+
+    /**
+     * @see berlin.reiche.virginia.Repository#deleteAll(java.lang.Class,
+     *      java.util.Collection)
+     */
+    @Override
+    public <T, V> void deleteAll(Class<T> cls, Collection<V> ids) {
+        if (!ids.isEmpty()) {
+            datastore.delete(cls, ids);
+        }
+    }
+
+    /**
+     * Issues an upsert with <code>$addToSet</code>.
+     *
+     * @see berlin.reiche.virginia.Repository#addToSet(java.lang.Class,
+     *      java.lang.Object, java.lang.String, java.lang.Object)
+     */
+    @Override
+    public <T, V> void addToSet(Class<T> cls, V id, String field,
+            Object value) {
+
+        datastore.update(datastore.createQuery(cls).filter(Mapper.ID_KEY, id),
+                datastore.createUpdateOperations(cls).add(field, value), true);
+    }
+
+    /**
+     * Issues a single multi-document update with <code>$pull</code>.
+     *
+     * @see berlin.reiche.virginia.Repository#pull(java.lang.Class,
+     *      java.util.Collection, java.lang.String, java.lang.Object)
+     */
+    @Override
+    public <T, V> void pull(Class<T> cls, Collection<V> ids, String field,
+            Object value) {
+
+        if (!ids.isEmpty()) {
+            datastore.update(datastore.createQuery(cls).field(Mapper.ID_KEY)
+                    .in(ids), datastore.createUpdateOperations(cls)
+                    .removeAll(field, value));
+        }
+    }
+
+    /**
+     * Executes a query and records its execution time and the number of
+     * returned documents. The query plan of a query shape is examined once,
+     * in the background after the shape is executed for the first time.
+     *
+     * @param query
+     *            the query to execute.
+     * @return the list of model objects returned by the query.
+     */
+    private <T> List<T> execute(final Query<T> query) {
+
+        final String shape = describe(query);
+        long start = System.nanoTime();
+        List<T> result = query.asList();
+        long nanos = System.nanoTime() - start;
+
+        boolean isSlow = statistics.record(shape, nanos, result.size());
+        if (isSlow) {
+            System.err.println("Slow query (" + nanos / 1000000 + " ms): "
+                    + shape);
+        }
+        if (statistics.setExplained(shape)) {
+            explainer.execute(new Runnable() {
+                @Override
+                public void run() {
+                    explain(query, shape);
+                }
+            });
+        }
+        return result;
+    }
+
+    /**
+     * Examines the query plan of a query and flags its shape if the query is
+     * answered by a collection scan.
+     *
+     * @param query
+     *            the query to examine.
+     * @param shape
+     *            the shape of the query.
+     */
+    private <T> void explain(Query<T> query, String shape) {
+
+        try {
+            Map<String, Object> plan = query.explain();
+            Object cursor = plan.get("cursor");
+            if (cursor != null && cursor.toString().startsWith("BasicCursor")) {
+                statistics.markCollectionScan(shape, suggestIndex(query));
+            } else {
+                statistics.markIndexed(shape);
+            }
+        } catch (MongoException e) {
+            System.err.println("The query plan of " + shape
+                    + " could not be examined.");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Describes the shape of a query: the collection, the queried fields with
+     * their operators and the sort fields.
+     *
+     * @param query
+     *            the query.
+     * @return the shape of the query, e.g. <code>user {lecturer}</code>.
+     */
+    private <T> String describe(Query<T> query) {
+
+        QueryImpl<T> impl = (QueryImpl<T>) query;
+        StringBuilder sb = new StringBuilder();
+        sb.append(datastore.getCollection(query.getEntityClass()).getName());
+        sb.append(" {");
+
+        List<String> fields = new ArrayList<>();
+        DBObject filter = impl.getQueryObject();
+        for (String key : filter.keySet()) {
+            Object value = filter.get(key);
+            if (value instanceof DBObject) {
+                fields.add(key + " " + ((DBObject) value).keySet());
+            } else {
+                fields.add(key);
+            }
+        }
+        sb.append(StringUtils.join(fields, ", "));
+        sb.append("}");
+
+        DBObject sort = impl.getSortObject();
+        if (sort != null && !sort.keySet().isEmpty()) {
+            sb.append(" sort ");
+            sb.append(sort.keySet());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Suggests a compound index for a query answered by a collection scan: the
+     * queried fields followed by the sort fields.
+     *
+     * @param query
+     *            the query.
+     * @return the suggested index or <code>null</code> if the query is not
+     *         restricted at all and reads the whole collection anyway.
+     */
+    private <T> String suggestIndex(Query<T> query) {
+
+        QueryImpl<T> impl = (QueryImpl<T>) query;
+        List<String> fields = new ArrayList<>();
+        for (String key : impl.getQueryObject().keySet()) {
+            if (!key.startsWith("$")) {
+                fields.add(key + ": 1");
+            }
+        }
+
+        if (fields.isEmpty()) {
+            return null;
+        }
+
+        DBObject sort = impl.getSortObject();
+        if (sort != null) {
+            for (String key : sort.keySet()) {
+                if (!fields.contains(key + ": 1")) {
+                    fields.add(key + ": " + sort.get(key));
+                }
+            }
+        }
+        return "{" + StringUtils.join(fields, ", ") + "}";
+    }
+
+}
@@ -0,0 +1,68 @@
+package berlin.reiche.virginia;
+
+import java.util.List;
+
+/**
+ * One page of entities of a cursor-based pagination. The cursor is the
+ * identifier of the last entity on a page, the next page starts with the
+ * first entity with a greater identifier.
+ *
+ * @author Konrad Reiche
+ *
+ */
+public class Page<T> {
+
+    /**
+     * The entities on this page ordered by their identifier.
+     */
+    private final List<T> items;
+
+    /**
+     * The cursor pointing to the next page or <code>null</code> if this is the
+     * last page.
+     */
+    private final Object next;
+
+    /**
+     * The maximum number of entities per page.
+     */
+    private final int limit;
+
+    /**
+     * Default constructor.
+     *
+     * @param items
+     *            the entities on this page.
+     * @param next
+     *            the identifier of the last entity of this page if there is a
+     *            next page, otherwise <code>null</code>.
+     * @param limit
+     *            the maximum number of entities per page.
+     */
+    public Page(List<T> items, Object next, int limit) {
+        this.items = items;
+        this.next = next;
+        this.limit = limit;
+    }
+
+    public List<T> getItems() {
+        return items;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return the cursor of the next page as string or <code>null</code> if
+     *         this is the last page.
+     */
+    public String getNext() {
+        return (next == null) ? null : next.toString();
+    }
+
+    public boolean hasNext() {
+        return next != null;
+    }
+
+}
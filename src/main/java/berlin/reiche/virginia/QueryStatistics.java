@@ -0,0 +1,228 @@
+package berlin.reiche.virginia;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects the execution time and the number of returned documents for each
+ * query shape issued through the {@link MongoDB} facade. A query shape is the
+ * collection together with the queried fields and operators, but without the
+ * actual values, for instance <code>user {lecturer}</code>.
+ *
+ * Queries taking longer than the slow query threshold are counted separately
+ * and shapes which are answered by a collection scan are flagged together with
+ * an index which would avoid the scan.
+ *
+ * @author Konrad Reiche
+ *
+ */
+public class QueryStatistics {
+
+    /**
+     * The default threshold in milliseconds above which a query is considered
+     * slow.
+     */
+    public static final long DEFAULT_SLOW_MILLIS = 100;
+
+    /**
+     * The statistics per query shape.
+     */
+    private final ConcurrentMap<String, Shape> shapes = new ConcurrentHashMap<>();
+
+    /**
+     * The threshold in nanoseconds above which a query is considered slow.
+     */
+    private volatile long slowNanos = TimeUnit.MILLISECONDS
+            .toNanos(DEFAULT_SLOW_MILLIS);
+
+    /**
+     * Records one execution of a query.
+     *
+     * @param shape
+     *            the query shape.
+     * @param nanos
+     *            the execution time in nanoseconds.
+     * @param documents
+     *            the number of returned documents.
+     * @return whether the query was slow.
+     */
+    public boolean record(String shape, long nanos, int documents) {
+
+        Shape statistics = getShape(shape);
+        statistics.count.incrementAndGet();
+        statistics.totalNanos.addAndGet(nanos);
+        statistics.documents.addAndGet(documents);
+
+        long max = statistics.maxNanos.get();
+        while (nanos > max && !statistics.maxNanos.compareAndSet(max, nanos)) {
+            max = statistics.maxNanos.get();
+        }
+
+        boolean isSlow = nanos > slowNanos;
+        if (isSlow) {
+            statistics.slowCount.incrementAndGet();
+        }
+        return isSlow;
+    }
+
+    /**
+     * Flags a query shape as being answered by a collection scan.
+     *
+     * @param shape
+     *            the query shape.
+     * @param suggestedIndex
+     *            the index which would avoid the collection scan or
+     *            <code>null</code> if the query reads the whole collection
+     *            anyway.
+     */
+    public void markCollectionScan(String shape, String suggestedIndex) {
+        Shape statistics = getShape(shape);
+        statistics.collectionScan = true;
+        statistics.suggestedIndex = suggestedIndex;
+    }
+
+    /**
+     * Marks a query shape as being answered by an index.
+     *
+     * @param shape
+     *            the query shape.
+     */
+    public void markIndexed(String shape) {
+        Shape statistics = getShape(shape);
+        statistics.collectionScan = false;
+        statistics.suggestedIndex = null;
+    }
+
+    /**
+     * @param shape
+     *            the query shape.
+     * @return whether the query plan of the shape was already examined.
+     */
+    public boolean isExplained(String shape) {
+        Shape statistics = shapes.get(shape);
+        return statistics != null && statistics.isExplained.get();
+    }
+
+    /**
+     * Remembers that the query plan of a shape is examined. Only the first
+     * caller for a shape is told to examine it.
+     *
+     * @param shape
+     *            the query shape.
+     * @return whether the query plan of the shape was not examined before.
+     */
+    public boolean setExplained(String shape) {
+        return getShape(shape).isExplained.compareAndSet(false, true);
+    }
+
+    /**
+     * @return the statistics of all query shapes, the shape with the highest
+     *         total execution time first.
+     */
+    public List<Shape> getShapes() {
+
+        List<Shape> result = new ArrayList<>(shapes.values());
+        Collections.sort(result, new Comparator<Shape>() {
+
+            @Override
+            public int compare(Shape a, Shape b) {
+                return Long.compare(b.totalNanos.get(), a.totalNanos.get());
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Discards all collected statistics.
+     */
+    public void reset() {
+        shapes.clear();
+    }
+
+    public long getSlowMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(slowNanos);
+    }
+
+    public void setSlowMillis(long slowMillis) {
+        this.slowNanos = TimeUnit.MILLISECONDS.toNanos(slowMillis);
+    }
+
+    private Shape getShape(String shape) {
+
+        Shape statistics = shapes.get(shape);
+        if (statistics == null) {
+            statistics = new Shape(shape);
+            Shape present = shapes.putIfAbsent(shape, statistics);
+            if (present != null) {
+                statistics = present;
+            }
+        }
+        return statistics;
+    }
+
+    /**
+     * The collected statistics of a single query shape.
+     */
+    public static class Shape {
+
+        final String name;
+        final AtomicLong count = new AtomicLong();
+        final AtomicLong slowCount = new AtomicLong();
+        final AtomicLong totalNanos = new AtomicLong();
+        final AtomicLong maxNanos = new AtomicLong();
+        final AtomicLong documents = new AtomicLong();
+        volatile boolean collectionScan;
+        final AtomicBoolean isExplained = new AtomicBoolean();
+        volatile String suggestedIndex;
+
+        Shape(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        public long getSlowCount() {
+            return slowCount.get();
+        }
+
+        public double getTotalMillis() {
+            return totalNanos.get() / 1e6;
+        }
+
+        public double getAverageMillis() {
+            long n = count.get();
+            return (n == 0) ? 0 : totalNanos.get() / 1e6 / n;
+        }
+
+        public double getMaxMillis() {
+            return maxNanos.get() / 1e6;
+        }
+
+        public double getAverageDocuments() {
+            long n = count.get();
+            return (n == 0) ? 0 : (double) documents.get() / n;
+        }
+
+        public boolean isCollectionScan() {
+            return collectionScan;
+        }
+
+        public String getSuggestedIndex() {
+            return suggestedIndex;
+        }
+    }
+
+}
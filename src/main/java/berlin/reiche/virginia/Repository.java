@@ -0,0 +1,176 @@
+package berlin.reiche.virginia;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The data access interface for the model objects. The {@link MongoDB}
+ * facade delegates to one implementation of this interface, which allows to
+ * exchange the storage backend without touching the servlets or the
+ * scheduler.
+ *
+ * @author Konrad Reiche
+ *
+ */
+public interface Repository {
+
+    /**
+     * @return whether the backend is available.
+     */
+    boolean isConnected();
+
+    /**
+     * Gets an entity identified by its unique identifier.
+     *
+     * @param cls
+     *            the class type of the entity to retrieve.
+     * @param id
+     *            the unique identifier of the entity
+     * @return the model object representing the entity or <code>null</code>
+     *         if there is none.
+     */
+    <T, V> T get(Class<T> cls, V id);
+
+    /**
+     * Gets a list of all entities of a certain type.
+     *
+     * @param cls
+     *            the class type of the entities to retrieve.
+     * @return the list of model objects representing the entities.
+     */
+    <T> List<T> getAll(Class<T> cls);
+
+    /**
+     * Gets the entities of a certain type with the given identifiers in one
+     * request.
+     *
+     * @param cls
+     *            the class type of the entities to retrieve.
+     * @param ids
+     *            the unique identifiers of the entities.
+     * @return the list of model objects representing the entities,
+     *         identifiers without an entity are skipped.
+     */
+    <T, V> List<T> getAll(Class<T> cls, Collection<V> ids);
+
+    /**
+     * Gets a list of all entities of a certain type with a field having the
+     * given value. If the field holds a list, all entities are returned whose
+     * list contains the value.
+     *
+     * @param cls
+     *            the class type of the entities to retrieve.
+     * @param field
+     *            the name of the field.
+     * @param value
+     *            the value of the field.
+     * @return the list of model objects representing the entities.
+     */
+    <T> List<T> find(Class<T> cls, String field, Object value);
+
+    /**
+     * Gets one page of entities of a certain type ordered by their identifier.
+     *
+     * @param cls
+     *            the class type of the entities to retrieve.
+     * @param after
+     *            the identifier of the last entity of the previous page or
+     *            <code>null</code> for the first page.
+     * @param limit
+     *            the maximum number of entities on the page.
+     * @param fields
+     *            the fields to retrieve, if none are given all fields are
+     *            retrieved.
+     * @return the page of entities.
+     */
+    <T> Page<T> getPage(Class<T> cls, Object after, int limit,
+            String... fields);
+
+    /**
+     * Stores a model object as entity. If the entity has no identifier yet, a
+     * new one is assigned.
+     *
+     * @param entity
+     *            the model object representing the entity.
+     * @return the {@link String} representation of the entities key.
+     */
+    <T> Object store(T entity);
+
+    /**
+     * Stores several model objects in one batch. Entities referenced by other
+     * entities of the batch have to precede them.
+     *
+     * @param entities
+     *            the model objects representing the entities.
+     */
+    <T> void storeAll(Collection<T> entities);
+
+    /**
+     * Deletes a certain entity identified by its unique identifier.
+     *
+     * @param cls
+     *            the class type of the entity to delete.
+     * @param id
+     *            the unique identifier of the entity
+     */
+    <T, V> void delete(Class<T> cls, V id);
+
+    /**
+     * Deletes a given entity by using its identifier.
+     *
+     * @param entity
+     *            the entity to be deleted.
+     */
+    <T> void delete(T entity);
+
+    /**
+     * Deletes all entities of a certain type.
+     *
+     * @param cls
+     *            the class type of the entities to delete.
+     */
+    <T> void deleteAll(Class<T> cls);
+
+    /**
+     * Deletes several entities of a certain type in one batch.
+     *
+     * @param cls
+     *            the class type of the entities to delete.
+     * @param ids
+     *            the unique identifiers of the entities.
+     */
+    <T, V> void deleteAll(Class<T> cls, Collection<V> ids);
+
+    /**
+     * Adds a value to a list field of an entity unless it is contained
+     * already, in a single atomic write. A missing entity is created with only
+     * this field.
+     *
+     * @param cls
+     *            the class type of the entity.
+     * @param id
+     *            the unique identifier of the entity.
+     * @param field
+     *            the name of the list field.
+     * @param value
+     *            the simple value to add.
+     */
+    <T, V> void addToSet(Class<T> cls, V id, String field, Object value);
+
+    /**
+     * Removes a value from a list field of several entities, in a single
+     * atomic write per entity.
+     *
+     * @param cls
+     *            the class type of the entities.
+     * @param ids
+     *            the unique identifiers of the entities.
+     * @param field
+     *            the name of the list field.
+     * @param value
+     *            the simple value to remove.
+     */
+    <T, V> void pull(Class<T> cls, Collection<V> ids, String field,
+            Object value);
+
+}
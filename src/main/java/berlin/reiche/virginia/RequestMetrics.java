@@ -0,0 +1,288 @@
+package berlin.reiche.virginia;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Collects the latency, the status codes and the number of written bytes of
+ * the HTTP requests for each route template, for instance
+ * <code>/modules/edit/{id}</code>. The latencies are counted in histograms with
+ * fixed buckets, so that recording a request only increments a few atomic
+ * counters.
+ *
+ * Besides, the decisions of the admission control are counted per rule.
+ *
+ * The metrics are written in the Prometheus text format.
+ *
+ * @author Konrad Reiche
+ *
+ */
+public class RequestMetrics {
+
+    /**
+     * The upper bounds of the latency buckets in seconds.
+     */
+    static final double[] BUCKETS = { 0.005, 0.01, 0.025, 0.05, 0.1, 0.25,
+            0.5, 1, 2.5, 5, 10 };
+
+    /**
+     * The maximum number of distinct routes, further routes are counted as
+     * {@link #OTHER_ROUTE}.
+     */
+    static final int MAX_ROUTES = 256;
+
+    static final String OTHER_ROUTE = "other";
+
+    private static final RequestMetrics INSTANCE = new RequestMetrics();
+
+    /**
+     * The upper bounds of the latency buckets in nanoseconds.
+     */
+    private static final long[] BUCKET_NANOS = new long[BUCKETS.length];
+
+    static {
+        for (int i = 0; i < BUCKETS.length; i++) {
+            BUCKET_NANOS[i] = (long) (BUCKETS[i] * 1e9);
+        }
+    }
+
+    /**
+     * The metrics per route template.
+     */
+    private final ConcurrentMap<String, Route> routes = new ConcurrentHashMap<>();
+
+    /**
+     * The admission decisions per rule and outcome, e.g.
+     * <code>solver admitted</code>.
+     */
+    private final ConcurrentMap<String, AtomicLong> admissions = new ConcurrentHashMap<>();
+
+    /**
+     * @return the metrics of the web server.
+     */
+    public static RequestMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Records one request.
+     *
+     * @param route
+     *            the route template of the request.
+     * @param status
+     *            the status code of the response.
+     * @param nanos
+     *            the time the request took in nanoseconds.
+     * @param bytes
+     *            the number of written bytes or <code>-1</code> if unknown.
+     */
+    public void record(String route, int status, long nanos, long bytes) {
+
+        Route metrics = getRoute(route);
+        int bucket = 0;
+        while (bucket < BUCKET_NANOS.length && nanos > BUCKET_NANOS[bucket]) {
+            bucket++;
+        }
+        metrics.buckets.incrementAndGet(bucket);
+        metrics.totalNanos.addAndGet(nanos);
+        if (bytes > 0) {
+            metrics.bytes.addAndGet(bytes);
+        }
+        metrics.getStatus(status).incrementAndGet();
+    }
+
+    /**
+     * Records one decision of the admission control.
+     *
+     * @param rule
+     *            the name of the admission rule.
+     * @param outcome
+     *            the outcome, for instance <code>admitted</code>.
+     */
+    public void recordAdmission(String rule, String outcome) {
+
+        String key = rule + " " + outcome;
+        AtomicLong counter = admissions.get(key);
+        if (counter == null) {
+            counter = new AtomicLong();
+            AtomicLong present = admissions.putIfAbsent(key, counter);
+            if (present != null) {
+                counter = present;
+            }
+        }
+        counter.incrementAndGet();
+    }
+
+    /**
+     * @return the number of admission decisions of a rule with the given
+     *         outcome.
+     */
+    long getAdmissions(String rule, String outcome) {
+        AtomicLong counter = admissions.get(rule + " " + outcome);
+        return (counter == null) ? 0 : counter.get();
+    }
+
+    /**
+     * Writes all metrics in the Prometheus text format.
+     *
+     * @param writer
+     *            the writer to write to.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public void write(Writer writer) throws IOException {
+
+        List<Route> sorted = getRoutes();
+
+        writer.write("# HELP http_request_duration_seconds"
+                + " The latency of the HTTP requests by route.\n");
+        writer.write("# TYPE http_request_duration_seconds histogram\n");
+        for (Route route : sorted) {
+            String label = "route=\"" + escape(route.name) + "\"";
+            long cumulative = 0;
+            for (int i = 0; i <= BUCKETS.length; i++) {
+                cumulative += route.buckets.get(i);
+                String bound = (i < BUCKETS.length) ? String
+                        .valueOf(BUCKETS[i]) : "+Inf";
+                writer.write("http_request_duration_seconds_bucket{" + label
+                        + ",le=\"" + bound + "\"} " + cumulative + "\n");
+            }
+            writer.write("http_request_duration_seconds_sum{" + label + "} "
+                    + route.totalNanos.get() / 1e9 + "\n");
+            writer.write("http_request_duration_seconds_count{" + label
+                    + "} " + cumulative + "\n");
+        }
+
+        writer.write("# HELP http_requests_total"
+                + " The number of HTTP requests by route and status.\n");
+        writer.write("# TYPE http_requests_total counter\n");
+        for (Route route : sorted) {
+            String label = "route=\"" + escape(route.name) + "\"";
+            Map<Integer, AtomicLong> statuses = new TreeMap<>(route.statuses);
+            for (Map.Entry<Integer, AtomicLong> entry : statuses.entrySet()) {
+                writer.write("http_requests_total{" + label + ",status=\""
+                        + entry.getKey() + "\"} " + entry.getValue().get()
+                        + "\n");
+            }
+        }
+
+        writer.write("# HELP http_response_bytes_total"
+                + " The number of written bytes by route.\n");
+        writer.write("# TYPE http_response_bytes_total counter\n");
+        for (Route route : sorted) {
+            writer.write("http_response_bytes_total{route=\""
+                    + escape(route.name) + "\"} " + route.bytes.get() + "\n");
+        }
+
+        writer.write("# HELP http_admission_total"
+                + " The admission decisions by rule and outcome.\n");
+        writer.write("# TYPE http_admission_total counter\n");
+        for (Map.Entry<String, AtomicLong> entry : new TreeMap<>(admissions)
+                .entrySet()) {
+            String[] key = entry.getKey().split(" ");
+            writer.write("http_admission_total{rule=\"" + escape(key[0])
+                    + "\",outcome=\"" + escape(key[1]) + "\"} "
+                    + entry.getValue().get() + "\n");
+        }
+    }
+
+    /**
+     * @return the metrics of all routes, ordered by route.
+     */
+    List<Route> getRoutes() {
+        List<Route> result = new ArrayList<>();
+        for (String name : new TreeMap<>(routes).keySet()) {
+            result.add(routes.get(name));
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Discards all collected metrics.
+     */
+    public void reset() {
+        routes.clear();
+        admissions.clear();
+    }
+
+    private Route getRoute(String name) {
+
+        Route route = routes.get(name);
+        if (route == null) {
+            if (routes.size() >= MAX_ROUTES) {
+                name = OTHER_ROUTE;
+                route = routes.get(name);
+                if (route != null) {
+                    return route;
+                }
+            }
+            route = new Route(name);
+            Route present = routes.putIfAbsent(name, route);
+            if (present != null) {
+                route = present;
+            }
+        }
+        return route;
+    }
+
+    /**
+     * Escapes a label value of the Prometheus text format.
+     */
+    static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"")
+                .replace("\n", "\\n");
+    }
+
+    /**
+     * The collected metrics of a single route.
+     */
+    static class Route {
+
+        final String name;
+
+        /**
+         * The number of requests per latency bucket, the last bucket counts
+         * the requests above the highest bound.
+         */
+        final AtomicLongArray buckets = new AtomicLongArray(
+                BUCKETS.length + 1);
+        final AtomicLong totalNanos = new AtomicLong();
+        final AtomicLong bytes = new AtomicLong();
+        final ConcurrentMap<Integer, AtomicLong> statuses = new ConcurrentHashMap<>();
+
+        Route(String name) {
+            this.name = name;
+        }
+
+        long getCount() {
+            long count = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                count += buckets.get(i);
+            }
+            return count;
+        }
+
+        private AtomicLong getStatus(int status) {
+
+            AtomicLong counter = statuses.get(status);
+            if (counter == null) {
+                counter = new AtomicLong();
+                AtomicLong present = statuses.putIfAbsent(status, counter);
+                if (present != null) {
+                    counter = present;
+                }
+            }
+            return counter;
+        }
+    }
+
+}
@@ -0,0 +1,234 @@
+package berlin.reiche.virginia;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bson.types.ObjectId;
+
+import berlin.reiche.virginia.model.Course;
+import berlin.reiche.virginia.model.CourseLecturers;
+import berlin.reiche.virginia.model.User;
+
+/**
+ * Maintains the persistent reverse index from courses to the logins of their
+ * responsible users. All changes of the responsible courses of a user have to
+ * go through this class, so that lookups by course cost in proportion to the
+ * number of affected lecturers instead of a scan over all users.
+ *
+ * @author Konrad Reiche
+ *
+ */
+public class ResponsibilityIndex {
+
+    /**
+     * The field of {@link CourseLecturers} holding the logins.
+     */
+    private static final String LOGINS = "logins";
+
+    /**
+     * The constructor is private since this class only provides static
+     * methods.
+     */
+    private ResponsibilityIndex() {
+
+    }
+
+    /**
+     * Gets the logins of the users responsible for a course.
+     *
+     * @param course
+     *            the course.
+     * @return the set of logins, empty if there are none.
+     */
+    public static Set<String> getLecturers(Course course) {
+
+        CourseLecturers entry = MongoDB.get(CourseLecturers.class,
+                course.getId());
+        if (entry == null) {
+            return Collections.emptySet();
+        }
+        return entry.getLogins();
+    }
+
+    /**
+     * Gets the logins of the users responsible for each of the given courses.
+     *
+     * @param courses
+     *            the courses.
+     * @return the sets of logins by course identifier, courses without a
+     *         responsible user are missing.
+     */
+    public static Map<ObjectId, Set<String>> getLecturers(
+            Collection<Course> courses) {
+
+        Map<ObjectId, Set<String>> lecturers = new HashMap<>();
+        for (CourseLecturers entry : getEntries(courses)) {
+            if (!entry.getLogins().isEmpty()) {
+                lecturers.put(entry.getCourse(), entry.getLogins());
+            }
+        }
+        return lecturers;
+    }
+
+    /**
+     * Replaces the responsible courses of a user.
+     *
+     * @param user
+     *            the user.
+     * @param courses
+     *            the new responsible courses of the user.
+     */
+    public static void setResponsibilities(User user,
+            Collection<Course> courses) {
+
+        Set<Course> added = new HashSet<>(courses);
+        added.removeAll(user.getResponsibleCourses());
+        Set<Course> removed = new HashSet<>(user.getResponsibleCourses());
+        removed.removeAll(courses);
+        changeResponsibilities(user, added, removed);
+    }
+
+    /**
+     * Adds and removes responsible courses of a user. The login is added to
+     * and removed from the index entries of the courses with atomic updates,
+     * so that concurrent changes for other users are not lost.
+     *
+     * @param user
+     *            the user.
+     * @param added
+     *            the courses for which the user becomes responsible.
+     * @param removed
+     *            the courses for which the user is not responsible anymore.
+     */
+    public static void changeResponsibilities(User user,
+            Collection<Course> added, Collection<Course> removed) {
+
+        List<Course> courses = user.getResponsibleCourses();
+        courses.removeAll(removed);
+        for (Course course : added) {
+            if (!courses.contains(course)) {
+                courses.add(course);
+            }
+        }
+
+        MongoDB.store(user);
+        for (Course course : added) {
+            MongoDB.addToSet(CourseLecturers.class, course.getId(), LOGINS,
+                    user.getLogin());
+        }
+        MongoDB.pull(CourseLecturers.class, getIds(removed), LOGINS,
+                user.getLogin());
+    }
+
+    /**
+     * Removes courses from the index and from the responsible courses of all
+     * users responsible for them. Used when courses are deleted.
+     *
+     * @param courses
+     *            the courses to remove.
+     */
+    public static void removeCourses(Collection<Course> courses) {
+
+        Set<String> logins = new HashSet<>();
+        List<ObjectId> ids = new ArrayList<>();
+        for (CourseLecturers entry : getEntries(courses)) {
+            logins.addAll(entry.getLogins());
+            ids.add(entry.getCourse());
+        }
+
+        List<User> users = MongoDB.getAll(User.class, logins);
+        for (User user : users) {
+            user.getResponsibleCourses().removeAll(courses);
+        }
+
+        MongoDB.storeAll(users);
+        MongoDB.deleteAll(CourseLecturers.class, ids);
+    }
+
+    /**
+     * Removes a user from the index entries of its responsible courses. Used
+     * when the user is deleted.
+     *
+     * @param user
+     *            the user.
+     */
+    public static void removeUser(User user) {
+        MongoDB.pull(CourseLecturers.class,
+                getIds(user.getResponsibleCourses()), LOGINS, user.getLogin());
+    }
+
+    /**
+     * Moves a renamed user in the index entries of its responsible courses
+     * from the old to the new login. The login is the identifier of a user,
+     * thus a renamed user is stored as new document and the old one has to
+     * be deleted by the caller.
+     *
+     * @param user
+     *            the user with the new login.
+     * @param oldLogin
+     *            the login before the rename.
+     */
+    public static void renameUser(User user, String oldLogin) {
+
+        for (Course course : user.getResponsibleCourses()) {
+            MongoDB.addToSet(CourseLecturers.class, course.getId(), LOGINS,
+                    user.getLogin());
+        }
+        MongoDB.pull(CourseLecturers.class,
+                getIds(user.getResponsibleCourses()), LOGINS, oldLogin);
+    }
+
+    /**
+     * Builds the index from the responsible courses of all users if it is
+     * empty, for instance for a database created before the index existed.
+     */
+    public static void rebuildIfEmpty() {
+
+        if (!MongoDB.getPage(CourseLecturers.class, null, 1).getItems()
+                .isEmpty()) {
+            return;
+        }
+
+        Map<ObjectId, CourseLecturers> entries = new HashMap<>();
+        for (User user : MongoDB.getAll(User.class)) {
+            for (Course course : user.getResponsibleCourses()) {
+                CourseLecturers entry = entries.get(course.getId());
+                if (entry == null) {
+                    entry = new CourseLecturers(course.getId());
+                    entries.put(course.getId(), entry);
+                }
+                entry.getLogins().add(user.getLogin());
+            }
+        }
+
+        if (!entries.isEmpty()) {
+            MongoDB.storeAll(entries.values());
+            System.out.println("Built the responsibility index for "
+                    + entries.size() + " courses.");
+        }
+    }
+
+    /**
+     * Reads the index entries of the given courses.
+     */
+    private static List<CourseLecturers> getEntries(
+            Collection<Course> courses) {
+        return MongoDB.getAll(CourseLecturers.class, getIds(courses));
+    }
+
+    private static Set<ObjectId> getIds(Collection<Course> courses) {
+
+        Set<ObjectId> ids = new HashSet<>();
+        for (Course course : courses) {
+            ids.add(course.getId());
+        }
+        return ids;
+    }
+
+}
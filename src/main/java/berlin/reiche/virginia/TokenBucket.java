@@ -0,0 +1,95 @@
+package berlin.reiche.virginia;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket which allows a number of actions per minute with bursts up to
+ * its capacity. The bucket starts full and is refilled continuously.
+ *
+ * @author Konrad Reiche
+ *
+ */
+public class TokenBucket {
+
+    private final long capacity;
+
+    /**
+     * The time in nanoseconds it takes to refill one token.
+     */
+    private final long nanosPerToken;
+
+    /**
+     * The number of tokens, scaled by {@link #nanosPerToken} so that partial
+     * tokens are kept.
+     */
+    private long scaledTokens;
+
+    private long lastRefill;
+
+    /**
+     * @param perMinute
+     *            the number of tokens refilled per minute.
+     * @param capacity
+     *            the maximum number of tokens.
+     * @param now
+     *            the current time in nanoseconds.
+     */
+    public TokenBucket(int perMinute, int capacity, long now) {
+
+        if (perMinute <= 0 || capacity <= 0) {
+            throw new IllegalStateException("A token bucket needs a positive "
+                    + "rate and capacity.");
+        }
+        this.capacity = capacity;
+        this.nanosPerToken = TimeUnit.MINUTES.toNanos(1) / perMinute;
+        this.scaledTokens = capacity * nanosPerToken;
+        this.lastRefill = now;
+    }
+
+    /**
+     * Takes a token if there is one.
+     *
+     * @param now
+     *            the current time in nanoseconds.
+     * @return <code>0</code> if a token was taken, otherwise the time in
+     *         nanoseconds until the next token is available.
+     */
+    public synchronized long tryAcquire(long now) {
+
+        refill(now);
+        if (scaledTokens >= nanosPerToken) {
+            scaledTokens -= nanosPerToken;
+            return 0;
+        }
+        return nanosPerToken - scaledTokens;
+    }
+
+    /**
+     * Returns a taken token, for instance if the action was not performed
+     * after all.
+     */
+    public synchronized void release() {
+        scaledTokens = Math.min(capacity * nanosPerToken, scaledTokens
+                + nanosPerToken);
+    }
+
+    /**
+     * @param now
+     *            the current time in nanoseconds.
+     * @return whether the bucket is full, i.e. it was not used for a while.
+     */
+    public synchronized boolean isFull(long now) {
+        refill(now);
+        return scaledTokens == capacity * nanosPerToken;
+    }
+
+    private void refill(long now) {
+        long elapsed = now - lastRefill;
+        if (elapsed > 0) {
+            scaledTokens = Math.min(capacity * nanosPerToken, scaledTokens
+                    + elapsed);
+            lastRefill = now;
+        }
+    }
+
+}
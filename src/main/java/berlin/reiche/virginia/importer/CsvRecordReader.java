@@ -0,0 +1,161 @@
+package berlin.reiche.virginia.importer;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads records from CSV as defined by RFC 4180. The first row names the
+ * columns. Fields may be quoted with <code>"</code>, quoted fields may
+ * contain separators, line breaks and doubled quotes.
+ *
+ * @author Konrad Reiche
+ *
+ */
+public class CsvRecordReader implements RecordReader {
+
+    private final Reader reader;
+
+    private List<String> header;
+
+    /**
+     * The current line of the input, starting with <code>1</code>.
+     */
+    private int line = 1;
+
+    /**
+     * The line on which the last record started.
+     */
+    private int recordLine;
+
+    /**
+     * A character which was read ahead and has to be processed next, or
+     * <code>-2</code> if there is none.
+     */
+    private int pushback = -2;
+
+    /**
+     * @param reader
+     *            the reader providing the CSV input, it should be buffered.
+     */
+    public CsvRecordReader(Reader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * @see berlin.reiche.virginia.importer.RecordReader#next()
+     */
+    @Override
+    public Map<String, Object> next() throws IOException {
+
+        if (header == null) {
+            header = readRow();
+            if (header == null) {
+                return null;
+            }
+        }
+
+        List<String> row;
+        do {
+            row = readRow();
+        } while (row != null && row.size() == 1 && row.get(0).isEmpty());
+
+        if (row == null) {
+            return null;
+        } else if (row.size() > header.size()) {
+            throw new IOException("Line " + recordLine + " has "
+                    + row.size() + " fields, but the header has only "
+                    + header.size() + ".");
+        }
+
+        Map<String, Object> record = new LinkedHashMap<>();
+        for (int i = 0; i < row.size(); i++) {
+            record.put(header.get(i).trim(), row.get(i));
+        }
+        return record;
+    }
+
+    /**
+     * @see berlin.reiche.virginia.importer.RecordReader#getLine()
+     */
+    @Override
+    public int getLine() {
+        return recordLine;
+    }
+
+    /**
+     * Reads one row of fields.
+     *
+     * @return the fields of the row or <code>null</code> at the end of the
+     *         input.
+     */
+    private List<String> readRow() throws IOException {
+
+        int c = read();
+        if (c == -1) {
+            return null;
+        }
+
+        recordLine = line;
+        List<String> row = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean isQuoted = false;
+
+        while (true) {
+            if (isQuoted) {
+                if (c == -1) {
+                    throw new IOException("The quoted field starting on line "
+                            + recordLine + " is not closed.");
+                } else if (c == '"') {
+                    int next = read();
+                    if (next == '"') {
+                        field.append('"');
+                    } else {
+                        isQuoted = false;
+                        c = next;
+                        continue;
+                    }
+                } else {
+                    field.append((char) c);
+                }
+            } else if (c == '"' && field.length() == 0) {
+                isQuoted = true;
+            } else if (c == ',') {
+                row.add(field.toString());
+                field.setLength(0);
+            } else if (c == '\r' || c == '\n' || c == -1) {
+                if (c == '\r') {
+                    int next = read();
+                    if (next != '\n') {
+                        pushback = next;
+                    }
+                }
+                row.add(field.toString());
+                return row;
+            } else {
+                field.append((char) c);
+            }
+            c = read();
+        }
+    }
+
+    private int read() throws IOException {
+
+        int c;
+        if (pushback != -2) {
+            c = pushback;
+            pushback = -2;
+        } else {
+            c = reader.read();
+        }
+
+        if (c == '\n') {
+            line++;
+        }
+        return c;
+    }
+
+}
@@ -0,0 +1,485 @@
+package berlin.reiche.virginia.importer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import berlin.reiche.virginia.MongoDB;
+import berlin.reiche.virginia.model.Course;
+import berlin.reiche.virginia.model.CourseModule;
+import berlin.reiche.virginia.model.Room;
+import berlin.reiche.virginia.model.User;
+
+/**
+ * Imports course modules, rooms or users from a stream of records. Each
+ * record is validated, invalid records are reported and skipped. Valid
+ * records are written in batches. The passwords of imported users are hashed
+ * in parallel on a worker pool. Users whose passwords are hashed already are
+ * imported with the field <code>passwordHash</code> instead, which has to hold
+ * a valid bcrypt hash. Its cost may not exceed the configured log rounds,
+ * since every login checks the password with that cost.
+ *
+ * Course modules are read with one record per course: consecutive records
+ * with the same module name form one course module. Alternatively a record
+ * may contain all courses in the field <code>courses</code>.
+ *
+ * @author Konrad Reiche
+ *
+ */
+public class Importer {
+
+    public enum Kind {
+        MODULES, ROOMS, USERS
+    }
+
+    /**
+     * The maximum number of reported errors, further errors are only counted.
+     */
+    static final int MAX_ERRORS = 100;
+
+    /**
+     * Regular expression for matching a login name.
+     */
+    private static final String LOGIN_REGEX = "[a-zA-Z0-9]+";
+
+    /**
+     * A bcrypt hash: the version, the log rounds and the encoded salt and
+     * hash.
+     */
+    private static final Pattern BCRYPT_HASH = Pattern
+            .compile("\\$2a\\$([0-9]{2})\\$[./A-Za-z0-9]{53}");
+
+    private final int batchSize;
+
+    private final ExecutorService hashPool;
+
+    /**
+     * The records of the current batch and their lines.
+     */
+    private final List<Map<String, Object>> batch = new ArrayList<>();
+    private final List<Integer> lines = new ArrayList<>();
+
+    private Result result;
+
+    /**
+     * @param batchSize
+     *            the number of records written in one batch.
+     * @param hashPool
+     *            the worker pool on which passwords are hashed.
+     */
+    public Importer(int batchSize, ExecutorService hashPool) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("The batch size has to be"
+                    + " positive.");
+        }
+        this.batchSize = batchSize;
+        this.hashPool = hashPool;
+    }
+
+    /**
+     * Reads all records and imports them.
+     *
+     * @param kind
+     *            the kind of the imported entities.
+     * @param reader
+     *            the reader providing the records.
+     * @return the result of the import.
+     * @throws IOException
+     *             if the input could not be read or is malformed. All batches
+     *             before the malformed record are written.
+     */
+    public Result run(Kind kind, RecordReader reader) throws IOException {
+
+        result = new Result();
+        batch.clear();
+        lines.clear();
+
+        try {
+            Map<String, Object> record = reader.next();
+            Map<String, Object> module = null;
+            int moduleLine = 0;
+            while (record != null) {
+                if (kind == Kind.MODULES && !record.containsKey("courses")) {
+                    // merge consecutive course rows of the same module
+                    String name = getString(record, "name");
+                    if (module != null
+                            && !name.equals(getString(module, "name"))) {
+                        add(kind, module, moduleLine);
+                        module = null;
+                    }
+                    if (module == null) {
+                        module = new HashMap<>(record);
+                        module.put("courses", new ArrayList<Object>());
+                        moduleLine = reader.getLine();
+                    }
+                    getList(module, "courses").add(record);
+                } else {
+                    add(kind, record, reader.getLine());
+                }
+                record = reader.next();
+            }
+
+            if (module != null) {
+                add(kind, module, moduleLine);
+            }
+        } finally {
+            flush(kind);
+        }
+        return result;
+    }
+
+    private void add(Kind kind, Map<String, Object> record, int line) {
+        batch.add(record);
+        lines.add(line);
+        if (batch.size() >= batchSize) {
+            flush(kind);
+        }
+    }
+
+    /**
+     * Validates and writes the current batch.
+     */
+    private void flush(Kind kind) {
+
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        switch (kind) {
+        case MODULES:
+            importModules();
+            break;
+        case ROOMS:
+            importRooms();
+            break;
+        case USERS:
+            importUsers();
+            break;
+        }
+        batch.clear();
+        lines.clear();
+    }
+
+    private void importModules() {
+
+        List<Object> writes = new ArrayList<>();
+        for (int i = 0; i < batch.size(); i++) {
+            Map<String, Object> record = batch.get(i);
+            try {
+                CourseModule module = new CourseModule(require(record, "name"),
+                        getInt(record, "credits", 0),
+                        getString(record, "assessment"), getString(record,
+                                "description"));
+
+                List<Course> courses = new ArrayList<>();
+                for (Object element : getList(record, "courses")) {
+                    Map<String, Object> fields = asMap(element);
+                    Course course = new Course(require(fields, "type"),
+                            getInt(fields, "duration", 1), getInt(fields,
+                                    "count", 1));
+                    course.getEquipment().putAll(getEquipment(fields));
+                    course.setModule(module);
+                    courses.add(course);
+                }
+                if (courses.isEmpty()) {
+                    throw new IllegalArgumentException("the module has no"
+                            + " courses");
+                }
+
+                module.getCourses().addAll(courses);
+                writes.add(module);
+                writes.addAll(courses);
+                result.imported++;
+            } catch (IllegalArgumentException e) {
+                reject(lines.get(i), e.getMessage());
+            }
+        }
+        MongoDB.storeAll(writes);
+    }
+
+    private void importRooms() {
+
+        List<Room> rooms = new ArrayList<>();
+        for (int i = 0; i < batch.size(); i++) {
+            Map<String, Object> record = batch.get(i);
+            try {
+                Room room = new Room(require(record, "number"), require(
+                        record, "name"));
+                room.getEquipment().putAll(getEquipment(record));
+                rooms.add(room);
+                result.imported++;
+            } catch (IllegalArgumentException e) {
+                reject(lines.get(i), e.getMessage());
+            }
+        }
+        MongoDB.storeAll(rooms);
+    }
+
+    private void importUsers() {
+
+        Set<String> logins = new HashSet<>();
+        for (Map<String, Object> record : batch) {
+            logins.add(getString(record, "login"));
+        }
+
+        Set<String> existing = new HashSet<>();
+        for (User user : MongoDB.getAll(User.class, logins)) {
+            existing.add(user.getLogin());
+        }
+
+        // validate first, then hash all passwords of the batch in parallel
+        List<Map<String, Object>> valid = new ArrayList<>();
+        List<Integer> validLines = new ArrayList<>();
+        List<Future<String>> hashes = new ArrayList<>();
+        for (int i = 0; i < batch.size(); i++) {
+            Map<String, Object> record = batch.get(i);
+            try {
+                String login = require(record, "login");
+                if (!login.matches(LOGIN_REGEX)) {
+                    throw new IllegalArgumentException("the login may only"
+                            + " contain letters and digits");
+                } else if (!existing.add(login)) {
+                    throw new IllegalArgumentException("the login " + login
+                            + " exists already");
+                }
+
+                String email = getString(record, "email");
+                if (!email.isEmpty() && !email.contains("@")) {
+                    throw new IllegalArgumentException("the email address is"
+                            + " invalid");
+                }
+
+                // a given hash is stored as it is
+                hashes.add((getPasswordHash(record) != null) ? null
+                        : hashPool.submit(new Hash(require(record,
+                                "password"))));
+                valid.add(record);
+                validLines.add(lines.get(i));
+            } catch (IllegalArgumentException e) {
+                reject(lines.get(i), e.getMessage());
+            }
+        }
+
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < valid.size(); i++) {
+            Map<String, Object> record = valid.get(i);
+            try {
+                Future<String> future = hashes.get(i);
+                String hash = (future == null) ? getPasswordHash(record)
+                        : future.get();
+                users.add(User.withPasswordHash(getString(record, "login"),
+                        hash, getString(record, "name"), getString(record,
+                                "email"), getBoolean(record, "student"),
+                        getBoolean(record, "lecturer")));
+                result.imported++;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("The import was interrupted.",
+                        e);
+            } catch (ExecutionException e) {
+                reject(validLines.get(i), "the password could not be hashed");
+            }
+        }
+        MongoDB.storeAll(users);
+        for (User user : users) {
+            imported(user);
+        }
+    }
+
+    /**
+     * Reads the field <code>passwordHash</code>, which replaces the field
+     * <code>password</code> for users with hashed passwords.
+     *
+     * @return the bcrypt hash or <code>null</code> if there is none.
+     */
+    private static String getPasswordHash(Map<String, Object> record) {
+
+        String hash = getString(record, "passwordHash");
+        if (hash.isEmpty()) {
+            return null;
+        } else if (!getString(record, "password").isEmpty()) {
+            throw new IllegalArgumentException("only one of the fields"
+                    + " password and passwordHash may be given");
+        }
+
+        Matcher matcher = BCRYPT_HASH.matcher(hash);
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("the password hash is not a"
+                    + " valid bcrypt hash");
+        }
+        int logRounds = Integer.parseInt(matcher.group(1));
+        if (logRounds < 4 || logRounds > User.getLogRounds()) {
+            throw new IllegalArgumentException("the log rounds of the"
+                    + " password hash have to be between 4 and "
+                    + User.getLogRounds());
+        }
+        return hash;
+    }
+
+    /**
+     * Called for every user after its batch is written. The default
+     * implementation does nothing.
+     *
+     * @param user
+     *            the imported user.
+     */
+    protected void imported(User user) {
+
+    }
+
+    private void reject(int line, String message) {
+        result.rejected++;
+        if (result.errors.size() < MAX_ERRORS) {
+            result.errors.add("Line " + line + ": " + message + ".");
+        }
+    }
+
+    private static String getString(Map<String, Object> record, String field) {
+        Object value = record.get(field);
+        return (value == null) ? "" : value.toString().trim();
+    }
+
+    private static String require(Map<String, Object> record, String field) {
+        String value = getString(record, field);
+        if (value.isEmpty()) {
+            throw new IllegalArgumentException("the field " + field
+                    + " is missing");
+        }
+        return value;
+    }
+
+    private static int getInt(Map<String, Object> record, String field,
+            int minimum) {
+
+        String value = require(record, field);
+        try {
+            int number = (int) Double.parseDouble(value);
+            if (number < minimum) {
+                throw new IllegalArgumentException("the field " + field
+                        + " has to be at least " + minimum);
+            }
+            return number;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("the field " + field
+                    + " is not a number");
+        }
+    }
+
+    private static boolean getBoolean(Map<String, Object> record, String field) {
+        String value = getString(record, field).toLowerCase();
+        return value.equals("true") || value.equals("yes")
+                || value.equals("1");
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Object> getList(Map<String, Object> record,
+            String field) {
+
+        Object value = record.get(field);
+        if (value == null) {
+            return new ArrayList<>();
+        } else if (!(value instanceof List)) {
+            throw new IllegalArgumentException("the field " + field
+                    + " is not a list");
+        }
+        return (List<Object>) value;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> asMap(Object value) {
+        if (!(value instanceof Map)) {
+            throw new IllegalArgumentException("a course is not an object");
+        }
+        return (Map<String, Object>) value;
+    }
+
+    /**
+     * Reads the equipment requirements either from an object of quantities by
+     * item or, in CSV, from a string like <code>Projector:1;Whiteboard:2</code>
+     * .
+     */
+    private static Map<String, Integer> getEquipment(Map<String, Object> record) {
+
+        Map<String, Integer> equipment = new HashMap<>();
+        Object value = record.get("equipment");
+        if (value instanceof Map) {
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                equipment.put(entry.getKey().toString(),
+                        parseQuantity(String.valueOf(entry.getValue())));
+            }
+        } else if (value != null && !value.toString().trim().isEmpty()) {
+            for (String item : value.toString().split(";")) {
+                String[] parts = item.split(":");
+                equipment.put(parts[0].trim(), (parts.length > 1)
+                        ? parseQuantity(parts[1]) : 1);
+            }
+        }
+        return equipment;
+    }
+
+    private static int parseQuantity(String value) {
+        try {
+            int quantity = (int) Double.parseDouble(value.trim());
+            if (quantity < 1) {
+                throw new NumberFormatException();
+            }
+            return quantity;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("the equipment quantity "
+                    + value + " is invalid");
+        }
+    }
+
+    /**
+     * Hashes a password.
+     */
+    private static class Hash implements Callable<String> {
+
+        private final String password;
+
+        Hash(String password) {
+            this.password = password;
+        }
+
+        @Override
+        public String call() {
+            return User.hashPassword(password);
+        }
+    }
+
+    /**
+     * The outcome of an import.
+     */
+    public static class Result {
+
+        int imported;
+        int rejected;
+        final List<String> errors = new ArrayList<>();
+
+        public int getImported() {
+            return imported;
+        }
+
+        public int getRejected() {
+            return rejected;
+        }
+
+        /**
+         * @return the first {@value Importer#MAX_ERRORS} error messages.
+         */
+        public List<String> getErrors() {
+            return errors;
+        }
+    }
+
+}
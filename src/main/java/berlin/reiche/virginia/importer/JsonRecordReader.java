@@ -0,0 +1,289 @@
+package berlin.reiche.virginia.importer;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads records from JSON. The input is either an array of objects or a
+ * sequence of objects, e.g. one object per line. Only one object is parsed at
+ * a time, the array as a whole is never held in memory.
+ *
+ * @author Konrad Reiche
+ *
+ */
+public class JsonRecordReader implements RecordReader {
+
+    private final Reader reader;
+
+    /**
+     * Whether the records are enclosed in an array, <code>null</code> before
+     * the first record is read.
+     */
+    private Boolean isArray;
+
+    private boolean isFinished;
+
+    private int line = 1;
+
+    private int recordLine;
+
+    /**
+     * A character which was read ahead and has to be processed next, or
+     * <code>-2</code> if there is none.
+     */
+    private int pushback = -2;
+
+    /**
+     * @param reader
+     *            the reader providing the JSON input, it should be buffered.
+     */
+    public JsonRecordReader(Reader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * @see berlin.reiche.virginia.importer.RecordReader#next()
+     */
+    @Override
+    public Map<String, Object> next() throws IOException {
+
+        if (isFinished) {
+            return null;
+        }
+
+        int c = skipWhitespace();
+        if (isArray == null) {
+            isArray = (c == '[');
+            if (isArray) {
+                c = skipWhitespace();
+                if (c == ']') {
+                    isFinished = true;
+                    return null;
+                }
+            }
+        } else if (isArray) {
+            if (c == ']') {
+                isFinished = true;
+                return null;
+            } else if (c != ',') {
+                throw error("Expected , or ]");
+            }
+            c = skipWhitespace();
+        }
+
+        if (c == -1 && !isArray) {
+            isFinished = true;
+            return null;
+        } else if (c != '{') {
+            throw error("Expected an object");
+        }
+
+        recordLine = line;
+        return readObject();
+    }
+
+    /**
+     * @see berlin.reiche.virginia.importer.RecordReader#getLine()
+     */
+    @Override
+    public int getLine() {
+        return recordLine;
+    }
+
+    /**
+     * Reads an object after its opening brace.
+     */
+    private Map<String, Object> readObject() throws IOException {
+
+        Map<String, Object> object = new LinkedHashMap<>();
+        int c = skipWhitespace();
+        if (c == '}') {
+            return object;
+        }
+
+        while (true) {
+            if (c != '"') {
+                throw error("Expected a member name");
+            }
+            String name = readString();
+            if (skipWhitespace() != ':') {
+                throw error("Expected :");
+            }
+            object.put(name, readValue(skipWhitespace()));
+
+            c = skipWhitespace();
+            if (c == '}') {
+                return object;
+            } else if (c != ',') {
+                throw error("Expected , or }");
+            }
+            c = skipWhitespace();
+        }
+    }
+
+    /**
+     * Reads an array after its opening bracket.
+     */
+    private List<Object> readArray() throws IOException {
+
+        List<Object> array = new ArrayList<>();
+        int c = skipWhitespace();
+        if (c == ']') {
+            return array;
+        }
+
+        while (true) {
+            array.add(readValue(c));
+            c = skipWhitespace();
+            if (c == ']') {
+                return array;
+            } else if (c != ',') {
+                throw error("Expected , or ]");
+            }
+            c = skipWhitespace();
+        }
+    }
+
+    /**
+     * Reads a value starting with the given character.
+     */
+    private Object readValue(int c) throws IOException {
+
+        switch (c) {
+        case '{':
+            return readObject();
+        case '[':
+            return readArray();
+        case '"':
+            return readString();
+        case 't':
+            expect("rue");
+            return Boolean.TRUE;
+        case 'f':
+            expect("alse");
+            return Boolean.FALSE;
+        case 'n':
+            expect("ull");
+            return null;
+        default:
+            if (c == '-' || (c >= '0' && c <= '9')) {
+                return readNumber(c);
+            }
+            throw error("Unexpected character");
+        }
+    }
+
+    private String readString() throws IOException {
+
+        StringBuilder sb = new StringBuilder();
+        while (true) {
+            int c = read();
+            if (c == -1) {
+                throw error("Unterminated string");
+            } else if (c == '"') {
+                return sb.toString();
+            } else if (c == '\\') {
+                int escaped = read();
+                switch (escaped) {
+                case 'n':
+                    sb.append('\n');
+                    break;
+                case 't':
+                    sb.append('\t');
+                    break;
+                case 'r':
+                    sb.append('\r');
+                    break;
+                case 'b':
+                    sb.append('\b');
+                    break;
+                case 'f':
+                    sb.append('\f');
+                    break;
+                case 'u':
+                    char[] hex = new char[4];
+                    for (int i = 0; i < hex.length; i++) {
+                        hex[i] = (char) read();
+                    }
+                    try {
+                        sb.append((char) Integer.parseInt(new String(hex), 16));
+                    } catch (NumberFormatException e) {
+                        throw error("Invalid unicode escape");
+                    }
+                    break;
+                case -1:
+                    throw error("Unterminated string");
+                default:
+                    sb.append((char) escaped);
+                }
+            } else {
+                sb.append((char) c);
+            }
+        }
+    }
+
+    private Number readNumber(int first) throws IOException {
+
+        StringBuilder sb = new StringBuilder();
+        sb.append((char) first);
+        int c = read();
+        while (c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E'
+                || (c >= '0' && c <= '9')) {
+            sb.append((char) c);
+            c = read();
+        }
+        pushback = c;
+
+        String number = sb.toString();
+        try {
+            if (number.contains(".") || number.contains("e")
+                    || number.contains("E")) {
+                return Double.valueOf(number);
+            }
+            return Long.valueOf(number);
+        } catch (NumberFormatException e) {
+            throw error("Invalid number " + number);
+        }
+    }
+
+    private void expect(String rest) throws IOException {
+        for (int i = 0; i < rest.length(); i++) {
+            if (read() != rest.charAt(i)) {
+                throw error("Unexpected literal");
+            }
+        }
+    }
+
+    private int skipWhitespace() throws IOException {
+        int c = read();
+        while (c == ' ' || c == '\t' || c == '\r' || c == '\n') {
+            c = read();
+        }
+        return c;
+    }
+
+    private int read() throws IOException {
+
+        int c;
+        if (pushback != -2) {
+            c = pushback;
+            pushback = -2;
+            return c;
+        }
+
+        c = reader.read();
+        if (c == '\n') {
+            line++;
+        }
+        return c;
+    }
+
+    private IOException error(String message) {
+        return new IOException(message + " on line " + line + ".");
+    }
+
+}
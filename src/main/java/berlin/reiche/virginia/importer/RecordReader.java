@@ -0,0 +1,31 @@
+package berlin.reiche.virginia.importer;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Reads the records of an import one after another, so that only one record
+ * is held in memory at a time.
+ *
+ * @author Konrad Reiche
+ *
+ */
+public interface RecordReader {
+
+    /**
+     * Reads the next record.
+     *
+     * @return the fields of the record by name or <code>null</code> if there
+     *         are no more records. Values are strings, numbers, booleans,
+     *         lists or maps.
+     * @throws IOException
+     *             if the input could not be read or is malformed.
+     */
+    Map<String, Object> next() throws IOException;
+
+    /**
+     * @return the line of the input on which the last record started.
+     */
+    int getLine();
+
+}
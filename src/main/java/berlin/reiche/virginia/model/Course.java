@@ -2,11 +2,13 @@ package berlin.reiche.virginia.model;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Objects;
 
 import org.bson.types.ObjectId;
 
 import com.google.code.morphia.annotations.Entity;
 import com.google.code.morphia.annotations.Id;
+import com.google.code.morphia.annotations.Indexed;
 import com.google.code.morphia.annotations.Reference;
 
 /**
@@ -32,6 +34,7 @@ public class Course implements Comparable<Course> {
      * The course module to which this course belongs.
      */
     @Reference
+    @Indexed
     CourseModule module;
 
     /**
@@ -95,6 +98,32 @@ public class Course implements Comparable<Course> {
         this.module = module;
     }
 
+    /**
+     * Assigns a new definition to this course while keeping its identifier.
+     *
+     * @param type
+     *            the course type.
+     * @param duration
+     *            the duration.
+     * @param count
+     *            the number of times the course should take place per week.
+     * @param equipment
+     *            the equipment requirements.
+     * @return whether the definition has changed.
+     */
+    public boolean update(String type, int duration, int count,
+            Map<String, Integer> equipment) {
+
+        boolean changed = !Objects.equals(this.type, type)
+                || this.duration != duration || this.count != count
+                || !this.equipment.equals(equipment);
+        this.type = type;
+        this.duration = duration;
+        this.count = count;
+        this.equipment = new HashMap<>(equipment);
+        return changed;
+    }
+
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
@@ -0,0 +1,60 @@
+package berlin.reiche.virginia.model;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.bson.types.ObjectId;
+
+import com.google.code.morphia.annotations.Entity;
+import com.google.code.morphia.annotations.Id;
+
+/**
+ * The reverse of the responsible courses of the users: the logins of all users
+ * responsible for a certain course.
+ *
+ * @author Konrad Reiche
+ *
+ */
+@Entity("course_lecturers")
+public class CourseLecturers {
+
+    /**
+     * The identifier of the course.
+     */
+    @Id
+    ObjectId course;
+
+    /**
+     * The logins of the users responsible for the course.
+     */
+    Set<String> logins;
+
+    /**
+     * This constructor is used by Morphia via Java reflections.
+     */
+    @SuppressWarnings("unused")
+    private CourseLecturers() {
+
+    }
+
+    /**
+     * Creates an empty entry for a course.
+     *
+     * @param course
+     *            the identifier of the course.
+     */
+    public CourseLecturers(ObjectId course) {
+        super();
+        this.course = course;
+        this.logins = new HashSet<>();
+    }
+
+    public ObjectId getCourse() {
+        return course;
+    }
+
+    public Set<String> getLogins() {
+        return logins;
+    }
+
+}
@@ -7,6 +7,7 @@ import org.mindrot.jbcrypt.BCrypt;
 
 import com.google.code.morphia.annotations.Entity;
 import com.google.code.morphia.annotations.Id;
+import com.google.code.morphia.annotations.Indexed;
 import com.google.code.morphia.annotations.Reference;
 
 /**
@@ -23,7 +24,9 @@ public class User {
      * The log2 of the number of rounds of hashing to apply. The work factor
      * there increases as 2**log_rounds.
      */
-    private static final int LOG_ROUNDS = 12;
+    public static final int DEFAULT_LOG_ROUNDS = 12;
+
+    private static volatile int logRounds = DEFAULT_LOG_ROUNDS;
 
     /**
      * The login name credentials.
@@ -52,13 +55,17 @@ public class User {
     boolean student;
 
     /**
-     * Whether the user is a lecturer.
+     * Whether the user is a lecturer. Indexed, since the lecturers are queried
+     * for the responsibilities and the course scheduling.
      */
+    @Indexed
     boolean lecturer;
 
     /**
-     * A list of course which the user can lecture.
+     * A list of course which the user can lecture. Indexed, since users are
+     * looked up by their responsible courses.
      */
+    @Indexed
     @Reference
     List<Course> responsibleCourses;
 
@@ -70,7 +77,6 @@ public class User {
     /**
      * This constructor is used by Morphia via Java reflections.
      */
-    @SuppressWarnings("unused")
     private User() {
 
     }
@@ -104,6 +110,38 @@ public class User {
         this.responsibleCourses = new ArrayList<>();
     }
 
+    /**
+     * Creates a new user with an already hashed password, for instance when
+     * the password was hashed on another thread.
+     * 
+     * @param login
+     *            the login name.
+     * @param passwordHash
+     *            the bcrypt hash of the login password.
+     * @param name
+     *            the real name.
+     * @param email
+     *            the email address.
+     * @param student
+     *            whether the user is a student.
+     * @param lecturer
+     *            whether the user is a lecturer.
+     * @return the new user.
+     */
+    public static User withPasswordHash(String login, String passwordHash,
+            String name, String email, boolean student, boolean lecturer) {
+
+        User user = new User();
+        user.login = login;
+        user.password = passwordHash;
+        user.name = name;
+        user.email = email;
+        user.student = student;
+        user.lecturer = lecturer;
+        user.responsibleCourses = new ArrayList<>();
+        return user;
+    }
+
     /**
      * Adds a course to the responsible courses the user can lecture.
      * 
@@ -175,8 +213,30 @@ public class User {
      *            the password to hash.
      * @return the hashed password.
      */
-    private String hashPassword(String password) {
-        return BCrypt.hashpw(password, BCrypt.gensalt(LOG_ROUNDS));
+    public static String hashPassword(String password) {
+        return BCrypt.hashpw(password, BCrypt.gensalt(logRounds));
+    }
+
+    /**
+     * @return the log2 of the number of rounds new passwords are hashed with.
+     */
+    public static int getLogRounds() {
+        return logRounds;
+    }
+
+    /**
+     * Sets the cost of hashing new passwords. Existing passwords are hashed
+     * again with this cost on their next login.
+     * 
+     * @param logRounds
+     *            the log2 of the number of rounds, between 4 and 30.
+     */
+    public static void setLogRounds(int logRounds) {
+        if (logRounds < 4 || logRounds > 30) {
+            throw new IllegalArgumentException("The log rounds have to be"
+                    + " between 4 and 30.");
+        }
+        User.logRounds = logRounds;
     }
 
     public boolean isLecturer() {
@@ -199,6 +259,16 @@ public class User {
         this.login = login;
     }
 
+    /**
+     * Replaces the password by an already hashed password.
+     * 
+     * @param passwordHash
+     *            the bcrypt hash of the password.
+     */
+    public void setPasswordHash(String passwordHash) {
+        this.password = passwordHash;
+    }
+
     public void setName(String name) {
         this.name = name;
     }
@@ -144,6 +144,10 @@ public class CourseSchedule {
         entries.removeAll(removableEntries);
     }
 
+    public List<ScheduleEntry> getEntries() {
+        return entries;
+    }
+
     public Timeframe getTimeframe() {
         return timeframe;
     }
@@ -1,6 +1,10 @@
 package berlin.reiche.virginia.scheduler;
 
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bson.types.ObjectId;
 
 import berlin.reiche.virginia.model.CourseModule;
 import berlin.reiche.virginia.model.Room;
@@ -34,5 +38,12 @@ public class InputData {
      * The list of available lecturers.
      */
     List<User> lecturers;
+
+    /**
+     * The logins of the users responsible for each course by course
+     * identifier, as read from the responsibility index. If it is
+     * <code>null</code> the responsible courses of the lecturers are used.
+     */
+    Map<ObjectId, Set<String>> responsibilities;
     
 }
@@ -0,0 +1,111 @@
+package berlin.reiche.virginia.scheduler;
+
+import java.util.Objects;
+
+import org.bson.types.ObjectId;
+
+import berlin.reiche.virginia.model.ScheduleEntry;
+
+import com.google.code.morphia.annotations.Embedded;
+
+/**
+ * The compact, immutable form of a {@link ScheduleEntry} as kept in the
+ * schedule history: only the identifiers of the referenced entities are
+ * stored.
+ *
+ * @author Konrad Reiche
+ *
+ */
+@Embedded
+public class Placement {
+
+    ObjectId course;
+    String lecturer;
+    ObjectId room;
+    int day;
+    int timeSlot;
+
+    /**
+     * This constructor is used by Morphia via Java reflections.
+     */
+    @SuppressWarnings("unused")
+    private Placement() {
+
+    }
+
+    public Placement(ObjectId course, String lecturer, ObjectId room, int day,
+            int timeSlot) {
+        this.course = course;
+        this.lecturer = lecturer;
+        this.room = room;
+        this.day = day;
+        this.timeSlot = timeSlot;
+    }
+
+    /**
+     * Creates the placement of a schedule entry.
+     *
+     * @param entry
+     *            the schedule entry.
+     */
+    public Placement(ScheduleEntry entry) {
+        this(entry.getCourse().getId(), (entry.getLecturer() == null) ? null
+                : entry.getLecturer().getLogin(), entry.getRoom().getId(),
+                entry.getDay(), entry.getTimeSlot());
+    }
+
+    public ObjectId getCourse() {
+        return course;
+    }
+
+    public String getLecturer() {
+        return lecturer;
+    }
+
+    public ObjectId getRoom() {
+        return room;
+    }
+
+    public int getDay() {
+        return day;
+    }
+
+    public int getTimeSlot() {
+        return timeSlot;
+    }
+
+    /**
+     * Whether another placement places the same course with the same lecturer,
+     * possibly at another position.
+     *
+     * @param o
+     *            the other placement.
+     * @return whether both placements belong to the same course and lecturer.
+     */
+    boolean isSameCourse(Placement o) {
+        return course.equals(o.course) && Objects.equals(lecturer, o.lecturer);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof Placement)) {
+            return false;
+        }
+
+        Placement p = (Placement) o;
+        return isSameCourse(p) && room.equals(p.room) && day == p.day
+                && timeSlot == p.timeSlot;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(course, lecturer, room, day, timeSlot);
+    }
+
+    @Override
+    public String toString() {
+        return course + " " + lecturer + " " + room + " " + day + "/"
+                + timeSlot;
+    }
+
+}
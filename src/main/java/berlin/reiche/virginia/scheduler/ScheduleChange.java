@@ -0,0 +1,80 @@
+package berlin.reiche.virginia.scheduler;
+
+import com.google.code.morphia.annotations.Embedded;
+
+/**
+ * A single change between two versions of a course schedule: a course is
+ * added, removed or moved to another position.
+ *
+ * @author Konrad Reiche
+ *
+ */
+@Embedded
+public class ScheduleChange {
+
+    public enum Type {
+        ADD, REMOVE, MOVE
+    }
+
+    /**
+     * The placement before the change, <code>null</code> if the course was
+     * added.
+     */
+    @Embedded
+    Placement from;
+
+    /**
+     * The placement after the change, <code>null</code> if the course was
+     * removed.
+     */
+    @Embedded
+    Placement to;
+
+    /**
+     * This constructor is used by Morphia via Java reflections.
+     */
+    @SuppressWarnings("unused")
+    private ScheduleChange() {
+
+    }
+
+    public ScheduleChange(Placement from, Placement to) {
+        if (from == null && to == null) {
+            throw new IllegalArgumentException("A change needs at least one"
+                    + " placement.");
+        }
+        this.from = from;
+        this.to = to;
+    }
+
+    public Placement getFrom() {
+        return from;
+    }
+
+    public Placement getTo() {
+        return to;
+    }
+
+    public Type getType() {
+        if (from == null) {
+            return Type.ADD;
+        } else if (to == null) {
+            return Type.REMOVE;
+        }
+        return Type.MOVE;
+    }
+
+    /**
+     * @return the change which reverts this change.
+     */
+    public ScheduleChange invert() {
+        return new ScheduleChange(to, from);
+    }
+
+    @Override
+    public String toString() {
+        return getType() + " " + ((from == null) ? "" : from)
+                + ((to == null) ? "" : " -> " + to);
+    }
+
+}
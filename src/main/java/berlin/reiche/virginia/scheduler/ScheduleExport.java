@@ -0,0 +1,483 @@
+package berlin.reiche.virginia.scheduler;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+
+import berlin.reiche.virginia.JsonWriter;
+import berlin.reiche.virginia.model.Course;
+import berlin.reiche.virginia.model.Room;
+import berlin.reiche.virginia.model.ScheduleEntry;
+import berlin.reiche.virginia.model.Timeframe;
+import berlin.reiche.virginia.model.User;
+
+/**
+ * Exports the entries of a course schedule as iCalendar, CSV or JSON. Every
+ * entry is written to the output as soon as it is read, no intermediate
+ * collections are built. The course schedule itself is a single document and
+ * has to be loaded as a whole, thus only the output is streamed. The export
+ * can be restricted to one room, one lecturer or one course module.
+ *
+ * @author Konrad Reiche
+ *
+ */
+public class ScheduleExport {
+
+    public enum Format {
+
+        ICS("text/calendar"), CSV("text/csv"), JSON("application/json");
+
+        private final String contentType;
+
+        private Format(String contentType) {
+            this.contentType = contentType;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public String getExtension() {
+            return name().toLowerCase();
+        }
+    }
+
+    private static final String CRLF = "\r\n";
+
+    /**
+     * Lines of an iCalendar file should not be longer than 75 octets.
+     */
+    private static final int MAX_LINE_LENGTH = 75;
+
+    /**
+     * The iCalendar names of the weekdays, starting with Sunday like
+     * {@link Calendar#SUNDAY}.
+     */
+    private static final String[] WEEKDAYS = { "SU", "MO", "TU", "WE", "TH",
+            "FR", "SA" };
+
+    private static final String[] CSV_HEADER = { "module", "course",
+            "lecturer", "room", "day", "weekday", "start", "end" };
+
+    private final String room;
+    private final String lecturer;
+    private final String module;
+
+    /**
+     * The time zone of the event times.
+     */
+    private final TimeZone zone;
+
+    /**
+     * Creates an export restricted by the given filters, the event times are
+     * in the default time zone.
+     *
+     * @param room
+     *            the identifier of the room or <code>null</code> for all
+     *            rooms.
+     * @param lecturer
+     *            the login of the lecturer or <code>null</code> for all
+     *            lecturers.
+     * @param module
+     *            the identifier of the course module or <code>null</code> for
+     *            all course modules.
+     */
+    public ScheduleExport(String room, String lecturer, String module) {
+        this(room, lecturer, module, TimeZone.getDefault());
+    }
+
+    /**
+     * Creates an export restricted by the given filters.
+     *
+     * @param room
+     *            the identifier of the room or <code>null</code> for all
+     *            rooms.
+     * @param lecturer
+     *            the login of the lecturer or <code>null</code> for all
+     *            lecturers.
+     * @param module
+     *            the identifier of the course module or <code>null</code> for
+     *            all course modules.
+     * @param zone
+     *            the time zone of the event times.
+     */
+    public ScheduleExport(String room, String lecturer, String module,
+            TimeZone zone) {
+        this.room = room;
+        this.lecturer = lecturer;
+        this.module = module;
+        this.zone = zone;
+    }
+
+    /**
+     * Writes the matching entries of a course schedule. The writer is flushed
+     * after the header, so that the first bytes are sent immediately.
+     *
+     * @param schedule
+     *            the course schedule.
+     * @param format
+     *            the output format.
+     * @param writer
+     *            the writer to which the export is written.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public void write(CourseSchedule schedule, Format format, Writer writer)
+            throws IOException {
+
+        switch (format) {
+        case ICS:
+            writeCalendar(schedule, writer);
+            break;
+        case CSV:
+            writeCsv(schedule, writer);
+            break;
+        case JSON:
+            writeJson(schedule, writer);
+            break;
+        }
+        writer.flush();
+    }
+
+    /**
+     * @param entry
+     *            a schedule entry.
+     * @return whether the entry matches all filters.
+     */
+    public boolean matches(ScheduleEntry entry) {
+
+        if (room != null && !room.equals(String.valueOf(entry.getRoom()
+                .getId()))) {
+            return false;
+        }
+
+        User user = entry.getLecturer();
+        if (lecturer != null
+                && (user == null || !lecturer.equals(user.getLogin()))) {
+            return false;
+        }
+
+        Course course = entry.getCourse();
+        return module == null
+                || (course.getModule() != null && module.equals(course
+                        .getModule().getId()));
+    }
+
+    /**
+     * Writes every entry as a weekly recurring event, starting in the current
+     * week. The first day of the timeframe is taken as Monday. The event times
+     * are local times of the time zone of the export, so that an event keeps
+     * its hour when the daylight saving time changes.
+     */
+    private void writeCalendar(CourseSchedule schedule, Writer writer)
+            throws IOException {
+
+        writer.write("BEGIN:VCALENDAR" + CRLF);
+        writer.write("VERSION:2.0" + CRLF);
+        writer.write("PRODID:-//virginia//course-scheduler//EN" + CRLF);
+        Calendar monday = Calendar.getInstance(zone);
+        writeTimeZone(writer, monday.get(Calendar.YEAR));
+        writer.flush();
+
+        Timeframe timeframe = schedule.getTimeframe();
+        monday.setFirstDayOfWeek(Calendar.MONDAY);
+        monday.set(Calendar.DAY_OF_WEEK, Calendar.MONDAY);
+        monday.set(Calendar.HOUR_OF_DAY, 0);
+        monday.set(Calendar.MINUTE, 0);
+        monday.set(Calendar.SECOND, 0);
+        monday.set(Calendar.MILLISECOND, 0);
+
+        SimpleDateFormat local = new SimpleDateFormat("yyyyMMdd'T'HHmmss");
+        local.setTimeZone(zone);
+        SimpleDateFormat utc = new SimpleDateFormat("yyyyMMdd'T'HHmmss'Z'");
+        utc.setTimeZone(TimeZone.getTimeZone("UTC"));
+        String stamp = utc.format(new Date());
+        Calendar time = Calendar.getInstance(zone);
+
+        for (ScheduleEntry entry : schedule.getEntries()) {
+            if (!matches(entry)) {
+                continue;
+            }
+
+            Course course = entry.getCourse();
+            time.setTime(monday.getTime());
+            time.add(Calendar.DAY_OF_MONTH, entry.getDay());
+            time.add(Calendar.HOUR_OF_DAY, timeframe.getStartHour()
+                    + entry.getTimeSlot());
+            String start = local.format(time.getTime());
+            time.add(Calendar.HOUR_OF_DAY, course.getDuration());
+            String end = local.format(time.getTime());
+
+            writer.write("BEGIN:VEVENT" + CRLF);
+            writeLine(writer, "UID:" + course.getId() + "-" + entry.getDay()
+                    + "-" + entry.getTimeSlot() + "-" + entry.getRoom().getId()
+                    + "@virginia");
+            writeLine(writer, "DTSTAMP:" + stamp);
+            writeLine(writer, "DTSTART;TZID=" + zone.getID() + ":" + start);
+            writeLine(writer, "DTEND;TZID=" + zone.getID() + ":" + end);
+            writeLine(writer, "RRULE:FREQ=WEEKLY");
+            writeLine(writer, "SUMMARY:" + escapeText(getModuleName(course)
+                    + " " + course.getType()));
+            writeLine(writer, "LOCATION:" + escapeText(entry.getRoom()
+                    .toString()));
+            if (entry.getLecturer() != null) {
+                writeLine(writer, "DESCRIPTION:"
+                        + escapeText(entry.getLecturer().getName()));
+            }
+            writer.write("END:VEVENT" + CRLF);
+        }
+        writer.write("END:VCALENDAR" + CRLF);
+    }
+
+    /**
+     * Writes the definition of the time zone of the export. The daylight
+     * saving time transitions of the given year are written as yearly rules,
+     * which is how the time zones are defined in practice.
+     */
+    private void writeTimeZone(Writer writer, int year) throws IOException {
+
+        writeLine(writer, "BEGIN:VTIMEZONE");
+        writeLine(writer, "TZID:" + zone.getID());
+
+        Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        calendar.clear();
+        calendar.set(year, Calendar.JANUARY, 1);
+        long time = calendar.getTimeInMillis();
+        calendar.set(year + 1, Calendar.JANUARY, 1);
+        long end = calendar.getTimeInMillis();
+
+        boolean transitions = false;
+        long hour = 60 * 60 * 1000;
+        for (; time < end; time += hour) {
+            int offset = zone.getOffset(time);
+            if (zone.getOffset(time + hour) != offset) {
+                long minute = 60 * 1000;
+                long transition = time + minute;
+                while (zone.getOffset(transition) == offset) {
+                    transition += minute;
+                }
+                writeTransition(writer, transition, offset);
+                transitions = true;
+            }
+        }
+
+        if (!transitions) {
+            String offset = formatOffset(zone.getOffset(end));
+            writeLine(writer, "BEGIN:STANDARD");
+            writeLine(writer, "DTSTART:19700101T000000");
+            writeLine(writer, "TZOFFSETFROM:" + offset);
+            writeLine(writer, "TZOFFSETTO:" + offset);
+            writeLine(writer, "END:STANDARD");
+        }
+        writeLine(writer, "END:VTIMEZONE");
+    }
+
+    /**
+     * Writes a transition of the time zone as a rule recurring on the same
+     * weekday of the month every year.
+     *
+     * @param time
+     *            the instant of the transition.
+     * @param from
+     *            the offset before the transition in milliseconds.
+     */
+    private void writeTransition(Writer writer, long time, int from)
+            throws IOException {
+
+        // the local time of the transition is given in the old offset
+        Calendar local = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        local.setTimeInMillis(time + from);
+        SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd'T'HHmmss");
+        format.setTimeZone(local.getTimeZone());
+
+        int day = local.get(Calendar.DAY_OF_MONTH);
+        boolean last = day + 7 > local.getActualMaximum(Calendar.DAY_OF_MONTH);
+        String week = last ? "-1" : String.valueOf((day - 1) / 7 + 1);
+        String component = zone.inDaylightTime(new Date(time)) ? "DAYLIGHT"
+                : "STANDARD";
+
+        writeLine(writer, "BEGIN:" + component);
+        writeLine(writer, "DTSTART:" + format.format(local.getTime()));
+        writeLine(writer, "RRULE:FREQ=YEARLY;BYMONTH="
+                + (local.get(Calendar.MONTH) + 1) + ";BYDAY=" + week
+                + WEEKDAYS[local.get(Calendar.DAY_OF_WEEK) - 1]);
+        writeLine(writer, "TZOFFSETFROM:" + formatOffset(from));
+        writeLine(writer, "TZOFFSETTO:" + formatOffset(zone.getOffset(time)));
+        writeLine(writer, "END:" + component);
+    }
+
+    /**
+     * @return an offset from UTC in the form <code>+hhmm</code>.
+     */
+    private static String formatOffset(int offset) {
+        int minutes = Math.abs(offset) / (60 * 1000);
+        return String.format("%s%02d%02d", (offset < 0) ? "-" : "+",
+                minutes / 60, minutes % 60);
+    }
+
+    private void writeCsv(CourseSchedule schedule, Writer writer)
+            throws IOException {
+
+        for (int i = 0; i < CSV_HEADER.length; i++) {
+            writer.write((i == 0) ? "" : ",");
+            writer.write(CSV_HEADER[i]);
+        }
+        writer.write(CRLF);
+        writer.flush();
+
+        Timeframe timeframe = schedule.getTimeframe();
+        for (ScheduleEntry entry : schedule.getEntries()) {
+            if (!matches(entry)) {
+                continue;
+            }
+
+            Course course = entry.getCourse();
+            User user = entry.getLecturer();
+            int start = timeframe.getStartHour() + entry.getTimeSlot();
+            writeCsvField(writer, getModuleName(course), false);
+            writeCsvField(writer, course.getType(), true);
+            writeCsvField(writer, (user == null) ? "" : user.getName(), true);
+            writeCsvField(writer, entry.getRoom().toString(), true);
+            writeCsvField(writer, String.valueOf(entry.getDay()), true);
+            writeCsvField(writer, getWeekday(timeframe, entry.getDay()), true);
+            writeCsvField(writer, formatHour(start), true);
+            writeCsvField(writer, formatHour(start + course.getDuration()),
+                    true);
+            writer.write(CRLF);
+        }
+    }
+
+    private void writeJson(CourseSchedule schedule, Writer writer)
+            throws IOException {
+
+        JsonWriter json = new JsonWriter(writer);
+        Timeframe timeframe = schedule.getTimeframe();
+        json.beginObject();
+        json.name("timeframe").beginObject();
+        json.member("days", timeframe.getDays());
+        json.member("timeSlots", timeframe.getTimeSlots());
+        json.member("startHour", timeframe.getStartHour());
+        json.endObject();
+        json.name("entries").beginArray();
+        json.flush();
+
+        for (ScheduleEntry entry : schedule.getEntries()) {
+            if (matches(entry)) {
+                writeJsonEntry(json, timeframe, entry);
+            }
+        }
+
+        json.endArray();
+        json.endObject();
+    }
+
+    /**
+     * Writes a single schedule entry as JSON object.
+     *
+     * @param json
+     *            the JSON writer.
+     * @param timeframe
+     *            the timeframe of the course schedule.
+     * @param entry
+     *            the schedule entry.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public static void writeJsonEntry(JsonWriter json, Timeframe timeframe,
+            ScheduleEntry entry) throws IOException {
+
+        Course course = entry.getCourse();
+        Room room = entry.getRoom();
+        User user = entry.getLecturer();
+        json.beginObject();
+        json.member("course", String.valueOf(course.getId()));
+        json.member("type", course.getType());
+        json.member("module", (course.getModule() == null) ? null : course
+                .getModule().getId());
+        json.member("moduleName", getModuleName(course));
+        json.member("lecturer", (user == null) ? null : user.getLogin());
+        json.member("lecturerName", (user == null) ? null : user.getName());
+        json.member("room", String.valueOf(room.getId()));
+        json.member("roomName", room.toString());
+        json.member("day", entry.getDay());
+        json.member("weekday", getWeekday(timeframe, entry.getDay()));
+        json.member("timeSlot", entry.getTimeSlot());
+        json.member("duration", course.getDuration());
+        json.endObject();
+    }
+
+    private static String getModuleName(Course course) {
+        return (course.getModule() == null) ? "" : course.getModule()
+                .getName();
+    }
+
+    private static String getWeekday(Timeframe timeframe, int day) {
+        List<String> weekdays = timeframe.getWeekdays();
+        return (weekdays != null && day < weekdays.size()) ? weekdays.get(day)
+                : String.valueOf(day);
+    }
+
+    private static String formatHour(int hour) {
+        return String.format("%02d:00", hour);
+    }
+
+    private static void writeCsvField(Writer writer, String value,
+            boolean separate) throws IOException {
+
+        if (separate) {
+            writer.write(',');
+        }
+
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0
+                && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            writer.write(value);
+        } else {
+            writer.write('"');
+            writer.write(value.replace("\"", "\"\""));
+            writer.write('"');
+        }
+    }
+
+    /**
+     * Escapes the special characters of an iCalendar text value. Every kind
+     * of line break is written as an escaped newline.
+     */
+    private static String escapeText(String value) {
+        return value.replace("\\", "\\\\").replace(";", "\\;")
+                .replace(",", "\\,").replace("\r\n", "\n")
+                .replace('\r', '\n').replace("\n", "\\n");
+    }
+
+    /**
+     * Writes a content line and folds it if it is too long. The length is
+     * measured in UTF-8 octets and a character is never split, the space
+     * starting a continuation line counts as well.
+     */
+    private static void writeLine(Writer writer, String line)
+            throws IOException {
+
+        int octets = 0;
+        int start = 0;
+        int i = 0;
+        while (i < line.length()) {
+            int codePoint = line.codePointAt(i);
+            int length = (codePoint < 0x80) ? 1 : (codePoint < 0x800) ? 2
+                    : (codePoint < 0x10000) ? 3 : 4;
+            if (octets + length > MAX_LINE_LENGTH) {
+                writer.write(line, start, i - start);
+                writer.write(CRLF + " ");
+                start = i;
+                octets = 1;
+            }
+            octets += length;
+            i += Character.charCount(codePoint);
+        }
+        writer.write(line, start, line.length() - start);
+        writer.write(CRLF);
+    }
+
+}
@@ -0,0 +1,368 @@
+package berlin.reiche.virginia.scheduler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import berlin.reiche.virginia.MongoDB;
+import berlin.reiche.virginia.Page;
+import berlin.reiche.virginia.model.ScheduleEntry;
+
+/**
+ * The history of all published course schedules. Instead of a full copy per
+ * version, every version stores only its changes to the previous version. A
+ * full snapshot is stored every <code>keyframeInterval</code> versions, so
+ * that reconstructing a version applies less than
+ * <code>keyframeInterval</code> change sets.
+ *
+ * @author Konrad Reiche
+ *
+ */
+public class ScheduleHistory {
+
+    /**
+     * The default number of versions between two full snapshots.
+     */
+    public static final int DEFAULT_KEYFRAME_INTERVAL = 10;
+
+    /**
+     * The number of version numbers read per request when determining the
+     * latest version.
+     */
+    private static final int PAGE_SIZE = 500;
+
+    /**
+     * Singleton instance.
+     */
+    private static final ScheduleHistory INSTANCE = new ScheduleHistory(
+            DEFAULT_KEYFRAME_INTERVAL);
+
+    private final int keyframeInterval;
+
+    /**
+     * The latest version number, <code>-1</code> if it is not determined yet.
+     */
+    private int latestVersion = -1;
+
+    /**
+     * The schedule of the latest version, <code>null</code> if it is not
+     * reconstructed yet.
+     */
+    private Set<Placement> latestSnapshot;
+
+    /**
+     * The listeners notified about every recorded version.
+     */
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Creates a history.
+     *
+     * @param keyframeInterval
+     *            the number of versions between two full snapshots.
+     */
+    public ScheduleHistory(int keyframeInterval) {
+        if (keyframeInterval < 1) {
+            throw new IllegalArgumentException("The keyframe interval has to"
+                    + " be positive.");
+        }
+        this.keyframeInterval = keyframeInterval;
+    }
+
+    /**
+     * @return the shared instance of {@link ScheduleHistory}.
+     */
+    public static ScheduleHistory getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Records a course schedule as new version, if it differs from the latest
+     * version.
+     *
+     * @param schedule
+     *            the course schedule.
+     * @return the version number of the schedule.
+     */
+    public int record(CourseSchedule schedule) {
+        return record(schedule.getEntries());
+    }
+
+    /**
+     * Records the entries of a course schedule as new version, if they differ
+     * from the latest version.
+     *
+     * @param entries
+     *            the schedule entries, empty if the schedule was deleted.
+     * @return the version number of the schedule.
+     */
+    public synchronized int record(Collection<ScheduleEntry> entries) {
+
+        Set<Placement> snapshot = new HashSet<>();
+        for (ScheduleEntry entry : entries) {
+            snapshot.add(new Placement(entry));
+        }
+
+        int latest = getLatestVersion();
+        Set<Placement> previous = (latest == 0) ? new HashSet<Placement>()
+                : getLatestSnapshot();
+
+        Set<Placement> removed = new HashSet<>(previous);
+        removed.removeAll(snapshot);
+        Set<Placement> added = new HashSet<>(snapshot);
+        added.removeAll(previous);
+        if (removed.isEmpty() && added.isEmpty()) {
+            return latest;
+        }
+
+        int version = latest + 1;
+        boolean isKeyframe = isKeyframe(version);
+        List<ScheduleChange> changes = pair(removed, added);
+        MongoDB.store(new ScheduleVersion(version, isKeyframe ? snapshot
+                : null, changes));
+
+        latestVersion = version;
+        latestSnapshot = snapshot;
+        for (Listener listener : listeners) {
+            listener.versionRecorded(version, changes, entries);
+        }
+        return version;
+    }
+
+    /**
+     * @param listener
+     *            the listener to notify about every recorded version.
+     */
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * @param listener
+     *            the listener which is no longer notified.
+     */
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @return the latest version number, <code>0</code> if there is no
+     *         version yet.
+     */
+    public synchronized int getLatestVersion() {
+
+        if (latestVersion < 0) {
+            int latest = 0;
+            Object after = null;
+            do {
+                Page<ScheduleVersion> page = MongoDB.getPage(
+                        ScheduleVersion.class, after, PAGE_SIZE, "created");
+                for (ScheduleVersion version : page.getItems()) {
+                    latest = Math.max(latest, version.getVersion());
+                }
+                after = page.hasNext() ? latest : null;
+            } while (after != null);
+            latestVersion = latest;
+        }
+        return latestVersion;
+    }
+
+    /**
+     * Reconstructs a version from the preceding full snapshot and the changes
+     * recorded after it.
+     *
+     * @param version
+     *            the version number.
+     * @return the placements of the course schedule of this version.
+     */
+    public Set<Placement> getVersion(int version) {
+
+        if (version == 0) {
+            return new HashSet<>();
+        }
+
+        int keyframe = version - (version - 1) % keyframeInterval;
+        List<ScheduleVersion> versions = load(keyframe, version);
+        if (versions.size() != version - keyframe + 1
+                || !versions.get(0).isKeyframe()) {
+            throw new IllegalStateException("The version " + version
+                    + " is not part of the schedule history.");
+        }
+
+        Set<Placement> snapshot = new HashSet<>(versions.get(0).getSnapshot());
+        for (ScheduleVersion v : versions.subList(1, versions.size())) {
+            apply(snapshot, v.getChanges());
+        }
+        return snapshot;
+    }
+
+    /**
+     * Computes the changes between two versions by composing the change sets
+     * in between, neither of both versions is reconstructed.
+     *
+     * @param from
+     *            the version number of the older version.
+     * @param to
+     *            the version number of the newer version.
+     * @return the changes which turn the older into the newer version.
+     */
+    public List<ScheduleChange> diff(int from, int to) {
+
+        if (from > to) {
+            List<ScheduleChange> inverted = new ArrayList<>();
+            for (ScheduleChange change : diff(to, from)) {
+                inverted.add(change.invert());
+            }
+            return inverted;
+        } else if (from == to) {
+            return new ArrayList<>();
+        }
+
+        List<ScheduleVersion> versions = load(from + 1, to);
+        if (versions.size() != to - from) {
+            throw new IllegalStateException("The versions " + from + " to "
+                    + to + " are not part of the schedule history.");
+        }
+
+        Map<Placement, Integer> balance = new HashMap<>();
+        for (ScheduleVersion version : versions) {
+            for (ScheduleChange change : version.getChanges()) {
+                if (change.getFrom() != null) {
+                    add(balance, change.getFrom(), -1);
+                }
+                if (change.getTo() != null) {
+                    add(balance, change.getTo(), 1);
+                }
+            }
+        }
+
+        Set<Placement> removed = new HashSet<>();
+        Set<Placement> added = new HashSet<>();
+        for (Map.Entry<Placement, Integer> entry : balance.entrySet()) {
+            if (entry.getValue() < 0) {
+                removed.add(entry.getKey());
+            } else if (entry.getValue() > 0) {
+                added.add(entry.getKey());
+            }
+        }
+        return pair(removed, added);
+    }
+
+    private boolean isKeyframe(int version) {
+        return (version - 1) % keyframeInterval == 0;
+    }
+
+    private synchronized Set<Placement> getLatestSnapshot() {
+        if (latestSnapshot == null) {
+            latestSnapshot = getVersion(getLatestVersion());
+        }
+        return latestSnapshot;
+    }
+
+    /**
+     * Loads the versions in a range with a single request.
+     *
+     * @return the versions ordered by their version number.
+     */
+    private List<ScheduleVersion> load(int first, int last) {
+
+        List<Integer> ids = new ArrayList<>();
+        for (int i = first; i <= last; i++) {
+            ids.add(i);
+        }
+
+        List<ScheduleVersion> versions = new ArrayList<>(MongoDB.getAll(
+                ScheduleVersion.class, ids));
+        Collections.sort(versions, new Comparator<ScheduleVersion>() {
+            @Override
+            public int compare(ScheduleVersion o1, ScheduleVersion o2) {
+                return Integer.compare(o1.getVersion(), o2.getVersion());
+            }
+        });
+        return versions;
+    }
+
+    private static void apply(Set<Placement> snapshot,
+            Collection<ScheduleChange> changes) {
+
+        for (ScheduleChange change : changes) {
+            if (change.getFrom() != null) {
+                snapshot.remove(change.getFrom());
+            }
+            if (change.getTo() != null) {
+                snapshot.add(change.getTo());
+            }
+        }
+    }
+
+    private static void add(Map<Placement, Integer> balance,
+            Placement placement, int delta) {
+        Integer value = balance.get(placement);
+        balance.put(placement, (value == null) ? delta : value + delta);
+    }
+
+    /**
+     * Turns removed and added placements into changes. A removed and an added
+     * placement of the same course and lecturer are combined into a move.
+     */
+    private static List<ScheduleChange> pair(Set<Placement> removed,
+            Set<Placement> added) {
+
+        Map<List<Object>, List<Placement>> unmatched = new HashMap<>();
+        for (Placement to : added) {
+            List<Object> key = Arrays.<Object> asList(to.getCourse(),
+                    to.getLecturer());
+            List<Placement> placements = unmatched.get(key);
+            if (placements == null) {
+                placements = new ArrayList<>();
+                unmatched.put(key, placements);
+            }
+            placements.add(to);
+        }
+
+        List<ScheduleChange> changes = new ArrayList<>();
+        for (Placement from : removed) {
+            List<Placement> placements = unmatched.get(Arrays.<Object> asList(
+                    from.getCourse(), from.getLecturer()));
+            Placement to = (placements == null || placements.isEmpty()) ? null
+                    : placements.remove(placements.size() - 1);
+            changes.add(new ScheduleChange(from, to));
+        }
+
+        for (List<Placement> placements : unmatched.values()) {
+            for (Placement to : placements) {
+                changes.add(new ScheduleChange(null, to));
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * Is notified whenever a new version of the course schedule is recorded.
+     */
+    public interface Listener {
+
+        /**
+         * Called after a new version was recorded, while the history is
+         * locked. Thus a listener must not block.
+         *
+         * @param version
+         *            the new version number.
+         * @param changes
+         *            the changes to the previous version.
+         * @param entries
+         *            all schedule entries of the new version.
+         */
+        void versionRecorded(int version, List<ScheduleChange> changes,
+                Collection<ScheduleEntry> entries);
+    }
+
+}
@@ -0,0 +1,219 @@
+package berlin.reiche.virginia.scheduler;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import berlin.reiche.virginia.model.Course;
+import berlin.reiche.virginia.model.Room;
+import berlin.reiche.virginia.model.ScheduleEntry;
+import berlin.reiche.virginia.model.Timeframe;
+import berlin.reiche.virginia.model.User;
+
+/**
+ * Read-only indexes over the entries of a course schedule: by room, by
+ * lecturer, by course module and by day, as well as the free rooms per day
+ * and time slot. The indexes are built once, afterwards every query only
+ * costs as much as its answer.
+ *
+ * @author Konrad Reiche
+ *
+ */
+public class ScheduleIndex {
+
+    /**
+     * Orders entries by day and time slot.
+     */
+    private static final Comparator<ScheduleEntry> CHRONOLOGICAL = new Comparator<ScheduleEntry>() {
+        @Override
+        public int compare(ScheduleEntry o1, ScheduleEntry o2) {
+            if (o1.getDay() != o2.getDay()) {
+                return Integer.compare(o1.getDay(), o2.getDay());
+            }
+            return Integer.compare(o1.getTimeSlot(), o2.getTimeSlot());
+        }
+    };
+
+    private final Timeframe timeframe;
+
+    private final List<Room> rooms;
+
+    private final Map<String, Room> roomsById = new HashMap<>();
+
+    private final Map<String, List<ScheduleEntry>> byRoom = new HashMap<>();
+
+    private final Map<String, List<ScheduleEntry>> byLecturer = new HashMap<>();
+
+    private final Map<String, List<ScheduleEntry>> byModule = new HashMap<>();
+
+    private final List<List<ScheduleEntry>> byDay = new ArrayList<>();
+
+    /**
+     * The free rooms by day and time slot.
+     */
+    private final List<List<List<Room>>> freeRooms = new ArrayList<>();
+
+    /**
+     * Builds the indexes of the given course schedule.
+     *
+     * @param schedule
+     *            the course schedule.
+     */
+    public ScheduleIndex(CourseSchedule schedule) {
+
+        timeframe = schedule.getTimeframe();
+        rooms = Collections.unmodifiableList(new ArrayList<>(schedule
+                .getRooms()));
+
+        int days = timeframe.getDays();
+        int timeSlots = timeframe.getTimeSlots();
+        Map<Room, boolean[][]> occupied = new HashMap<>();
+        for (Room room : rooms) {
+            roomsById.put(String.valueOf(room.getId()), room);
+            occupied.put(room, new boolean[days][timeSlots]);
+        }
+        for (int day = 0; day < days; day++) {
+            byDay.add(new ArrayList<ScheduleEntry>());
+        }
+
+        List<ScheduleEntry> entries = new ArrayList<>(schedule.getEntries());
+        Collections.sort(entries, CHRONOLOGICAL);
+        for (ScheduleEntry entry : entries) {
+            Course course = entry.getCourse();
+            Room room = entry.getRoom();
+            User lecturer = entry.getLecturer();
+
+            add(byRoom, String.valueOf(room.getId()), entry);
+            if (lecturer != null) {
+                add(byLecturer, lecturer.getLogin(), entry);
+            }
+            if (course.getModule() != null) {
+                add(byModule, course.getModule().getId(), entry);
+            }
+            if (entry.getDay() < days) {
+                byDay.get(entry.getDay()).add(entry);
+            }
+
+            boolean[][] slots = occupied.get(room);
+            for (int i = 0; i < course.getDuration(); i++) {
+                int timeSlot = entry.getTimeSlot() + i;
+                if (slots != null && entry.getDay() < days
+                        && timeSlot < timeSlots) {
+                    slots[entry.getDay()][timeSlot] = true;
+                }
+            }
+        }
+
+        for (int day = 0; day < days; day++) {
+            List<List<Room>> slots = new ArrayList<>();
+            for (int timeSlot = 0; timeSlot < timeSlots; timeSlot++) {
+                List<Room> free = new ArrayList<>();
+                for (Room room : rooms) {
+                    if (!occupied.get(room)[day][timeSlot]) {
+                        free.add(room);
+                    }
+                }
+                slots.add(Collections.unmodifiableList(free));
+            }
+            freeRooms.add(slots);
+        }
+    }
+
+    private static void add(Map<String, List<ScheduleEntry>> index,
+            String key, ScheduleEntry entry) {
+
+        List<ScheduleEntry> entries = index.get(key);
+        if (entries == null) {
+            entries = new ArrayList<>();
+            index.put(key, entries);
+        }
+        entries.add(entry);
+    }
+
+    private static List<ScheduleEntry> get(
+            Map<String, List<ScheduleEntry>> index, String key) {
+
+        List<ScheduleEntry> entries = index.get(key);
+        return (entries == null) ? Collections.<ScheduleEntry> emptyList()
+                : Collections.unmodifiableList(entries);
+    }
+
+    public Timeframe getTimeframe() {
+        return timeframe;
+    }
+
+    /**
+     * @return the rooms of the course schedule in their natural order.
+     */
+    public List<Room> getRooms() {
+        return rooms;
+    }
+
+    /**
+     * @param id
+     *            the room identifier.
+     * @return the room or <code>null</code> if it is not part of the course
+     *         schedule.
+     */
+    public Room getRoom(String id) {
+        return roomsById.get(id);
+    }
+
+    /**
+     * @param id
+     *            the room identifier.
+     * @return the entries in the room ordered by day and time slot.
+     */
+    public List<ScheduleEntry> getByRoom(String id) {
+        return get(byRoom, id);
+    }
+
+    /**
+     * @param login
+     *            the login of the lecturer.
+     * @return the entries of the lecturer ordered by day and time slot.
+     */
+    public List<ScheduleEntry> getByLecturer(String login) {
+        return get(byLecturer, login);
+    }
+
+    /**
+     * @param id
+     *            the course module identifier.
+     * @return the entries of the course module ordered by day and time slot.
+     */
+    public List<ScheduleEntry> getByModule(String id) {
+        return get(byModule, id);
+    }
+
+    /**
+     * @param day
+     *            the day, starting with <code>0</code>.
+     * @return the entries on the day ordered by time slot.
+     */
+    public List<ScheduleEntry> getByDay(int day) {
+        if (day < 0 || day >= byDay.size()) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(byDay.get(day));
+    }
+
+    /**
+     * @param day
+     *            the day, starting with <code>0</code>.
+     * @param timeSlot
+     *            the time slot, starting with <code>0</code>.
+     * @return the rooms in which no course takes place at the given time.
+     */
+    public List<Room> getFreeRooms(int day, int timeSlot) {
+        if (day < 0 || day >= freeRooms.size() || timeSlot < 0
+                || timeSlot >= timeframe.getTimeSlots()) {
+            return Collections.emptyList();
+        }
+        return freeRooms.get(day).get(timeSlot);
+    }
+
+}
@@ -0,0 +1,83 @@
+package berlin.reiche.virginia.scheduler;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+import com.google.code.morphia.annotations.Embedded;
+import com.google.code.morphia.annotations.Entity;
+import com.google.code.morphia.annotations.Id;
+
+/**
+ * One published version of the course schedule in the schedule history. Every
+ * version stores its changes to the previous version, keyframe versions
+ * additionally store the complete schedule.
+ *
+ * @author Konrad Reiche
+ *
+ */
+@Entity("schedule_version")
+public class ScheduleVersion {
+
+    /**
+     * The version number, starting with <code>1</code>.
+     */
+    @Id
+    int version;
+
+    /**
+     * The point in time at which the version was recorded.
+     */
+    Date created;
+
+    /**
+     * The complete schedule of a keyframe version, <code>null</code> for the
+     * other versions.
+     */
+    @Embedded
+    List<Placement> snapshot;
+
+    /**
+     * The changes to the previous version.
+     */
+    @Embedded
+    List<ScheduleChange> changes;
+
+    /**
+     * This constructor is used by Morphia via Java reflections.
+     */
+    @SuppressWarnings("unused")
+    private ScheduleVersion() {
+
+    }
+
+    public ScheduleVersion(int version, Collection<Placement> snapshot,
+            List<ScheduleChange> changes) {
+        this.version = version;
+        this.created = new Date();
+        this.snapshot = (snapshot == null) ? null : new ArrayList<>(snapshot);
+        this.changes = changes;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public Date getCreated() {
+        return created;
+    }
+
+    public boolean isKeyframe() {
+        return snapshot != null;
+    }
+
+    public List<Placement> getSnapshot() {
+        return snapshot;
+    }
+
+    public List<ScheduleChange> getChanges() {
+        return changes;
+    }
+
+}
@@ -1,12 +1,17 @@
 package berlin.reiche.virginia.scheduler;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 import berlin.reiche.virginia.MongoDB;
+import berlin.reiche.virginia.ResponsibilityIndex;
 import berlin.reiche.virginia.model.Course;
 import berlin.reiche.virginia.model.CourseModule;
 import berlin.reiche.virginia.model.Room;
@@ -45,8 +50,13 @@ public class Scheduler {
         data.modules = MongoDB.getAll(CourseModule.class);
         data.rooms = MongoDB.getAll(Room.class);
         data.timeframe = MongoDB.getAll(Timeframe.class).get(0);
-        data.lecturers = MongoDB.createQuery(User.class)
-                .filter("lecturer =", true).asList();
+        data.lecturers = MongoDB.find(User.class, "lecturer", true);
+
+        List<Course> courses = new ArrayList<>();
+        for (CourseModule module : data.modules) {
+            courses.addAll(module.getCourses());
+        }
+        data.responsibilities = ResponsibilityIndex.getLecturers(courses);
 
         if (!isSchedulable(data, feedback)) {
             return feedback;
@@ -60,6 +70,7 @@ public class Scheduler {
             MongoDB.deleteAll(CourseSchedule.class);
             MongoDB.deleteAll(ScheduleEntry.class);
             MongoDB.store(schedule);
+            ScheduleHistory.getInstance().record(schedule);
             feedback.setSuccessful(true);
             return feedback;
         } catch (InterruptedException | ExecutionException e) {
@@ -93,8 +104,26 @@ public class Scheduler {
             }
         }
 
-        for (User lecturer : data.lecturers) {
-            coursesLackingLecturer.removeAll(lecturer.getResponsibleCourses());
+        if (data.responsibilities == null) {
+            for (User lecturer : data.lecturers) {
+                coursesLackingLecturer.removeAll(lecturer
+                        .getResponsibleCourses());
+            }
+        } else {
+            Set<String> logins = new HashSet<>();
+            for (User lecturer : data.lecturers) {
+                logins.add(lecturer.getLogin());
+            }
+
+            Iterator<Course> iterator = coursesLackingLecturer.iterator();
+            while (iterator.hasNext()) {
+                Set<String> responsible = data.responsibilities.get(iterator
+                        .next().getId());
+                if (responsible != null
+                        && !Collections.disjoint(responsible, logins)) {
+                    iterator.remove();
+                }
+            }
         }
 
         boolean hasLecturerCoverage = coursesLackingLecturer.size() == 0;
@@ -0,0 +1,114 @@
+package berlin.reiche.virginia.servlets;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import berlin.reiche.virginia.MongoDB;
+
+/**
+ * The admin servlet is dedicated to inspect the runtime behavior of the
+ * application, like the query statistics of the data layer.
+ *
+ * @author Konrad Reiche
+ *
+ */
+@SuppressWarnings("serial")
+public class AdminServlet extends HttpServlet {
+
+    /**
+     * File path to the web resources.
+     */
+    private static final String QUERIES_SITE = "ftl/admin/queries.ftl";
+
+    /**
+     * The pages of the servlet.
+     */
+    private enum Action {
+        REDIRECT, QUERIES, RESET_QUERIES, RELOAD_TEMPLATES
+    }
+
+    private static final Router<Action> ROUTES = new Router<Action>()
+            .add("", Action.REDIRECT).add("/", Action.REDIRECT)
+            .add("/queries", Action.QUERIES);
+
+    /**
+     * The actions changing state are only accepted as POST requests.
+     */
+    private static final Router<Action> POST_ROUTES = new Router<Action>()
+            .add("/queries/reset", Action.RESET_QUERIES)
+            .add("/templates/reload", Action.RELOAD_TEMPLATES);
+
+    /**
+     * Singleton instance.
+     */
+    private static final AdminServlet INSTANCE = new AdminServlet();
+
+    public final static String root = "/admin";
+
+    /**
+     * The constructor is private in order to enforce the singleton pattern.
+     */
+    private AdminServlet() {
+
+    }
+
+    /**
+     * Parses the HTTP request and writes the response by using the template
+     * engine.
+     */
+    @Override
+    protected void doGet(HttpServletRequest request,
+            HttpServletResponse response) throws ServletException, IOException {
+
+        Router.Match<Action> match = ROUTES.match(request);
+        Action action = (match == null) ? null : match.getTarget();
+        Map<String, Object> data = AppServlet.getDefaultData();
+        Writer writer = response.getWriter();
+
+        if (action == Action.REDIRECT) {
+            response.sendRedirect("/admin/queries");
+        } else if (action == Action.QUERIES) {
+            data.put("statistics", MongoDB.getStatistics());
+            data.put("cache", MongoDB.getCache());
+            data.put("productionMode", AppServlet.isProductionMode());
+            AppServlet.processTemplate(QUERIES_SITE, data, writer);
+        } else {
+            AppServlet.processNotFound(data, response);
+        }
+    }
+
+    /**
+     * Performs the actions which change the state of the application.
+     */
+    @Override
+    protected void doPost(HttpServletRequest request,
+            HttpServletResponse response) throws ServletException, IOException {
+
+        Router.Match<Action> match = POST_ROUTES.match(request);
+        Action action = (match == null) ? null : match.getTarget();
+
+        if (action == Action.RESET_QUERIES) {
+            MongoDB.getStatistics().reset();
+            response.sendRedirect("/admin/queries");
+        } else if (action == Action.RELOAD_TEMPLATES) {
+            AppServlet.reloadTemplates();
+            response.sendRedirect("/admin/queries");
+        } else {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+        }
+    }
+
+    /**
+     * @return a singleton instance of {@link AdminServlet}.
+     */
+    public static AdminServlet getInstance() {
+        return INSTANCE;
+    }
+
+}
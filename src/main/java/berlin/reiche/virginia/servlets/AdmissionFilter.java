@@ -0,0 +1,327 @@
+package berlin.reiche.virginia.servlets;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import berlin.reiche.virginia.RequestMetrics;
+import berlin.reiche.virginia.TokenBucket;
+
+/**
+ * The admission filter protects expensive pages like starting the scheduler
+ * or the bcrypt heavy forms from being requested too often. Each admission
+ * rule covers a number of routes and may limit
+ *
+ * <ul>
+ * <li>the requests per minute of each user, by a token bucket per login or
+ * client address if nobody is logged in,</li>
+ * <li>the requests per minute of all users together and</li>
+ * <li>the number of requests processed at the same time.</li>
+ * </ul>
+ *
+ * Rejected requests are answered with <code>429 Too Many Requests</code> and a
+ * <code>Retry-After</code> header. The rules are configured in the server
+ * properties:
+ *
+ * <pre>
+ * admission.rules = solver
+ * admission.solver.routes = GET /scheduler/start
+ * admission.solver.userRate = 2
+ * admission.solver.userBurst = 2
+ * admission.solver.routeRate = 10
+ * admission.solver.concurrency = 1
+ * </pre>
+ *
+ * @author Konrad Reiche
+ *
+ */
+public class AdmissionFilter implements Filter {
+
+    /**
+     * The status code of rejected requests, which is not defined by the
+     * servlet API.
+     */
+    static final int SC_TOO_MANY_REQUESTS = 429;
+
+    /**
+     * The outcomes of an admission decision as recorded in the metrics.
+     */
+    static final String ADMITTED = "admitted";
+    static final String USER_LIMITED = "user_rate_limited";
+    static final String ROUTE_LIMITED = "route_rate_limited";
+    static final String CONCURRENCY_LIMITED = "concurrency_limited";
+
+    /**
+     * The maximum number of user buckets of a rule, the bucket of the user
+     * who was not seen for the longest time is dropped first.
+     */
+    private static final int MAX_USER_BUCKETS = 10000;
+
+    /**
+     * The time a client is asked to wait if too many requests are processed.
+     */
+    private static final int CONCURRENCY_RETRY_SECONDS = 5;
+
+    /**
+     * Singleton instance.
+     */
+    private static final AdmissionFilter INSTANCE = new AdmissionFilter();
+
+    /**
+     * The routes of the admission rules per HTTP method.
+     */
+    private volatile Map<String, Router<Rule>> routes = Collections.emptyMap();
+
+    /**
+     * The constructor is private in order to enforce the singleton pattern.
+     */
+    private AdmissionFilter() {
+
+    }
+
+    /**
+     * Replaces the admission rules by the rules of the given properties.
+     *
+     * @param properties
+     *            the server properties.
+     * @throws IllegalStateException
+     *             if a rule is malformed.
+     */
+    public void configure(Properties properties) {
+
+        Map<String, Router<Rule>> configured = new HashMap<>();
+        for (Rule rule : parse(properties)) {
+            for (String route : rule.routes) {
+                String[] parts = route.trim().split(" +");
+                if (parts.length != 2) {
+                    throw new IllegalStateException("The route " + route
+                            + " of the admission rule " + rule.name
+                            + " is not of the form METHOD /path.");
+                }
+                String method = parts[0].toUpperCase();
+                if (!configured.containsKey(method)) {
+                    configured.put(method, new Router<Rule>());
+                }
+                configured.get(method).add(parts[1], rule);
+            }
+        }
+        this.routes = configured;
+    }
+
+    /**
+     * @return the admission rules defined in the properties.
+     */
+    static List<Rule> parse(Properties properties) {
+
+        List<Rule> rules = new ArrayList<>();
+        String names = properties.getProperty("admission.rules", "").trim();
+        if (names.isEmpty()) {
+            return rules;
+        }
+        for (String name : names.split(",")) {
+            name = name.trim();
+            String prefix = "admission." + name + ".";
+            String routes = properties.getProperty(prefix + "routes");
+            if (routes == null) {
+                throw new IllegalStateException("The admission rule " + name
+                        + " has no routes.");
+            }
+            int userRate = getInt(properties, prefix + "userRate", 0);
+            int routeRate = getInt(properties, prefix + "routeRate", 0);
+            rules.add(new Rule(name, routes.split(","), userRate, getInt(
+                    properties, prefix + "userBurst", userRate), routeRate,
+                    getInt(properties, prefix + "routeBurst", routeRate),
+                    getInt(properties, prefix + "concurrency", 0)));
+        }
+        return rules;
+    }
+
+    private static int getInt(Properties properties, String key,
+            int defaultValue) {
+        String value = properties.getProperty(key);
+        return (value == null) ? defaultValue : Integer.valueOf(value.trim());
+    }
+
+    @Override
+    public void init(FilterConfig config) throws ServletException {
+
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response,
+            FilterChain chain) throws IOException, ServletException {
+
+        HttpServletRequest httpRequest = (HttpServletRequest) request;
+        Router<Rule> router = routes.get(httpRequest.getMethod());
+        Router.Match<Rule> match = (router == null) ? null : router
+                .match(httpRequest.getServletPath()
+                        + (httpRequest.getPathInfo() == null ? ""
+                                : httpRequest.getPathInfo()));
+        if (match == null) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        Rule rule = match.getTarget();
+        String user = httpRequest.getRemoteUser();
+        if (user == null) {
+            user = httpRequest.getRemoteAddr();
+        }
+
+        // the token of the user is taken last, so that a request rejected
+        // for all users does not count against the user
+        long now = System.nanoTime();
+        long wait = rule.acquireRoute(now);
+        if (wait > 0) {
+            reject((HttpServletResponse) response, rule, ROUTE_LIMITED, wait);
+            return;
+        }
+        if (rule.concurrency != null && !rule.concurrency.tryAcquire()) {
+            rule.releaseRoute();
+            reject((HttpServletResponse) response, rule, CONCURRENCY_LIMITED,
+                    TimeUnit.SECONDS.toNanos(CONCURRENCY_RETRY_SECONDS));
+            return;
+        }
+        wait = rule.acquireUser(user, now);
+        if (wait > 0) {
+            rule.releaseRoute();
+            if (rule.concurrency != null) {
+                rule.concurrency.release();
+            }
+            reject((HttpServletResponse) response, rule, USER_LIMITED, wait);
+            return;
+        }
+
+        RequestMetrics.getInstance().recordAdmission(rule.name, ADMITTED);
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            if (rule.concurrency != null) {
+                rule.concurrency.release();
+            }
+        }
+    }
+
+    private static void reject(HttpServletResponse response, Rule rule,
+            String outcome, long waitNanos) throws IOException {
+
+        RequestMetrics.getInstance().recordAdmission(rule.name, outcome);
+        long seconds = Math.max(1, (waitNanos + TimeUnit.SECONDS.toNanos(1) - 1)
+                / TimeUnit.SECONDS.toNanos(1));
+        response.setHeader("Retry-After", String.valueOf(seconds));
+        response.sendError(SC_TOO_MANY_REQUESTS,
+                "Too many requests, please try again in " + seconds
+                        + " seconds.");
+    }
+
+    @Override
+    public void destroy() {
+
+    }
+
+    /**
+     * @return a singleton instance of {@link AdmissionFilter}.
+     */
+    public static AdmissionFilter getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * An admission rule with its token buckets.
+     */
+    static class Rule {
+
+        final String name;
+        final String[] routes;
+        final int userRate;
+        final int userBurst;
+        final TokenBucket routeBucket;
+        final Semaphore concurrency;
+
+        /**
+         * The buckets by user in access order, bounded by
+         * {@link AdmissionFilter#MAX_USER_BUCKETS}.
+         */
+        private final Map<String, TokenBucket> userBuckets =
+                new LinkedHashMap<String, TokenBucket>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<String, TokenBucket> eldest) {
+                return size() > MAX_USER_BUCKETS;
+            }
+        };
+
+        Rule(String name, String[] routes, int userRate, int userBurst,
+                int routeRate, int routeBurst, int concurrency) {
+
+            this.name = name;
+            this.routes = routes;
+            this.userRate = userRate;
+            this.userBurst = Math.max(1, userBurst);
+            long now = System.nanoTime();
+            this.routeBucket = (routeRate > 0) ? new TokenBucket(routeRate,
+                    Math.max(1, routeBurst), now) : null;
+            this.concurrency = (concurrency > 0) ? new Semaphore(concurrency)
+                    : null;
+        }
+
+        /**
+         * @return <code>0</code> if the user may proceed, otherwise the time
+         *         in nanoseconds until the next request is allowed.
+         */
+        long acquireUser(String user, long now) {
+
+            if (userRate <= 0) {
+                return 0;
+            }
+            TokenBucket bucket;
+            synchronized (userBuckets) {
+                bucket = userBuckets.get(user);
+                if (bucket == null) {
+                    bucket = new TokenBucket(userRate, userBurst, now);
+                    userBuckets.put(user, bucket);
+                }
+            }
+            return bucket.tryAcquire(now);
+        }
+
+        long acquireRoute(long now) {
+            return (routeBucket == null) ? 0 : routeBucket.tryAcquire(now);
+        }
+
+        /**
+         * Returns the token of a request which was rejected after all.
+         */
+        void releaseRoute() {
+            if (routeBucket != null) {
+                routeBucket.release();
+            }
+        }
+
+        int getUserBuckets() {
+            synchronized (userBuckets) {
+                return userBuckets.size();
+            }
+        }
+    }
+
+}
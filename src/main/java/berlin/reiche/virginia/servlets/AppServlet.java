@@ -1,25 +1,21 @@
 package berlin.reiche.virginia.servlets;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Properties;
-import java.util.TreeMap;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import org.eclipse.jetty.security.HashLoginService;
-
-import berlin.reiche.virginia.BCryptPassword;
 import berlin.reiche.virginia.MongoDB;
-import berlin.reiche.virginia.model.Equipment;
+import berlin.reiche.virginia.MongoLoginService;
 import berlin.reiche.virginia.model.User;
+import freemarker.cache.MruCacheStorage;
 import freemarker.template.Configuration;
 import freemarker.template.DefaultObjectWrapper;
 import freemarker.template.Template;
@@ -41,6 +37,7 @@ public class AppServlet extends HttpServlet {
     static final String WEB_PATH = "site/";
     static final String ERROR_SITE = "ftl/error.ftl";
     static final String NOT_FOUND_SITE = "ftl/404.ftl";
+    static final String TEMPLATE_DIRECTORY = "ftl";
 
     private static final String LOGIN_SITE = "ftl/login.ftl";
     private static final String MAIN_SITE = "ftl/main.ftl";
@@ -55,18 +52,47 @@ public class AppServlet extends HttpServlet {
     static final String REQUEST_HEADLINE_VAR = "requestHeadline";
 
     /**
-     * Regular expression for matching a MongoDB object ids.
+     * The pages of the servlet.
      */
-    static final String ID_REGEX = "[a-f0-9]*";
+    private enum Action {
+        MAIN, LOGIN, LOGIN_ERROR, LOGOUT, SIGNUP
+    }
+
+    private static final Router<Action> ROUTES = new Router<Action>()
+            .add("/", Action.MAIN).add("/login", Action.LOGIN)
+            .add("/login/error", Action.LOGIN_ERROR)
+            .add("/logout", Action.LOGOUT).add("/signup", Action.SIGNUP);
+
+    /**
+     * The number of entities shown on a list page, unless another limit is
+     * requested, and the upper bound for a requested limit.
+     */
+    static final int DEFAULT_PAGE_LIMIT = 50;
+    static final int MAX_PAGE_LIMIT = 500;
 
     /**
      * Configuration used for the Freemarker template processing.
      */
     static Configuration configuration;
 
+    /**
+     * Seconds between the checks whether a template file was modified in
+     * development mode, which is the default of Freemarker.
+     */
+    static final int DEVELOPMENT_UPDATE_DELAY = 5;
+
+    /**
+     * Seconds between the checks in production mode, the files are never
+     * checked and templates are only reloaded by {@link #reloadTemplates()}.
+     */
+    static final int PRODUCTION_UPDATE_DELAY = Integer.MAX_VALUE;
+
+    /**
+     * Written under the class lock, read by the admin page without it.
+     */
+    private static volatile boolean isProductionMode;
+
     private final static AppServlet instance = new AppServlet();
-    
-    private HashLoginService loginService;
 
     /**
      * The configuration for the template engine Freemarker is set up with
@@ -100,28 +126,29 @@ public class AppServlet extends HttpServlet {
     protected void doGet(HttpServletRequest request,
             HttpServletResponse response) throws ServletException, IOException {
 
-        String path = request.getPathInfo();
-        Map<String, Object> data = getDefaultData();
-        Writer writer = response.getWriter();
-
-        if (path == null) {
+        if (request.getPathInfo() == null) {
             throw new IOException("The associated path information is null");
         }
 
-        if (path.equals("/")) {
+        Router.Match<Action> match = ROUTES.match(request);
+        Action action = (match == null) ? null : match.getTarget();
+        Map<String, Object> data = getDefaultData();
+        Writer writer = response.getWriter();
+
+        if (action == Action.MAIN) {
             processTemplate(MAIN_SITE, data, writer);
-        } else if (path.equals("/login")) {
+        } else if (action == Action.LOGIN) {
             processTemplate(LOGIN_SITE, data, writer);
-        } else if (path.startsWith("/login/error")) {
+        } else if (action == Action.LOGIN_ERROR) {
             data.put("hasLoginFailed", true);
             AppServlet.processTemplate(LOGIN_SITE, data, response.getWriter());
-        } else if (path.equals("/logout")) {
+        } else if (action == Action.LOGOUT) {
             request.getSession().invalidate();
             response.sendRedirect("/login");
-        } else if (path.equals("/signup")) {
+        } else if (action == Action.SIGNUP) {
             processTemplate(SIGNUP_SITE, data, response.getWriter());
         } else {
-            processTemplate(NOT_FOUND_SITE, data, writer);
+            processNotFound(data, response);
         }
     }
     
@@ -132,8 +159,8 @@ public class AppServlet extends HttpServlet {
     protected void doPost(HttpServletRequest request,
             HttpServletResponse response) throws ServletException, IOException {
         
-        String path = request.getPathInfo();
-        if (path.equals("/signup")) {
+        Router.Match<Action> match = ROUTES.match(request);
+        if (match != null && match.getTarget() == Action.SIGNUP) {
         
             String name = request.getParameter("name");
             String email = request.getParameter("email");
@@ -141,11 +168,8 @@ public class AppServlet extends HttpServlet {
             String password= request.getParameter("password");
             
             User user = new User(login, password, name, email, false, false);
-            
-            BCryptPassword bcrypt = new BCryptPassword(user.getPassword());
-            loginService.putUser(user.getLogin(), bcrypt, User.ROLES);
-            
             MongoDB.store(user);
+            MongoLoginService.getInstance().invalidate(login);
             response.sendRedirect("/login");
         }
     }
@@ -179,9 +203,27 @@ public class AppServlet extends HttpServlet {
         }
     }
 
+    /**
+     * Writes the page for a path without a matching page, together with the
+     * status <code>404 Not Found</code>.
+     * 
+     * @param data
+     *            the root node of the data model.
+     * @param response
+     *            provides HTTP-specific functionality in sending a response.
+     * @throws IOException
+     *             if an I/O exception occurs due to writing or flushing.
+     */
+    static void processNotFound(Map<String, ?> data,
+            HttpServletResponse response) throws IOException {
+        response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+        processTemplate(NOT_FOUND_SITE, data, response.getWriter());
+    }
+
     /**
      * Generates a data model out of the default value property file and other
-     * sources.
+     * sources. The default data is shared by all requests, the returned data
+     * model only holds the entries put into it on top of it.
      * 
      * @return the data model.
      * @throws IOException
@@ -190,18 +232,27 @@ public class AppServlet extends HttpServlet {
      * 
      */
     static Map<String, Object> getDefaultData() throws IOException {
+        return DefaultData.newDataModel(DEFAULT_VALUES_PATH);
+    }
 
-        Map<String, Object> defaultData = new TreeMap<>();
-        Properties defaultValues = new Properties();
-        FileInputStream input = new FileInputStream(DEFAULT_VALUES_PATH);
-        defaultValues.load(input);
-        for (Entry<Object, Object> entry : defaultValues.entrySet()) {
-            defaultData.put((String) entry.getKey(), (String) entry.getValue());
-        }
+    /**
+     * Reads the page size requested with the <code>limit</code> parameter of a
+     * list page.
+     * 
+     * @param request
+     *            provides request information for HTTP servlets.
+     * @return the requested page size, bounded by {@link #MAX_PAGE_LIMIT}, or
+     *         the default page size if no valid limit was requested.
+     */
+    static int getPageLimit(HttpServletRequest request) {
 
-        Equipment equipment = MongoDB.get(Equipment.class);
-        defaultData.put("equipment", equipment);
-        return defaultData;
+        String parameter = request.getParameter("limit");
+        Integer limit = (parameter == null) ? null : (Integer) Router.parse(
+                Router.Type.INT, parameter);
+        if (limit == null) {
+            return DEFAULT_PAGE_LIMIT;
+        }
+        return Math.max(1, Math.min(MAX_PAGE_LIMIT, limit));
     }
 
     /**
@@ -211,8 +262,89 @@ public class AppServlet extends HttpServlet {
         return instance;
     }
 
-    public void setLoginService(HashLoginService loginService) {
-        this.loginService = loginService;
+    /**
+     * Switches the template processing between development and production
+     * mode. In production mode all templates are parsed up front and kept in
+     * memory, the template files are not checked for modifications.
+     * 
+     * @param productionMode
+     *            whether the production mode is enabled.
+     * @return the number of parsed templates.
+     * @throws IOException
+     *             if a template could not be read or parsed.
+     */
+    public static synchronized int setProductionMode(boolean productionMode)
+            throws IOException {
+
+        isProductionMode = productionMode;
+        if (!productionMode) {
+            configuration.setTemplateUpdateDelay(DEVELOPMENT_UPDATE_DELAY);
+            configuration.setCacheStorage(new MruCacheStorage(0,
+                    Integer.MAX_VALUE));
+            return 0;
+        }
+
+        List<String> templates = findTemplates();
+        configuration.setTemplateUpdateDelay(PRODUCTION_UPDATE_DELAY);
+        configuration.setCacheStorage(new MruCacheStorage(templates.size(),
+                Integer.MAX_VALUE));
+        return warm(templates);
+    }
+
+    /**
+     * Drops all parsed templates. In production mode all templates are parsed
+     * again right away, otherwise they are parsed on their next use.
+     * 
+     * @return the number of parsed templates.
+     * @throws IOException
+     *             if a template could not be read or parsed.
+     */
+    public static synchronized int reloadTemplates() throws IOException {
+        configuration.clearTemplateCache();
+        ScheduleView.invalidate();
+        return isProductionMode ? setProductionMode(true) : 0;
+    }
+
+    public static boolean isProductionMode() {
+        return isProductionMode;
+    }
+
+    /**
+     * Parses the given templates, so that they are cached before their first
+     * use.
+     */
+    private static int warm(List<String> templates) throws IOException {
+        for (String template : templates) {
+            configuration.getTemplate(template);
+        }
+        return templates.size();
+    }
+
+    /**
+     * @return the paths of all templates relative to {@link #WEB_PATH}.
+     */
+    private static List<String> findTemplates() {
+        List<String> templates = new ArrayList<>();
+        findTemplates(new File(WEB_PATH, TEMPLATE_DIRECTORY),
+                TEMPLATE_DIRECTORY, templates);
+        return templates;
+    }
+
+    private static void findTemplates(File directory, String path,
+            List<String> templates) {
+
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = path + "/" + file.getName();
+            if (file.isDirectory()) {
+                findTemplates(file, name, templates);
+            } else if (file.getName().endsWith(".ftl")) {
+                templates.add(name);
+            }
+        }
     }
 
 }
@@ -0,0 +1,131 @@
+package berlin.reiche.virginia.servlets;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import berlin.reiche.virginia.AssetPipeline;
+import berlin.reiche.virginia.AssetPipeline.Asset;
+
+/**
+ * The asset servlet serves the fingerprinted static assets of the
+ * {@link AssetPipeline}. Since the URL of an asset changes with its content,
+ * the responses are cacheable for a year and never revalidated.
+ *
+ * @author Konrad Reiche
+ *
+ */
+@SuppressWarnings("serial")
+public class AssetServlet extends HttpServlet {
+
+    /**
+     * The time clients and proxies may cache an asset.
+     */
+    private static final long MAX_AGE = TimeUnit.DAYS.toSeconds(365);
+
+    /**
+     * Singleton instance.
+     */
+    private static final AssetServlet INSTANCE = new AssetServlet();
+
+    public final static String root = AssetPipeline.ASSET_PATH;
+
+    /**
+     * The constructor is private in order to enforce the singleton pattern.
+     */
+    private AssetServlet() {
+
+    }
+
+    /**
+     * Writes the requested asset, gzipped if the client accepts it.
+     */
+    @Override
+    protected void doGet(HttpServletRequest request,
+            HttpServletResponse response) throws ServletException, IOException {
+
+        String path = request.getPathInfo();
+        Asset asset = (path == null) ? null : AssetPipeline.getInstance()
+                .getByUrl(root + path);
+        if (asset == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        String etag = "\"" + asset.getHash() + "\"";
+        response.setHeader("Cache-Control", "public, max-age=" + MAX_AGE
+                + ", immutable");
+        response.setDateHeader("Expires", System.currentTimeMillis()
+                + TimeUnit.SECONDS.toMillis(MAX_AGE));
+        response.setHeader("ETag", etag);
+        response.setDateHeader("Last-Modified", asset.getLastModified());
+        response.setContentType(asset.getContentType());
+
+        if (isNotModified(request, etag, asset.getLastModified())) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        byte[] content = asset.getContent();
+        if (asset.getGzipped() != null) {
+            response.setHeader("Vary", "Accept-Encoding");
+            String encodings = request.getHeader("Accept-Encoding");
+            if (encodings != null && encodings.contains("gzip")) {
+                response.setHeader("Content-Encoding", "gzip");
+                content = asset.getGzipped();
+            }
+        }
+
+        response.setContentLength(content.length);
+        response.getOutputStream().write(content);
+    }
+
+    /**
+     * Checks the conditional request headers against an asset. An entity tag
+     * takes precedence over a modification date.
+     *
+     * @param request
+     *            provides request information for HTTP servlets.
+     * @param etag
+     *            the entity tag of the asset.
+     * @param lastModified
+     *            the modification time of the asset.
+     * @return whether the client has the asset already.
+     */
+    static boolean isNotModified(HttpServletRequest request, String etag,
+            long lastModified) {
+
+        String tags = request.getHeader("If-None-Match");
+        if (tags != null) {
+            for (String tag : tags.split(",")) {
+                tag = tag.trim();
+                if (tag.startsWith("W/")) {
+                    tag = tag.substring(2);
+                }
+                if (tag.equals("*") || tag.equals(etag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        try {
+            long since = request.getDateHeader("If-Modified-Since");
+            return since != -1 && lastModified <= since;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return a singleton instance of {@link AssetServlet}.
+     */
+    public static AssetServlet getInstance() {
+        return INSTANCE;
+    }
+
+}
@@ -0,0 +1,271 @@
+package berlin.reiche.virginia.servlets;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import berlin.reiche.virginia.AssetPipeline;
+import berlin.reiche.virginia.MongoDB;
+import berlin.reiche.virginia.model.Equipment;
+
+/**
+ * Holds the data which is part of every data model: the default values of the
+ * property file, the fingerprinted asset URLs and the equipment. The data is
+ * loaded once into an immutable snapshot which is shared by all requests. The
+ * snapshot is dropped when the property file changes or the equipment is
+ * stored and loaded again on the next request.
+ *
+ * @author Konrad Reiche
+ *
+ */
+final class DefaultData {
+
+    /**
+     * The current snapshot, <code>null</code> if it has to be loaded.
+     */
+    private static volatile Map<String, Object> snapshot;
+
+    /**
+     * Counts the invalidations, so that a snapshot loaded while it was
+     * invalidated is not kept.
+     */
+    private static final AtomicInteger generation = new AtomicInteger();
+
+    private static Thread watcher;
+
+    private DefaultData() {
+
+    }
+
+    /**
+     * @return a new data model on top of the shared default data. Entries put
+     *         into the data model are only visible to it.
+     * @throws IOException
+     *             if the property file could not be read.
+     */
+    static Map<String, Object> newDataModel(String path) throws IOException {
+        return new OverlayMap(getSnapshot(path));
+    }
+
+    /**
+     * @return the current snapshot, loading it if necessary.
+     */
+    static Map<String, Object> getSnapshot(String path) throws IOException {
+
+        Map<String, Object> current = snapshot;
+        if (current == null) {
+            synchronized (DefaultData.class) {
+                current = snapshot;
+                if (current == null) {
+                    watch(path);
+                    int loaded = generation.get();
+                    current = load(path);
+                    if (loaded == generation.get()) {
+                        snapshot = current;
+                    }
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Drops the current snapshot, so that it is loaded again on the next
+     * request.
+     */
+    static void invalidate() {
+        generation.incrementAndGet();
+        snapshot = null;
+        ScheduleView.invalidate();
+    }
+
+    private static Map<String, Object> load(String path) throws IOException {
+
+        Map<String, Object> data = new TreeMap<>();
+        Properties defaultValues = new Properties();
+        try (InputStream input = new FileInputStream(path)) {
+            defaultValues.load(input);
+        }
+        AssetPipeline assets = AssetPipeline.getInstance();
+        for (Entry<Object, Object> entry : defaultValues.entrySet()) {
+            data.put((String) entry.getKey(),
+                    assets.rewrite((String) entry.getValue()));
+        }
+        data.put("assets", assets.getUrls());
+
+        data.put("equipment", MongoDB.get(Equipment.class));
+        return Collections.unmodifiableMap(data);
+    }
+
+    /**
+     * Starts a daemon thread which invalidates the snapshot whenever the
+     * property file is modified. Without a watch service the snapshot is only
+     * invalidated by storing the equipment.
+     */
+    private static void watch(String path) {
+
+        if (watcher != null) {
+            return;
+        }
+
+        final Path file = Paths.get(path).toAbsolutePath();
+        final WatchService service;
+        try {
+            service = FileSystems.getDefault().newWatchService();
+            file.getParent().register(service,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY,
+                    StandardWatchEventKinds.ENTRY_DELETE);
+        } catch (IOException | UnsupportedOperationException e) {
+            System.err.println("The file " + path + " could not be watched.");
+            e.printStackTrace();
+            return;
+        }
+
+        watcher = new Thread("default-data-watcher") {
+            @Override
+            public void run() {
+                while (true) {
+                    WatchKey key;
+                    try {
+                        key = service.take();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (file.getFileName().equals(event.context())
+                                || event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            invalidate();
+                        }
+                    }
+                    if (!key.reset()) {
+                        return;
+                    }
+                }
+            }
+        };
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    /**
+     * A map which reads through to shared defaults, but keeps its own entries
+     * in a separate map. An own entry hides a default with the same key.
+     */
+    static class OverlayMap extends AbstractMap<String, Object> {
+
+        private final Map<String, Object> defaults;
+
+        private final Map<String, Object> entries = new HashMap<>();
+
+        OverlayMap(Map<String, Object> defaults) {
+            this.defaults = defaults;
+        }
+
+        @Override
+        public Object get(Object key) {
+            return entries.containsKey(key) ? entries.get(key) : defaults
+                    .get(key);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return entries.containsKey(key) || defaults.containsKey(key);
+        }
+
+        @Override
+        public Object put(String key, Object value) {
+            Object previous = get(key);
+            entries.put(key, value);
+            return previous;
+        }
+
+        @Override
+        public int size() {
+            int size = entries.size();
+            for (String key : defaults.keySet()) {
+                if (!entries.containsKey(key)) {
+                    size++;
+                }
+            }
+            return size;
+        }
+
+        @Override
+        public Set<Entry<String, Object>> entrySet() {
+            return new AbstractSet<Entry<String, Object>>() {
+
+                @Override
+                public Iterator<Entry<String, Object>> iterator() {
+                    final Iterator<Entry<String, Object>> own = entries
+                            .entrySet().iterator();
+                    final Iterator<Entry<String, Object>> shared = defaults
+                            .entrySet().iterator();
+
+                    return new Iterator<Entry<String, Object>>() {
+
+                        private Entry<String, Object> next = advance();
+
+                        private Entry<String, Object> advance() {
+                            if (own.hasNext()) {
+                                return own.next();
+                            }
+                            while (shared.hasNext()) {
+                                Entry<String, Object> entry = shared.next();
+                                if (!entries.containsKey(entry.getKey())) {
+                                    return entry;
+                                }
+                            }
+                            return null;
+                        }
+
+                        @Override
+                        public boolean hasNext() {
+                            return next != null;
+                        }
+
+                        @Override
+                        public Entry<String, Object> next() {
+                            if (next == null) {
+                                throw new NoSuchElementException();
+                            }
+                            Entry<String, Object> current = next;
+                            next = advance();
+                            return current;
+                        }
+
+                        @Override
+                        public void remove() {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return OverlayMap.this.size();
+                }
+            };
+        }
+    }
+
+}
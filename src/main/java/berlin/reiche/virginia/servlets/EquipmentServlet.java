@@ -49,11 +49,10 @@ public class EquipmentServlet extends HttpServlet {
     protected void doGet(HttpServletRequest request,
             HttpServletResponse response) throws ServletException, IOException {
 
+        // every path shows the same page
+        request.setAttribute(MetricsFilter.ROUTE_ATTRIBUTE, root);
         Map<String, Object> data = AppServlet.getDefaultData();
         Writer writer = response.getWriter();
-        
-        Equipment equipment = MongoDB.get(Equipment.class);
-        data.put("equipment", equipment);
         AppServlet.processTemplate(EQUIPMENT_SITE, data, writer);
     }
 
@@ -64,6 +63,7 @@ public class EquipmentServlet extends HttpServlet {
     protected void doPost(HttpServletRequest request,
             HttpServletResponse response) throws ServletException, IOException {
 
+        request.setAttribute(MetricsFilter.ROUTE_ATTRIBUTE, root);
         String[] items = request.getParameter("equipment").split("\n");
         for (int i = 0; i < items.length; i++) {
             items[i] = items[i].replaceAll("\r", "");            
@@ -71,6 +71,7 @@ public class EquipmentServlet extends HttpServlet {
         Equipment equipment = MongoDB.get(Equipment.class);
         equipment.setItems(items);
         MongoDB.store(equipment);
+        DefaultData.invalidate();
         response.sendRedirect("/");
     }
 
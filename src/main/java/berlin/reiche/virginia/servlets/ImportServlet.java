@@ -0,0 +1,238 @@
+package berlin.reiche.virginia.servlets;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import berlin.reiche.virginia.JsonWriter;
+import berlin.reiche.virginia.MongoLoginService;
+import berlin.reiche.virginia.importer.CsvRecordReader;
+import berlin.reiche.virginia.importer.Importer;
+import berlin.reiche.virginia.importer.JsonRecordReader;
+import berlin.reiche.virginia.importer.RecordReader;
+import berlin.reiche.virginia.model.User;
+
+/**
+ * The import servlet reads course modules, rooms or users in bulk from a CSV
+ * or JSON request body. The body is parsed while it is received and written
+ * in batches, the response is a JSON summary of the import.
+ * 
+ * @author Konrad Reiche
+ * 
+ */
+@SuppressWarnings("serial")
+public class ImportServlet extends HttpServlet {
+
+    /**
+     * File path to the web resources.
+     */
+    private static final String IMPORT_FORM_SITE = "ftl/import/form.ftl";
+
+    /**
+     * The pages of the servlet.
+     */
+    private enum Action {
+        FORM
+    }
+
+    private static final Router<Action> ROUTES = new Router<Action>().add("",
+            Action.FORM).add("/", Action.FORM);
+
+    /**
+     * The import paths and the kind of records they import.
+     */
+    private static final Router<Importer.Kind> IMPORT_ROUTES = new Router<Importer.Kind>()
+            .add("/modules", Importer.Kind.MODULES)
+            .add("/rooms", Importer.Kind.ROOMS)
+            .add("/users", Importer.Kind.USERS);
+
+    /**
+     * The default number of records written in one batch.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    /**
+     * Singleton instance.
+     */
+    private static final ImportServlet INSTANCE = new ImportServlet();
+
+    public final static String root = "/import";
+
+    /**
+     * Only one import runs at a time, so that an import does not occupy more
+     * than the hash workers and one request thread.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    private volatile ExecutorService hashPool;
+
+    /**
+     * The constructor is private in order to enforce the singleton pattern.
+     */
+    private ImportServlet() {
+        configure(DEFAULT_BATCH_SIZE, getDefaultHashThreads());
+    }
+
+    /**
+     * Parses the HTTP request and writes the response by using the template
+     * engine.
+     */
+    @Override
+    protected void doGet(HttpServletRequest request,
+            HttpServletResponse response) throws ServletException, IOException {
+
+        Router.Match<Action> match = ROUTES.match(request);
+        Action action = (match == null) ? null : match.getTarget();
+        Map<String, Object> data = AppServlet.getDefaultData();
+        Writer writer = response.getWriter();
+
+        if (action == Action.FORM) {
+            data.put("batchSize", batchSize);
+            AppServlet.processTemplate(IMPORT_FORM_SITE, data, writer);
+        } else {
+            AppServlet.processNotFound(data, response);
+        }
+    }
+
+    /**
+     * Imports the records of the request body. The format is taken from the
+     * <code>format</code> parameter or else from the content type, the batch
+     * size may be overridden with the <code>batchSize</code> parameter.
+     */
+    @Override
+    protected void doPost(HttpServletRequest request,
+            HttpServletResponse response) throws ServletException, IOException {
+
+        Router.Match<Importer.Kind> match = IMPORT_ROUTES.match(request);
+        if (match == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        Importer.Kind kind = match.getTarget();
+        RecordReader reader = isJson(request) ? new JsonRecordReader(
+                request.getReader()) : new CsvRecordReader(request.getReader());
+
+        if (!lock.tryLock()) {
+            response.setHeader("Retry-After", "10");
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+                    "Another import is running.");
+            return;
+        }
+
+        Importer.Result result;
+        String failure = null;
+        try {
+            Importer importer = new Importer(getBatchSize(request), hashPool) {
+                @Override
+                protected void imported(User user) {
+                    MongoLoginService.getInstance().invalidate(user.getLogin());
+                }
+            };
+            result = importer.run(kind, reader);
+        } catch (IOException e) {
+            // the records read before the malformed input are imported
+            result = null;
+            failure = e.getMessage();
+        } finally {
+            lock.unlock();
+        }
+
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        if (failure != null) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+        }
+
+        JsonWriter json = new JsonWriter(response.getWriter());
+        json.beginObject();
+        if (result != null) {
+            json.member("imported", result.getImported());
+            json.member("rejected", result.getRejected());
+            json.name("errors").beginArray();
+            for (String error : result.getErrors()) {
+                json.value(error);
+            }
+            json.endArray();
+        } else {
+            json.member("error", failure);
+        }
+        json.endObject();
+        json.flush();
+    }
+
+    private boolean isJson(HttpServletRequest request) {
+
+        String format = request.getParameter("format");
+        if (format != null) {
+            return format.equalsIgnoreCase("json");
+        }
+        String contentType = request.getContentType();
+        return contentType != null && contentType.contains("json");
+    }
+
+    private int getBatchSize(HttpServletRequest request) {
+
+        String size = request.getParameter("batchSize");
+        if (size == null || !size.matches("[0-9]{1,6}")) {
+            return batchSize;
+        }
+        return Math.max(1, Integer.valueOf(size));
+    }
+
+    /**
+     * Sets the number of records written in one batch and the number of
+     * threads hashing passwords.
+     * 
+     * @param batchSize
+     *            the number of records written in one batch.
+     * @param hashThreads
+     *            the number of threads hashing passwords.
+     */
+    public synchronized void configure(int batchSize, int hashThreads) {
+
+        this.batchSize = Math.max(1, batchSize);
+        if (hashPool != null) {
+            hashPool.shutdown();
+        }
+        hashPool = Executors.newFixedThreadPool(Math.max(1, hashThreads),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "import-hash");
+                        thread.setDaemon(true);
+                        thread.setPriority(Thread.NORM_PRIORITY - 1);
+                        return thread;
+                    }
+                });
+    }
+
+    /**
+     * Half of the available processors are used for hashing by default, the
+     * other half is left for serving requests.
+     * 
+     * @return the default number of threads hashing passwords.
+     */
+    public static int getDefaultHashThreads() {
+        return Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    }
+
+    /**
+     * @return a singleton instance of {@link ImportServlet}.
+     */
+    public static ImportServlet getInstance() {
+        return INSTANCE;
+    }
+
+}
@@ -0,0 +1,102 @@
+package berlin.reiche.virginia.servlets;
+
+import java.io.IOException;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.Response;
+
+import berlin.reiche.virginia.RequestMetrics;
+
+/**
+ * The metrics filter records the latency, the status code and the written
+ * bytes of every request in the {@link RequestMetrics}.
+ *
+ * A servlet names the route template of a request, for instance
+ * <code>/modules/edit/{id}</code>, in the request attribute
+ * {@link #ROUTE_ATTRIBUTE}, which is done by the {@link Router} on a match.
+ * All other requests are recorded under {@link #UNMATCHED_ROUTE}, so that
+ * arbitrary paths cannot create routes.
+ *
+ * @author Konrad Reiche
+ *
+ */
+public class MetricsFilter implements Filter {
+
+    /**
+     * The request attribute holding the route template of a request.
+     */
+    public static final String ROUTE_ATTRIBUTE = "metrics.route";
+
+    /**
+     * The route of requests without a named route template.
+     */
+    static final String UNMATCHED_ROUTE = "unmatched";
+
+    /**
+     * Singleton instance.
+     */
+    private static final MetricsFilter INSTANCE = new MetricsFilter();
+
+    /**
+     * The constructor is private in order to enforce the singleton pattern.
+     */
+    private MetricsFilter() {
+
+    }
+
+    @Override
+    public void init(FilterConfig config) throws ServletException {
+
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response,
+            FilterChain chain) throws IOException, ServletException {
+
+        long start = System.nanoTime();
+        boolean isFailed = true;
+        try {
+            chain.doFilter(request, response);
+            isFailed = false;
+        } finally {
+            long nanos = System.nanoTime() - start;
+            HttpServletRequest httpRequest = (HttpServletRequest) request;
+            HttpServletResponse httpResponse = (HttpServletResponse) response;
+            int status = isFailed ? HttpServletResponse.SC_INTERNAL_SERVER_ERROR
+                    : httpResponse.getStatus();
+            long bytes = (response instanceof Response) ? ((Response) response)
+                    .getContentCount() : -1;
+            RequestMetrics.getInstance().record(getRoute(httpRequest),
+                    status, nanos, bytes);
+        }
+    }
+
+    @Override
+    public void destroy() {
+
+    }
+
+    /**
+     * @return the route template of a request.
+     */
+    static String getRoute(HttpServletRequest request) {
+        Object route = request.getAttribute(ROUTE_ATTRIBUTE);
+        return (route instanceof String) ? (String) route : UNMATCHED_ROUTE;
+    }
+
+    /**
+     * @return a singleton instance of {@link MetricsFilter}.
+     */
+    public static MetricsFilter getInstance() {
+        return INSTANCE;
+    }
+
+}
@@ -0,0 +1,87 @@
+package berlin.reiche.virginia.servlets;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import berlin.reiche.virginia.RequestMetrics;
+
+/**
+ * The metrics servlet writes the {@link RequestMetrics} in the Prometheus text
+ * format. Since a scraper cannot log in, the servlet is not protected by the
+ * login, but only answers requests from the configured addresses.
+ *
+ * @author Konrad Reiche
+ *
+ */
+@SuppressWarnings("serial")
+public class MetricsServlet extends HttpServlet {
+
+    /**
+     * The addresses allowed to read the metrics by default.
+     */
+    public static final String DEFAULT_ALLOWED_ADDRESSES = "127.0.0.1, 0:0:0:0:0:0:0:1";
+
+    /**
+     * Singleton instance.
+     */
+    private static final MetricsServlet INSTANCE = new MetricsServlet();
+
+    public final static String root = "/metrics";
+
+    private volatile Set<String> allowedAddresses = parse(DEFAULT_ALLOWED_ADDRESSES);
+
+    /**
+     * The constructor is private in order to enforce the singleton pattern.
+     */
+    private MetricsServlet() {
+
+    }
+
+    /**
+     * Writes the metrics of all routes.
+     */
+    @Override
+    protected void doGet(HttpServletRequest request,
+            HttpServletResponse response) throws ServletException, IOException {
+
+        if (!allowedAddresses.contains(request.getRemoteAddr())) {
+            response.sendError(HttpServletResponse.SC_FORBIDDEN);
+            return;
+        }
+
+        response.setContentType("text/plain; version=0.0.4");
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader("Cache-Control", "no-cache");
+        RequestMetrics.getInstance().write(response.getWriter());
+    }
+
+    /**
+     * @param addresses
+     *            the comma separated addresses allowed to read the metrics.
+     */
+    public void setAllowedAddresses(String addresses) {
+        this.allowedAddresses = parse(addresses);
+    }
+
+    private static Set<String> parse(String addresses) {
+        Set<String> result = new HashSet<>(Arrays.asList(addresses.replace(
+                " ", "").split(",")));
+        return Collections.unmodifiableSet(result);
+    }
+
+    /**
+     * @return a singleton instance of {@link MetricsServlet}.
+     */
+    public static MetricsServlet getInstance() {
+        return INSTANCE;
+    }
+
+}
@@ -3,8 +3,11 @@ package berlin.reiche.virginia.servlets;
 import java.io.IOException;
 import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -14,10 +17,13 @@ import javax.servlet.http.HttpServletResponse;
 import org.bson.types.ObjectId;
 
 import berlin.reiche.virginia.MongoDB;
+import berlin.reiche.virginia.Page;
+import berlin.reiche.virginia.ResponsibilityIndex;
 import berlin.reiche.virginia.model.Course;
 import berlin.reiche.virginia.model.CourseModule;
 import berlin.reiche.virginia.model.User;
 import berlin.reiche.virginia.scheduler.CourseSchedule;
+import berlin.reiche.virginia.scheduler.ScheduleHistory;
 
 /**
  * The main servlet of the application which handles all incoming HTTP requests.
@@ -41,6 +47,30 @@ public class ModuleServlet extends HttpServlet {
      */
     private static final String SELECTED_USER = "user";
 
+    /**
+     * The fields shown on the list page.
+     */
+    private static final String[] LIST_FIELDS = { "name", "credits",
+            "assessment" };
+
+    /**
+     * The pages of the servlet.
+     */
+    private enum Action {
+        LIST, REDIRECT, COURSES, NEW, DELETE, EDIT, RESPONSIBILITIES
+    }
+
+    private static final Router<Action> GET_ROUTES = new Router<Action>()
+            .add("", Action.LIST).add("/", Action.REDIRECT)
+            .add("/{id:objectId}", Action.COURSES).add("/new", Action.NEW)
+            .add("/delete/{id:objectId}", Action.DELETE)
+            .add("/edit/{id:objectId}", Action.EDIT)
+            .add("/responsibilities", Action.RESPONSIBILITIES);
+
+    private static final Router<Action> POST_ROUTES = new Router<Action>()
+            .add("/new", Action.NEW).add("/edit/{id:objectId}", Action.EDIT)
+            .add("/responsibilities", Action.RESPONSIBILITIES);
+
     /**
      * Singleton instance.
      */
@@ -63,49 +93,67 @@ public class ModuleServlet extends HttpServlet {
     protected void doGet(HttpServletRequest request,
             HttpServletResponse response) throws ServletException, IOException {
 
-        String path = request.getPathInfo();
+        Router.Match<Action> match = GET_ROUTES.match(request);
+        Action action = (match == null) ? null : match.getTarget();
 
         Map<String, Object> data = AppServlet.getDefaultData();
         Writer writer = response.getWriter();
 
-        if (path == null) {
-            data.put("modules", MongoDB.getAll(CourseModule.class));
+        if (action == Action.LIST) {
+            String after = request.getParameter("after");
+            ObjectId cursor = ObjectId.isValid(after) ? new ObjectId(after)
+                    : null;
+            Page<CourseModule> page = MongoDB.getPage(CourseModule.class, cursor,
+                    AppServlet.getPageLimit(request), LIST_FIELDS);
+            data.put("modules", page.getItems());
+            data.put("page", page);
             AppServlet.processTemplate(LIST_SITE, data, response.getWriter());
-        } else if (path.equals("/")) {
+        } else if (action == Action.REDIRECT) {
             response.sendRedirect("/modules");
-        } else if (path.matches("/" + AppServlet.ID_REGEX)) {
-            ObjectId moduleId = new ObjectId(path.substring("/".length()));
+        } else if (action == Action.COURSES) {
+            ObjectId moduleId = match.getObjectId("id");
             CourseModule module = MongoDB.get(CourseModule.class, moduleId);
             data.put("module", module);
             AppServlet
                     .processTemplate(COURSES_SITE, data, response.getWriter());
-        } else if (path.equals("/new")) {
+        } else if (action == Action.NEW) {
             data.put(AppServlet.REQUEST_HEADLINE_VAR, "New Course Module");
             data.put("module", CourseModule.NULL_MODULE);
             AppServlet.processTemplate(FORM_SITE, data, writer);
-        } else if (path.matches("/delete/" + AppServlet.ID_REGEX)) {
-            ObjectId id = new ObjectId(path.substring("/delete/".length()));
+        } else if (action == Action.DELETE) {
+            ObjectId id = match.getObjectId("id");
             CourseModule module = MongoDB.get(CourseModule.class, id);
             deleteCourseModule(request, response, module);
-        } else if (path.matches("/edit/" + AppServlet.ID_REGEX)) {
-            ObjectId id = new ObjectId(path.substring("/edit/".length()));
+        } else if (action == Action.EDIT) {
+            ObjectId id = match.getObjectId("id");
             CourseModule module = MongoDB.get(CourseModule.class, id);
             data.put("module", module);
             data.put(AppServlet.REQUEST_HEADLINE_VAR, "Edit Course Module");
             AppServlet.processTemplate(FORM_SITE, data, response.getWriter());
-        } else if (path.equals("/responsibilities")) {
+        } else if (action == Action.RESPONSIBILITIES) {
             List<CourseModule> modules = MongoDB.getAll(CourseModule.class);
-            List<User> lecturers = MongoDB.createQuery(User.class)
-                    .filter("lecturer =", true).asList();
+            List<User> lecturers = MongoDB.find(User.class, "lecturer", true);
+
+            List<Course> courses = new ArrayList<>();
+            for (CourseModule module : modules) {
+                courses.addAll(module.getCourses());
+            }
+            Map<String, Set<String>> responsibilities = new HashMap<>();
+            for (Map.Entry<ObjectId, Set<String>> entry : ResponsibilityIndex
+                    .getLecturers(courses).entrySet()) {
+                responsibilities.put(entry.getKey().toString(),
+                        entry.getValue());
+            }
 
             String selectedUser = request.getParameter(SELECTED_USER);
             User user = MongoDB.get(User.class, selectedUser);
             data.put("user", user);
             data.put("modules", modules);
             data.put("lecturers", lecturers);
+            data.put("responsibilities", responsibilities);
             AppServlet.processTemplate(RESPONSIBLITIES_SITE, data, writer);
         } else {
-            AppServlet.processTemplate(AppServlet.NOT_FOUND_SITE, data, writer);
+            AppServlet.processNotFound(data, response);
         }
     }
 
@@ -129,22 +177,42 @@ public class ModuleServlet extends HttpServlet {
             HttpServletResponse response, CourseModule module)
             throws IOException {
 
-        List<Course> courses = module.getCourses();
-        List<User> users = MongoDB.getAll(User.class);
-        for (User user : users) {
-            if (user.getResponsibleCourses().removeAll(courses)) {
-                MongoDB.store(user);
-            }
+        removeCourses(module.getCourses());
+        MongoDB.delete(module);
+        ScheduleView.invalidate();
+        response.sendRedirect("/modules");
+    }
+
+    /**
+     * Deletes courses and cleans up all references to them: the courses are
+     * removed from the user's list for responsible courses and the schedule
+     * entries with the courses are removed.
+     * 
+     * @param courses
+     *            the courses to be deleted.
+     */
+    private void removeCourses(Collection<Course> courses) {
+
+        if (courses.isEmpty()) {
+            return;
         }
 
+        ResponsibilityIndex.removeCourses(courses);
+
         CourseSchedule schedule = MongoDB.get(CourseSchedule.class);
-        for (Course course : courses) {
-            schedule.unsetCourse(course);
+        if (schedule != null) {
+            for (Course course : courses) {
+                schedule.unsetCourse(course);
+            }
+            MongoDB.store(schedule);
+            ScheduleHistory.getInstance().record(schedule);
         }
-        MongoDB.store(schedule);
 
-        MongoDB.delete(module);
-        response.sendRedirect("/modules");
+        List<ObjectId> ids = new ArrayList<>();
+        for (Course course : courses) {
+            ids.add(course.getId());
+        }
+        MongoDB.deleteAll(Course.class, ids);
     }
 
     /**
@@ -154,36 +222,71 @@ public class ModuleServlet extends HttpServlet {
     protected void doPost(HttpServletRequest request,
             HttpServletResponse response) throws ServletException, IOException {
 
-        String path = request.getServletPath() + request.getPathInfo();
+        Router.Match<Action> match = POST_ROUTES.match(request);
+        Action action = (match == null) ? null : match.getTarget();
 
-        if ("/modules/new".equals(path)) {
+        if (action == Action.NEW) {
             handleModuleForm(request, response, null);
-        } else if (path.matches("/modules/edit/" + AppServlet.ID_REGEX)) {
-            ObjectId id = new ObjectId(
-                    path.substring("/modules/edit/".length()));
+        } else if (action == Action.EDIT) {
+            ObjectId id = match.getObjectId("id");
             CourseModule module = MongoDB.get(CourseModule.class, id);
             handleModuleForm(request, response, module);
-        } else if (path.equals("/modules/responsibilities")) {
+        } else if (action == Action.RESPONSIBILITIES) {
 
-            String[] ids = request.getParameterValues("responsibility");
             String selectedUser = request.getParameter(SELECTED_USER);
             User user = MongoDB.get(User.class, selectedUser);
-            user.getResponsibleCourses().clear();
 
-            if (ids != null) {
-                for (String id : ids) {
-                    Course course = MongoDB.get(Course.class, new ObjectId(id));
-                    user.addCourse(course);
+            if (Boolean.valueOf(request.getParameter("changes"))) {
+                List<Course> added = MongoDB.getAll(Course.class,
+                        parseIds(request.getParameterValues("added")));
+                List<ObjectId> removedIds = parseIds(request
+                        .getParameterValues("removed"));
+                List<Course> removed = new ArrayList<>();
+                for (Course course : user.getResponsibleCourses()) {
+                    if (removedIds.contains(course.getId())) {
+                        removed.add(course);
+                    }
                 }
+                ResponsibilityIndex.changeResponsibilities(user, added,
+                        removed);
+            } else {
+                List<Course> courses = MongoDB.getAll(Course.class,
+                        parseIds(request.getParameterValues("responsibility")));
+                ResponsibilityIndex.setResponsibilities(user, courses);
             }
-            MongoDB.store(user);
-            response.sendRedirect(path + "?user=" + selectedUser);
+            response.sendRedirect(root + "/responsibilities?user="
+                    + selectedUser);
         }
     }
 
+    /**
+     * Parses the submitted identifiers, invalid identifiers are skipped.
+     * 
+     * @param values
+     *            the submitted values, may be <code>null</code>.
+     * @return the list of identifiers.
+     */
+    private static List<ObjectId> parseIds(String[] values) {
+
+        List<ObjectId> ids = new ArrayList<>();
+        if (values != null) {
+            for (String value : values) {
+                if (ObjectId.isValid(value)) {
+                    ids.add(new ObjectId(value));
+                }
+            }
+        }
+        return ids;
+    }
+
     /**
      * Handles a course module creation and modification request.
      * 
+     * Submitted courses carry the identifier of the course they were rendered
+     * from, these courses are updated in place. Courses of the module which
+     * were not submitted anymore are deleted. The module and all new or
+     * changed courses are written in one batch.
+     * 
      * @param request
      *            provides request information for HTTP servlets.
      * @param response
@@ -199,15 +302,13 @@ public class ModuleServlet extends HttpServlet {
             HttpServletResponse response, CourseModule oldModule)
             throws IOException {
 
-        Map<String, Object> data = AppServlet.getDefaultData();
-
         String name = request.getParameter("name");
         int credits = Integer.valueOf(request.getParameter("credits"));
         String assessment = request.getParameter("assessment");
         String description = request.getParameter("description");
-        CourseModule newModule = new CourseModule(name, credits, assessment,
-                description);
-        data.put("module", newModule);
+
+        // Identifiers of the existing courses, empty for new courses
+        String[] ids = request.getParameterValues("course-id");
 
         // Course types
         String[] types = request.getParameterValues("type");
@@ -228,15 +329,36 @@ public class ModuleServlet extends HttpServlet {
         // Different quantities for the equipment requirements for all courses
         String[] equipmentQuantities = request.getParameterValues("quantity");
 
+        CourseModule module;
+        Map<String, Course> existingCourses = new HashMap<>();
+        if (oldModule == null) {
+            module = new CourseModule(name, credits, assessment, description);
+        } else {
+            module = oldModule;
+            module.setName(name);
+            module.setCredits(credits);
+            module.setAssessment(assessment);
+            module.setDescription(description);
+
+            // includes courses orphaned by earlier edits
+            for (Course course : MongoDB.find(Course.class, "module", module)) {
+                existingCourses.put(course.getId().toString(), course);
+            }
+            for (Course course : module.getCourses()) {
+                existingCourses.put(course.getId().toString(), course);
+            }
+        }
+
         int k = 0;
         List<Course> courses = new ArrayList<>();
+        List<Course> changedCourses = new ArrayList<>();
 
         // For each defined course
         for (int i = 0; i < types.length; i++) {
 
             int duration = Integer.valueOf(durations[i]);
             int count = Integer.valueOf(counts[i]);
-            Course course = new Course(types[i], duration, count);
+            Map<String, Integer> equipment = new HashMap<>();
 
             int equipmentCount = Integer.valueOf(equipmentCounts[i]);
             for (int j = 0; j < equipmentCount; j++) {
@@ -248,33 +370,37 @@ public class ModuleServlet extends HttpServlet {
 
                 String constraint = equipments[k];
                 if (quantity > 0) {
-                    course.getEquipment().put(constraint, quantity);
+                    equipment.put(constraint, quantity);
                 } else {
-                    course.getEquipment().remove(constraint);
+                    equipment.remove(constraint);
                 }
 
                 k++;
             }
+
+            String id = (ids != null && i < ids.length) ? ids[i] : null;
+            Course course = (id == null) ? null : existingCourses.remove(id);
+            if (course == null) {
+                course = new Course(types[i], duration, count);
+                course.getEquipment().putAll(equipment);
+                changedCourses.add(course);
+            } else if (course.update(types[i], duration, count, equipment)) {
+                changedCourses.add(course);
+            }
+            course.setModule(module);
             courses.add(course);
         }
 
-        if (oldModule == null) {
-            oldModule = newModule;
-        } else {
-            oldModule.setName(name);
-            oldModule.setCredits(credits);
-            oldModule.setAssessment(assessment);
-            oldModule.setDescription(description);
-            oldModule.getCourses().clear();
-        }
+        module.getCourses().clear();
+        module.getCourses().addAll(courses);
 
-        MongoDB.store(oldModule);
-        oldModule.getCourses().addAll(courses);
-        for (Course course : courses) {
-            course.setModule(oldModule);
-            MongoDB.store(course);
-        }
-        MongoDB.store(oldModule);
+        List<Object> writes = new ArrayList<>();
+        writes.add(module);
+        writes.addAll(changedCourses);
+        MongoDB.storeAll(writes);
+
+        removeCourses(existingCourses.values());
+        ScheduleView.invalidate();
         response.sendRedirect("/modules");
     }
 
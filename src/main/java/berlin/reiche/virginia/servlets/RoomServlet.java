@@ -12,6 +12,7 @@ import javax.servlet.http.HttpServletResponse;
 import org.bson.types.ObjectId;
 
 import berlin.reiche.virginia.MongoDB;
+import berlin.reiche.virginia.Page;
 import berlin.reiche.virginia.model.Room;
 
 /**
@@ -29,6 +30,26 @@ public class RoomServlet extends HttpServlet {
     private static final String ROOMS_SITE = "ftl/rooms/list.ftl";
     private static final String ROOM_FORM_SITE = "ftl/rooms/form.ftl";
 
+    /**
+     * The fields shown on the list page.
+     */
+    private static final String[] LIST_FIELDS = { "number", "name" };
+
+    /**
+     * The pages of the servlet.
+     */
+    private enum Action {
+        LIST, REDIRECT, NEW, EDIT, DELETE
+    }
+
+    private static final Router<Action> GET_ROUTES = new Router<Action>()
+            .add("", Action.LIST).add("/", Action.REDIRECT)
+            .add("/new", Action.NEW).add("/edit/{id:objectId}", Action.EDIT)
+            .add("/delete/{id:objectId}", Action.DELETE);
+
+    private static final Router<Action> POST_ROUTES = new Router<Action>()
+            .add("/new", Action.NEW).add("/edit/{id:objectId}", Action.EDIT);
+
     /**
      * Singleton instance.
      */
@@ -51,31 +72,39 @@ public class RoomServlet extends HttpServlet {
     protected void doGet(HttpServletRequest request,
             HttpServletResponse response) throws ServletException, IOException {
 
-        String path = request.getPathInfo();
+        Router.Match<Action> match = GET_ROUTES.match(request);
+        Action action = (match == null) ? null : match.getTarget();
         Map<String, Object> data = AppServlet.getDefaultData();
         Writer writer = response.getWriter();
 
-        if (path == null) {
-            data.put("rooms", MongoDB.getAll(Room.class));
+        if (action == Action.LIST) {
+            String after = request.getParameter("after");
+            ObjectId cursor = ObjectId.isValid(after) ? new ObjectId(after)
+                    : null;
+            Page<Room> page = MongoDB.getPage(Room.class, cursor,
+                    AppServlet.getPageLimit(request), LIST_FIELDS);
+            data.put("rooms", page.getItems());
+            data.put("page", page);
             AppServlet.processTemplate(ROOMS_SITE, data, response.getWriter());
-        } else if (path.equals("/")) {
+        } else if (action == Action.REDIRECT) {
             response.sendRedirect("/rooms");
-        } else if (path.equals("/new")) {
+        } else if (action == Action.NEW) {
             data.put(AppServlet.REQUEST_HEADLINE_VAR, "New Room");
             data.put("room", Room.NULL_ROOM);
             AppServlet.processTemplate(ROOM_FORM_SITE, data, writer);
-        } else if (path.matches("/edit/" + AppServlet.ID_REGEX)) {
-            ObjectId id = new ObjectId(path.substring("/edit/".length()));
+        } else if (action == Action.EDIT) {
+            ObjectId id = match.getObjectId("id");
             data.put(AppServlet.REQUEST_HEADLINE_VAR, "Edit Room");
             data.put("room", MongoDB.get(Room.class, id));
             AppServlet.processTemplate(ROOM_FORM_SITE, data,
                     response.getWriter());
-        } else if (path.matches("/delete/" + AppServlet.ID_REGEX)) {
-            ObjectId id = new ObjectId(path.substring("/delete/".length()));
+        } else if (action == Action.DELETE) {
+            ObjectId id = match.getObjectId("id");
             MongoDB.delete(Room.class, id);
+            ScheduleView.invalidate();
             response.sendRedirect("/rooms");
         } else {
-            AppServlet.processTemplate(AppServlet.NOT_FOUND_SITE, data, writer);
+            AppServlet.processNotFound(data, response);
         }
     }
 
@@ -86,11 +115,12 @@ public class RoomServlet extends HttpServlet {
     protected void doPost(HttpServletRequest request,
             HttpServletResponse response) throws ServletException, IOException {
 
-        String path = request.getPathInfo();
-        if ("/new".equals(path)) {
+        Router.Match<Action> match = POST_ROUTES.match(request);
+        Action action = (match == null) ? null : match.getTarget();
+        if (action == Action.NEW) {
             handleRoomForm(request, response, null);
-        } else if (path.matches("/edit/" + AppServlet.ID_REGEX)) {
-            ObjectId id = new ObjectId(path.substring("/edit/".length()));
+        } else if (action == Action.EDIT) {
+            ObjectId id = match.getObjectId("id");
             Room room = MongoDB.get(Room.class, id);
             handleRoomForm(request, response, room);
         }
@@ -131,6 +161,7 @@ public class RoomServlet extends HttpServlet {
             room.getEquipment().put(constraint, quantity);
         }
         MongoDB.store(room);
+        ScheduleView.invalidate();
         response.sendRedirect("/rooms");
 
     }
@@ -0,0 +1,336 @@
+package berlin.reiche.virginia.servlets;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.bson.types.ObjectId;
+
+/**
+ * Dispatches the path info of a request to the target of a route. The routes
+ * are registered once and kept in a trie of path segments, so that a path is
+ * matched in a single pass over its segments.
+ *
+ * A route template consists of literal segments and typed parameters like
+ * <code>/edit/{id:objectId}</code>. The supported types are:
+ *
+ * <ul>
+ * <li><code>objectId</code> a 24 digit hexadecimal object id</li>
+ * <li><code>login</code> a non-empty login name of letters and digits</li>
+ * <li><code>int</code> a non-negative number of at most nine digits</li>
+ * </ul>
+ *
+ * Literal segments take precedence over parameters. The template
+ * <code>""</code> matches a request without path info.
+ *
+ * @author Konrad Reiche
+ *
+ * @param <T>
+ *            the type of the route targets.
+ */
+final class Router<T> {
+
+    /**
+     * The parameter types, in the order they are tried.
+     */
+    enum Type {
+        OBJECT_ID("objectId"), INT("int"), LOGIN("login");
+
+        final String name;
+
+        private Type(String name) {
+            this.name = name;
+        }
+    }
+
+    private final Node<T> root = new Node<>();
+
+    /**
+     * Registers a route.
+     *
+     * @param template
+     *            the route template.
+     * @param target
+     *            the target of the route.
+     * @return this router.
+     * @throws IllegalStateException
+     *             if the template is malformed or already registered.
+     */
+    Router<T> add(String template, T target) {
+
+        if (!template.isEmpty() && !template.startsWith("/")) {
+            throw new IllegalStateException("The route " + template
+                    + " does not start with a slash.");
+        }
+
+        Node<T> node = root;
+        List<String> names = new ArrayList<>();
+        StringBuilder plain = new StringBuilder();
+        int start = template.isEmpty() ? -1 : 1;
+        while (start >= 0) {
+            int end = template.indexOf('/', start);
+            String segment = template.substring(start, (end < 0) ? template
+                    .length() : end);
+            start = (end < 0) ? -1 : end + 1;
+
+            plain.append('/');
+            if (segment.startsWith("{") && segment.endsWith("}")) {
+                int colon = segment.indexOf(':');
+                if (colon < 0) {
+                    throw new IllegalStateException("The parameter "
+                            + segment + " has no type.");
+                }
+                String name = segment.substring(1, colon);
+                Type type = getType(segment.substring(colon + 1,
+                        segment.length() - 1));
+                names.add(name);
+                plain.append('{').append(name).append('}');
+                if (node.params[type.ordinal()] == null) {
+                    node.params[type.ordinal()] = new Node<>();
+                }
+                node = node.params[type.ordinal()];
+            } else {
+                plain.append(segment);
+                Node<T> child = node.literals.get(segment);
+                if (child == null) {
+                    child = new Node<>();
+                    node.literals.put(segment, child);
+                }
+                node = child;
+            }
+        }
+
+        if (node.target != null) {
+            throw new IllegalStateException("The route " + template
+                    + " is registered twice.");
+        }
+        node.target = target;
+        node.template = plain.toString();
+        node.names = names.toArray(new String[names.size()]);
+        return this;
+    }
+
+    /**
+     * Matches the path info of a request and names the route template of the
+     * request for the {@link MetricsFilter}.
+     *
+     * @param request
+     *            the HTTP request.
+     * @return the match or <code>null</code> if no route matches.
+     */
+    Match<T> match(HttpServletRequest request) {
+
+        Match<T> match = match(request.getPathInfo());
+        if (match != null) {
+            request.setAttribute(MetricsFilter.ROUTE_ATTRIBUTE,
+                    request.getServletPath() + match.getTemplate());
+        }
+        return match;
+    }
+
+    /**
+     * @param path
+     *            the path info, <code>null</code> is treated as empty path.
+     * @return the match or <code>null</code> if no route matches.
+     */
+    Match<T> match(String path) {
+
+        if (path == null || path.isEmpty()) {
+            return (root.target == null) ? null : new Match<>(root,
+                    new Object[0]);
+        } else if (path.charAt(0) != '/') {
+            return null;
+        }
+
+        Object[] values = new Object[countSegments(path)];
+        Node<T> node = match(root, path, 1, values, 0);
+        return (node == null) ? null : new Match<>(node, values);
+    }
+
+    /**
+     * Matches the segment starting at <code>start</code> and all following
+     * segments below the given node.
+     */
+    private Node<T> match(Node<T> node, String path, int start,
+            Object[] values, int parameter) {
+
+        int end = path.indexOf('/', start);
+        boolean isLast = end < 0;
+        if (isLast) {
+            end = path.length();
+        }
+        String segment = path.substring(start, end);
+
+        Node<T> child = node.literals.get(segment);
+        if (child != null) {
+            Node<T> result = isLast ? child.getTarget() : match(child, path,
+                    end + 1, values, parameter);
+            if (result != null) {
+                return result;
+            }
+        }
+
+        for (Type type : Type.values()) {
+            child = node.params[type.ordinal()];
+            if (child == null) {
+                continue;
+            }
+            Object value = parse(type, segment);
+            if (value == null) {
+                continue;
+            }
+            values[parameter] = value;
+            Node<T> result = isLast ? child.getTarget() : match(child, path,
+                    end + 1, values, parameter + 1);
+            if (result != null) {
+                return result;
+            }
+        }
+        return null;
+    }
+
+    private static int countSegments(String path) {
+        int count = 0;
+        for (int i = 0; i < path.length(); i++) {
+            if (path.charAt(i) == '/') {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static Type getType(String name) {
+        for (Type type : Type.values()) {
+            if (type.name.equals(name)) {
+                return type;
+            }
+        }
+        throw new IllegalStateException("There is no parameter type " + name
+                + ".");
+    }
+
+    /**
+     * @return the typed value of a segment or <code>null</code> if the segment
+     *         is no valid value of the type.
+     */
+    static Object parse(Type type, String segment) {
+
+        int length = segment.length();
+        switch (type) {
+        case OBJECT_ID:
+            if (length != 24) {
+                return null;
+            }
+            for (int i = 0; i < length; i++) {
+                char c = segment.charAt(i);
+                if (!(c >= '0' && c <= '9' || c >= 'a' && c <= 'f' || c >= 'A'
+                        && c <= 'F')) {
+                    return null;
+                }
+            }
+            return new ObjectId(segment);
+        case INT:
+            if (length == 0 || length > 9) {
+                return null;
+            }
+            int value = 0;
+            for (int i = 0; i < length; i++) {
+                char c = segment.charAt(i);
+                if (c < '0' || c > '9') {
+                    return null;
+                }
+                value = value * 10 + (c - '0');
+            }
+            return value;
+        case LOGIN:
+            if (length == 0) {
+                return null;
+            }
+            for (int i = 0; i < length; i++) {
+                char c = segment.charAt(i);
+                if (!(c >= '0' && c <= '9' || c >= 'a' && c <= 'z' || c >= 'A'
+                        && c <= 'Z')) {
+                    return null;
+                }
+            }
+            return segment;
+        default:
+            return null;
+        }
+    }
+
+    /**
+     * A node of the trie, one per distinct path prefix.
+     */
+    private static class Node<T> {
+
+        final Map<String, Node<T>> literals = new HashMap<>();
+
+        @SuppressWarnings("unchecked")
+        final Node<T>[] params = new Node[Type.values().length];
+
+        T target;
+        String template;
+        String[] names;
+
+        /**
+         * @return this node if a route ends here, otherwise <code>null</code>.
+         */
+        Node<T> getTarget() {
+            return (target == null) ? null : this;
+        }
+    }
+
+    /**
+     * A matched route together with the values of its parameters.
+     */
+    static class Match<T> {
+
+        private final Node<T> node;
+
+        private final Object[] values;
+
+        Match(Node<T> node, Object[] values) {
+            this.node = node;
+            this.values = values;
+        }
+
+        T getTarget() {
+            return node.target;
+        }
+
+        /**
+         * @return the route template without the parameter types, for
+         *         instance <code>/edit/{id}</code>.
+         */
+        String getTemplate() {
+            return node.template;
+        }
+
+        ObjectId getObjectId(String name) {
+            return (ObjectId) get(name);
+        }
+
+        String getString(String name) {
+            return (String) get(name);
+        }
+
+        int getInt(String name) {
+            return (Integer) get(name);
+        }
+
+        private Object get(String name) {
+            for (int i = 0; i < node.names.length; i++) {
+                if (node.names[i].equals(name)) {
+                    return values[i];
+                }
+            }
+            throw new IllegalStateException("The route " + node.template
+                    + " has no parameter " + name + ".");
+        }
+    }
+
+}
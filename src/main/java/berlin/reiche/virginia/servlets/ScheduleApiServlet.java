@@ -0,0 +1,212 @@
+package berlin.reiche.virginia.servlets;
+
+import java.io.IOException;
+import java.util.List;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import berlin.reiche.virginia.JsonWriter;
+import berlin.reiche.virginia.model.Room;
+import berlin.reiche.virginia.model.ScheduleEntry;
+import berlin.reiche.virginia.model.Timeframe;
+import berlin.reiche.virginia.scheduler.ScheduleExport;
+import berlin.reiche.virginia.scheduler.ScheduleIndex;
+
+/**
+ * The schedule API servlet serves read-only slices of the current course
+ * schedule as JSON:
+ *
+ * <ul>
+ * <li><code>/api/schedule</code> the timeframe and the rooms</li>
+ * <li><code>/api/schedule/rooms/{id}</code> the entries in a room</li>
+ * <li><code>/api/schedule/lecturers/{login}</code> the entries of a lecturer</li>
+ * <li><code>/api/schedule/modules/{id}</code> the entries of a course module</li>
+ * <li><code>/api/schedule/days/{day}</code> the entries on a day</li>
+ * <li><code>/api/schedule/free?day={day}&amp;slot={slot}</code> the rooms
+ * without a course at the given time</li>
+ * </ul>
+ *
+ * The answers are looked up in the indexes of the current schedule version and
+ * written straight to the response.
+ *
+ * @author Konrad Reiche
+ *
+ */
+@SuppressWarnings("serial")
+public class ScheduleApiServlet extends HttpServlet {
+
+    /**
+     * The slices of the API.
+     */
+    private enum Slice {
+        SUMMARY, ROOM, LECTURER, MODULE, DAY, FREE
+    }
+
+    private static final Router<Slice> ROUTES = new Router<Slice>()
+            .add("", Slice.SUMMARY).add("/", Slice.SUMMARY)
+            .add("/rooms/{id:objectId}", Slice.ROOM)
+            .add("/lecturers/{login:login}", Slice.LECTURER)
+            .add("/modules/{id:objectId}", Slice.MODULE)
+            .add("/days/{day:int}", Slice.DAY).add("/free", Slice.FREE);
+
+    /**
+     * Singleton instance.
+     */
+    private static final ScheduleApiServlet INSTANCE = new ScheduleApiServlet();
+
+    public final static String root = "/api/schedule";
+
+    /**
+     * The constructor is private in order to enforce the singleton pattern.
+     */
+    private ScheduleApiServlet() {
+
+    }
+
+    /**
+     * Parses the HTTP request and writes the requested slice of the course
+     * schedule.
+     */
+    @Override
+    protected void doGet(HttpServletRequest request,
+            HttpServletResponse response) throws ServletException, IOException {
+
+        Router.Match<Slice> match = ROUTES.match(request);
+        if (match == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        if (ScheduleView.sendNotModified(request, response)) {
+            return;
+        }
+
+        ScheduleView view = ScheduleView.get();
+        ScheduleIndex index = view.getIndex();
+        if (index == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND,
+                    "There is no course schedule.");
+            return;
+        }
+        view.setValidators(response);
+
+        List<ScheduleEntry> entries;
+        switch (match.getTarget()) {
+        case ROOM:
+            entries = index.getByRoom(match.getObjectId("id").toString());
+            break;
+        case LECTURER:
+            entries = index.getByLecturer(match.getString("login"));
+            break;
+        case MODULE:
+            entries = index.getByModule(match.getObjectId("id").toString());
+            break;
+        case DAY:
+            entries = index.getByDay(match.getInt("day"));
+            break;
+        case FREE:
+            Integer day = parseParameter(request, "day");
+            Integer slot = parseParameter(request, "slot");
+            if (day == null || slot == null) {
+                response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+                        "The parameters day and slot are required.");
+                return;
+            }
+            writeFreeRooms(response, view, day, slot);
+            return;
+        default:
+            entries = null;
+        }
+
+        JsonWriter json = start(response, view);
+        if (entries == null) {
+            writeTimeframe(json, index.getTimeframe());
+            writeRooms(json, "rooms", index.getRooms());
+        } else {
+            Timeframe timeframe = index.getTimeframe();
+            json.name("entries").beginArray();
+            for (ScheduleEntry entry : entries) {
+                ScheduleExport.writeJsonEntry(json, timeframe, entry);
+            }
+            json.endArray();
+        }
+        json.endObject();
+        json.flush();
+    }
+
+    /**
+     * @return the number of a parameter or <code>null</code> if it is missing
+     *         or no number.
+     */
+    private static Integer parseParameter(HttpServletRequest request,
+            String name) {
+        String value = request.getParameter(name);
+        return (value == null) ? null : (Integer) Router.parse(
+                Router.Type.INT, value);
+    }
+
+    private void writeFreeRooms(HttpServletResponse response,
+            ScheduleView view, int day, int timeSlot) throws IOException {
+
+        JsonWriter json = start(response, view);
+        json.member("day", day);
+        json.member("timeSlot", timeSlot);
+        writeRooms(json, "rooms", view.getIndex().getFreeRooms(day, timeSlot));
+        json.endObject();
+        json.flush();
+    }
+
+    /**
+     * Sets the response headers and opens the answer object.
+     */
+    private static JsonWriter start(HttpServletResponse response,
+            ScheduleView view) throws IOException {
+
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        JsonWriter json = new JsonWriter(response.getWriter());
+        json.beginObject();
+        json.member("version", view.getVersion());
+        return json;
+    }
+
+    private static void writeTimeframe(JsonWriter json, Timeframe timeframe)
+            throws IOException {
+
+        json.name("timeframe").beginObject();
+        json.member("days", timeframe.getDays());
+        json.member("timeSlots", timeframe.getTimeSlots());
+        json.member("startHour", timeframe.getStartHour());
+        json.name("weekdays").beginArray();
+        for (String weekday : timeframe.getWeekdays()) {
+            json.value(weekday);
+        }
+        json.endArray();
+        json.endObject();
+    }
+
+    private static void writeRooms(JsonWriter json, String name,
+            List<Room> rooms) throws IOException {
+
+        json.name(name).beginArray();
+        for (Room room : rooms) {
+            json.beginObject();
+            json.member("id", String.valueOf(room.getId()));
+            json.member("number", room.getNumber());
+            json.member("name", room.getName());
+            json.endObject();
+        }
+        json.endArray();
+    }
+
+    /**
+     * @return a singleton instance of {@link ScheduleApiServlet}.
+     */
+    public static ScheduleApiServlet getInstance() {
+        return INSTANCE;
+    }
+
+}
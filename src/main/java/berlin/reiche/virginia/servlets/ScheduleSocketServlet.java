@@ -0,0 +1,235 @@
+package berlin.reiche.virginia.servlets;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.eclipse.jetty.websocket.WebSocket;
+import org.eclipse.jetty.websocket.WebSocketServlet;
+
+import berlin.reiche.virginia.JsonWriter;
+import berlin.reiche.virginia.MongoDB;
+import berlin.reiche.virginia.model.ScheduleEntry;
+import berlin.reiche.virginia.model.Timeframe;
+import berlin.reiche.virginia.scheduler.Placement;
+import berlin.reiche.virginia.scheduler.ScheduleChange;
+import berlin.reiche.virginia.scheduler.ScheduleExport;
+import berlin.reiche.virginia.scheduler.ScheduleHistory;
+
+/**
+ * The schedule socket servlet pushes every new version of the course schedule
+ * to the open scheduler pages over a WebSocket, so that they can patch their
+ * grid instead of loading the page again. A message names the new and the
+ * previous version together with the removed and the added entries:
+ *
+ * <pre>
+ * {"version": 5, "previous": 4,
+ *  "removed": [{"room": "...", "day": 0, "timeSlot": 2}],
+ *  "added": [{"room": "...", "day": 1, "timeSlot": 3, "duration": 2, ...}]}
+ * </pre>
+ *
+ * A page receives the current version when it connects, a page which missed
+ * a version has to load the schedule again.
+ *
+ * @author Konrad Reiche
+ *
+ */
+@SuppressWarnings("serial")
+public class ScheduleSocketServlet extends WebSocketServlet implements
+        ScheduleHistory.Listener {
+
+    /**
+     * The maximum number of open pages, further connections are refused.
+     */
+    private static final int MAX_CONNECTIONS = 500;
+
+    /**
+     * Singleton instance.
+     */
+    private static final ScheduleSocketServlet INSTANCE = new ScheduleSocketServlet();
+
+    public final static String root = "/scheduler/updates";
+
+    private final Set<Client> clients = new CopyOnWriteArraySet<>();
+
+    /**
+     * Writes the messages, so that recording a version does not wait for
+     * slow clients.
+     */
+    private final ExecutorService sender = Executors
+            .newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "schedule-updates");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    /**
+     * The constructor is private in order to enforce the singleton pattern.
+     */
+    private ScheduleSocketServlet() {
+        ScheduleHistory.getInstance().addListener(this);
+    }
+
+    /**
+     * Accepts the connection of a scheduler page of this server. Connections
+     * from pages of other origins are refused, since the browser sends the
+     * session cookie along.
+     */
+    @Override
+    public WebSocket doWebSocketConnect(HttpServletRequest request,
+            String protocol) {
+
+        request.setAttribute(MetricsFilter.ROUTE_ATTRIBUTE, root);
+        String origin = request.getHeader("Origin");
+        String host = request.getHeader("Host");
+        if (origin == null || host == null
+                || !origin.replaceFirst("^https?://", "").equals(host)
+                || clients.size() >= MAX_CONNECTIONS) {
+            return null;
+        }
+        return new Client();
+    }
+
+    /**
+     * Sends the changes of a new version to all open pages.
+     */
+    @Override
+    public void versionRecorded(final int version,
+            final List<ScheduleChange> changes,
+            Collection<ScheduleEntry> entries) {
+
+        if (clients.isEmpty()) {
+            return;
+        }
+
+        final Map<Placement, ScheduleEntry> added = new HashMap<>();
+        for (ScheduleEntry entry : entries) {
+            added.put(new Placement(entry), entry);
+        }
+        sender.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    broadcast(getMessage(version, changes, added));
+                } catch (IOException e) {
+                    System.err.println("The schedule version " + version
+                            + " could not be sent.");
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the message announcing a new version.
+     */
+    static String getMessage(int version, List<ScheduleChange> changes,
+            Map<Placement, ScheduleEntry> entries) throws IOException {
+
+        List<Placement> removed = new ArrayList<>();
+        List<ScheduleEntry> added = new ArrayList<>();
+        for (ScheduleChange change : changes) {
+            if (change.getFrom() != null) {
+                removed.add(change.getFrom());
+            }
+            if (change.getTo() != null) {
+                added.add(entries.get(change.getTo()));
+            }
+        }
+
+        StringWriter writer = new StringWriter();
+        JsonWriter json = new JsonWriter(writer);
+        json.beginObject();
+        json.member("version", version);
+        json.member("previous", version - 1);
+        json.name("removed").beginArray();
+        for (Placement placement : removed) {
+            json.beginObject();
+            json.member("room", String.valueOf(placement.getRoom()));
+            json.member("day", placement.getDay());
+            json.member("timeSlot", placement.getTimeSlot());
+            json.endObject();
+        }
+        json.endArray();
+        json.name("added").beginArray();
+        Timeframe timeframe = added.isEmpty() ? null : MongoDB
+                .get(Timeframe.class);
+        for (ScheduleEntry entry : added) {
+            ScheduleExport.writeJsonEntry(json, timeframe, entry);
+        }
+        json.endArray();
+        json.endObject();
+        json.flush();
+        return writer.toString();
+    }
+
+    private void broadcast(String message) {
+        for (Client client : clients) {
+            client.send(message);
+        }
+    }
+
+    /**
+     * @return the number of open pages.
+     */
+    int getClients() {
+        return clients.size();
+    }
+
+    /**
+     * @return a singleton instance of {@link ScheduleSocketServlet}.
+     */
+    public static ScheduleSocketServlet getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * The connection to a single scheduler page.
+     */
+    private class Client implements WebSocket.OnTextMessage {
+
+        private volatile Connection connection;
+
+        @Override
+        public void onOpen(Connection connection) {
+            this.connection = connection;
+            clients.add(this);
+            send("{\"version\":"
+                    + ScheduleHistory.getInstance().getLatestVersion() + "}");
+        }
+
+        @Override
+        public void onClose(int closeCode, String message) {
+            clients.remove(this);
+        }
+
+        @Override
+        public void onMessage(String data) {
+            // the pages only listen
+        }
+
+        void send(String message) {
+            try {
+                connection.sendMessage(message);
+            } catch (IOException e) {
+                clients.remove(this);
+                connection.close();
+            }
+        }
+    }
+
+}
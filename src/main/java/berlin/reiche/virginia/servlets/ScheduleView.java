@@ -0,0 +1,328 @@
+package berlin.reiche.virginia.servlets;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import berlin.reiche.virginia.MongoDB;
+import berlin.reiche.virginia.model.Room;
+import berlin.reiche.virginia.model.Timeframe;
+import berlin.reiche.virginia.scheduler.CourseSchedule;
+import berlin.reiche.virginia.scheduler.ScheduleHistory;
+import berlin.reiche.virginia.scheduler.ScheduleIndex;
+import berlin.reiche.virginia.scheduler.ScheduleInformation;
+
+/**
+ * The view model of the schedule grid together with the indexes answering the
+ * schedule API. A view is built once per schedule version and shared by all
+ * requests until the schedule changes or data shown in the grid, like room or
+ * module names, is edited.
+ *
+ * The scheduler page only lists the rooms, the grid of a room is rendered
+ * when it is requested first and kept for the other requests of the same
+ * view.
+ *
+ * @author Konrad Reiche
+ *
+ */
+final class ScheduleView {
+
+    /**
+     * File path to the web resources.
+     */
+    private static final String GRID_SITE = "ftl/scheduler/grid.ftl";
+
+    /**
+     * Counts the invalidations by edits which do not create a new schedule
+     * version.
+     */
+    private static final AtomicLong generation = new AtomicLong();
+
+    /**
+     * Distinguishes the entity tags of different server runs, since the
+     * versions and the generations may repeat after a restart.
+     */
+    private static final String BOOT = Long.toHexString(new SecureRandom()
+            .nextLong());
+
+    private static volatile ScheduleView current;
+
+    private final int version;
+
+    private final long viewGeneration;
+
+    private final long lastModified;
+
+    private final Timeframe timeframe;
+
+    private final List<Map<String, Object>> schedules;
+
+    /**
+     * The view models of the room schedules by room identifier.
+     */
+    private final Map<String, Map<String, Object>> roomSchedules;
+
+    /**
+     * The rendered grids by room identifier.
+     */
+    private final ConcurrentMap<String, String> roomGrids = new ConcurrentHashMap<>();
+
+    private final ScheduleIndex index;
+
+    private ScheduleView(int version, long viewGeneration,
+            Timeframe timeframe, List<Map<String, Object>> schedules,
+            ScheduleIndex index) {
+
+        this.version = version;
+        this.viewGeneration = viewGeneration;
+        this.timeframe = timeframe;
+        this.schedules = schedules;
+        this.index = index;
+
+        this.roomSchedules = new HashMap<>();
+        if (schedules != null) {
+            for (Map<String, Object> schedule : schedules) {
+                roomSchedules.put((String) schedule.get("roomId"), schedule);
+            }
+        }
+
+        // HTTP dates have a resolution of seconds
+        this.lastModified = System.currentTimeMillis() / 1000 * 1000;
+    }
+
+    /**
+     * Returns the view of the latest schedule version. Only if the schedule
+     * changed since the last call the schedule is loaded.
+     *
+     * @return the view of the current course schedule.
+     */
+    static ScheduleView get() {
+
+        int version = ScheduleHistory.getInstance().getLatestVersion();
+        long viewGeneration = generation.get();
+        ScheduleView view = current;
+        if (view != null && view.version == version
+                && view.viewGeneration == viewGeneration) {
+            return view;
+        }
+
+        synchronized (ScheduleView.class) {
+            view = current;
+            if (view == null || view.version != version
+                    || view.viewGeneration != viewGeneration) {
+                view = build(version, viewGeneration);
+                current = view;
+            }
+            return view;
+        }
+    }
+
+    /**
+     * Drops the current view, so that it is built again on the next request.
+     * Has to be called whenever data shown in the grid is changed without
+     * recording a new schedule version.
+     */
+    static void invalidate() {
+        generation.incrementAndGet();
+        current = null;
+    }
+
+    private static ScheduleView build(int version, long viewGeneration) {
+        return build(version, viewGeneration,
+                MongoDB.get(CourseSchedule.class));
+    }
+
+    /**
+     * Builds the view of a loaded course schedule.
+     * 
+     * @param schedule
+     *            the course schedule or <code>null</code> if there is none.
+     * @return the view of the given course schedule.
+     */
+    static ScheduleView build(int version, long viewGeneration,
+            CourseSchedule schedule) {
+
+        if (schedule == null) {
+            return new ScheduleView(version, viewGeneration, null, null, null);
+        }
+
+        List<Map<String, Object>> schedules = new ArrayList<>();
+        Timeframe timeframe = schedule.getTimeframe();
+        for (Room room : schedule.getRooms()) {
+            Map<String, Object> scheduleData = new HashMap<>();
+            scheduleData.put("room", room.toString());
+            scheduleData.put("roomId", String.valueOf(room.getId()));
+
+            List<List<ScheduleInformation>> timeRows = new ArrayList<>();
+            for (int i = 0; i < timeframe.getTimeSlots(); i++) {
+                List<ScheduleInformation> cells = new ArrayList<>();
+                for (int j = 0; j < timeframe.getDays(); j++) {
+                    ScheduleInformation information = schedule
+                            .getScheduleInformation(room, j, i);
+                    cells.add(information);
+                }
+                timeRows.add(Collections.unmodifiableList(cells));
+            }
+            scheduleData.put("timeRows", Collections.unmodifiableList(timeRows));
+            schedules.add(Collections.unmodifiableMap(scheduleData));
+        }
+        schedules = Collections.unmodifiableList(schedules);
+
+        return new ScheduleView(version, viewGeneration, timeframe,
+                schedules, new ScheduleIndex(schedule));
+    }
+
+    /**
+     * @return the entity tag of the view, it changes with the schedule
+     *         version, with every invalidation and with every server run.
+     */
+    String getETag() {
+        return getETag(version, viewGeneration);
+    }
+
+    private static String getETag(int version, long viewGeneration) {
+        return "\"" + BOOT + "-" + version + "-" + viewGeneration + "\"";
+    }
+
+    /**
+     * Answers a conditional request with <code>304 Not Modified</code> if the
+     * client has the view of the current schedule. This is checked before the
+     * view is built, so that an unchanged schedule is not loaded. An entity
+     * tag takes precedence over a modification date, which is only known
+     * once the view is built.
+     * 
+     * @param request
+     *            provides request information for HTTP servlets.
+     * @param response
+     *            provides HTTP-specific functionality in sending a response.
+     * @return whether the request was answered.
+     */
+    static boolean sendNotModified(HttpServletRequest request,
+            HttpServletResponse response) {
+
+        String etag = getETag(ScheduleHistory.getInstance()
+                .getLatestVersion(), generation.get());
+        if (!isNotModified(request, etag)) {
+            return false;
+        }
+        response.setHeader("ETag", etag);
+        response.setHeader("Cache-Control", "private, no-cache");
+        response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        return true;
+    }
+
+    private static boolean isNotModified(HttpServletRequest request,
+            String etag) {
+
+        String tags = request.getHeader("If-None-Match");
+        if (tags != null) {
+            for (String tag : tags.split(",")) {
+                tag = tag.trim();
+                if (tag.startsWith("W/")) {
+                    tag = tag.substring(2);
+                }
+                if (tag.equals("*") || tag.equals(etag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        ScheduleView view = current;
+        if (view == null || !view.getETag().equals(etag)) {
+            return false;
+        }
+        try {
+            long since = request.getDateHeader("If-Modified-Since");
+            return since != -1 && view.lastModified <= since;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Sets the validators of this view, with which the client can make its
+     * next request conditional.
+     * 
+     * @param response
+     *            provides HTTP-specific functionality in sending a response.
+     */
+    void setValidators(HttpServletResponse response) {
+        response.setHeader("ETag", getETag());
+        response.setDateHeader("Last-Modified", lastModified);
+        response.setHeader("Cache-Control", "private, no-cache");
+    }
+
+    /**
+     * @return whether there is a course schedule.
+     */
+    boolean hasSchedule() {
+        return timeframe != null;
+    }
+
+    Timeframe getTimeframe() {
+        return timeframe;
+    }
+
+    List<Map<String, Object>> getSchedules() {
+        return schedules;
+    }
+
+    int getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the indexes of the course schedule or <code>null</code> if there
+     *         is no course schedule.
+     */
+    ScheduleIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Returns the grid of a room, it is rendered on the first request.
+     *
+     * @param room
+     *            the room identifier.
+     * @return the rendered HTML of the room grid or <code>null</code> if the
+     *         room is not part of the course schedule.
+     * @throws IOException
+     *             if the grid could not be rendered.
+     */
+    String getRoomGrid(String room) throws IOException {
+
+        String grid = roomGrids.get(room);
+        if (grid != null) {
+            return grid;
+        }
+
+        Map<String, Object> schedule = roomSchedules.get(room);
+        if (schedule == null) {
+            return null;
+        }
+
+        Map<String, Object> data = new HashMap<>();
+        data.put("timeframe", timeframe);
+        data.put("schedule", schedule);
+        data.put("version", version);
+        StringWriter writer = new StringWriter();
+        AppServlet.processTemplate(GRID_SITE, data, writer);
+
+        grid = writer.toString();
+        String present = roomGrids.putIfAbsent(room, grid);
+        return (present == null) ? grid : present;
+    }
+
+}
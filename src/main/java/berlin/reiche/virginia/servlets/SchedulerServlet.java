@@ -1,10 +1,7 @@
 package berlin.reiche.virginia.servlets;
 
 import java.io.IOException;
-import java.io.Writer;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
+import java.util.Collections;
 import java.util.Map;
 
 import javax.servlet.ServletException;
@@ -14,12 +11,11 @@ import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 
 import berlin.reiche.virginia.MongoDB;
-import berlin.reiche.virginia.model.Room;
 import berlin.reiche.virginia.model.ScheduleEntry;
-import berlin.reiche.virginia.model.Timeframe;
 import berlin.reiche.virginia.scheduler.CourseSchedule;
 import berlin.reiche.virginia.scheduler.Feedback;
-import berlin.reiche.virginia.scheduler.ScheduleInformation;
+import berlin.reiche.virginia.scheduler.ScheduleExport;
+import berlin.reiche.virginia.scheduler.ScheduleHistory;
 import berlin.reiche.virginia.scheduler.Scheduler;
 
 /**
@@ -36,6 +32,35 @@ public class SchedulerServlet extends HttpServlet {
      */
     private static final String SCHEDULER_SITE = "ftl/scheduler/control.ftl";
 
+    /**
+     * The file name of the exports.
+     */
+    private static final String EXPORT_NAME = "schedule";
+
+    /**
+     * The pages of the servlet.
+     */
+    private enum Action {
+        SHOW, REDIRECT, SUCCESS, ERROR, START, DELETE, EXPORT, ROOM
+    }
+
+    /**
+     * The routes of the servlet, the export paths are e.g.
+     * <code>/export.ics</code>.
+     */
+    private static final Router<Action> ROUTES = new Router<Action>()
+            .add("", Action.SHOW).add("/", Action.REDIRECT)
+            .add("/success", Action.SUCCESS).add("/error", Action.ERROR)
+            .add("/start", Action.START).add("/delete", Action.DELETE)
+            .add("/rooms/{id:objectId}", Action.ROOM);
+
+    static {
+        for (ScheduleExport.Format format : ScheduleExport.Format.values()) {
+            ROUTES.add("/export." + format.name().toLowerCase(),
+                    Action.EXPORT);
+        }
+    }
+
     /**
      * Singleton instance.
      */
@@ -64,39 +89,128 @@ public class SchedulerServlet extends HttpServlet {
             HttpServletResponse response) throws ServletException, IOException {
 
         HttpSession session = request.getSession();
-        String path = request.getPathInfo();
+        Router.Match<Action> match = ROUTES.match(request);
+        Action action = (match == null) ? null : match.getTarget();
         Map<String, Object> data = AppServlet.getDefaultData();
-        Writer writer = response.getWriter();
 
-        if (path == null) {
+        if (action == Action.SHOW) {
             showSchedule(request, response, data);
-        } else if (path.equals("/")) {
+        } else if (action == Action.REDIRECT) {
             response.sendRedirect("/scheduler");
-        } else if (path.equals("/success")) {
+        } else if (action == Action.SUCCESS) {
             data.put("successful", true);
             showSchedule(request, response, data);
-        } else if (path.equals("/error")) {
+        } else if (action == Action.ERROR) {
             data.put("failed", true);
             showSchedule(request, response, data);
-        } else if (path.equals("/start")) {
+        } else if (action == Action.START) {
 
             Feedback feedback = scheduler.schedule();
+            ScheduleView.invalidate();
             synchronized (scheduler) {
                 session.setAttribute("feedback", feedback);
             }
             response.sendRedirect("/scheduler");
 
-        } else if (path.equals("/delete")) {
+        } else if (action == Action.DELETE) {
             MongoDB.deleteAll(CourseSchedule.class);
             MongoDB.deleteAll(ScheduleEntry.class);
+            ScheduleHistory.getInstance().record(
+                    Collections.<ScheduleEntry> emptyList());
+            ScheduleView.invalidate();
             response.sendRedirect("/scheduler");
+        } else if (action == Action.EXPORT) {
+            String path = request.getPathInfo();
+            String extension = path.substring(path.lastIndexOf('.') + 1);
+            export(request, response,
+                    ScheduleExport.Format.valueOf(extension.toUpperCase()));
+        } else if (action == Action.ROOM) {
+            showRoom(request, response, match.getObjectId("id").toString());
         } else {
-            AppServlet.processTemplate(AppServlet.NOT_FOUND_SITE, data, writer);
+            AppServlet.processNotFound(data, response);
         }
     }
 
     /**
-     * Displays the control menu and the current course schedule.
+     * Streams the current course schedule in an export format. The export can
+     * be restricted with the parameters <code>room</code> (room identifier),
+     * <code>lecturer</code> (login) and <code>module</code> (course module
+     * identifier). The course schedule is a single document, so it is loaded
+     * as a whole before the first entry is written.
+     * 
+     * @param request
+     *            provides request information for HTTP servlets.
+     * @param response
+     *            provides HTTP-specific functionality in sending a response.
+     * @param format
+     *            the export format.
+     * @throws IOException
+     *             if an input or output exception occurs.
+     */
+    private void export(HttpServletRequest request,
+            HttpServletResponse response, ScheduleExport.Format format)
+            throws IOException {
+
+        CourseSchedule schedule = MongoDB.get(CourseSchedule.class);
+        if (schedule == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND,
+                    "There is no course schedule.");
+            return;
+        }
+
+        response.setContentType(format.getContentType());
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader("Content-Disposition", "attachment; filename="
+                + EXPORT_NAME + "." + format.getExtension());
+
+        ScheduleExport export = new ScheduleExport(
+                request.getParameter("room"),
+                request.getParameter("lecturer"),
+                request.getParameter("module"));
+        export.write(schedule, format, response.getWriter());
+    }
+
+    /**
+     * Writes the schedule grid of a single room, which is loaded by the
+     * scheduler page when the room is shown. Like the page it is answered
+     * with <code>304 Not Modified</code> if the schedule is unchanged.
+     * 
+     * @param request
+     *            provides request information for HTTP servlets.
+     * @param response
+     *            provides HTTP-specific functionality in sending a response.
+     * @param room
+     *            the room identifier.
+     * @throws IOException
+     *             if an input or output exception occurs.
+     */
+    private void showRoom(HttpServletRequest request,
+            HttpServletResponse response, String room) throws IOException {
+
+        if (ScheduleView.sendNotModified(request, response)) {
+            return;
+        }
+
+        ScheduleView view = ScheduleView.get();
+        String grid = view.getRoomGrid(room);
+        if (grid == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND,
+                    "The room is not part of the course schedule.");
+            return;
+        }
+
+        view.setValidators(response);
+        response.setContentType("text/html");
+        response.setCharacterEncoding("UTF-8");
+        response.getWriter().write(grid);
+    }
+
+    /**
+     * Displays the control menu and the index of the rooms of the current
+     * course schedule, whose grids are loaded by the page one by one. A
+     * conditional request for an unchanged schedule is answered with
+     * <code>304 Not Modified</code> unless there is feedback of the scheduler
+     * to show.
      * 
      * @param request
      *            provides request information for HTTP servlets.
@@ -116,31 +230,21 @@ public class SchedulerServlet extends HttpServlet {
             session.removeAttribute("feedback");
         }
 
-        data.put("feedback", feedback);
-        CourseSchedule schedule = MongoDB.get(CourseSchedule.class);
-        if (schedule != null) {
-            List<Map<String, Object>> schedules = new ArrayList<>();
-            Timeframe timeframe = schedule.getTimeframe();
-            data.put("timeframe", timeframe);
-            for (Room room : schedule.getRooms()) {
-                Map<String, Object> scheduleData = new HashMap<>();
-                scheduleData.put("room", room.toString());
-
-                List<List<ScheduleInformation>> timeRows = new ArrayList<>();
-                for (int i = 0; i < timeframe.getTimeSlots(); i++) {
-                    List<ScheduleInformation> cells = new ArrayList<>();
-                    for (int j = 0; j < timeframe.getDays(); j++) {
-                        ScheduleInformation information = schedule
-                                .getScheduleInformation(room, j, i);
-                        cells.add(information);
-                    }
-                    timeRows.add(cells);
-                }
-                scheduleData.put("timeRows", timeRows);
-                schedules.add(scheduleData);
-            }
+        boolean isCacheable = feedback == null && request.getPathInfo() == null;
+        if (isCacheable && ScheduleView.sendNotModified(request, response)) {
+            return;
+        }
 
-            data.put("schedules", schedules);
+        ScheduleView view = ScheduleView.get();
+        if (isCacheable) {
+            view.setValidators(response);
+        }
+
+        data.put("feedback", feedback);
+        data.put("scheduleVersion", view.getVersion());
+        if (view.hasSchedule()) {
+            data.put("timeframe", view.getTimeframe());
+            data.put("schedules", view.getSchedules());
         }
 
         AppServlet.processTemplate(SCHEDULER_SITE, data, response.getWriter());
@@ -50,6 +50,8 @@ public class TimeframeServlet extends HttpServlet {
     protected void doGet(HttpServletRequest request,
             HttpServletResponse response) throws ServletException, IOException {
 
+        // every path shows the same page
+        request.setAttribute(MetricsFilter.ROUTE_ATTRIBUTE, root);
         Map<String, Object> data = AppServlet.getDefaultData();
         Writer writer = response.getWriter();
         data.put("timeframe", MongoDB.get(Timeframe.class));
@@ -63,6 +65,7 @@ public class TimeframeServlet extends HttpServlet {
     protected void doPost(HttpServletRequest request,
             HttpServletResponse response) throws ServletException, IOException {
 
+        request.setAttribute(MetricsFilter.ROUTE_ATTRIBUTE, root);
         int days = Integer.valueOf(request.getParameter("days"));
         int timeSlots = Integer.valueOf(request.getParameter("timeSlots"));
         int startHour = Integer.valueOf(request.getParameter("startHour"));
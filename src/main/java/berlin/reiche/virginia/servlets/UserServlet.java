@@ -10,6 +10,9 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import berlin.reiche.virginia.MongoDB;
+import berlin.reiche.virginia.MongoLoginService;
+import berlin.reiche.virginia.ResponsibilityIndex;
+import berlin.reiche.virginia.Page;
 import berlin.reiche.virginia.model.User;
 
 /**
@@ -33,9 +36,26 @@ public class UserServlet extends HttpServlet {
     private static UserServlet instance = new UserServlet();
 
     /**
-     * Regular expression for matching a user name.
+     * The pages of the servlet.
      */
-    static final String ID_REGEX = "[a-zA-Z0-9]*";
+    private enum Action {
+        LIST, REDIRECT, NEW, EDIT, DELETE
+    }
+
+    private static final Router<Action> GET_ROUTES = new Router<Action>()
+            .add("", Action.LIST).add("/", Action.REDIRECT)
+            .add("/new", Action.NEW).add("/edit/{login:login}", Action.EDIT)
+            .add("/delete/{login:login}", Action.DELETE);
+
+    private static final Router<Action> POST_ROUTES = new Router<Action>()
+            .add("/new", Action.NEW).add("/edit/{login:login}", Action.EDIT);
+
+    /**
+     * The fields shown on the list page, the password hash and the
+     * responsible courses are not retrieved.
+     */
+    private static final String[] LIST_FIELDS = { "name", "email", "student",
+            "lecturer" };
 
     public final static String root = "/users";
 
@@ -54,33 +74,44 @@ public class UserServlet extends HttpServlet {
     protected void doGet(HttpServletRequest request,
             HttpServletResponse response) throws ServletException, IOException {
 
-        String path = request.getPathInfo();
+        Router.Match<Action> match = GET_ROUTES.match(request);
+        Action action = (match == null) ? null : match.getTarget();
 
         Map<String, Object> data = AppServlet.getDefaultData();
         Writer writer = response.getWriter();
 
-        if (path == null) {
-            data.put("users", MongoDB.getAll(User.class));
+        if (action == Action.LIST) {
+            Page<User> page = MongoDB.getPage(User.class,
+                    request.getParameter("after"),
+                    AppServlet.getPageLimit(request), LIST_FIELDS);
+            data.put("users", page.getItems());
+            data.put("page", page);
             AppServlet.processTemplate(USER_SITE, data, response.getWriter());
-        } else if (path.equals("/")) {
+        } else if (action == Action.REDIRECT) {
             response.sendRedirect("/users");
-        } else if (path.equals("/new")) {
+        } else if (action == Action.NEW) {
             data.put(AppServlet.REQUEST_HEADLINE_VAR, "New User");
             data.put("isNewEntity", true);
             AppServlet.processTemplate(USER_FORM_SITE, data, writer);
-        } else if (path.matches("/edit/" + ID_REGEX)) {
-            String name = path.substring("/edit/".length());
+        } else if (action == Action.EDIT) {
+            String name = match.getString("login");
             data.put(AppServlet.REQUEST_HEADLINE_VAR, "Edit User");
             data.put("isNewEntity", false);
             data.put("user", MongoDB.get(User.class, name));
             AppServlet.processTemplate(USER_FORM_SITE, data,
                     response.getWriter());
-        } else if (path.matches("/delete/" + ID_REGEX)) {
-            String name = path.substring("/delete/".length());
-            MongoDB.delete(User.class, name);
+        } else if (action == Action.DELETE) {
+            String name = match.getString("login");
+            User user = MongoDB.get(User.class, name);
+            if (user != null) {
+                ResponsibilityIndex.removeUser(user);
+                MongoDB.delete(user);
+                MongoLoginService.getInstance().invalidate(name);
+                ScheduleView.invalidate();
+            }
             response.sendRedirect("/users");
         } else {
-            AppServlet.processTemplate(AppServlet.NOT_FOUND_SITE, data, writer);
+            AppServlet.processNotFound(data, response);
         }
     }
 
@@ -91,11 +122,12 @@ public class UserServlet extends HttpServlet {
     protected void doPost(HttpServletRequest request,
             HttpServletResponse response) throws ServletException, IOException {
 
-        String path = request.getPathInfo();
-        if ("/new".equals(path)) {
+        Router.Match<Action> match = POST_ROUTES.match(request);
+        Action action = (match == null) ? null : match.getTarget();
+        if (action == Action.NEW) {
             handleUserForm(request, response, null);
-        } else if (path.matches("/edit/" + ID_REGEX)) {
-            String name = path.substring("/edit/".length());
+        } else if (action == Action.EDIT) {
+            String name = match.getString("login");
             User user = MongoDB.get(User.class, name);
             handleUserForm(request, response, user);
         }
@@ -122,6 +154,7 @@ public class UserServlet extends HttpServlet {
         String email = request.getParameter("email");
         boolean isStudent = request.getParameter("student") != null;
         boolean isLecturer = request.getParameter("lecturer") != null;
+        String oldLogin = (user == null) ? null : user.getLogin();
         if (user == null) {
             String password = request.getParameter("password");
             user = new User(login, password, name, email, isStudent, isLecturer);
@@ -137,6 +170,18 @@ public class UserServlet extends HttpServlet {
             user.setLecturer(isLecturer);
         }
         MongoDB.store(user);
+        if (oldLogin != null && !oldLogin.equals(login)) {
+            // the login is the identifier, the user was stored as new document
+            ResponsibilityIndex.renameUser(user, oldLogin);
+            MongoDB.delete(User.class, oldLogin);
+        }
+
+        // after the store, so that no login can cache the old credentials
+        MongoLoginService.getInstance().invalidate(login);
+        if (oldLogin != null && !oldLogin.equals(login)) {
+            MongoLoginService.getInstance().invalidate(oldLogin);
+        }
+        ScheduleView.invalidate();
         response.sendRedirect("/users");
     }
 
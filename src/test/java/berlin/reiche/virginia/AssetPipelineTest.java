@@ -0,0 +1,66 @@
+package berlin.reiche.virginia;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class AssetPipelineTest {
+
+    @Test
+    public void testMinifyCss() {
+
+        String css = "/* header */\n.alert a ,\ndiv :first-child {\n"
+                + "    color : #B94A48;\n    content: \"a  b\";\n}\n"
+                + "@media (max-width: 767px) {\n  a:hover { top: 0; }\n}\n";
+        assertEquals(".alert a,div :first-child{color :#B94A48;"
+                + "content:\"a  b\"}@media (max-width:767px){a:hover{top:0}}",
+                AssetPipeline.minifyCss(css));
+    }
+
+    @Test
+    public void testMinifyJs() {
+
+        String js = "/* header */\nvar a = 'b // c';\n\n  // comment\n"
+                + "var r = /\\/*[/]/g, d = a / 2; /* inline */ return a\n"
+                + "function f() { return /'/.test(a) }\n";
+        assertEquals("var a = 'b // c';\n"
+                + "var r = /\\/*[/]/g, d = a / 2;   return a\n"
+                + "function f() { return /'/.test(a) }\n",
+                AssetPipeline.minifyJs(js));
+    }
+
+    @Test
+    public void testResolve() {
+        assertEquals("img/icons.png",
+                AssetPipeline.resolve("css", "../img/icons.png"));
+        assertEquals("css/a.png", AssetPipeline.resolve("css", "./a.png"));
+        assertEquals("data:image/png",
+                AssetPipeline.resolve("css", "data:image/png"));
+    }
+
+    @Test
+    public void testPipeline() throws IOException {
+
+        AssetPipeline pipeline = new AssetPipeline(new File("site/resources"));
+        String url = pipeline.getUrl("css/bootstrap.css");
+        assertTrue(url.matches("/assets/css/bootstrap\\.[0-9a-f]{10}\\.css"));
+        assertEquals(url, pipeline.rewrite("/resources/css/bootstrap.css"));
+        assertEquals("/resources/server.properties",
+                pipeline.rewrite("/resources/server.properties"));
+        assertNull(pipeline.getByUrl("/assets/server.properties"));
+
+        AssetPipeline.Asset asset = pipeline.getByUrl(url);
+        assertNotNull(asset.getGzipped());
+        String css = new String(asset.getContent(), "UTF-8");
+        assertTrue(css.contains(pipeline.getUrl("img/glyphicons-halflings.png")));
+        assertFalse(css.contains("../img/"));
+    }
+
+}
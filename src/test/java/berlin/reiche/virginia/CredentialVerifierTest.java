@@ -0,0 +1,67 @@
+package berlin.reiche.virginia;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mindrot.jbcrypt.BCrypt;
+
+import berlin.reiche.virginia.model.User;
+
+public class CredentialVerifierTest {
+
+    Repository repository;
+    CredentialVerifier verifier;
+
+    @Before
+    public void setUp() {
+        repository = MongoDB.getRepository();
+        MongoDB.setRepository(new InMemoryRepository());
+        User.setLogRounds(4);
+        verifier = new CredentialVerifier(2, 60, 1, 4);
+    }
+
+    @After
+    public void tearDown() {
+        User.setLogRounds(User.DEFAULT_LOG_ROUNDS);
+        MongoDB.setRepository(repository);
+    }
+
+    @Test
+    public void testVerify() {
+
+        BCryptPassword credential = new BCryptPassword("ada",
+                BCrypt.hashpw("puwafu59", BCrypt.gensalt(4)));
+
+        assertFalse(verifier.verify("ada", "wrong", credential));
+        assertEquals(0, verifier.size());
+        assertTrue(verifier.verify("ada", "puwafu59", credential));
+        assertEquals(1, verifier.size());
+        assertTrue(verifier.verify("ada", "puwafu59", credential));
+        assertEquals(1, verifier.size());
+
+        // a changed hash does not match the remembered verification
+        credential.setHash(BCrypt.hashpw("secret", BCrypt.gensalt(4)));
+        assertFalse(verifier.verify("ada", "puwafu59", credential));
+    }
+
+    @Test
+    public void testRehash() {
+
+        String hash = BCrypt.hashpw("puwafu59", BCrypt.gensalt(5));
+        MongoDB.store(User.withPasswordHash("ada", hash, "Ada Lovelace",
+                "ada@lovelace.uk", false, true));
+        BCryptPassword credential = new BCryptPassword("ada", hash);
+
+        assertTrue(verifier.verify("ada", "puwafu59", credential));
+        assertEquals(4, CredentialVerifier.getLogRounds(credential.getHash()));
+
+        User ada = MongoDB.get(User.class, "ada");
+        assertEquals(credential.getHash(), ada.getPassword());
+        assertTrue(ada.checkPassword("puwafu59"));
+    }
+
+}
@@ -0,0 +1,121 @@
+package berlin.reiche.virginia;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.bson.types.ObjectId;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import berlin.reiche.virginia.model.Course;
+import berlin.reiche.virginia.model.CourseModule;
+import berlin.reiche.virginia.model.Room;
+
+public class EmbeddedRepositoryTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    File directory;
+    EmbeddedRepository repository;
+    CourseModule module;
+    Course lecture;
+
+    @Before
+    public void setUp() throws IOException {
+
+        directory = folder.newFolder("data");
+        repository = new EmbeddedRepository(directory);
+        module = new CourseModule("Advanced Algorithms", 8, "Exam", null);
+        lecture = new Course("Lecture", 2, 2);
+        module.getCourses().add(lecture);
+        lecture.setModule(module);
+
+        repository.store(module);
+        repository.store(lecture);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        repository.close();
+    }
+
+    @Test
+    public void testReopen() throws IOException {
+
+        repository.store(new Room("R1", "Room 1"));
+        module.setName("Algorithms");
+        repository.store(module);
+        repository.close();
+
+        repository = new EmbeddedRepository(directory);
+        CourseModule copy = repository.get(CourseModule.class, new ObjectId(
+                module.getId()));
+        assertEquals("Algorithms", copy.getName());
+        assertEquals(lecture, copy.getCourses().get(0));
+        assertEquals(1, repository.getAll(Room.class).size());
+    }
+
+    @Test
+    public void testReplayWithoutCheckpoint() throws IOException {
+
+        repository.checkpoint();
+        repository.delete(lecture);
+        repository.deleteAll(Room.class);
+        repository.store(new Room("R2", "Room 2"));
+
+        // simulates a crash, the index does not cover the last writes
+        repository = new EmbeddedRepository(directory);
+        assertTrue(repository.getAll(Course.class).isEmpty());
+        assertEquals("R2", repository.getAll(Room.class).get(0).getNumber());
+    }
+
+    @Test
+    public void testTornRecord() throws IOException {
+
+        Room room = new Room("R3", "Room 3");
+        repository.store(room);
+
+        File log = new File(directory, "data.log");
+        try (RandomAccessFile file = new RandomAccessFile(log, "rw")) {
+            file.setLength(file.length() - 3);
+        }
+
+        repository = new EmbeddedRepository(directory);
+        assertNull(repository.get(Room.class, room.getId()));
+        assertEquals(1, repository.getAll(CourseModule.class).size());
+
+        repository.store(room);
+        repository.close();
+        repository = new EmbeddedRepository(directory);
+        assertEquals(1, repository.getAll(Room.class).size());
+    }
+
+    @Test
+    public void testCompact() throws IOException {
+
+        for (int i = 0; i < 10; i++) {
+            module.setName("Algorithms " + i);
+            repository.store(module);
+        }
+
+        File log = new File(directory, "data.log");
+        long size = log.length();
+        repository.compact();
+        assertTrue(log.length() < size);
+
+        repository = new EmbeddedRepository(directory);
+        assertEquals("Algorithms 9", repository.getAll(CourseModule.class)
+                .get(0).getName());
+        assertEquals(1, repository.getAll(Course.class).size());
+    }
+
+}
@@ -0,0 +1,115 @@
+package berlin.reiche.virginia;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import berlin.reiche.virginia.model.Room;
+import berlin.reiche.virginia.model.User;
+
+public class EntityCacheTest {
+
+    EntityCache cache;
+
+    @Before
+    public void setUp() {
+        cache = new EntityCache(2, Room.class);
+    }
+
+    @Test
+    public void testReadThrough() {
+
+        Room room = new Room("SR 005", "Seminar Room");
+        assertTrue(cache.isCached(Room.class));
+        assertFalse(cache.isCached(User.class));
+
+        assertNull(cache.get(Room.class, "a"));
+        cache.put(Room.class, "a", room, cache.getGeneration(Room.class));
+        Room cached = cache.get(Room.class, "a");
+        assertNotSame(room, cached);
+        assertEquals("SR 005", cached.getNumber());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testPutEach() {
+
+        Room first = new Room("SR 005", "Seminar Room");
+        Room second = new Room("SR 006", "Seminar Room");
+        InMemoryRepository repository = new InMemoryRepository();
+        repository.store(first);
+        repository.store(second);
+
+        cache.putEach(Room.class, Arrays.asList(first, second),
+                cache.getGeneration(Room.class));
+        assertEquals("SR 005", cache.get(Room.class, first.getId())
+                .getNumber());
+        assertEquals("SR 006", cache.get(Room.class, second.getId())
+                .getNumber());
+    }
+
+    @Test
+    public void testCopies() {
+
+        Room room = new Room("SR 005", "Seminar Room");
+        room.getEquipment().put("Projector", 1);
+        cache.put(Room.class, "a", room, cache.getGeneration(Room.class));
+
+        // neither the loaded nor a cached copy changes the cached entity
+        room.setName("Lecture Hall");
+        Room edited = cache.get(Room.class, "a");
+        edited.setNumber("HS 001");
+        edited.getEquipment().put("Projector", 2);
+
+        Room cached = cache.get(Room.class, "a");
+        assertEquals("SR 005", cached.getNumber());
+        assertEquals("Seminar Room", cached.getName());
+        assertEquals(Integer.valueOf(1), cached.getEquipment().get("Projector"));
+    }
+
+    @Test
+    public void testEviction() {
+
+        long generation = cache.getGeneration(Room.class);
+        cache.put(Room.class, "a", new Room("1", "A"), generation);
+        cache.put(Room.class, "b", new Room("2", "B"), generation);
+        cache.get(Room.class, "a");
+        cache.put(Room.class, "c", new Room("3", "C"), generation);
+
+        assertEquals(2, cache.getSize());
+        assertEquals(1, cache.getEvictions());
+        assertNull(cache.get(Room.class, "b"));
+    }
+
+    @Test
+    public void testInvalidation() {
+
+        List<Room> rooms = new ArrayList<>();
+        rooms.add(new Room("1", "A"));
+
+        long generation = cache.getGeneration(Room.class);
+        cache.putAll(Room.class, rooms, generation);
+        cache.getAll(Room.class).clear();
+        cache.getAll(Room.class).get(0).setName("B");
+        assertEquals(1, cache.getAll(Room.class).size());
+        assertEquals("A", cache.getAll(Room.class).get(0).getName());
+
+        cache.invalidate(Room.class);
+        assertNull(cache.getAll(Room.class));
+
+        // a value loaded before the invalidation must not be cached
+        cache.putAll(Room.class, rooms, generation);
+        assertNull(cache.getAll(Room.class));
+    }
+
+}
@@ -0,0 +1,148 @@
+package berlin.reiche.virginia;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.bson.types.ObjectId;
+import org.junit.Before;
+import org.junit.Test;
+
+import berlin.reiche.virginia.model.Course;
+import berlin.reiche.virginia.model.CourseLecturers;
+import berlin.reiche.virginia.model.CourseModule;
+import berlin.reiche.virginia.model.Room;
+
+public class InMemoryRepositoryTest {
+
+    InMemoryRepository repository;
+    CourseModule module;
+    Course lecture;
+    Course tutorial;
+
+    @Before
+    public void setUp() {
+
+        repository = new InMemoryRepository();
+        module = new CourseModule("Advanced Algorithms", 8, "Exam", null);
+        lecture = new Course("Lecture", 2, 2);
+        tutorial = new Course("Tutorial", 1, 2);
+        lecture.getEquipment().put("Projector", 1);
+        module.getCourses().add(lecture);
+        module.getCourses().add(tutorial);
+        lecture.setModule(module);
+        tutorial.setModule(module);
+
+        repository.store(module);
+        repository.store(lecture);
+        repository.store(tutorial);
+    }
+
+    @Test
+    public void testCopyOnRead() {
+
+        ObjectId id = new ObjectId(module.getId());
+        CourseModule copy = repository.get(CourseModule.class, id);
+        assertNotSame(module, copy);
+        assertEquals(module.getName(), copy.getName());
+        assertEquals(2, copy.getCourses().size());
+
+        // references are resolved and shared within one read
+        Course course = copy.getCourses().get(0);
+        assertEquals(lecture, course);
+        assertSame(copy, course.getModule());
+        assertEquals(1, (int) course.getEquipment().get("Projector"));
+
+        copy.setName("Algorithms");
+        assertEquals("Advanced Algorithms",
+                repository.get(CourseModule.class, id).getName());
+    }
+
+    @Test
+    public void testFind() {
+
+        List<Course> courses = repository.find(Course.class, "module", module);
+        assertEquals(2, courses.size());
+        assertEquals(1, repository.find(Course.class, "type", "Lecture")
+                .size());
+
+        repository.delete(lecture);
+        assertEquals(1, repository.find(Course.class, "module", module)
+                .size());
+        assertTrue(repository.find(Course.class, "type", "Lecture").isEmpty());
+    }
+
+    @Test
+    public void testPage() {
+
+        for (int i = 0; i < 5; i++) {
+            repository.store(new Room("R" + i, "Room " + i));
+        }
+
+        Page<Room> first = repository.getPage(Room.class, null, 3, "number");
+        assertEquals(3, first.getItems().size());
+        assertTrue(first.hasNext());
+        assertNull(first.getItems().get(0).getName());
+        assertNotNull(first.getItems().get(0).getNumber());
+
+        Page<Room> second = repository.getPage(Room.class, new ObjectId(
+                first.getNext()), 3);
+        assertEquals(2, second.getItems().size());
+        assertFalse(second.hasNext());
+    }
+
+    @Test
+    public void testBatch() {
+
+        Course seminar = new Course("Seminar", 2, 1);
+        seminar.setModule(module);
+        module.getCourses().add(seminar);
+        repository.storeAll(Arrays.<Object> asList(module, seminar));
+        assertEquals(3, repository.find(Course.class, "module", module)
+                .size());
+
+        repository.deleteAll(Course.class,
+                Arrays.asList(lecture.getId(), seminar.getId()));
+        List<Course> courses = repository.getAll(Course.class);
+        assertEquals(1, courses.size());
+        assertEquals(tutorial, courses.get(0));
+    }
+
+    @Test
+    public void testGetAllByIds() {
+
+        List<Course> courses = repository.getAll(Course.class, Arrays.asList(
+                tutorial.getId(), new ObjectId(), lecture.getId()));
+        assertEquals(Arrays.asList(tutorial, lecture), courses);
+        assertTrue(repository.getAll(Room.class,
+                Arrays.asList(new ObjectId())).isEmpty());
+    }
+
+    @Test
+    public void testAddToSetAndPull() {
+
+        ObjectId id = lecture.getId();
+        repository.addToSet(CourseLecturers.class, id, "logins", "ada");
+        repository.addToSet(CourseLecturers.class, id, "logins", "charles");
+        repository.addToSet(CourseLecturers.class, id, "logins", "ada");
+        CourseLecturers entry = repository.get(CourseLecturers.class, id);
+        assertEquals(2, entry.getLogins().size());
+        assertEquals(1, repository.find(CourseLecturers.class, "logins",
+                "charles").size());
+
+        repository.pull(CourseLecturers.class,
+                Arrays.asList(id, new ObjectId()), "logins", "ada");
+        entry = repository.get(CourseLecturers.class, id);
+        assertEquals(1, entry.getLogins().size());
+        assertTrue(entry.getLogins().contains("charles"));
+        assertNull(repository.get(CourseLecturers.class, new ObjectId()));
+    }
+
+}
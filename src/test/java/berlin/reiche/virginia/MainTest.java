@@ -28,4 +28,22 @@ public class MainTest {
             fail();
         }
     }
+
+    /**
+     * Tests whether the admin fingerprint changes with each credential.
+     */
+    @Test
+    public void testFingerprint() {
+
+        String fingerprint = Main.getFingerprint("admin", "admin", "$2a$12$x");
+        assertEquals(64, fingerprint.length());
+        assertEquals(fingerprint, Main.getFingerprint("admin", "admin",
+                "$2a$12$x"));
+        assertFalse(fingerprint.equals(Main.getFingerprint("admin", "admin",
+                "$2a$12$y")));
+        assertFalse(fingerprint.equals(Main.getFingerprint("admin", "secret",
+                "$2a$12$x")));
+        assertFalse(fingerprint.equals(Main.getFingerprint("admina", "dmin",
+                "$2a$12$x")));
+    }
 }
@@ -10,7 +10,7 @@ public class MongoDBTest {
 
     @Test
     public void setUp() {
-        assertNotSame(null, MongoDB.getDatastore());
+        assertNotSame(null, MongoDB.getRepository());
         assertTrue(MongoDB.isConnected());
     }
 }
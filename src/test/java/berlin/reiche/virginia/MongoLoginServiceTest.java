@@ -0,0 +1,87 @@
+package berlin.reiche.virginia;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.eclipse.jetty.server.UserIdentity;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import berlin.reiche.virginia.model.User;
+
+public class MongoLoginServiceTest {
+
+    Repository repository;
+    MongoLoginService service = MongoLoginService.getInstance();
+
+    @Before
+    public void setUp() {
+        repository = MongoDB.getRepository();
+        MongoDB.setRepository(new InMemoryRepository());
+        User.setLogRounds(4);
+        service.clear();
+        MongoDB.store(new User("ada", "puwafu59", "Ada Lovelace",
+                "ada@lovelace.uk", false, true));
+    }
+
+    @After
+    public void tearDown() {
+        service.clear();
+        service.setCacheSize(MongoLoginService.DEFAULT_CACHE_SIZE);
+        User.setLogRounds(User.DEFAULT_LOG_ROUNDS);
+        MongoDB.setRepository(repository);
+    }
+
+    @Test
+    public void testLogin() {
+
+        assertNull(service.login("ada", "wrong"));
+        UserIdentity identity = service.login("ada", "puwafu59");
+        assertNotNull(identity);
+        assertEquals("ada", identity.getUserPrincipal().getName());
+        assertTrue(identity.isUserInRole(User.ROLES[0], null));
+        assertTrue(service.validate(identity));
+        assertEquals(1, service.size());
+    }
+
+    @Test
+    public void testUnknownLogin() {
+
+        assertNull(service.login("babbage", "puwafu59"));
+        assertEquals(1, service.size());
+
+        // the unknown login is cached until the user is stored
+        MongoDB.store(new User("babbage", "puwafu59", "Charles Babbage",
+                "charles@babbage.uk", false, true));
+        assertNull(service.login("babbage", "puwafu59"));
+        service.invalidate("babbage");
+        assertNotNull(service.login("babbage", "puwafu59"));
+    }
+
+    @Test
+    public void testInvalidate() {
+
+        UserIdentity identity = service.login("ada", "puwafu59");
+        MongoDB.delete(User.class, "ada");
+        assertTrue(service.validate(identity));
+
+        service.invalidate("ada");
+        assertFalse(service.validate(identity));
+        assertNull(service.login("ada", "puwafu59"));
+    }
+
+    @Test
+    public void testCacheSize() {
+
+        service.setCacheSize(2);
+        service.login("ada", "puwafu59");
+        service.login("babbage", "x");
+        service.login("turing", "x");
+        assertEquals(2, service.size());
+    }
+
+}
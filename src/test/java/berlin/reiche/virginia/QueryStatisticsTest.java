@@ -0,0 +1,58 @@
+package berlin.reiche.virginia;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import berlin.reiche.virginia.QueryStatistics.Shape;
+
+public class QueryStatisticsTest {
+
+    @Test
+    public void testRecord() {
+
+        QueryStatistics statistics = new QueryStatistics();
+        statistics.setSlowMillis(10);
+        long fast = TimeUnit.MILLISECONDS.toNanos(2);
+        long slow = TimeUnit.MILLISECONDS.toNanos(20);
+
+        assertFalse(statistics.record("user {lecturer}", fast, 3));
+        assertTrue(statistics.record("user {lecturer}", slow, 5));
+        assertFalse(statistics.record("room {_id}", fast, 1));
+
+        List<Shape> shapes = statistics.getShapes();
+        assertEquals(2, shapes.size());
+
+        Shape shape = shapes.get(0);
+        assertEquals("user {lecturer}", shape.getName());
+        assertEquals(2, shape.getCount());
+        assertEquals(1, shape.getSlowCount());
+        assertEquals(20.0, shape.getMaxMillis(), 0.001);
+        assertEquals(4.0, shape.getAverageDocuments(), 0.001);
+    }
+
+    @Test
+    public void testCollectionScan() {
+
+        QueryStatistics statistics = new QueryStatistics();
+        assertFalse(statistics.isExplained("user {lecturer}"));
+
+        assertTrue(statistics.setExplained("user {lecturer}"));
+        assertFalse(statistics.setExplained("user {lecturer}"));
+        statistics.markCollectionScan("user {lecturer}", "{lecturer: 1}");
+        assertTrue(statistics.isExplained("user {lecturer}"));
+
+        Shape shape = statistics.getShapes().get(0);
+        assertTrue(shape.isCollectionScan());
+        assertEquals("{lecturer: 1}", shape.getSuggestedIndex());
+
+        statistics.markIndexed("user {lecturer}");
+        assertFalse(shape.isCollectionScan());
+    }
+
+}
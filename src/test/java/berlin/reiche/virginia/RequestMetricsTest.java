@@ -0,0 +1,86 @@
+package berlin.reiche.virginia;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import berlin.reiche.virginia.RequestMetrics.Route;
+
+public class RequestMetricsTest {
+
+    @Test
+    public void testRecord() {
+
+        RequestMetrics metrics = new RequestMetrics();
+        metrics.record("/modules/edit/{id}", 200,
+                TimeUnit.MILLISECONDS.toNanos(3), 1000);
+        metrics.record("/modules/edit/{id}", 302,
+                TimeUnit.SECONDS.toNanos(20), -1);
+        metrics.record("/login", 200, TimeUnit.MILLISECONDS.toNanos(30), 500);
+
+        List<Route> routes = metrics.getRoutes();
+        assertEquals(2, routes.size());
+
+        Route route = routes.get(1);
+        assertEquals("/modules/edit/{id}", route.name);
+        assertEquals(2, route.getCount());
+        assertEquals(1, route.buckets.get(0));
+        assertEquals(1, route.buckets.get(RequestMetrics.BUCKETS.length));
+        assertEquals(1000, route.bytes.get());
+        assertEquals(1, route.statuses.get(302).get());
+    }
+
+    @Test
+    public void testMaxRoutes() {
+
+        RequestMetrics metrics = new RequestMetrics();
+        for (int i = 0; i < RequestMetrics.MAX_ROUTES + 10; i++) {
+            metrics.record("/" + i, 200, 1, 1);
+        }
+        List<Route> routes = metrics.getRoutes();
+        assertEquals(RequestMetrics.MAX_ROUTES + 1, routes.size());
+    }
+
+    @Test
+    public void testWrite() throws IOException {
+
+        RequestMetrics metrics = new RequestMetrics();
+        metrics.record("/rooms", 200, TimeUnit.MILLISECONDS.toNanos(20), 42);
+        metrics.recordAdmission("solver", "admitted");
+        metrics.recordAdmission("solver", "user_rate_limited");
+        metrics.recordAdmission("solver", "user_rate_limited");
+
+        StringWriter writer = new StringWriter();
+        metrics.write(writer);
+        String text = writer.toString();
+
+        assertTrue(text.contains("# TYPE http_request_duration_seconds histogram\n"));
+        assertTrue(text.contains("http_request_duration_seconds_bucket"
+                + "{route=\"/rooms\",le=\"0.01\"} 0\n"));
+        assertTrue(text.contains("http_request_duration_seconds_bucket"
+                + "{route=\"/rooms\",le=\"0.025\"} 1\n"));
+        assertTrue(text.contains("http_request_duration_seconds_bucket"
+                + "{route=\"/rooms\",le=\"+Inf\"} 1\n"));
+        assertTrue(text.contains("http_request_duration_seconds_count"
+                + "{route=\"/rooms\"} 1\n"));
+        assertTrue(text.contains("http_requests_total"
+                + "{route=\"/rooms\",status=\"200\"} 1\n"));
+        assertTrue(text.contains("http_response_bytes_total"
+                + "{route=\"/rooms\"} 42\n"));
+        assertTrue(text.contains("http_admission_total"
+                + "{rule=\"solver\",outcome=\"user_rate_limited\"} 2\n"));
+        assertEquals(1, metrics.getAdmissions("solver", "admitted"));
+    }
+
+    @Test
+    public void testEscape() {
+        assertEquals("a\\\"b\\\\c\\n", RequestMetrics.escape("a\"b\\c\n"));
+    }
+
+}
@@ -0,0 +1,113 @@
+package berlin.reiche.virginia;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+import org.bson.types.ObjectId;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import berlin.reiche.virginia.model.Course;
+import berlin.reiche.virginia.model.CourseModule;
+import berlin.reiche.virginia.model.User;
+
+public class ResponsibilityIndexTest {
+
+    Repository repository;
+    CourseModule module;
+    Course lecture;
+    Course tutorial;
+    User ada;
+    User charles;
+
+    @Before
+    public void setUp() {
+
+        repository = MongoDB.getRepository();
+        MongoDB.setRepository(new InMemoryRepository());
+
+        module = new CourseModule("Advanced Algorithms", 8, "Exam", null);
+        lecture = new Course("Lecture", 2, 2);
+        tutorial = new Course("Tutorial", 1, 2);
+        module.getCourses().addAll(Arrays.asList(lecture, tutorial));
+        lecture.setModule(module);
+        tutorial.setModule(module);
+        MongoDB.storeAll(Arrays.<Object> asList(module, lecture, tutorial));
+
+        ada = new User("ada", "puwafu59", "Ada Lovelace", "ada@lovelace.uk",
+                false, true);
+        charles = new User("charles", "puwafu59", "Charles Babbage",
+                "charles@babbage.uk", false, true);
+        MongoDB.storeAll(Arrays.asList(ada, charles));
+    }
+
+    @After
+    public void tearDown() {
+        MongoDB.setRepository(repository);
+    }
+
+    @Test
+    public void testSetResponsibilities() {
+
+        ResponsibilityIndex.setResponsibilities(ada,
+                Arrays.asList(lecture, tutorial));
+        ResponsibilityIndex.setResponsibilities(charles,
+                Arrays.asList(lecture));
+        assertEquals(2, ResponsibilityIndex.getLecturers(lecture).size());
+
+        ResponsibilityIndex.setResponsibilities(ada, Arrays.asList(lecture));
+        Map<ObjectId, Set<String>> lecturers = ResponsibilityIndex
+                .getLecturers(module.getCourses());
+        assertEquals(1, lecturers.size());
+        assertTrue(lecturers.get(lecture.getId()).contains("ada"));
+        assertEquals(1, MongoDB.get(User.class, "ada").getResponsibleCourses()
+                .size());
+    }
+
+    @Test
+    public void testRemoveCourses() {
+
+        ResponsibilityIndex.setResponsibilities(ada,
+                Arrays.asList(lecture, tutorial));
+        ResponsibilityIndex.removeCourses(Collections.singletonList(lecture));
+
+        assertTrue(ResponsibilityIndex.getLecturers(lecture).isEmpty());
+        assertEquals(Arrays.asList(tutorial),
+                MongoDB.get(User.class, "ada").getResponsibleCourses());
+    }
+
+    @Test
+    public void testRenameUser() {
+
+        ResponsibilityIndex.setResponsibilities(ada,
+                Arrays.asList(lecture, tutorial));
+        ada.setLogin("countess");
+        MongoDB.store(ada);
+        ResponsibilityIndex.renameUser(ada, "ada");
+        MongoDB.delete(User.class, "ada");
+
+        assertEquals(Collections.singleton("countess"),
+                ResponsibilityIndex.getLecturers(lecture));
+        ResponsibilityIndex.removeCourses(Collections.singletonList(lecture));
+        assertEquals(Arrays.asList(tutorial),
+                MongoDB.get(User.class, "countess").getResponsibleCourses());
+    }
+
+    @Test
+    public void testRemoveUser() {
+
+        ResponsibilityIndex.setResponsibilities(charles,
+                Arrays.asList(tutorial));
+        ResponsibilityIndex.removeUser(charles);
+        assertFalse(ResponsibilityIndex.getLecturers(tutorial).contains(
+                "charles"));
+    }
+
+}
@@ -0,0 +1,53 @@
+package berlin.reiche.virginia;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class TokenBucketTest {
+
+    @Test
+    public void testTryAcquire() {
+
+        long second = TimeUnit.SECONDS.toNanos(1);
+        TokenBucket bucket = new TokenBucket(6, 2, 0);
+        assertTrue(bucket.isFull(0));
+
+        // the burst is used up
+        assertEquals(0, bucket.tryAcquire(0));
+        assertEquals(0, bucket.tryAcquire(0));
+        assertEquals(10 * second, bucket.tryAcquire(0));
+        assertEquals(4 * second, bucket.tryAcquire(6 * second));
+
+        // one token every ten seconds
+        assertEquals(0, bucket.tryAcquire(10 * second));
+        assertFalse(bucket.isFull(10 * second));
+        assertTrue(bucket.isFull(30 * second));
+        assertEquals(0, bucket.tryAcquire(60 * second));
+        assertEquals(0, bucket.tryAcquire(60 * second));
+        assertTrue(bucket.tryAcquire(60 * second) > 0);
+    }
+
+    @Test
+    public void testRelease() {
+
+        TokenBucket bucket = new TokenBucket(1, 1, 0);
+        assertEquals(0, bucket.tryAcquire(0));
+        assertTrue(bucket.tryAcquire(0) > 0);
+        bucket.release();
+        assertTrue(bucket.isFull(0));
+        bucket.release();
+        assertEquals(0, bucket.tryAcquire(0));
+        assertTrue(bucket.tryAcquire(0) > 0);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testInvalidRate() {
+        new TokenBucket(0, 1, 0);
+    }
+
+}
@@ -0,0 +1,169 @@
+package berlin.reiche.virginia.importer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import berlin.reiche.virginia.InMemoryRepository;
+import berlin.reiche.virginia.MongoDB;
+import berlin.reiche.virginia.Repository;
+import berlin.reiche.virginia.model.Course;
+import berlin.reiche.virginia.model.CourseModule;
+import berlin.reiche.virginia.model.Room;
+import berlin.reiche.virginia.model.User;
+
+public class ImporterTest {
+
+    Repository repository;
+    ExecutorService pool;
+
+    @Before
+    public void setUp() {
+        repository = MongoDB.getRepository();
+        MongoDB.setRepository(new InMemoryRepository());
+        pool = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdown();
+        MongoDB.setRepository(repository);
+    }
+
+    @Test
+    public void testCsvReader() throws IOException {
+
+        RecordReader reader = new CsvRecordReader(new StringReader(
+                "number,name\r\n\"SR 005\",\"Seminar \"\"A\"\"\"\r\n\r\n"
+                        + "HS 1,\"Lecture\nHall\"\n"));
+
+        Map<String, Object> record = reader.next();
+        assertEquals("SR 005", record.get("number"));
+        assertEquals("Seminar \"A\"", record.get("name"));
+        assertEquals(2, reader.getLine());
+
+        record = reader.next();
+        assertEquals("Lecture\nHall", record.get("name"));
+        assertEquals(4, reader.getLine());
+        assertNull(reader.next());
+    }
+
+    @Test
+    public void testJsonReader() throws IOException {
+
+        RecordReader reader = new JsonRecordReader(new StringReader(
+                "[{\"name\": \"Algorithms\", \"credits\": 8,\n"
+                        + "\"courses\": [{\"type\": \"Lecture\"}]},\n"
+                        + "{\"name\": \"Caf\\u00e9\", \"ok\": true}]"));
+
+        Map<String, Object> record = reader.next();
+        assertEquals(Long.valueOf(8), record.get("credits"));
+        assertEquals(1, ((List<?>) record.get("courses")).size());
+
+        record = reader.next();
+        assertEquals("Caf\u00e9", record.get("name"));
+        assertEquals(Boolean.TRUE, record.get("ok"));
+        assertEquals(3, reader.getLine());
+        assertNull(reader.next());
+
+        reader = new JsonRecordReader(new StringReader(
+                "{\"number\": \"1\"}\n{\"number\": \"2\"}\n"));
+        assertEquals("1", reader.next().get("number"));
+        assertEquals("2", reader.next().get("number"));
+        assertNull(reader.next());
+    }
+
+    @Test
+    public void testImportRooms() throws IOException {
+
+        String csv = "number,name,equipment\n"
+                + "SR 005,Seminar Room,Projector:1;Whiteboard:2\n"
+                + ",Missing Number,\n" + "HS 1,Lecture Hall,Projector:x\n"
+                + "HS 2,Lecture Hall,\n";
+
+        Importer.Result result = new Importer(2, pool).run(
+                Importer.Kind.ROOMS, new CsvRecordReader(new StringReader(csv)));
+
+        assertEquals(2, result.getImported());
+        assertEquals(2, result.getRejected());
+        assertTrue(result.getErrors().get(0).startsWith("Line 3:"));
+
+        List<Room> rooms = MongoDB.getAll(Room.class);
+        assertEquals(2, rooms.size());
+        for (Room room : rooms) {
+            if (room.getNumber().equals("SR 005")) {
+                assertEquals(Integer.valueOf(2),
+                        room.getEquipment().get("Whiteboard"));
+            }
+        }
+    }
+
+    @Test
+    public void testImportModules() throws IOException {
+
+        String csv = "name,credits,assessment,type,duration,count\n"
+                + "Algorithms,8,Exam,Lecture,2,1\n"
+                + "Algorithms,8,Exam,Tutorial,1,2\n"
+                + "Databases,6,Exam,Lecture,2,1\n";
+
+        Importer.Result result = new Importer(1, pool).run(
+                Importer.Kind.MODULES, new CsvRecordReader(new StringReader(
+                        csv)));
+
+        assertEquals(2, result.getImported());
+        assertEquals(2, MongoDB.getAll(CourseModule.class).size());
+        List<Course> courses = MongoDB.getAll(Course.class);
+        assertEquals(3, courses.size());
+        for (Course course : courses) {
+            assertTrue(course.getModule() != null);
+        }
+    }
+
+    @Test
+    public void testImportUsers() throws IOException {
+
+        String hash = User.hashPassword("puwafu59");
+        MongoDB.store(User.withPasswordHash("ada", hash, "Ada Lovelace",
+                "ada@lovelace.uk", false, true));
+
+        String json = "{\"login\": \"charles\", \"passwordHash\": \"" + hash
+                + "\", \"name\": \"Charles Babbage\", \"lecturer\": true}\n"
+                + "{\"login\": \"alan\", \"password\": \"$2a$x\"}\n"
+                + "{\"login\": \"ada\", \"password\": \"" + hash + "\"}\n"
+                + "{\"login\": \"charles\", \"password\": \"" + hash + "\"}\n"
+                + "{\"login\": \"alan turing\", \"password\": \"x\"}\n"
+                + "{\"login\": \"grace\", \"passwordHash\": \"$2a$x\"}\n"
+                + "{\"login\": \"konrad\", \"password\": \"x\","
+                + " \"passwordHash\": \"" + hash + "\"}\n"
+                + "{\"login\": \"hopper\", \"passwordHash\": \""
+                + hash.replaceFirst("\\$[0-9]{2}\\$", "\\$31\\$") + "\"}\n";
+
+        Importer.Result result = new Importer(10, pool).run(
+                Importer.Kind.USERS, new JsonRecordReader(new StringReader(
+                        json)));
+
+        assertEquals(2, result.getImported());
+        assertEquals(6, result.getRejected());
+        assertTrue(result.getErrors().get(5).contains("log rounds"));
+
+        User charles = MongoDB.get(User.class, "charles");
+        assertTrue(charles.isLecturer());
+        assertTrue(charles.checkPassword("puwafu59"));
+
+        // a password looking like a hash is hashed like any other
+        User alan = MongoDB.get(User.class, "alan");
+        assertTrue(alan.checkPassword("$2a$x"));
+    }
+
+}
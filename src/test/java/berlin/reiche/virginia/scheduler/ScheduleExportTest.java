@@ -0,0 +1,141 @@
+package berlin.reiche.virginia.scheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.TimeZone;
+
+import org.bson.types.ObjectId;
+import org.junit.Before;
+import org.junit.Test;
+
+import berlin.reiche.virginia.model.Course;
+import berlin.reiche.virginia.model.CourseModule;
+import berlin.reiche.virginia.model.Room;
+import berlin.reiche.virginia.model.Timeframe;
+import berlin.reiche.virginia.model.User;
+
+public class ScheduleExportTest {
+
+    CourseSchedule schedule;
+    CourseModule module;
+    User ada;
+
+    @Before
+    public void setUp() {
+
+        Timeframe timeframe = new Timeframe(5, 12, 8, Arrays.asList("Monday",
+                "Tuesday", "Wednesday", "Thursday", "Friday"));
+        Room room = new Room("SR 005", "Seminar Room");
+        schedule = new CourseSchedule(timeframe, Arrays.asList(room));
+
+        module = new CourseModule("Algorithms, Advanced", 8, "Exam", null);
+        module.setId(new ObjectId());
+        Course lecture = new Course("Lecture", 2, 1);
+        Course tutorial = new Course("Tutorial", 1, 1);
+        lecture.setModule(module);
+        tutorial.setModule(module);
+
+        User charles = new User("charles", "puwafu59", "Charles Babbage",
+                "charles@babbage.uk", false, true);
+        ada = new User("ada", "puwafu59", "Ada Lovelace",
+                "ada@lovelace.uk", false, true);
+        schedule.setCourse(lecture, charles, room, 0, 0);
+        schedule.setCourse(tutorial, ada, room, 1, 3);
+    }
+
+    @Test
+    public void testCalendar() throws IOException {
+
+        StringWriter writer = new StringWriter();
+        new ScheduleExport(null, "charles", null).write(schedule,
+                ScheduleExport.Format.ICS, writer);
+
+        String calendar = writer.toString();
+        assertTrue(calendar.startsWith("BEGIN:VCALENDAR\r\n"));
+        assertTrue(calendar.endsWith("END:VCALENDAR\r\n"));
+        assertEquals(1, calendar.split("BEGIN:VEVENT").length - 1);
+        assertTrue(calendar.contains("SUMMARY:Algorithms\\, Advanced Lecture"));
+        assertTrue(calendar.contains("T080000\r\n"));
+        assertTrue(calendar.contains("T100000\r\n"));
+    }
+
+    @Test
+    public void testTimeZone() throws IOException {
+
+        StringWriter writer = new StringWriter();
+        new ScheduleExport(null, "charles", null,
+                TimeZone.getTimeZone("Europe/Berlin")).write(schedule,
+                ScheduleExport.Format.ICS, writer);
+
+        String calendar = writer.toString();
+        assertTrue(calendar.contains("TZID:Europe/Berlin\r\n"));
+        assertTrue(calendar.contains("BEGIN:DAYLIGHT\r\n"));
+        assertTrue(calendar
+                .contains("RRULE:FREQ=YEARLY;BYMONTH=3;BYDAY=-1SU\r\n"
+                        + "TZOFFSETFROM:+0100\r\nTZOFFSETTO:+0200\r\n"));
+        assertTrue(calendar
+                .contains("RRULE:FREQ=YEARLY;BYMONTH=10;BYDAY=-1SU\r\n"
+                        + "TZOFFSETFROM:+0200\r\nTZOFFSETTO:+0100\r\n"));
+        assertTrue(calendar.contains("DTSTART;TZID=Europe/Berlin:"));
+    }
+
+    @Test
+    public void testLines() throws IOException {
+
+        StringBuilder name = new StringBuilder("Ada\r\nLovelace\r");
+        for (int i = 0; i < 40; i++) {
+            name.append("\u00e4\u20ac");
+        }
+        ada.setName(name.toString());
+
+        StringWriter writer = new StringWriter();
+        new ScheduleExport(null, "ada", null).write(schedule,
+                ScheduleExport.Format.ICS, writer);
+
+        String calendar = writer.toString();
+        assertFalse(calendar.replace("\r\n", "").contains("\r"));
+        assertTrue(calendar.contains("DESCRIPTION:Ada\\nLovelace\\n"));
+        for (String line : calendar.split("\r\n")) {
+            assertTrue(line.getBytes(StandardCharsets.UTF_8).length <= 75);
+        }
+    }
+
+    @Test
+    public void testCsv() throws IOException {
+
+        StringWriter writer = new StringWriter();
+        new ScheduleExport(null, null, module.getId()).write(schedule,
+                ScheduleExport.Format.CSV, writer);
+
+        String[] lines = writer.toString().split("\r\n");
+        assertEquals(3, lines.length);
+        assertEquals("\"Algorithms, Advanced\",Tutorial,Ada Lovelace,"
+                + "SR 005 (Seminar Room),1,Tuesday,11:00,12:00", lines[2]);
+
+        writer = new StringWriter();
+        new ScheduleExport(null, null, new ObjectId().toString()).write(
+                schedule, ScheduleExport.Format.CSV, writer);
+        assertEquals(1, writer.toString().split("\r\n").length);
+    }
+
+    @Test
+    public void testJson() throws IOException {
+
+        StringWriter writer = new StringWriter();
+        new ScheduleExport(null, "ada", null).write(schedule,
+                ScheduleExport.Format.JSON, writer);
+
+        String json = writer.toString();
+        assertTrue(json.startsWith("{\"timeframe\":{\"days\":5,"));
+        assertTrue(json.contains("\"lecturer\":\"ada\""));
+        assertTrue(json.contains("\"weekday\":\"Tuesday\",\"timeSlot\":3"));
+        assertTrue(json.endsWith("}]}"));
+    }
+
+}
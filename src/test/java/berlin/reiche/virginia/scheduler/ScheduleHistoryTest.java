@@ -0,0 +1,160 @@
+package berlin.reiche.virginia.scheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import berlin.reiche.virginia.InMemoryRepository;
+import berlin.reiche.virginia.MongoDB;
+import berlin.reiche.virginia.Repository;
+import berlin.reiche.virginia.model.Course;
+import berlin.reiche.virginia.model.Room;
+import berlin.reiche.virginia.model.ScheduleEntry;
+import berlin.reiche.virginia.model.User;
+
+public class ScheduleHistoryTest {
+
+    Repository repository;
+    ScheduleHistory history;
+    User lecturer;
+    Room seminarRoom;
+    Room lectureHall;
+    Course lecture;
+    Course tutorial;
+    Course seminar;
+
+    @Before
+    public void setUp() {
+
+        repository = MongoDB.getRepository();
+        MongoDB.setRepository(new InMemoryRepository());
+        history = new ScheduleHistory(2);
+
+        lecturer = new User("charles", "puwafu59", "Charles Babbage",
+                "charles@babbage.uk", false, true);
+        seminarRoom = new Room("SR 005", "Seminar Room");
+        lectureHall = new Room("HS 001", "Lecture Hall");
+        MongoDB.storeAll(Arrays.asList(seminarRoom, lectureHall));
+        lecture = new Course("Lecture", 2, 1);
+        tutorial = new Course("Tutorial", 1, 1);
+        seminar = new Course("Seminar", 1, 1);
+    }
+
+    @After
+    public void tearDown() {
+        MongoDB.setRepository(repository);
+    }
+
+    @Test
+    public void testHistory() {
+
+        List<ScheduleEntry> entries = new ArrayList<>();
+        entries.add(new ScheduleEntry(lecture, lecturer, seminarRoom, 0, 0));
+        entries.add(new ScheduleEntry(tutorial, lecturer, seminarRoom, 0, 2));
+        assertEquals(1, history.record(entries));
+        Set<Placement> first = placements(entries);
+
+        // move the lecture
+        entries.set(0, new ScheduleEntry(lecture, lecturer, lectureHall, 1, 0));
+        assertEquals(2, history.record(entries));
+        assertEquals(2, history.record(entries));
+
+        // replace the tutorial by the seminar
+        entries.set(1, new ScheduleEntry(seminar, lecturer, seminarRoom, 0, 2));
+        assertEquals(3, history.record(entries));
+        Set<Placement> third = placements(entries);
+
+        assertEquals(first, history.getVersion(1));
+        assertEquals(third, history.getVersion(3));
+
+        List<ScheduleChange> changes = history.diff(1, 3);
+        assertEquals(3, changes.size());
+        Set<ScheduleChange.Type> types = new HashSet<>();
+        for (ScheduleChange change : changes) {
+            types.add(change.getType());
+        }
+        assertEquals(new HashSet<>(Arrays.asList(ScheduleChange.Type.values())),
+                types);
+
+        Set<Placement> reverted = new HashSet<>(third);
+        for (ScheduleChange change : history.diff(3, 1)) {
+            if (change.getFrom() != null) {
+                assertTrue(reverted.remove(change.getFrom()));
+            }
+            if (change.getTo() != null) {
+                reverted.add(change.getTo());
+            }
+        }
+        assertEquals(first, reverted);
+
+        assertEquals(4, history.record(Collections.<ScheduleEntry> emptyList()));
+        assertTrue(history.getVersion(4).isEmpty());
+    }
+
+    @Test
+    public void testReload() {
+
+        List<ScheduleEntry> entries = new ArrayList<>();
+        entries.add(new ScheduleEntry(lecture, lecturer, seminarRoom, 0, 0));
+        history.record(entries);
+        entries.add(new ScheduleEntry(tutorial, lecturer, seminarRoom, 0, 2));
+        history.record(entries);
+
+        ScheduleHistory reloaded = new ScheduleHistory(2);
+        assertEquals(2, reloaded.getLatestVersion());
+        assertEquals(2, reloaded.record(entries));
+    }
+
+    @Test
+    public void testListener() {
+
+        final List<Integer> versions = new ArrayList<>();
+        final List<List<ScheduleChange>> recorded = new ArrayList<>();
+        ScheduleHistory.Listener listener = new ScheduleHistory.Listener() {
+            @Override
+            public void versionRecorded(int version,
+                    List<ScheduleChange> changes,
+                    Collection<ScheduleEntry> entries) {
+                versions.add(version);
+                recorded.add(changes);
+            }
+        };
+        history.addListener(listener);
+
+        List<ScheduleEntry> entries = new ArrayList<>();
+        entries.add(new ScheduleEntry(lecture, lecturer, seminarRoom, 0, 0));
+        history.record(entries);
+        history.record(entries);
+        entries.set(0, new ScheduleEntry(lecture, lecturer, lectureHall, 1, 0));
+        history.record(entries);
+        history.removeListener(listener);
+        history.record(Collections.<ScheduleEntry> emptyList());
+
+        // an unchanged schedule is no new version
+        assertEquals(Arrays.asList(1, 2), versions);
+        assertEquals(1, recorded.get(1).size());
+        ScheduleChange move = recorded.get(1).get(0);
+        assertEquals(ScheduleChange.Type.MOVE, move.getType());
+        assertEquals(placements(entries), Collections.singleton(move.getTo()));
+    }
+
+    private static Set<Placement> placements(List<ScheduleEntry> entries) {
+        Set<Placement> placements = new HashSet<>();
+        for (ScheduleEntry entry : entries) {
+            placements.add(new Placement(entry));
+        }
+        return placements;
+    }
+
+}
@@ -0,0 +1,90 @@
+package berlin.reiche.virginia.scheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import berlin.reiche.virginia.InMemoryRepository;
+import berlin.reiche.virginia.MongoDB;
+import berlin.reiche.virginia.Repository;
+import berlin.reiche.virginia.model.Course;
+import berlin.reiche.virginia.model.CourseModule;
+import berlin.reiche.virginia.model.Room;
+import berlin.reiche.virginia.model.ScheduleEntry;
+import berlin.reiche.virginia.model.Timeframe;
+import berlin.reiche.virginia.model.User;
+
+public class ScheduleIndexTest {
+
+    Repository repository;
+    ScheduleIndex index;
+    Room seminarRoom;
+    Room lectureHall;
+    CourseModule module;
+
+    @Before
+    public void setUp() {
+
+        repository = MongoDB.getRepository();
+        MongoDB.setRepository(new InMemoryRepository());
+
+        Timeframe timeframe = new Timeframe(5, 12, 8, Arrays.asList("Monday",
+                "Tuesday", "Wednesday", "Thursday", "Friday"));
+        seminarRoom = new Room("SR 005", "Seminar Room");
+        lectureHall = new Room("HS 1", "Lecture Hall");
+        MongoDB.storeAll(Arrays.asList(seminarRoom, lectureHall));
+
+        module = new CourseModule("Algorithms", 8, "Exam", null);
+        Course lecture = new Course("Lecture", 2, 1);
+        Course tutorial = new Course("Tutorial", 1, 1);
+        lecture.setModule(module);
+        tutorial.setModule(module);
+        MongoDB.storeAll(Arrays.<Object> asList(module, lecture, tutorial));
+
+        User ada = new User("ada", "puwafu59", "Ada Lovelace",
+                "ada@lovelace.uk", false, true);
+        CourseSchedule schedule = new CourseSchedule(timeframe,
+                Arrays.asList(seminarRoom, lectureHall));
+        schedule.setCourse(tutorial, ada, seminarRoom, 1, 3);
+        schedule.setCourse(lecture, ada, lectureHall, 0, 4);
+        index = new ScheduleIndex(schedule);
+    }
+
+    @After
+    public void tearDown() {
+        MongoDB.setRepository(repository);
+    }
+
+    @Test
+    public void testQueries() {
+
+        List<ScheduleEntry> entries = index.getByLecturer("ada");
+        assertEquals(2, entries.size());
+        assertEquals(0, entries.get(0).getDay());
+
+        assertEquals(2, index.getByModule(module.getId()).size());
+        assertEquals(1, index.getByRoom(seminarRoom.getId().toString())
+                .size());
+        assertEquals(1, index.getByDay(1).size());
+        assertTrue(index.getByDay(4).isEmpty());
+        assertTrue(index.getByDay(9).isEmpty());
+        assertTrue(index.getByLecturer("charles").isEmpty());
+    }
+
+    @Test
+    public void testFreeRooms() {
+
+        assertEquals(Arrays.asList(seminarRoom), index.getFreeRooms(0, 4));
+        assertEquals(Arrays.asList(seminarRoom), index.getFreeRooms(0, 5));
+        assertEquals(2, index.getFreeRooms(0, 6).size());
+        assertEquals(Arrays.asList(lectureHall), index.getFreeRooms(1, 3));
+        assertTrue(index.getFreeRooms(7, 0).isEmpty());
+    }
+
+}
@@ -0,0 +1,83 @@
+package berlin.reiche.virginia.servlets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.Test;
+
+import berlin.reiche.virginia.servlets.AdmissionFilter.Rule;
+
+public class AdmissionFilterTest {
+
+    @Test
+    public void testParse() {
+
+        Properties properties = new Properties();
+        properties.setProperty("admission.rules", "solver, users");
+        properties.setProperty("admission.solver.routes",
+                "GET /scheduler/start");
+        properties.setProperty("admission.solver.userRate", "2");
+        properties.setProperty("admission.solver.concurrency", "1");
+        properties.setProperty("admission.users.routes",
+                "POST /users/new, POST /users/edit/{login:login}");
+        properties.setProperty("admission.users.routeRate", "10");
+
+        List<Rule> rules = AdmissionFilter.parse(properties);
+        assertEquals(2, rules.size());
+
+        Rule solver = rules.get(0);
+        assertEquals("solver", solver.name);
+        assertEquals(2, solver.userBurst);
+        assertEquals(1, solver.concurrency.availablePermits());
+        assertNull(solver.routeBucket);
+
+        Rule users = rules.get(1);
+        assertEquals(2, users.routes.length);
+        assertNull(users.concurrency);
+        assertEquals(0, users.acquireUser("ada", 0));
+
+        AdmissionFilter.getInstance().configure(properties);
+        AdmissionFilter.getInstance().configure(new Properties());
+    }
+
+    @Test
+    public void testAcquireUser() {
+
+        Rule rule = new Rule("solver", new String[0], 1, 1, 0, 0, 0);
+        assertEquals(0, rule.acquireUser("ada", 0));
+        assertTrue(rule.acquireUser("ada", 0) > 0);
+        assertEquals(0, rule.acquireUser("babbage", 0));
+        assertEquals(2, rule.getUserBuckets());
+        assertEquals(0, rule.acquireRoute(0));
+    }
+
+    @Test
+    public void testUserBucketsBounded() {
+
+        Rule rule = new Rule("solver", new String[0], 1, 1, 0, 0, 0);
+        assertEquals(0, rule.acquireUser("ada", 0));
+        assertEquals(0, rule.acquireUser("babbage", 0));
+        for (int i = 0; i < 9999; i++) {
+            // ada stays recently used, babbage is dropped
+            assertTrue(rule.acquireUser("ada", 0) > 0);
+            rule.acquireUser("user" + i, 0);
+        }
+        assertEquals(10000, rule.getUserBuckets());
+        assertTrue(rule.acquireUser("ada", 0) > 0);
+        assertEquals(0, rule.acquireUser("babbage", 0));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testMalformedRoute() {
+
+        Properties properties = new Properties();
+        properties.setProperty("admission.rules", "solver");
+        properties.setProperty("admission.solver.routes", "/scheduler/start");
+        AdmissionFilter.getInstance().configure(properties);
+    }
+
+}
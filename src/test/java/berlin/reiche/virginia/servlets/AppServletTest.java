@@ -1,8 +1,12 @@
 package berlin.reiche.virginia.servlets;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
+import java.io.IOException;
+
 import org.junit.Test;
 
 import berlin.reiche.virginia.servlets.AppServlet;
@@ -27,4 +31,16 @@ public class AppServletTest {
         assertTrue(AppServlet.configuration.getObjectWrapper() instanceof DefaultObjectWrapper);
     }
 
+    @Test
+    public void testProductionMode() throws IOException {
+
+        int templates = AppServlet.setProductionMode(true);
+        assertTrue(templates > 0);
+        assertTrue(AppServlet.isProductionMode());
+        assertEquals(templates, AppServlet.reloadTemplates());
+
+        assertEquals(0, AppServlet.setProductionMode(false));
+        assertFalse(AppServlet.isProductionMode());
+    }
+
 }
@@ -0,0 +1,38 @@
+package berlin.reiche.virginia.servlets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+public class DefaultDataTest {
+
+    @Test
+    public void testOverlay() {
+
+        Map<String, Object> defaults = new TreeMap<>();
+        defaults.put("bootstrap", "/bootstrap.css");
+        defaults.put("jquery", "/jquery.js");
+
+        Map<String, Object> data = new DefaultData.OverlayMap(defaults);
+        data.put("jquery", "/jquery.min.js");
+        data.put("rooms", "SR 005");
+
+        assertEquals("/jquery.min.js", data.get("jquery"));
+        assertEquals("/bootstrap.css", data.get("bootstrap"));
+        assertEquals("/jquery.js", defaults.get("jquery"));
+        assertEquals(2, defaults.size());
+        assertEquals(3, data.size());
+        assertTrue(data.containsKey("bootstrap"));
+
+        Map<String, Object> copy = new HashMap<>(data);
+        assertEquals(3, copy.size());
+        assertEquals("/jquery.min.js", copy.get("jquery"));
+        assertEquals("SR 005", copy.get("rooms"));
+    }
+
+}
@@ -0,0 +1,67 @@
+package berlin.reiche.virginia.servlets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.bson.types.ObjectId;
+import org.junit.Test;
+
+public class RouterTest {
+
+    Router<String> router = new Router<String>().add("", "list")
+            .add("/", "index").add("/new", "new")
+            .add("/edit/{id:objectId}", "edit")
+            .add("/users/{login:login}", "user")
+            .add("/users/new", "newUser")
+            .add("/days/{day:int}/slots/{slot:int}", "slot");
+
+    @Test
+    public void testLiterals() {
+
+        assertEquals("list", router.match((String) null).getTarget());
+        assertEquals("list", router.match("").getTarget());
+        assertEquals("index", router.match("/").getTarget());
+        assertEquals("new", router.match("/new").getTarget());
+        assertNull(router.match("/new/"));
+        assertNull(router.match("/edit"));
+        assertNull(router.match("new"));
+    }
+
+    @Test
+    public void testParameters() {
+
+        ObjectId id = new ObjectId();
+        Router.Match<String> match = router.match("/edit/" + id);
+        assertEquals("edit", match.getTarget());
+        assertEquals(id, match.getObjectId("id"));
+        assertEquals("/edit/{id}", match.getTemplate());
+        assertNull(router.match("/edit/"));
+        assertNull(router.match("/edit/" + id + "0"));
+        assertNull(router.match("/edit/xyz"));
+
+        match = router.match("/users/ada");
+        assertEquals("user", match.getTarget());
+        assertEquals("ada", match.getString("login"));
+        assertNull(router.match("/users/ad-a"));
+
+        // literals take precedence over parameters
+        assertEquals("newUser", router.match("/users/new").getTarget());
+
+        match = router.match("/days/2/slots/13");
+        assertEquals(2, match.getInt("day"));
+        assertEquals(13, match.getInt("slot"));
+        assertEquals("/days/{day}/slots/{slot}", match.getTemplate());
+        assertNull(router.match("/days/2/slots/1234567890"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testDuplicateRoute() {
+        router.add("/edit/{other:objectId}", "other");
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testUnknownType() {
+        router.add("/rooms/{id:room}", "room");
+    }
+
+}
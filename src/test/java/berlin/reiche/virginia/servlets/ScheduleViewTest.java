@@ -0,0 +1,54 @@
+package berlin.reiche.virginia.servlets;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+
+import org.bson.types.ObjectId;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import berlin.reiche.virginia.InMemoryRepository;
+import berlin.reiche.virginia.MongoDB;
+import berlin.reiche.virginia.Repository;
+
+public class ScheduleViewTest {
+
+    Repository repository;
+
+    @Before
+    public void setUp() {
+        repository = MongoDB.getRepository();
+        MongoDB.setRepository(new InMemoryRepository());
+        ScheduleView.invalidate();
+    }
+
+    @After
+    public void tearDown() {
+        MongoDB.setRepository(repository);
+        ScheduleView.invalidate();
+    }
+
+    @Test
+    public void testCaching() throws IOException {
+
+        ScheduleView view = ScheduleView.get();
+        assertFalse(view.hasSchedule());
+        assertSame(view, ScheduleView.get());
+
+        ScheduleView.invalidate();
+        ScheduleView rebuilt = ScheduleView.get();
+        assertNotSame(view, rebuilt);
+        assertFalse(view.getETag().equals(rebuilt.getETag()));
+    }
+
+    @Test
+    public void testUnknownRoom() throws IOException {
+        assertNull(ScheduleView.get().getRoomGrid(new ObjectId().toString()));
+    }
+
+}